@@ -0,0 +1,80 @@
+package sicxeassembler;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Parameters and fixtures shared by the stage benchmarks. Each benchmark runs against every
+ * combination of test program shape and input size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public abstract class BenchmarkInput {
+  @Param({"basic", "literals", "prog_blocks", "functions"})
+  public String shape;
+
+  @Param({"1000", "100000", "1000000"})
+  public int lines;
+
+  protected OpTable opTable;
+
+  protected List<String> source;
+
+  @Setup(Level.Trial)
+  public void generateSource() {
+    opTable = OpTable.loadFromResourceCsv("instructions.csv");
+    source = SyntheticSource.generate(shape, lines);
+  }
+
+  protected List<SourceLine> parse() throws ParseException {
+    List<SourceLine> parsed = new ArrayList<>(source.size());
+    for (String line : source) {
+      parsed.add(SourceLine.parseLine(line));
+    }
+    return parsed;
+  }
+
+  protected PassOne runPassOne(List<SourceLine> parsed) {
+    PassOne passOne = new PassOne(opTable, parsed);
+    passOne.process();
+    return passOne;
+  }
+
+  protected PassTwo makePassTwo(PassOne passOne) {
+    return new PassTwo(opTable, passOne);
+  }
+
+  /** Output generator that collects everything pass two produces. */
+  protected static class CollectingGenerator implements OutputGenerator {
+    final List<PassTwoData> output = new ArrayList<>();
+    String name;
+    int start;
+    int length;
+
+    @Override
+    public void initialize(String name, int start, int length) {
+      this.name = name;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public void accept(PassTwoData output) {
+      this.output.add(output);
+    }
+
+    @Override
+    public void addModificationRecord(int address, int size) {}
+
+    @Override
+    public void finalizeOutput() {}
+  }
+}
@@ -0,0 +1,32 @@
+package sicxeassembler;
+
+import java.io.OutputStream;
+import java.text.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import sicxeassembler.output.AssemblyListingGenerator;
+
+/** Measures {@link AssemblyListingGenerator} on the output of pass two. */
+public class ListingBenchmark extends BenchmarkInput {
+  private CollectingGenerator passTwoOutput;
+
+  @Setup(Level.Trial)
+  public void runPasses() throws ParseException {
+    PassTwo passTwo = makePassTwo(runPassOne(parse()));
+    passTwoOutput = new CollectingGenerator();
+    passTwo.addOutputGenerator(passTwoOutput);
+    passTwo.process();
+  }
+
+  @Benchmark
+  public void listing() {
+    AssemblyListingGenerator generator =
+        new AssemblyListingGenerator(OutputStream.nullOutputStream());
+    generator.initialize(passTwoOutput.name, passTwoOutput.start, passTwoOutput.length);
+    for (PassTwoData data : passTwoOutput.output) {
+      generator.accept(data);
+    }
+    generator.finalizeOutput();
+  }
+}
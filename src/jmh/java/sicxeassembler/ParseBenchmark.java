@@ -0,0 +1,15 @@
+package sicxeassembler;
+
+import java.text.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Measures {@link SourceLine#parseLine(String)} over a whole program. */
+public class ParseBenchmark extends BenchmarkInput {
+  @Benchmark
+  public void parse(Blackhole blackhole) throws ParseException {
+    for (String line : source) {
+      blackhole.consume(SourceLine.parseLine(line));
+    }
+  }
+}
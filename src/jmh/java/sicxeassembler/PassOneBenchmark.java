@@ -0,0 +1,22 @@
+package sicxeassembler;
+
+import java.text.ParseException;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+/** Measures {@link PassOne#process()} on already parsed lines. */
+public class PassOneBenchmark extends BenchmarkInput {
+  private List<SourceLine> parsed;
+
+  @Setup(Level.Trial)
+  public void parseSource() throws ParseException {
+    parsed = parse();
+  }
+
+  @Benchmark
+  public PassOne passOne() {
+    return runPassOne(parsed);
+  }
+}
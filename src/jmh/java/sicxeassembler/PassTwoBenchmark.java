@@ -0,0 +1,67 @@
+package sicxeassembler;
+
+import java.text.ParseException;
+import java.util.concurrent.ForkJoinPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Measures {@link PassTwo#process()} and {@link ParallelPassTwo#process()} from the results of pass
+ * one.
+ */
+public class PassTwoBenchmark extends BenchmarkInput {
+  private PassOne passOne;
+
+  @Setup(Level.Trial)
+  public void runPassOne() throws ParseException {
+    passOne = runPassOne(parse());
+  }
+
+  @Benchmark
+  public void passTwo(Blackhole blackhole) {
+    run(makePassTwo(passOne), blackhole);
+  }
+
+  @Benchmark
+  public void parallelPassTwo(Blackhole blackhole) {
+    run(new ParallelPassTwo(opTable, passOne, ForkJoinPool.commonPool()), blackhole);
+  }
+
+  private static void run(PassTwo passTwo, Blackhole blackhole) {
+    passTwo.addOutputGenerator(
+        new OutputGenerator() {
+          @Override
+          public void initialize(String name, int start, int length) {}
+
+          @Override
+          public void accept(PassTwoData output) {
+            blackhole.consume(output);
+          }
+
+          @Override
+          public void accept(
+              SourceLine line,
+              int size,
+              int block,
+              int address,
+              boolean isExecutableInstruction,
+              long instruction,
+              ConstantBytes data) {
+            blackhole.consume(line);
+            blackhole.consume(address);
+            blackhole.consume(instruction);
+            blackhole.consume(data);
+          }
+
+          @Override
+          public void addModificationRecord(int address, int size) {}
+
+          @Override
+          public void finalizeOutput() {}
+        });
+    passTwo.process();
+  }
+}
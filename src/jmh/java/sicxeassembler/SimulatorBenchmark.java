@@ -0,0 +1,65 @@
+package sicxeassembler;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures {@link Simulator#run(long)} on a loop that copies and sums a table, with and without the
+ * decode cache. Scores are in nanoseconds per simulated instruction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1)
+public class SimulatorBenchmark {
+  private static final int INSTRUCTIONS = 10_000_000;
+
+  private static final String PROGRAM =
+      String.join(
+          "\n",
+          "BENCH\tSTART\t0",
+          "OUTER\tCLEAR\tX",
+          "INNER\tLDA\tTABLE,X",
+          "\tSTA\tCOPY,X",
+          "\tLDA\tSUM",
+          "\tADD\tTABLE,X",
+          "\tSTA\tSUM",
+          "\tRMO\tX,A",
+          "\tADD\t#3",
+          "\tRMO\tA,X",
+          "\tCOMP\t#300",
+          "\tJLT\tINNER",
+          "\tJ\tOUTER",
+          "SUM\tRESW\t1",
+          "TABLE\tRESW\t100",
+          "COPY\tRESW\t100",
+          "\tEND\tOUTER",
+          "");
+
+  @Param({"true", "false"})
+  public boolean decodeCache;
+
+  private Simulator simulator;
+
+  @Setup(Level.Trial)
+  public void load() {
+    OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+    simulator = new Simulator(opTable);
+    simulator.setDecodeCacheEnabled(decodeCache);
+    PassOne passOne =
+        new PassOne(opTable, new SourceReader(new StringReader(PROGRAM), opTable, null));
+    passOne.process();
+    PassTwo passTwo = new PassTwo(opTable, passOne);
+    passTwo.addOutputGenerator(simulator.loader());
+    passTwo.process();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(INSTRUCTIONS)
+  public long run() {
+    return simulator.run(INSTRUCTIONS);
+  }
+}
@@ -0,0 +1,153 @@
+package sicxeassembler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates large benchmark inputs by repeating the body of one of the programs in {@code
+ * test-programs/programs}. Each repetition renames the labels it defines so the result still
+ * assembles.
+ */
+final class SyntheticSource {
+  private static final Pattern SYMBOL = Pattern.compile("[A-Za-z][A-Za-z0-9]*");
+
+  private SyntheticSource() {}
+
+  /**
+   * Generates a program of roughly the given number of lines. Whole repetitions of the shape's body
+   * are emitted, so the result may be slightly longer than requested.
+   *
+   * @param shape name of the test program, e.g. "basic"
+   * @param lineCount number of lines to generate
+   * @return the lines of the program
+   */
+  static List<String> generate(String shape, int lineCount) {
+    List<String> program = readShape(shape);
+    String start = program.get(0);
+    String end = program.get(program.size() - 1);
+    List<SourceLine> body = new ArrayList<>();
+    Set<String> labels = new HashSet<>();
+    for (String text : program.subList(1, program.size() - 1)) {
+      SourceLine line = parse(text);
+      body.add(line);
+      if (!line.getLabel().isEmpty()) {
+        labels.add(line.getLabel());
+      }
+    }
+
+    List<String> result = new ArrayList<>(lineCount + body.size());
+    result.add(start);
+    for (int rep = 0; result.size() < lineCount - 1; rep++) {
+      for (SourceLine line : body) {
+        result.add(rewrite(line, labels, rep));
+      }
+    }
+    result.add(end);
+    return result;
+  }
+
+  /**
+   * Renames the labels in a line for the given repetition. Instructions that refer to labels or
+   * literals are switched to extended format, since literal pools and other program blocks end up
+   * too far away for a 12-bit displacement.
+   */
+  private static String rewrite(SourceLine line, Set<String> labels, int rep) {
+    if (line.isCommentOrBlank()) {
+      return line.getOriginalSource();
+    }
+    String suffix = rep == 0 ? "" : Integer.toString(rep);
+    String label = labels.contains(line.getLabel()) ? line.getLabel() + suffix : line.getLabel();
+    String argOne = renameSymbols(line.getArgOne(), labels, suffix);
+    String opCodePrefix = line.getOpCodePrefix();
+    boolean refersToAddress =
+        line.getArgOnePrefix().equals("=") || refersToLabel(line.getArgOne(), labels);
+    if (refersToAddress && opCodePrefix.isEmpty() && !isDirective(line.getOpCode())) {
+      opCodePrefix = "+";
+    }
+    StringBuilder builder = new StringBuilder();
+    builder.append(label).append('\t').append(opCodePrefix).append(line.getOpCode());
+    builder.append('\t').append(line.getArgOnePrefix()).append(argOne);
+    if (!line.getArgTwo().isEmpty()) {
+      builder.append(',').append(renameSymbols(line.getArgTwo(), labels, suffix));
+    }
+    if (!line.getComment().isEmpty()) {
+      builder.append("\t.").append(line.getComment());
+    }
+    return builder.toString();
+  }
+
+  private static boolean refersToLabel(String arg, Set<String> labels) {
+    if (arg.indexOf('\'') >= 0) {
+      return false;
+    }
+    Matcher matcher = SYMBOL.matcher(arg);
+    while (matcher.find()) {
+      if (labels.contains(matcher.group())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isDirective(String opCode) {
+    for (Directive directive : Directive.values()) {
+      if (directive.name().equals(opCode)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String renameSymbols(String arg, Set<String> labels, String suffix) {
+    // Leave constants such as C'EOF' alone
+    if (arg.indexOf('\'') >= 0) {
+      return arg;
+    }
+    Matcher matcher = SYMBOL.matcher(arg);
+    StringBuilder builder = new StringBuilder();
+    while (matcher.find()) {
+      String symbol = matcher.group();
+      matcher.appendReplacement(builder, labels.contains(symbol) ? symbol + suffix : symbol);
+    }
+    matcher.appendTail(builder);
+    return builder.toString();
+  }
+
+  private static SourceLine parse(String text) {
+    try {
+      return SourceLine.parseLine(text);
+    } catch (ParseException e) {
+      throw new IllegalArgumentException("Test program does not parse: " + text, e);
+    }
+  }
+
+  private static List<String> readShape(String shape) {
+    String resource = shape + ".txt";
+    try (InputStream instream =
+        SyntheticSource.class.getClassLoader().getResourceAsStream(resource)) {
+      if (instream == null) {
+        throw new IOException("Could not open " + resource + " from resources!");
+      }
+      List<String> lines = new ArrayList<>();
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(instream, StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (!line.isBlank()) {
+            lines.add(line);
+          }
+        }
+      }
+      return lines;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,454 @@
+package sicxeassembler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.errors.ErrorUtils;
+import sicxeassembler.output.AssemblyListingGenerator;
+import sicxeassembler.output.ObjectProgramGenerator;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Assembles a single source file. Each call to {@link #assemble(Path, Path)} runs its own {@link
+ * PassOne} and {@link PassTwo}, and only the {@link OpTable} and {@link AssemblyCache} are shared,
+ * so one Assembler can be used from several threads at once.
+ */
+public class Assembler {
+  private final OpTable opTable;
+
+  /** Cache of earlier outputs, or null. */
+  private final AssemblyCache cache;
+
+  /** Whether to collect {@link AssemblyStats} even when JFR is not recording them. */
+  private final boolean collectStats;
+
+  private final Mode mode;
+
+  /** How an assembler runs the passes. */
+  public enum Mode {
+    /** Pass one over the whole program, then pass two. */
+    TWO_PASS,
+    /** Both passes, with parsing and writing outputs on threads of their own. */
+    PIPELINED,
+    /**
+     * One pass with {@link SinglePassAssembler}, which writes the object program but no listing.
+     */
+    SINGLE_PASS
+  }
+
+  /**
+   * Outcome of assembling one file
+   *
+   * @param source the source file
+   * @param diagnostics formatted errors, in the order they were found
+   * @param succeeded whether the output files were written
+   * @param stats timing and allocation counters, or null if they were not collected
+   */
+  public record Result(
+      Path source, List<String> diagnostics, boolean succeeded, AssemblyStats stats) {
+    public Result(Path source, List<String> diagnostics, boolean succeeded) {
+      this(source, diagnostics, succeeded, null);
+    }
+  }
+
+  /**
+   * Outcome of assembling source text in memory
+   *
+   * @param diagnostics formatted errors, in the order they were found
+   * @param succeeded whether the program assembled
+   * @param listing the assembly listing
+   * @param objectProgram the object program
+   */
+  public record Output(
+      List<String> diagnostics, boolean succeeded, byte[] listing, byte[] objectProgram) {}
+
+  public Assembler(OpTable opTable) {
+    this(opTable, null);
+  }
+
+  /**
+   * Creates an assembler that reuses the outputs of sources it has assembled before.
+   *
+   * @param opTable the operation table
+   * @param cache the cache, or null to always assemble
+   */
+  public Assembler(OpTable opTable, AssemblyCache cache) {
+    this(opTable, cache, false);
+  }
+
+  /**
+   * Creates an assembler that can report how long each stage took.
+   *
+   * @param opTable the operation table
+   * @param cache the cache, or null to always assemble
+   * @param collectStats whether to put {@link AssemblyStats} in every result
+   */
+  public Assembler(OpTable opTable, AssemblyCache cache, boolean collectStats) {
+    this(opTable, cache, collectStats, Mode.TWO_PASS);
+  }
+
+  /**
+   * Creates an assembler that runs its stages in the given mode.
+   *
+   * <p>When pipelined, a {@link PipelinedSourceReader} parses ahead of pass one and a {@link
+   * QueuedOutputGenerator} writes the outputs behind pass two. Pass two still starts only once pass
+   * one has finished, as forward references need the whole symbol table. The stats then show each
+   * stage's own time, which overlaps the others and includes time spent waiting on them.
+   *
+   * <p>In a single pass, source lines are not kept, so only the object program is written, and the
+   * cache is not used. All the time is counted as pass one.
+   *
+   * @param opTable the operation table
+   * @param cache the cache, or null to always assemble
+   * @param collectStats whether to put {@link AssemblyStats} in every result
+   * @param mode how to run the passes
+   */
+  public Assembler(OpTable opTable, AssemblyCache cache, boolean collectStats, Mode mode) {
+    this.opTable = opTable;
+    this.cache = cache;
+    this.collectStats = collectStats;
+    this.mode = mode;
+  }
+
+  /**
+   * Assembles a source file. Errors are collected in the result rather than printed. If the cache
+   * holds the outputs of the same source, they are copied instead and neither pass is run.
+   *
+   * @param source the source file
+   * @param outputDirectory directory to write the listing and object program to
+   * @return the result
+   */
+  public Result assemble(Path source, Path outputDirectory) {
+    String fileName = source.getFileName().toString();
+    List<String> diagnostics = new ArrayList<>();
+    Path listing = outputDirectory.resolve(baseName(source) + "_sol.txt");
+    Path objectProgram = outputDirectory.resolve(baseName(source) + "_obj.txt");
+    AssemblyStats stats =
+        collectStats || AssemblyStats.isRecording() ? new AssemblyStats(fileName) : null;
+    String key = null;
+    if (cache != null && mode != Mode.SINGLE_PASS) {
+      try {
+        long time = System.nanoTime();
+        key = cache.key(source);
+        if (cache.restore(key, listing, objectProgram)) {
+          if (stats != null) {
+            stats.setCached(true);
+            stats.add(AssemblyStats.Stage.OUTPUT, System.nanoTime() - time, 0);
+            stats.commitEvents();
+          }
+          return new Result(source, diagnostics, true, stats);
+        }
+      } catch (IOException e) {
+        // Treated as a miss. If the source can't be read, assembling it reports why.
+      }
+    }
+    boolean succeeded;
+    SourceReader.ErrorHandler errorHandler = errorHandler(fileName, diagnostics);
+    try (var files = new OutputFiles()) {
+      OutputSetup outputs =
+          add -> {
+            add.accept(new AssemblyListingGenerator(Channels.newOutputStream(files.open(listing))));
+            add.accept(new ObjectProgramGenerator(files.open(objectProgram)));
+          };
+      if (mode == Mode.SINGLE_PASS) {
+        try (SourceReader reader = SourceReader.open(source, opTable, errorHandler)) {
+          reader.setStats(stats);
+          succeeded =
+              runSinglePass(
+                  fileName,
+                  reader,
+                  diagnostics,
+                  stats,
+                  add -> add.accept(new ObjectProgramGenerator(files.open(objectProgram))));
+        }
+      } else if (mode == Mode.PIPELINED) {
+        try (PipelinedSourceReader reader =
+            PipelinedSourceReader.open(source, opTable, errorHandler)) {
+          reader.setStats(stats);
+          succeeded = run(fileName, reader, diagnostics, stats, outputs);
+        }
+      } else if (Files.size(source) > ParallelSourceParser.DEFAULT_CHUNK_BYTES) {
+        long time = System.nanoTime();
+        long bytes = stats != null ? AssemblyStats.allocatedBytes() : 0;
+        List<SourceLine> lines =
+            new ParallelSourceParser(opTable, ForkJoinPool.commonPool())
+                .parse(source, errorHandler);
+        if (stats != null) {
+          stats.add(
+              AssemblyStats.Stage.PARSE,
+              System.nanoTime() - time,
+              AssemblyStats.allocatedBytes() - bytes);
+          stats.addLines(AssemblyStats.Stage.PARSE, lines.size());
+        }
+        succeeded = run(fileName, lines.iterator(), diagnostics, stats, outputs);
+      } else {
+        try (SourceReader reader = SourceReader.open(source, opTable, errorHandler)) {
+          reader.setStats(stats);
+          succeeded = run(fileName, reader, diagnostics, stats, outputs);
+        }
+      }
+      if (succeeded) {
+        files.keep();
+      }
+    } catch (IOException e) {
+      diagnostics.add(fileName + ":error: " + e.getMessage());
+      return new Result(source, diagnostics, false);
+    } catch (UncheckedIOException e) {
+      // Reading failed part way through
+      diagnostics.add(fileName + ":error: " + e.getCause().getMessage());
+      return new Result(source, diagnostics, false);
+    }
+    // Lines that failed to parse are skipped, so only clean output is worth keeping
+    if (succeeded && key != null && diagnostics.isEmpty()) {
+      try {
+        cache.store(key, listing, objectProgram);
+      } catch (IOException e) {
+        // The outputs are written, and the next run will try to cache them again
+      }
+    }
+    return new Result(source, diagnostics, succeeded, stats);
+  }
+
+  /**
+   * Assembles source text, keeping the outputs in memory.
+   *
+   * @param fileName name of the source, used in diagnostics
+   * @param source the source text
+   * @return the outputs, which are empty if assembly failed
+   */
+  public Output assemble(String fileName, Reader source) {
+    List<String> diagnostics = new ArrayList<>();
+    var listing = new ByteArrayOutputStream();
+    var objectProgram = new ByteArrayOutputStream();
+    boolean succeeded;
+    try (SourceReader reader =
+        new SourceReader(source, opTable, errorHandler(fileName, diagnostics))) {
+      succeeded =
+          run(
+              fileName,
+              reader,
+              diagnostics,
+              null,
+              add -> {
+                add.accept(new AssemblyListingGenerator(listing));
+                add.accept(new ObjectProgramGenerator(Channels.newChannel(objectProgram)));
+              });
+    } catch (IOException e) {
+      diagnostics.add(fileName + ":error: " + e.getMessage());
+      succeeded = false;
+    } catch (UncheckedIOException e) {
+      diagnostics.add(fileName + ":error: " + e.getCause().getMessage());
+      succeeded = false;
+    }
+    if (!succeeded) {
+      return new Output(diagnostics, false, new byte[0], new byte[0]);
+    }
+    return new Output(diagnostics, true, listing.toByteArray(), objectProgram.toByteArray());
+  }
+
+  /**
+   * Output files written by one assembly. They are closed when it ends, since the generators only
+   * close what they opened themselves, and deleted unless the assembly succeeded, so a failed run
+   * leaves neither open files nor partial outputs behind.
+   */
+  private static class OutputFiles implements Closeable {
+    private final List<Path> paths = new ArrayList<>();
+    private final List<FileChannel> channels = new ArrayList<>();
+    private boolean kept = false;
+
+    FileChannel open(Path path) throws IOException {
+      FileChannel channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+      paths.add(path);
+      channels.add(channel);
+      return channel;
+    }
+
+    /** Keeps the files once they are complete. */
+    void keep() {
+      kept = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException failure = null;
+      for (var channel : channels) {
+        try {
+          channel.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      if (!kept || failure != null) {
+        for (var path : paths) {
+          Files.deleteIfExists(path);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /** Creates the output generators. */
+  @FunctionalInterface
+  private interface OutputSetup {
+    void addOutputs(Consumer<OutputGenerator> add) throws IOException;
+  }
+
+  /**
+   * Runs both passes over a source.
+   *
+   * @param stats stats to fill in, or null
+   * @return whether the outputs were written
+   */
+  private boolean run(
+      String fileName,
+      Iterator<SourceLine> lines,
+      List<String> diagnostics,
+      AssemblyStats stats,
+      OutputSetup outputs) {
+    try {
+      long time = System.nanoTime();
+      long bytes = stats != null ? AssemblyStats.allocatedBytes() : 0;
+      long parseTime = stats != null ? stats.nanos(AssemblyStats.Stage.PARSE) : 0;
+      long parseBytes = stats != null ? stats.allocated(AssemblyStats.Stage.PARSE) : 0;
+      var sections =
+          new ControlSectionAssembler(
+              opTable, new MacroProcessor(opTable, lines), ForkJoinPool.commonPool());
+      sections.processPassOne();
+      if (stats != null) {
+        // A SourceReader parses as pass one pulls lines, and that is counted separately
+        stats.add(
+            AssemblyStats.Stage.PASS_ONE,
+            System.nanoTime() - time - (stats.nanos(AssemblyStats.Stage.PARSE) - parseTime),
+            AssemblyStats.allocatedBytes()
+                - bytes
+                - (stats.allocated(AssemblyStats.Stage.PARSE) - parseBytes));
+      }
+      List<OutputGenerator> generators = new ArrayList<>();
+      outputs.addOutputs(
+          generator -> generators.add(stats != null ? stats.timed(generator) : generator));
+      QueuedOutputGenerator queued = null;
+      if (mode == Mode.PIPELINED) {
+        queued = new QueuedOutputGenerator(generators, QueuedOutputGenerator.DEFAULT_CAPACITY);
+        sections.addOutputGenerator(queued);
+      } else {
+        generators.forEach(sections::addOutputGenerator);
+      }
+      time = System.nanoTime();
+      bytes = stats != null ? AssemblyStats.allocatedBytes() : 0;
+      try {
+        sections.processPassTwo();
+      } finally {
+        if (queued != null) {
+          queued.close();
+        }
+      }
+      if (stats != null) {
+        // Output on its own thread overlaps pass two rather than being part of it
+        boolean overlapped = mode == Mode.PIPELINED;
+        long outputTime = overlapped ? 0 : stats.nanos(AssemblyStats.Stage.OUTPUT);
+        long outputBytes = overlapped ? 0 : stats.allocated(AssemblyStats.Stage.OUTPUT);
+        stats.add(
+            AssemblyStats.Stage.PASS_TWO,
+            System.nanoTime() - time - outputTime,
+            AssemblyStats.allocatedBytes() - bytes - outputBytes);
+        int count = 0;
+        for (var passOne : sections.getPassOnes()) {
+          count += passOne.getOutput().size();
+        }
+        stats.addLines(AssemblyStats.Stage.PASS_ONE, count);
+        stats.addLines(AssemblyStats.Stage.PASS_TWO, count);
+        stats.addLines(AssemblyStats.Stage.OUTPUT, count);
+        stats.finish(sections.getPassOnes());
+        stats.commitEvents();
+      }
+      return true;
+    } catch (AssemblerException e) {
+      diagnostics.add(ErrorUtils.format(fileName, e));
+    } catch (IOException e) {
+      diagnostics.add(fileName + ":error: " + e.getMessage());
+    }
+    return false;
+  }
+
+  /**
+   * Assembles a source in one pass.
+   *
+   * @param stats stats to fill in, or null
+   * @return whether the outputs were written
+   */
+  private boolean runSinglePass(
+      String fileName,
+      Iterator<SourceLine> lines,
+      List<String> diagnostics,
+      AssemblyStats stats,
+      OutputSetup outputs) {
+    try {
+      long time = System.nanoTime();
+      long bytes = stats != null ? AssemblyStats.allocatedBytes() : 0;
+      long parseTime = stats != null ? stats.nanos(AssemblyStats.Stage.PARSE) : 0;
+      long parseBytes = stats != null ? stats.allocated(AssemblyStats.Stage.PARSE) : 0;
+      var assembler = new SinglePassAssembler(opTable, new MacroProcessor(opTable, lines));
+      outputs.addOutputs(
+          generator ->
+              assembler.addOutputGenerator(stats != null ? stats.timed(generator) : generator));
+      assembler.process();
+      if (stats != null) {
+        stats.add(
+            AssemblyStats.Stage.PASS_ONE,
+            System.nanoTime()
+                - time
+                - (stats.nanos(AssemblyStats.Stage.PARSE) - parseTime)
+                - stats.nanos(AssemblyStats.Stage.OUTPUT),
+            AssemblyStats.allocatedBytes()
+                - bytes
+                - (stats.allocated(AssemblyStats.Stage.PARSE) - parseBytes)
+                - stats.allocated(AssemblyStats.Stage.OUTPUT));
+        int count = assembler.getPassOne().getLineCount();
+        stats.addLines(AssemblyStats.Stage.PASS_ONE, count);
+        stats.addLines(AssemblyStats.Stage.OUTPUT, count);
+        stats.finish(assembler.getPassOne());
+        stats.commitEvents();
+      }
+      return true;
+    } catch (AssemblerException e) {
+      diagnostics.add(ErrorUtils.format(fileName, e));
+    } catch (IOException e) {
+      diagnostics.add(fileName + ":error: " + e.getMessage());
+    }
+    return false;
+  }
+
+  private static SourceReader.ErrorHandler errorHandler(String fileName, List<String> diagnostics) {
+    return (lineNum, line, e) -> diagnostics.add(ErrorUtils.format(fileName, lineNum, line, e));
+  }
+
+  /**
+   * Gets the name output files are based on: the file name up to the first '.'.
+   *
+   * @param source the source file
+   * @return the base name
+   */
+  public static String baseName(Path source) {
+    return source.getFileName().toString().split("\\.")[0];
+  }
+}
@@ -0,0 +1,122 @@
+package sicxeassembler;
+
+import static java.lang.System.exit;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends sources to an {@link AssemblerDaemon} and writes back the outputs, like {@link Main} does.
+ * The client only loads this class and the protocol, so it starts quickly and leaves the work to
+ * the warm daemon. Every source goes over one connection.
+ */
+public class AssemblerClient implements Closeable {
+  public static final String USAGE =
+      """
+      Usage: sic-xe-client SOCKET [--output-dir DIR] INPUT...
+      Sends each INPUT to the daemon started with sic-xe-assembler --daemon SOCKET.
+      An INPUT of - reads the source from standard input and names the outputs stdin_*.txt.""";
+
+  private final SocketChannel channel;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  /**
+   * Connects to a daemon.
+   *
+   * @param socket path of the daemon's socket
+   * @throws IOException if the daemon is not listening
+   */
+  public AssemblerClient(Path socket) throws IOException {
+    channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    channel.connect(UnixDomainSocketAddress.of(socket));
+    in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+  }
+
+  /**
+   * Has the daemon assemble a file it can read.
+   *
+   * @param source the source file
+   * @return the outputs and diagnostics
+   * @throws IOException if the connection failed
+   */
+  public Assembler.Output assemble(Path source) throws IOException {
+    out.writeInt(DaemonProtocol.MAGIC);
+    out.writeByte(DaemonProtocol.PATH);
+    DaemonProtocol.writeString(out, source.getFileName().toString());
+    DaemonProtocol.writeString(out, source.toAbsolutePath().toString());
+    out.flush();
+    return DaemonProtocol.readResponse(in);
+  }
+
+  /**
+   * Has the daemon assemble source text.
+   *
+   * @param name name of the source, used in diagnostics
+   * @param source the source text, in UTF-8
+   * @return the outputs and diagnostics
+   * @throws IOException if the connection failed
+   */
+  public Assembler.Output assemble(String name, byte[] source) throws IOException {
+    out.writeInt(DaemonProtocol.MAGIC);
+    out.writeByte(DaemonProtocol.SOURCE);
+    DaemonProtocol.writeString(out, name);
+    DaemonProtocol.writeBytes(out, source);
+    out.flush();
+    return DaemonProtocol.readResponse(in);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path outputDirectory = Path.of("");
+    List<String> inputs = new ArrayList<>();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--output-dir") && i + 1 < args.length) {
+        outputDirectory = Path.of(args[++i]);
+      } else {
+        inputs.add(args[i]);
+      }
+    }
+    if (inputs.isEmpty()) {
+      System.err.println(USAGE);
+      exit(1);
+    }
+    boolean succeeded = true;
+    try (var client = new AssemblerClient(Path.of(args[0]))) {
+      for (String input : inputs) {
+        Assembler.Output output;
+        String baseName;
+        if (input.equals("-")) {
+          output = client.assemble("stdin", System.in.readAllBytes());
+          baseName = "stdin";
+        } else {
+          Path source = Path.of(input);
+          output = client.assemble(source);
+          baseName = Assembler.baseName(source);
+        }
+        output.diagnostics().forEach(System.err::println);
+        if (output.succeeded()) {
+          Files.write(outputDirectory.resolve(baseName + "_sol.txt"), output.listing());
+          Files.write(outputDirectory.resolve(baseName + "_obj.txt"), output.objectProgram());
+        } else {
+          succeeded = false;
+        }
+      }
+    }
+    if (!succeeded) {
+      exit(1);
+    }
+  }
+}
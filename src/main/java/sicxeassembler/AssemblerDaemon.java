@@ -0,0 +1,146 @@
+package sicxeassembler;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves assembly requests over a Unix domain socket, so a build pays for JVM startup, JIT warm-up
+ * and loading the {@link OpTable} once rather than for every file. See {@link DaemonProtocol} for
+ * the messages and {@link AssemblerClient} for the other end.
+ *
+ * <p>Each connection is handled on its own thread, and one {@link Assembler} is shared by all of
+ * them.
+ */
+public class AssemblerDaemon implements Closeable {
+  private final Assembler assembler;
+  private final Path socket;
+  private final ServerSocketChannel server;
+  private final ExecutorService connections =
+      Executors.newCachedThreadPool(
+          task -> {
+            Thread thread = new Thread(task, "assembler-connection");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Listens on a socket. A file left at the path by a daemon that did not shut down cleanly is
+   * replaced, but a daemon still listening there is left alone.
+   *
+   * @param opTable the operation table
+   * @param socket path of the socket
+   * @throws IOException if a daemon is already running on the socket, or it could not be bound
+   */
+  public AssemblerDaemon(OpTable opTable, Path socket) throws IOException {
+    this.assembler = new Assembler(opTable);
+    this.socket = socket;
+    if (Files.exists(socket)) {
+      boolean running;
+      try {
+        SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+        running = true;
+      } catch (ConnectException e) {
+        running = false;
+      }
+      if (running) {
+        throw new IOException("An assembler daemon is already running on " + socket);
+      }
+      // Nothing is listening, so the file is stale
+      Files.deleteIfExists(socket);
+    }
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(socket));
+  }
+
+  /** Accepts connections until the daemon is closed. */
+  public void serve() throws IOException {
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (AsynchronousCloseException e) {
+        return;
+      }
+      connections.execute(() -> handle(channel));
+    }
+  }
+
+  /** Stops accepting connections, drops the open ones and removes the socket file. */
+  @Override
+  public void close() throws IOException {
+    server.close();
+    connections.shutdownNow();
+    Files.deleteIfExists(socket);
+  }
+
+  private void handle(SocketChannel channel) {
+    try (channel;
+        var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        var out =
+            new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+      while (true) {
+        int magic;
+        try {
+          magic = in.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        if (magic != DaemonProtocol.MAGIC) {
+          // Not a client of this version, and there is no way to find the next request
+          return;
+        }
+        DaemonProtocol.writeResponse(out, assemble(in));
+      }
+    } catch (IOException e) {
+      // The client went away. Nothing else depends on this connection.
+    }
+  }
+
+  /**
+   * Reads a request and assembles it. Anything that goes wrong while assembling is reported to the
+   * client as a diagnostic, so the connection can still be used for the next request.
+   */
+  private Assembler.Output assemble(DataInputStream in) throws IOException {
+    byte kind = in.readByte();
+    String name = DaemonProtocol.readString(in);
+    if (kind == DaemonProtocol.SOURCE) {
+      byte[] source = DaemonProtocol.readBytes(in);
+      return assemble(
+          name, new InputStreamReader(new ByteArrayInputStream(source), SourceReader.newDecoder()));
+    }
+    if (kind != DaemonProtocol.PATH) {
+      throw new IOException("Unknown request kind: " + kind);
+    }
+    Path path = Path.of(DaemonProtocol.readString(in));
+    Reader reader;
+    try {
+      reader = SourceReader.openReader(path);
+    } catch (IOException e) {
+      return failed(name + ":error: " + e.getMessage());
+    }
+    return assemble(name, reader);
+  }
+
+  private Assembler.Output assemble(String name, Reader reader) {
+    try {
+      return assembler.assemble(name, reader);
+    } catch (RuntimeException e) {
+      return failed(name + ":error: Could not assemble: " + e);
+    }
+  }
+
+  private static Assembler.Output failed(String diagnostic) {
+    return new Assembler.Output(List.of(diagnostic), false, new byte[0], new byte[0]);
+  }
+}
@@ -0,0 +1,303 @@
+package sicxeassembler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of assembled programs. Each entry holds the listing and object program of one
+ * source file and is named by the SHA-256 hash of the assembler version, the instruction table and
+ * the source, so an entry can only be found again by assembling exactly the same input.
+ *
+ * <p>Entries are single binary files:
+ *
+ * <pre>
+ * int  magic ("SXAC")
+ * int  format version
+ * long listing length
+ * long object program length
+ * byte listing[], object program[]
+ * </pre>
+ *
+ * Hits are copied to the output files straight from a memory mapping of the entry. Using an entry
+ * updates its modification time, and once the entries take more than the size limit the least
+ * recently used are deleted. Several assemblers, even in different processes, can share a
+ * directory: entries are written to a temporary file and moved into place.
+ *
+ * <p>To keep storing cheap, the directory is only listed on the first store. From then on the cache
+ * tracks the entries it has seen in memory, so eviction across processes is best effort: entries
+ * that another process writes later are not counted until the next run, and the directory may go
+ * over the limit by that much in the meantime.
+ */
+public class AssemblyCache {
+  /** Default size limit, in bytes. */
+  public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+  private static final int MAGIC = 0x53584143;
+  private static final int FORMAT = 1;
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+  private static final String SUFFIX = ".bin";
+
+  private final Path directory;
+  private final long maxBytes;
+
+  /** Digest of everything but the source, cloned for each key. */
+  private final MessageDigest prefix;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Size of each entry by file name, least recently used first, or null until the first store.
+   * Guarded by this.
+   */
+  private LinkedHashMap<String, Long> entries;
+
+  private long totalBytes;
+
+  /**
+   * Hit and miss counters
+   *
+   * @param hits lookups that found an entry
+   * @param misses lookups that did not
+   */
+  public record Stats(long hits, long misses) {}
+
+  /**
+   * Opens a cache directory, creating it if needed.
+   *
+   * @param directory the directory
+   * @param maxBytes most bytes the entries may take
+   * @param instructionTable contents of the instruction table the assembler uses
+   * @throws IOException if the directory could not be created
+   */
+  public AssemblyCache(Path directory, long maxBytes, byte[] instructionTable) throws IOException {
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    try {
+      prefix = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+    prefix.update(version().getBytes());
+    prefix.update((byte) 0);
+    prefix.update(instructionTable);
+    prefix.update((byte) 0);
+  }
+
+  /**
+   * Opens a cache for an assembler using an instruction table from the resources.
+   *
+   * @param directory the cache directory
+   * @param maxBytes most bytes the entries may take
+   * @param resource the instruction table resource, as given to {@link
+   *     OpTable#loadFromResourceCsv(String)}
+   * @return the cache
+   * @throws IOException if the resource could not be read or the directory created
+   */
+  public static AssemblyCache open(Path directory, long maxBytes, String resource)
+      throws IOException {
+    try (InputStream in = AssemblyCache.class.getClassLoader().getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IOException("Could not open " + resource + " from resources!");
+      }
+      return new AssemblyCache(directory, maxBytes, in.readAllBytes());
+    }
+  }
+
+  /**
+   * Gets the version that goes into every key, so that upgrading the assembler never reuses output
+   * from an older one.
+   */
+  static String version() {
+    String version = AssemblyCache.class.getPackage().getImplementationVersion();
+    return (version != null ? version : "development") + "/" + FORMAT;
+  }
+
+  /**
+   * Works out the key of a source file.
+   *
+   * @param source the source file
+   * @return the key, as hex
+   * @throws IOException if the source could not be read
+   */
+  public String key(Path source) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = (MessageDigest) prefix.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(e);
+    }
+    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  /**
+   * Writes the outputs cached under a key, if there are any.
+   *
+   * @param key the key
+   * @param listing file to write the listing to
+   * @param objectProgram file to write the object program to
+   * @return true on a hit; on a miss nothing is written
+   * @throws IOException if the outputs could not be written
+   */
+  public boolean restore(String key, Path listing, Path objectProgram) throws IOException {
+    Path entry = entry(key);
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (NoSuchFileException e) {
+      misses.incrementAndGet();
+      return false;
+    }
+    if (mapped.capacity() < HEADER_BYTES
+        || mapped.getInt(0) != MAGIC
+        || mapped.getInt(4) != FORMAT
+        || HEADER_BYTES + mapped.getLong(8) + mapped.getLong(16) != mapped.capacity()) {
+      // Written by another version, or damaged. The next store replaces it.
+      misses.incrementAndGet();
+      return false;
+    }
+    int listingLength = (int) mapped.getLong(8);
+    write(listing, mapped.slice(HEADER_BYTES, listingLength));
+    write(objectProgram, mapped.slice(HEADER_BYTES + listingLength, (int) mapped.getLong(16)));
+    Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    synchronized (this) {
+      if (entries != null) {
+        entries.get(entry.getFileName().toString());
+      }
+    }
+    hits.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Caches the outputs of a source file, then evicts entries if the cache is over its size limit.
+   *
+   * @param key the key of the source file
+   * @param listing the listing written for it
+   * @param objectProgram the object program written for it
+   * @throws IOException if the entry could not be written
+   */
+  public void store(String key, Path listing, Path objectProgram) throws IOException {
+    Path temporary = Files.createTempFile(directory, key, ".tmp");
+    long size;
+    try {
+      try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE);
+          FileChannel listingIn = FileChannel.open(listing, StandardOpenOption.READ);
+          FileChannel objectIn = FileChannel.open(objectProgram, StandardOpenOption.READ)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT).putLong(listingIn.size()).putLong(objectIn.size());
+        header.flip();
+        while (header.hasRemaining()) {
+          out.write(header);
+        }
+        copy(listingIn, out);
+        copy(objectIn, out);
+        size = out.size();
+      }
+      Files.move(temporary, entry(key), StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    added(entry(key).getFileName().toString(), size);
+  }
+
+  public Stats stats() {
+    return new Stats(hits.get(), misses.get());
+  }
+
+  /**
+   * Records a stored entry, then deletes the least recently used entries until the rest fit in the
+   * size limit.
+   */
+  private synchronized void added(String name, long size) throws IOException {
+    if (entries == null) {
+      scan();
+    }
+    Long replaced = entries.remove(name);
+    if (replaced != null) {
+      totalBytes -= replaced;
+    }
+    entries.put(name, size);
+    totalBytes += size;
+    Iterator<Map.Entry<String, Long>> oldest = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && oldest.hasNext()) {
+      var entry = oldest.next();
+      Files.deleteIfExists(directory.resolve(entry.getKey()));
+      totalBytes -= entry.getValue();
+      oldest.remove();
+    }
+  }
+
+  /** Lists the entries already in the directory, ordered by when they were last used. */
+  private void scan() throws IOException {
+    record Entry(String name, long size, FileTime used) {}
+    List<Entry> found = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+          continue;
+        }
+        try {
+          var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          found.add(new Entry(name, attributes.size(), attributes.lastModifiedTime()));
+        } catch (NoSuchFileException e) {
+          // Evicted by another process
+        }
+      }
+    }
+    found.sort(Comparator.comparing(Entry::used));
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+    totalBytes = 0;
+    for (var entry : found) {
+      entries.put(entry.name(), entry.size());
+      totalBytes += entry.size();
+    }
+  }
+
+  private Path entry(String key) {
+    return directory.resolve(key + SUFFIX);
+  }
+
+  private static void write(Path file, ByteBuffer contents) throws IOException {
+    try (FileChannel out =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      while (contents.hasRemaining()) {
+        out.write(contents);
+      }
+    }
+  }
+
+  private static void copy(FileChannel in, FileChannel out) throws IOException {
+    long position = 0;
+    long size = in.size();
+    while (position < size) {
+      position += in.transferTo(position, size - position, out);
+    }
+  }
+}
@@ -0,0 +1,453 @@
+package sicxeassembler;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Locale;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Timing and allocation counters for assembling one file, collected when {@code --stats} is given
+ * or when a JFR recording has the assembler's events enabled. Each stage records wall time, lines
+ * processed and bytes allocated:
+ *
+ * <ul>
+ *   <li>parse: {@link SourceLine#parseLine(String)} and mnemonic lookup, for every line read
+ *   <li>pass one: {@link PassOne#process()}, without the parsing it pulls in
+ *   <li>pass two: {@link PassTwo#process()}, without the output generators
+ *   <li>output: the output generators
+ * </ul>
+ *
+ * Allocation is counted for the assembling thread only, so lines that pass two encodes on a pool
+ * thread are not included. The constant and expression cache counters are shared by every file, so
+ * in a batch they include whatever other files did at the same time.
+ */
+public class AssemblyStats {
+  public enum Stage {
+    PARSE("parse"),
+    PASS_ONE("pass one"),
+    PASS_TWO("pass two"),
+    OUTPUT("output");
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+
+    public String label() {
+      return label;
+    }
+  }
+
+  /** Emitted for each stage of each file. */
+  @Name("sicxeassembler.Stage")
+  @Label("Assembly Stage")
+  @Category("SIC/XE Assembler")
+  @Description("Time, lines and allocation of one stage of assembling a file")
+  static class StageEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Wall Time")
+    @Timespan
+    long wallTime;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /** Emitted once for each file, after its stages. */
+  @Name("sicxeassembler.Assembly")
+  @Label("Assembly")
+  @Category("SIC/XE Assembler")
+  @Description("Table sizes and cache counters of assembling a file")
+  static class AssemblyEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Cached")
+    @Description("Whether the outputs came from the assembly cache")
+    boolean cached;
+
+    @Label("Symbols")
+    int symbols;
+
+    @Label("Literals")
+    int literals;
+
+    @Label("Constant Cache Hits")
+    long constantCacheHits;
+
+    @Label("Constant Cache Misses")
+    long constantCacheMisses;
+
+    @Label("Expression Cache Hits")
+    long expressionCacheHits;
+
+    @Label("Expression Cache Misses")
+    long expressionCacheMisses;
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+  private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+  private final String fileName;
+  private final long[] nanos = new long[STAGES.length];
+  private final long[] lines = new long[STAGES.length];
+  private final long[] allocated = new long[STAGES.length];
+  private boolean cached = false;
+  private int symbols;
+  private int literals;
+
+  private final BoundedCache.Stats constantCacheStart = ConstantParser.cacheStats();
+  private final BoundedCache.Stats expressionCacheStart = ExpressionParser.cacheStats();
+  private BoundedCache.Stats constantCacheEnd = constantCacheStart;
+  private BoundedCache.Stats expressionCacheEnd = expressionCacheStart;
+
+  public AssemblyStats(String fileName) {
+    this.fileName = fileName;
+  }
+
+  /**
+   * Checks whether a JFR recording wants the assembler's events, in which case stats are collected
+   * even without {@code --stats}.
+   *
+   * @return true if the events are enabled
+   */
+  public static boolean isRecording() {
+    return new StageEvent().isEnabled();
+  }
+
+  /**
+   * Gets the number of bytes the current thread has allocated so far.
+   *
+   * @return the count, or 0 if the JVM does not track allocation
+   */
+  public static long allocatedBytes() {
+    return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+  }
+
+  /** Adds time and allocation to a stage. */
+  public void add(Stage stage, long nanos, long allocated) {
+    this.nanos[stage.ordinal()] += nanos;
+    this.allocated[stage.ordinal()] += allocated;
+  }
+
+  public void addLines(Stage stage, long lines) {
+    this.lines[stage.ordinal()] += lines;
+  }
+
+  public long nanos(Stage stage) {
+    return nanos[stage.ordinal()];
+  }
+
+  public long lines(Stage stage) {
+    return lines[stage.ordinal()];
+  }
+
+  public long allocated(Stage stage) {
+    return allocated[stage.ordinal()];
+  }
+
+  /**
+   * Gets the rate at which a stage processed lines.
+   *
+   * @return lines per second, or 0 if the stage took no measurable time
+   */
+  public double linesPerSecond(Stage stage) {
+    long time = nanos(stage);
+    return time > 0 ? lines(stage) * 1e9 / time : 0;
+  }
+
+  /** Marks the outputs as copied from the assembly cache, without running any stage. */
+  public void setCached(boolean cached) {
+    this.cached = cached;
+  }
+
+  public boolean isCached() {
+    return cached;
+  }
+
+  /** Records the table sizes and cache counters once the passes are done. */
+  public void finish(PassOne passOne) {
+    finish(List.of(passOne));
+  }
+
+  /** Finishes the stats of a program made of control sections, counting the tables of each. */
+  public void finish(List<PassOne> passOnes) {
+    symbols = 0;
+    literals = 0;
+    for (var passOne : passOnes) {
+      symbols += passOne.getSymbolTable().size();
+      literals += passOne.getLiteralTable().size();
+    }
+    constantCacheEnd = ConstantParser.cacheStats();
+    expressionCacheEnd = ExpressionParser.cacheStats();
+  }
+
+  public int getSymbols() {
+    return symbols;
+  }
+
+  public int getLiterals() {
+    return literals;
+  }
+
+  public long getConstantCacheHits() {
+    return constantCacheEnd.hits() - constantCacheStart.hits();
+  }
+
+  public long getConstantCacheMisses() {
+    return constantCacheEnd.misses() - constantCacheStart.misses();
+  }
+
+  public long getExpressionCacheHits() {
+    return expressionCacheEnd.hits() - expressionCacheStart.hits();
+  }
+
+  public long getExpressionCacheMisses() {
+    return expressionCacheEnd.misses() - expressionCacheStart.misses();
+  }
+
+  /**
+   * Wraps an output generator so the time it takes and what it allocates count toward the output
+   * stage.
+   *
+   * @param generator the generator
+   * @return the wrapped generator
+   */
+  public OutputGenerator timed(OutputGenerator generator) {
+    return new TimedOutputGenerator(generator);
+  }
+
+  /** Emits the JFR events for this file, if they are enabled. */
+  public void commitEvents() {
+    for (Stage stage : STAGES) {
+      var event = new StageEvent();
+      if (event.shouldCommit()) {
+        event.file = fileName;
+        event.stage = stage.label();
+        event.wallTime = nanos(stage);
+        event.lines = lines(stage);
+        event.allocated = allocated(stage);
+        event.commit();
+      }
+    }
+    var event = new AssemblyEvent();
+    if (event.shouldCommit()) {
+      event.file = fileName;
+      event.cached = cached;
+      event.symbols = symbols;
+      event.literals = literals;
+      event.constantCacheHits = getConstantCacheHits();
+      event.constantCacheMisses = getConstantCacheMisses();
+      event.expressionCacheHits = getExpressionCacheHits();
+      event.expressionCacheMisses = getExpressionCacheMisses();
+      event.commit();
+    }
+  }
+
+  /**
+   * Formats the stats as a table for people to read.
+   *
+   * @return the table, with a line separator after each line
+   */
+  public String format() {
+    var out = new StringBuilder();
+    var newline = System.lineSeparator();
+    out.append(fileName).append(cached ? " (from cache)" : "").append(':').append(newline);
+    out.append(
+            String.format(
+                Locale.ROOT,
+                "  %-10s %10s %10s %12s %14s",
+                "stage",
+                "time (ms)",
+                "lines",
+                "lines/s",
+                "allocated (B)"))
+        .append(newline);
+    for (Stage stage : STAGES) {
+      out.append(
+              String.format(
+                  Locale.ROOT,
+                  "  %-10s %10.3f %10d %12.0f %14d",
+                  stage.label(),
+                  nanos(stage) / 1e6,
+                  lines(stage),
+                  linesPerSecond(stage),
+                  allocated(stage)))
+          .append(newline);
+    }
+    out.append(
+            String.format(
+                Locale.ROOT,
+                "  symbols %d, literals %d, constant cache %d hits %d misses,"
+                    + " expression cache %d hits %d misses",
+                symbols,
+                literals,
+                getConstantCacheHits(),
+                getConstantCacheMisses(),
+                getExpressionCacheHits(),
+                getExpressionCacheMisses()))
+        .append(newline);
+    return out.toString();
+  }
+
+  /**
+   * Formats the stats as a single line JSON object.
+   *
+   * @return the JSON
+   */
+  public String toJson() {
+    var out = new StringBuilder("{\"file\":");
+    appendJsonString(out, fileName);
+    out.append(",\"cached\":").append(cached).append(",\"stages\":{");
+    for (Stage stage : STAGES) {
+      if (stage.ordinal() > 0) {
+        out.append(',');
+      }
+      out.append('"')
+          .append(stage.name().toLowerCase(Locale.ROOT))
+          .append("\":{\"nanos\":")
+          .append(nanos(stage))
+          .append(",\"lines\":")
+          .append(lines(stage))
+          .append(",\"linesPerSecond\":")
+          .append(Math.round(linesPerSecond(stage)))
+          .append(",\"allocatedBytes\":")
+          .append(allocated(stage))
+          .append('}');
+    }
+    out.append("},\"symbols\":")
+        .append(symbols)
+        .append(",\"literals\":")
+        .append(literals)
+        .append(",\"constantCache\":{\"hits\":")
+        .append(getConstantCacheHits())
+        .append(",\"misses\":")
+        .append(getConstantCacheMisses())
+        .append("},\"expressionCache\":{\"hits\":")
+        .append(getExpressionCacheHits())
+        .append(",\"misses\":")
+        .append(getExpressionCacheMisses())
+        .append("}}");
+    return out.toString();
+  }
+
+  private static void appendJsonString(StringBuilder out, String value) {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < ' ') {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  private static com.sun.management.ThreadMXBean threadBean() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+        && bean.isThreadAllocatedMemorySupported()) {
+      bean.setThreadAllocatedMemoryEnabled(true);
+      return bean;
+    }
+    return null;
+  }
+
+  /** Charges everything a generator does to the output stage. */
+  private class TimedOutputGenerator implements OutputGenerator {
+    private final OutputGenerator generator;
+
+    TimedOutputGenerator(OutputGenerator generator) {
+      this.generator = generator;
+    }
+
+    @Override
+    public void initialize(String name, int start, int length) {
+      long time = System.nanoTime();
+      long bytes = allocatedBytes();
+      generator.initialize(name, start, length);
+      add(Stage.OUTPUT, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+
+    @Override
+    public void accept(PassTwoData output) {
+      long time = System.nanoTime();
+      long bytes = allocatedBytes();
+      generator.accept(output);
+      add(Stage.OUTPUT, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+
+    @Override
+    public void accept(
+        SourceLine line,
+        int size,
+        int block,
+        int address,
+        boolean isExecutableInstruction,
+        long instruction,
+        ConstantBytes data) {
+      long time = System.nanoTime();
+      long bytes = allocatedBytes();
+      generator.accept(line, size, block, address, isExecutableInstruction, instruction, data);
+      add(Stage.OUTPUT, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+
+    @Override
+    public void addModificationRecord(int address, int size) {
+      long time = System.nanoTime();
+      long bytes = allocatedBytes();
+      generator.addModificationRecord(address, size);
+      add(Stage.OUTPUT, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+
+    @Override
+    public void addModificationRecord(int address, int size, String symbol) {
+      long time = System.nanoTime();
+      long bytes = allocatedBytes();
+      generator.addModificationRecord(address, size, symbol);
+      add(Stage.OUTPUT, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+
+    @Override
+    public void addExternalDefinition(String name, int address) {
+      generator.addExternalDefinition(name, address);
+    }
+
+    @Override
+    public void addExternalReference(String name) {
+      generator.addExternalReference(name);
+    }
+
+    @Override
+    public void setEntryPoint(int address) {
+      generator.setEntryPoint(address);
+    }
+
+    @Override
+    public void finalizeOutput() {
+      long time = System.nanoTime();
+      long bytes = allocatedBytes();
+      generator.finalizeOutput();
+      add(Stage.OUTPUT, System.nanoTime() - time, allocatedBytes() - bytes);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package sicxeassembler;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Assembles many source files from one JVM on a fixed pool of worker threads. Results are reported
+ * in the order the files were given, so the diagnostics of different files are never interleaved.
+ *
+ * <p>Outputs are named after the source file, up to its first '.', so two different files such as
+ * {@code a/prog.txt} and {@code b/prog.asm} would write the same outputs. Such files fail without
+ * being assembled. A file given more than once is assembled once and reported each time.
+ */
+public class BatchAssembler {
+  private final Assembler assembler;
+  private final int threads;
+
+  public BatchAssembler(OpTable opTable, int threads) {
+    this(opTable, threads, null);
+  }
+
+  /**
+   * Creates a batch assembler whose workers share a cache of earlier outputs.
+   *
+   * @param opTable the operation table
+   * @param threads number of worker threads
+   * @param cache the cache, or null to always assemble
+   */
+  public BatchAssembler(OpTable opTable, int threads, AssemblyCache cache) {
+    this(new Assembler(opTable, cache), threads);
+  }
+
+  /**
+   * Creates a batch assembler whose workers share an assembler.
+   *
+   * @param assembler the assembler
+   * @param threads number of worker threads
+   */
+  public BatchAssembler(Assembler assembler, int threads) {
+    this.assembler = assembler;
+    this.threads = threads;
+  }
+
+  /**
+   * Assembles every source file.
+   *
+   * @param sources the source files
+   * @param outputDirectory directory to write listings to
+   * @param reporter called with each result, in the same order as sources
+   * @return true if every file assembled successfully
+   */
+  public boolean run(List<Path> sources, Path outputDirectory, Consumer<Assembler.Result> reporter)
+      throws InterruptedException {
+    Map<String, Set<Path>> writers = new HashMap<>();
+    for (Path source : sources) {
+      writers
+          .computeIfAbsent(Assembler.baseName(source), name -> new LinkedHashSet<>())
+          .add(identity(source));
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      Map<Path, Future<Assembler.Result>> submitted = new HashMap<>();
+      List<Future<Assembler.Result>> results = new ArrayList<>(sources.size());
+      for (Path source : sources) {
+        if (writers.get(Assembler.baseName(source)).size() > 1) {
+          results.add(null);
+        } else {
+          results.add(
+              submitted.computeIfAbsent(
+                  identity(source),
+                  path -> pool.submit(() -> assembler.assemble(source, outputDirectory))));
+        }
+      }
+      boolean succeeded = true;
+      for (int i = 0; i < sources.size(); i++) {
+        Assembler.Result result;
+        try {
+          result =
+              results.get(i) == null
+                  ? clash(sources.get(i), writers.get(Assembler.baseName(sources.get(i))))
+                  : results.get(i).get();
+        } catch (ExecutionException e) {
+          // Anything other than an assembler error is a bug, but it only fails this file
+          Path source = sources.get(i);
+          result =
+              new Assembler.Result(
+                  source, List.of(source.getFileName() + ":error: " + e.getCause()), false);
+        }
+        succeeded &= result.succeeded();
+        reporter.accept(result);
+      }
+      return succeeded;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** Gets a path that is the same for every way of naming a file. */
+  private static Path identity(Path source) {
+    return source.toAbsolutePath().normalize();
+  }
+
+  /** Fails a source whose outputs other sources would also write. */
+  private static Assembler.Result clash(Path source, Set<Path> writers) {
+    String name = Assembler.baseName(source);
+    List<String> others = new ArrayList<>();
+    for (Path writer : writers) {
+      if (!writer.equals(identity(source))) {
+        others.add(writer.toString());
+      }
+    }
+    return new Assembler.Result(
+        source,
+        List.of(
+            source.getFileName()
+                + ":error: Outputs "
+                + name
+                + "_sol.txt and "
+                + name
+                + "_obj.txt would also be written by "
+                + String.join(", ", others)),
+        false);
+  }
+
+  /**
+   * Expands command line arguments into a list of source files. An argument may be a file, a
+   * directory (every regular file directly inside it), or a glob such as {@code src/**.asm}.
+   *
+   * @param arguments the arguments
+   * @return the source files, in argument order; files from one directory or glob are sorted
+   * @throws IOException if a directory could not be read
+   */
+  public static List<Path> expand(List<String> arguments) throws IOException {
+    List<Path> sources = new ArrayList<>();
+    for (String argument : arguments) {
+      if (isGlob(argument)) {
+        sources.addAll(expandGlob(argument));
+      } else {
+        Path path = Path.of(argument);
+        if (Files.isDirectory(path)) {
+          try (Stream<Path> files = Files.list(path)) {
+            files.filter(Files::isRegularFile).sorted().forEach(sources::add);
+          }
+        } else {
+          sources.add(path);
+        }
+      }
+    }
+    return sources;
+  }
+
+  /**
+   * Determines whether an argument names more than one source file.
+   *
+   * @param argument the argument
+   * @return true if the argument is a directory or a glob
+   */
+  public static boolean isMultiple(String argument) {
+    return isGlob(argument) || Files.isDirectory(Path.of(argument));
+  }
+
+  private static boolean isGlob(String argument) {
+    return firstGlobChar(argument) >= 0;
+  }
+
+  private static int firstGlobChar(String argument) {
+    for (int i = 0; i < argument.length(); i++) {
+      char c = argument.charAt(i);
+      if (c == '*' || c == '?' || c == '[' || c == '{') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static List<Path> expandGlob(String glob) throws IOException {
+    // Walk from the deepest directory that comes before any glob characters
+    int separator = glob.lastIndexOf('/', firstGlobChar(glob));
+    Path start = separator < 0 ? Path.of(".") : Path.of(glob.substring(0, separator + 1));
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    try (Stream<Path> files = Files.walk(start)) {
+      return files
+          .filter(Files::isRegularFile)
+          .map(path -> separator < 0 ? start.relativize(path) : path)
+          .filter(matcher::matches)
+          .sorted()
+          .toList();
+    }
+  }
+}
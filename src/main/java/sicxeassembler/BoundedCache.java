@@ -0,0 +1,148 @@
+package sicxeassembler;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A thread-safe memoization cache that holds at most a fixed number of entries. When the cache is
+ * full, entries are evicted in insertion order, except that an entry which has been hit since it
+ * was last considered gets a second chance and is moved to the back of the queue. This keeps
+ * frequently used entries cached without the locking a strict LRU list would need.
+ *
+ * @param <K> the key type
+ * @param <V> the value type. Values are shared between callers, so they should be immutable.
+ */
+public class BoundedCache<K, V> {
+  /**
+   * Counters for a cache
+   *
+   * @param hits lookups that found a cached value
+   * @param misses lookups that had to compute the value
+   * @param evictions entries removed to stay within capacity
+   * @param size entries currently cached
+   */
+  public record Stats(long hits, long misses, long evictions, int size) {}
+
+  private static final class Entry<V> {
+    final V value;
+    volatile boolean referenced = false;
+
+    Entry(V value) {
+      this.value = value;
+    }
+  }
+
+  private final Map<K, Entry<V>> map = new ConcurrentHashMap<>();
+  private final Queue<K> insertionOrder = new ConcurrentLinkedQueue<>();
+
+  /** Length of the queue, since {@link ConcurrentLinkedQueue#size()} walks the whole queue. */
+  private final AtomicInteger queued = new AtomicInteger();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private volatile int capacity;
+
+  /**
+   * Creates a cache
+   *
+   * @param capacity maximum number of entries. A capacity of 0 disables caching.
+   */
+  public BoundedCache(int capacity) {
+    setCapacity(capacity);
+  }
+
+  /**
+   * Gets the cached value for a key, computing and caching it if it is not present. If several
+   * threads miss on the same key at once, the value may be computed more than once, but only one
+   * result is cached.
+   *
+   * @param key the key
+   * @param loader computes the value for a key
+   * @return the value
+   */
+  public V get(K key, Function<? super K, ? extends V> loader) {
+    Entry<V> entry = map.get(key);
+    if (entry == null) {
+      misses.increment();
+      V value = loader.apply(key);
+      if (capacity == 0) {
+        return value;
+      }
+      Entry<V> fresh = new Entry<>(value);
+      entry = map.putIfAbsent(key, fresh);
+      if (entry == null) {
+        enqueue(key);
+        evictExcess();
+        return value;
+      }
+      return entry.value;
+    }
+    hits.increment();
+    entry.referenced = true;
+    return entry.value;
+  }
+
+  /**
+   * Changes the maximum number of entries, evicting entries if the cache is now over capacity.
+   *
+   * @param capacity the new capacity. A capacity of 0 disables caching.
+   */
+  public void setCapacity(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Cache capacity cannot be negative: " + capacity);
+    }
+    this.capacity = capacity;
+    evictExcess();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Removes every entry. The counters are not reset. */
+  public void clear() {
+    map.clear();
+    insertionOrder.clear();
+    queued.set(0);
+  }
+
+  public Stats stats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), map.size());
+  }
+
+  private void enqueue(K key) {
+    insertionOrder.add(key);
+    queued.incrementAndGet();
+  }
+
+  private void evictExcess() {
+    if (map.size() <= capacity) {
+      return;
+    }
+    // Every referenced entry is re-queued at most once per pass, so two passes always suffice
+    int budget = 2 * queued.get() + 1;
+    while (map.size() > capacity && budget-- > 0) {
+      K key = insertionOrder.poll();
+      if (key == null) {
+        return;
+      }
+      queued.decrementAndGet();
+      Entry<V> entry = map.get(key);
+      if (entry == null) {
+        continue;
+      }
+      if (entry.referenced && capacity > 0) {
+        entry.referenced = false;
+        enqueue(key);
+      } else if (map.remove(key, entry)) {
+        evictions.increment();
+      }
+    }
+  }
+}
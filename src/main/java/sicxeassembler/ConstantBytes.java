@@ -0,0 +1,83 @@
+package sicxeassembler;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sequence of bytes, such as the value of a BYTE constant or literal. Instances can be
+ * shared freely, so cached constants are handed out without copying.
+ */
+public final class ConstantBytes {
+  private final byte[] data;
+
+  private ConstantBytes(byte[] data) {
+    this.data = data;
+  }
+
+  /**
+   * Creates a constant from the low byte of each element of the array
+   *
+   * @param bytes the bytes
+   * @return the constant
+   */
+  public static ConstantBytes of(int[] bytes) {
+    byte[] data = new byte[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      data[i] = (byte) bytes[i];
+    }
+    return new ConstantBytes(data);
+  }
+
+  public int length() {
+    return data.length;
+  }
+
+  /**
+   * Gets a byte of the constant
+   *
+   * @param index the index of the byte
+   * @return the byte, as an unsigned value from 0 to 255
+   */
+  public int get(int index) {
+    return data[index] & 0xff;
+  }
+
+  /**
+   * Copies the constant into an array
+   *
+   * @param destination the array to copy into
+   * @param offset where in the destination to start copying
+   */
+  public void copyTo(byte[] destination, int offset) {
+    System.arraycopy(data, 0, destination, offset, data.length);
+  }
+
+  /**
+   * Copies the constant into a new int array, one byte per element
+   *
+   * @return the array
+   */
+  public int[] toIntArray() {
+    int[] bytes = new int[data.length];
+    for (int i = 0; i < data.length; i++) {
+      bytes[i] = data[i] & 0xff;
+    }
+    return bytes;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    return Arrays.equals(data, ((ConstantBytes) o).data);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(data);
+  }
+
+  @Override
+  public String toString() {
+    return "ConstantBytes" + Arrays.toString(toIntArray());
+  }
+}
@@ -1,11 +1,15 @@
 package sicxeassembler;
 
-import java.util.HashMap;
 import sicxeassembler.errors.AssemblerException;
 
 public class ConstantParser {
+  /** System property that sets the number of parsed constants to keep cached. */
+  public static final String CACHE_SIZE_PROPERTY = "sicxeassembler.constantCacheSize";
 
-  private static final HashMap<String, int[]> memoCache = new HashMap<>();
+  private static final int DEFAULT_CACHE_SIZE = 4096;
+
+  private static final BoundedCache<String, ConstantBytes> memoCache =
+      new BoundedCache<>(Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
 
   /**
    * Parses a SIC/XE byte constant to a byte array. The constant should conform to the following
@@ -24,11 +28,41 @@ public class ConstantParser {
    * @return integer array containing the bytes of the input constant
    */
   public static int[] parseByteConstant(String input) {
-    // clone so if caller modifies array, the original isn't changed.
-    return memoCache.computeIfAbsent(input, ConstantParser::parseByteConstantInternal).clone();
+    // copy so if caller modifies array, the cached constant isn't changed.
+    return parseConstant(input).toIntArray();
+  }
+
+  /**
+   * Parses a SIC/XE byte constant, as {@link #parseByteConstant(String)} does. The result is shared
+   * with the cache, which is safe because it cannot be modified.
+   *
+   * @param input Constant to be parsed
+   * @return the bytes of the input constant
+   */
+  public static ConstantBytes parseConstant(String input) {
+    return memoCache.get(input, ConstantParser::parseConstantInternal);
+  }
+
+  /**
+   * Gets the hit, miss and eviction counters of the constant cache
+   *
+   * @return the counters
+   */
+  public static BoundedCache.Stats cacheStats() {
+    return memoCache.stats();
+  }
+
+  /**
+   * Sets how many parsed constants are kept cached. The default can also be set with the {@value
+   * #CACHE_SIZE_PROPERTY} system property.
+   *
+   * @param capacity the number of constants. 0 disables the cache.
+   */
+  public static void setCacheCapacity(int capacity) {
+    memoCache.setCapacity(capacity);
   }
 
-  private static int[] parseByteConstantInternal(String input) {
+  private static ConstantBytes parseConstantInternal(String input) {
     if (input.length() < 4) {
       throw new AssemblerException("Invalid constant: " + input);
     }
@@ -41,11 +75,12 @@ public class ConstantParser {
       throw new AssemblerException("Unexpected end of constant");
     }
     var data = input.substring(2, secondQuote);
-    return switch (input.charAt(0)) {
-      case 'C' -> parseStringByteConstant(data);
-      case 'X' -> parseHexByteConstant(data);
-      default -> throw new AssemblerException("Unknown constant type: " + typeID);
-    };
+    return ConstantBytes.of(
+        switch (input.charAt(0)) {
+          case 'C' -> parseStringByteConstant(data);
+          case 'X' -> parseHexByteConstant(data);
+          default -> throw new AssemblerException("Unknown constant type: " + typeID);
+        });
   }
 
   static int[] parseStringByteConstant(String data) throws AssemblerException {
@@ -0,0 +1,221 @@
+package sicxeassembler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Assembles a program made of control sections. The first section runs from the start of the source
+ * to the first {@code CSECT} line, and each later one from its {@code CSECT} line to the next.
+ * Every section has its own symbol, literal and block tables, and refers to symbols of the others
+ * only through {@code EXTDEF} and {@code EXTREF}, so the sections are assembled independently.
+ *
+ * <p>Pass one streams the first section like any other program. The rest of the source is then cut
+ * into sections, and their first passes run on a fork-join pool. Second passes also run in
+ * parallel, each recording its output, and the recordings are handed to the output generators in
+ * source order. A program without {@code CSECT} lines is assembled as before, with no recording.
+ *
+ * <p>The program's entry point is the operand of {@code END}, in the last section, and refers to a
+ * symbol of the first. Errors are thrown in section order.
+ */
+public class ControlSectionAssembler {
+  private final OpTable opTable;
+  private final ForkJoinPool pool;
+  private final Splitter lines;
+  private final List<PassOne> passOnes = new ArrayList<>();
+  private final List<OutputGenerator> outputs = new ArrayList<>();
+
+  public ControlSectionAssembler(OpTable opTable, Iterator<SourceLine> lines, ForkJoinPool pool) {
+    this.opTable = opTable;
+    this.pool = pool;
+    this.lines = new Splitter(lines);
+  }
+
+  public void addOutputGenerator(OutputGenerator generator) {
+    outputs.add(generator);
+  }
+
+  /** Runs pass one over every control section. */
+  public void processPassOne() {
+    var first = new PassOne(opTable, lines);
+    first.process();
+    passOnes.add(first);
+    if (!lines.atSection) {
+      return;
+    }
+    int lineIndex = lines.count;
+    List<ForkJoinTask<Section>> tasks = new ArrayList<>();
+    for (var section : lines.readSections()) {
+      var passOne = new PassOne(opTable, section.iterator());
+      passOne.setFirstLineIndex(lineIndex);
+      lineIndex += section.size();
+      tasks.add(
+          pool.submit(
+              ForkJoinTask.adapt(
+                  () -> {
+                    try {
+                      passOne.process();
+                      return new Section(passOne, null, null);
+                    } catch (RuntimeException e) {
+                      return new Section(passOne, null, e);
+                    }
+                  })));
+    }
+    try {
+      for (var task : tasks) {
+        var section = task.join();
+        if (section.error != null) {
+          throw section.error;
+        }
+        passOnes.add(section.passOne);
+      }
+    } finally {
+      tasks.forEach(task -> task.cancel(false));
+    }
+  }
+
+  /** Runs pass two over every control section, writing the outputs. */
+  public void processPassTwo() {
+    String entryPoint = passOnes.get(passOnes.size() - 1).getEntryPoint();
+    if (passOnes.size() == 1) {
+      var passTwo = new ParallelPassTwo(opTable, passOnes.get(0), entryPoint, pool);
+      outputs.forEach(passTwo::addOutputGenerator);
+      passTwo.process();
+      return;
+    }
+    List<ForkJoinTask<Section>> tasks = new ArrayList<>();
+    for (int i = 0; i < passOnes.size(); i++) {
+      var passOne = passOnes.get(i);
+      // Only the first section's end record carries the entry point
+      var passTwo = new ParallelPassTwo(opTable, passOne, i == 0 ? entryPoint : "", pool);
+      var recording = new Recording(i == 0);
+      passTwo.addOutputGenerator(recording);
+      tasks.add(
+          pool.submit(
+              ForkJoinTask.adapt(
+                  () -> {
+                    try {
+                      passTwo.process();
+                      return new Section(passOne, recording, null);
+                    } catch (RuntimeException e) {
+                      return new Section(passOne, recording, e);
+                    }
+                  })));
+    }
+    try {
+      for (int i = 0; i < tasks.size(); i++) {
+        var section = tasks.get(i).join();
+        if (section.error != null) {
+          throw section.error;
+        }
+        for (var generator : outputs) {
+          section.output.replay(generator);
+        }
+      }
+    } finally {
+      tasks.forEach(task -> task.cancel(false));
+    }
+    outputs.forEach(OutputGenerator::finalizeOutput);
+  }
+
+  /**
+   * Gets pass one of each control section, in source order.
+   *
+   * @return the first passes
+   */
+  public List<PassOne> getPassOnes() {
+    return passOnes;
+  }
+
+  /**
+   * A control section's pass, with its recorded output and what it threw, if anything. Errors are
+   * caught rather than left to the task, which would rethrow a copy without the line number.
+   */
+  private record Section(PassOne passOne, Recording output, RuntimeException error) {}
+
+  /**
+   * Passes on the first control section, then stops at the first {@code CSECT} line, where {@link
+   * #readSections()} reads the rest.
+   */
+  private class Splitter implements Iterator<SourceLine> {
+    private final Iterator<SourceLine> source;
+    private SourceLine next;
+
+    /** Whether the next line starts another control section. */
+    private boolean atSection = false;
+
+    /** Number of lines passed on. */
+    private int count = 0;
+
+    Splitter(Iterator<SourceLine> source) {
+      this.source = source;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !atSection && source.hasNext()) {
+        next = source.next();
+        atSection = isSectionStart(next);
+      }
+      return next != null && !atSection;
+    }
+
+    @Override
+    public SourceLine next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      var line = next;
+      next = null;
+      count++;
+      return line;
+    }
+
+    /** Reads the sections after the first, each starting with its CSECT line. */
+    List<List<SourceLine>> readSections() {
+      List<List<SourceLine>> sections = new ArrayList<>();
+      List<SourceLine> section = null;
+      for (var line = next; line != null; line = source.hasNext() ? source.next() : null) {
+        if (section == null || isSectionStart(line)) {
+          section = new ArrayList<>();
+          sections.add(section);
+        }
+        section.add(line);
+      }
+      next = null;
+      return sections;
+    }
+
+    private boolean isSectionStart(SourceLine line) {
+      return !line.isCommentOrBlank()
+          && opTable.getDirective(opTable.resolve(line)) == Directive.CSECT;
+    }
+  }
+
+  /**
+   * Keeps a control section's output until the sections before it are written. Only the first
+   * section's entry point is kept, and the outputs are finished once, after the last section.
+   */
+  private static class Recording extends RecordingOutputGenerator {
+    private final boolean withEntryPoint;
+
+    Recording(boolean withEntryPoint) {
+      super(64);
+      this.withEntryPoint = withEntryPoint;
+    }
+
+    @Override
+    public void setEntryPoint(int address) {
+      if (withEntryPoint) {
+        super.setEntryPoint(address);
+      }
+    }
+
+    @Override
+    public void finalizeOutput() {}
+  }
+}
@@ -0,0 +1,76 @@
+package sicxeassembler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages between {@link AssemblerDaemon} and {@link AssemblerClient}. A connection carries any
+ * number of requests, each answered by one response before the next is read. Numbers are big
+ * endian, and strings and byte arrays are an int length followed by the bytes, strings in UTF-8.
+ *
+ * <pre>
+ * request:  int magic, byte kind, string name,
+ *           then for PATH:   string absolute path of the source
+ *                for SOURCE: bytes source text
+ * response: byte succeeded, int count, string diagnostic[count],
+ *           bytes listing, bytes object program
+ * </pre>
+ */
+final class DaemonProtocol {
+  /** "SXAD", followed by the protocol version. */
+  static final int MAGIC = 0x53584101;
+
+  /** Request kind: the daemon reads the source from a file. */
+  static final byte PATH = 1;
+
+  /** Request kind: the source text is sent in the request. */
+  static final byte SOURCE = 2;
+
+  private DaemonProtocol() {}
+
+  static void writeResponse(DataOutputStream out, Assembler.Output output) throws IOException {
+    out.writeByte(output.succeeded() ? 1 : 0);
+    out.writeInt(output.diagnostics().size());
+    for (String diagnostic : output.diagnostics()) {
+      writeString(out, diagnostic);
+    }
+    writeBytes(out, output.listing());
+    writeBytes(out, output.objectProgram());
+    out.flush();
+  }
+
+  static Assembler.Output readResponse(DataInputStream in) throws IOException {
+    boolean succeeded = in.readByte() != 0;
+    int count = in.readInt();
+    List<String> diagnostics = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      diagnostics.add(readString(in));
+    }
+    return new Assembler.Output(diagnostics, succeeded, readBytes(in), readBytes(in));
+  }
+
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+
+  static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+    out.writeInt(value.length);
+    out.write(value);
+  }
+
+  static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid length: " + length);
+    }
+    return in.readNBytes(length);
+  }
+}
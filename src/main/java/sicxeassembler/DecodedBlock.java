@@ -0,0 +1,205 @@
+package sicxeassembler;
+
+import java.util.Arrays;
+
+/**
+ * A straight-line run of instructions decoded by {@link Simulator}, so that hot code is only
+ * decoded once. Each instruction is a record of three columns:
+ *
+ * <ul>
+ *   <li>a code packing the opcode, format, size, addressing mode and fusion, read through the
+ *       static accessors of this class
+ *   <li>an operand: the registers of a format 2 instruction, or the part of a format 3 or 4 target
+ *       address known when decoding. Direct, PC-relative and extended addresses are complete; a
+ *       base relative one still has B added, and an indexed one X.
+ *   <li>the instruction's address
+ * </ul>
+ *
+ * <p>A block ends after a jump or SVC, before an instruction that cannot be decoded, and at the end
+ * of its {@link #PAGE_SIZE}-byte page, so that writing to a page only affects the blocks in it.
+ * Pairs that often go together are fused: COMP or TIX followed by JEQ, JGT or JLT, and LDA followed
+ * by STA. The first record of a pair is marked, and both records are run as one.
+ */
+final class DecodedBlock {
+  static final int PAGE_BITS = 8;
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  /** The pair a record starts, in its code. */
+  static final int NOT_FUSED = 0, COMPARE_JUMP = 1, MOVE = 2;
+
+  private static final int FORMAT_SHIFT = 8;
+  private static final int NI_SHIFT = 10;
+  private static final int INDEXED = 1 << 12;
+  private static final int BASE_RELATIVE = 1 << 13;
+  private static final int SIZE_SHIFT = 14;
+  private static final int FUSION_SHIFT = 17;
+
+  final int[] codes;
+  final int[] operands;
+  final int[] addresses;
+  final int length;
+
+  /** Address just past the last instruction. */
+  final int end;
+
+  private DecodedBlock(int[] codes, int[] operands, int[] addresses, int length, int end) {
+    this.codes = codes;
+    this.operands = operands;
+    this.addresses = addresses;
+    this.length = length;
+    this.end = end;
+  }
+
+  /**
+   * Decodes the block starting at an address.
+   *
+   * @param memory the memory
+   * @param dispatch the simulator's table of {@code opcode | format << 8} by first byte, negative
+   *     if invalid
+   * @param address where the block starts
+   * @return the block, or null if the first instruction cannot be decoded
+   */
+  static DecodedBlock decode(byte[] memory, int[] dispatch, int address) {
+    int pageEnd = (address | (PAGE_SIZE - 1)) + 1;
+    int[] codes = new int[16];
+    int[] operands = new int[16];
+    int[] addresses = new int[16];
+    int count = 0;
+    int at = address;
+    while (at < pageEnd) {
+      int first = memory[at] & 0xff;
+      int entry = dispatch[first];
+      if (entry < 0) {
+        break;
+      }
+      int opcode = entry & 0xff;
+      int format = entry >>> 8;
+      int code = entry;
+      int operand;
+      int size;
+      if (format == 1) {
+        size = 1;
+        operand = 0;
+      } else if (format == 2) {
+        size = 2;
+        if (at + size > pageEnd) {
+          break;
+        }
+        operand = memory[at + 1] & 0xff;
+      } else {
+        if (at + 3 > pageEnd) {
+          break;
+        }
+        int ni = first & 3;
+        int second = memory[at + 1] & 0xff;
+        code |= ni << NI_SHIFT;
+        if ((second & 0x80) != 0) {
+          code |= INDEXED;
+        }
+        if (ni == 0) {
+          size = 3;
+          operand = (second & 0x7F) << 8 | memory[at + 2] & 0xff;
+        } else if ((second & 0x10) != 0) {
+          size = 4;
+          if (at + size > pageEnd) {
+            break;
+          }
+          operand = (second & 0xF) << 16 | (memory[at + 2] & 0xff) << 8 | memory[at + 3] & 0xff;
+        } else {
+          size = 3;
+          int displacement = (second & 0xF) << 8 | memory[at + 2] & 0xff;
+          switch (second & 0x60) {
+            case 0x00 -> operand = displacement;
+            case 0x20 -> operand = at + size + (displacement << 20 >> 20);
+            case 0x40 -> {
+              operand = displacement;
+              code |= BASE_RELATIVE;
+            }
+            default -> {
+              // Both b and p are set, left for the simulator to report
+              operand = 0;
+              size = 0;
+            }
+          }
+          if (size == 0) {
+            break;
+          }
+        }
+      }
+      code |= size << SIZE_SHIFT;
+
+      if (count == codes.length) {
+        codes = Arrays.copyOf(codes, count * 2);
+        operands = Arrays.copyOf(operands, count * 2);
+        addresses = Arrays.copyOf(addresses, count * 2);
+      }
+      codes[count] = code;
+      operands[count] = operand;
+      addresses[count] = at;
+      if (count > 0) {
+        int fusion = fusion(codes[count - 1], code);
+        if (fusion != NOT_FUSED && fusion(codes[count - 1]) == NOT_FUSED) {
+          codes[count - 1] |= fusion << FUSION_SHIFT;
+        }
+      }
+      count++;
+      at += size;
+      if (endsBlock(format, opcode)) {
+        break;
+      }
+    }
+    return count == 0 ? null : new DecodedBlock(codes, operands, addresses, count, at);
+  }
+
+  /** Works out whether two instructions in a row make a pair. */
+  private static int fusion(int first, int second) {
+    if (format(first) != 3 || format(second) != 3) {
+      return NOT_FUSED;
+    }
+    int next = opcode(second);
+    return switch (opcode(first)) {
+      case 0x28, 0x2C -> next == 0x30 || next == 0x34 || next == 0x38 ? COMPARE_JUMP : NOT_FUSED;
+      case 0x00 -> next == 0x0C ? MOVE : NOT_FUSED;
+      default -> NOT_FUSED;
+    };
+  }
+
+  /** Determines whether an instruction can change PC or stop the program. */
+  private static boolean endsBlock(int format, int opcode) {
+    return switch (opcode) {
+      case 0x3C, 0x30, 0x34, 0x38, 0x48, 0x4C -> format == 3;
+      case 0xB0 -> format == 2;
+      default -> false;
+    };
+  }
+
+  static int opcode(int code) {
+    return code & 0xff;
+  }
+
+  static int format(int code) {
+    return code >>> FORMAT_SHIFT & 3;
+  }
+
+  /** Gets the n and i bits of a format 3 or 4 instruction. */
+  static int ni(int code) {
+    return code >>> NI_SHIFT & 3;
+  }
+
+  static boolean isIndexed(int code) {
+    return (code & INDEXED) != 0;
+  }
+
+  static boolean isBaseRelative(int code) {
+    return (code & BASE_RELATIVE) != 0;
+  }
+
+  static int size(int code) {
+    return code >>> SIZE_SHIFT & 7;
+  }
+
+  /** Gets the pair a record starts, such as {@link #COMPARE_JUMP}. */
+  static int fusion(int code) {
+    return code >>> FUSION_SHIFT & 3;
+  }
+}
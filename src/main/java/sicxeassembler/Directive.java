@@ -0,0 +1,21 @@
+package sicxeassembler;
+
+/** Assembler directives. These share the mnemonic ID space of {@link OpTable}. */
+public enum Directive {
+  START,
+  END,
+  BYTE,
+  WORD,
+  RESB,
+  RESW,
+  BASE,
+  NOBASE,
+  USE,
+  EQU,
+  LTORG,
+  MACRO,
+  MEND,
+  CSECT,
+  EXTDEF,
+  EXTREF
+}
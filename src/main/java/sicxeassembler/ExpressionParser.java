@@ -1,34 +1,132 @@
 package sicxeassembler;
 
-import java.util.Map;
-import java.util.regex.Pattern;
 import sicxeassembler.errors.AssemblerException;
 
+/**
+ * Evaluates EQU and WORD expressions. Expressions are made of symbols and decimal numbers joined by
+ * {@code + - * /}, with the usual precedence, parentheses and unary minus, and any number of terms.
+ *
+ * <p>Typing follows the rules for two-term expressions: {@code +}, {@code *}, {@code /} and unary
+ * minus need absolute operands, while {@code -} needs two operands of the same type from the same
+ * block. Every operator gives an absolute result.
+ *
+ * <p>External symbols, named by EXTREF, are only allowed where the caller can emit modification
+ * records for them: see {@link #parse(String, ExternalReferences)}.
+ *
+ * <p>Expressions are compiled to a tree once and the tree is cached by source text, so an
+ * expression that appears many times is only evaluated afterward. Trees do not depend on the symbol
+ * table, so the cache is shared by all parsers.
+ */
 public class ExpressionParser {
-  record Result(int value, SymbolData.Type type) {}
+  /** System property that sets the number of compiled expressions to keep cached. */
+  public static final String CACHE_SIZE_PROPERTY = "sicxeassembler.expressionCacheSize";
 
-  private final Map<String, SymbolData> symbolTable;
+  private static final int DEFAULT_CACHE_SIZE = 4096;
 
-  public ExpressionParser(Map<String, SymbolData> symbolTable) {
+  private static final BoundedCache<String, Node> compiledCache =
+      new BoundedCache<>(Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+
+  private static final SymbolData ZERO = new SymbolData(0, -1, SymbolData.Type.ABSOLUTE);
+
+  /** A compiled expression. Nodes are immutable. */
+  private sealed interface Node permits Term, Negate, Binary {}
+
+  /** A symbol, or a decimal number if isNumber is set. */
+  private record Term(String name, boolean isNumber, int number) implements Node {}
+
+  private record Negate(Node operand) implements Node {}
+
+  private record Binary(char operator, Node left, Node right) implements Node {}
+
+  /** Receives the external symbols an expression adds or subtracts. */
+  @FunctionalInterface
+  public interface ExternalReferences {
+    /**
+     * Called once for each external symbol in the expression.
+     *
+     * @param symbol the symbol
+     * @param negative whether its address is subtracted
+     */
+    void reference(String symbol, boolean negative);
+  }
+
+  private final SymbolTable symbolTable;
+
+  public ExpressionParser(SymbolTable symbolTable) {
     this.symbolTable = symbolTable;
   }
 
+  /**
+   * Evaluates an expression against the symbol table.
+   *
+   * @param expression the expression
+   * @return the value, with the block and type of the symbol if the expression is a single symbol
+   * @throws AssemblerException if the expression is malformed, uses an undefined symbol, or breaks
+   *     the typing rules
+   */
   public SymbolData parse(String expression) {
-    var operatorLocation = findOperator(expression);
-    // No operator, either predefined symbol or decimal literal
-    if (operatorLocation == -1) {
-      return parseSymbol(expression);
-    }
-    var operator = expression.charAt(operatorLocation);
-    var values = expression.split(Pattern.quote(String.valueOf(operator)));
+    return parse(expression, null);
+  }
+
+  /**
+   * Evaluates an expression that may add or subtract external symbols. Each external symbol counts
+   * as an absolute 0, and is passed to the handler so that the caller can add its address when the
+   * program is loaded. External symbols cannot be multiplied or divided.
+   *
+   * @param expression the expression
+   * @param references handler for external symbols, or null to reject them
+   * @return the value, with the block and type of the symbol if the expression is a single symbol
+   *     other than an external one
+   * @throws AssemblerException if the expression is malformed, uses an undefined symbol, or breaks
+   *     the typing rules
+   */
+  public SymbolData parse(String expression, ExternalReferences references) {
+    Node node = compiledCache.get(expression, ExpressionParser::compile);
+    return evaluate(node, node instanceof Term ? null : expression, references, false);
+  }
 
-    SymbolData left, right;
-    try {
-      left = parseSymbol(values[0]);
-      right = parseSymbol(values[1]);
-    } catch (Exception e) {
-      throw new AssemblerException("Invalid expression: " + expression + ", " + e.getMessage());
+  /**
+   * Gets the hit, miss and eviction counters of the compiled expression cache
+   *
+   * @return the counters
+   */
+  public static BoundedCache.Stats cacheStats() {
+    return compiledCache.stats();
+  }
+
+  /**
+   * Sets how many compiled expressions are kept cached. The default can also be set with the
+   * {@value #CACHE_SIZE_PROPERTY} system property.
+   *
+   * @param capacity the number of expressions. 0 disables the cache.
+   */
+  public static void setCacheCapacity(int capacity) {
+    compiledCache.setCapacity(capacity);
+  }
+
+  /**
+   * Evaluates a compiled expression.
+   *
+   * @param expression the whole expression, used in error messages, or null for a single term
+   * @param references handler for external symbols, or null where they are not allowed
+   * @param negative whether the node's value is subtracted from the whole expression
+   */
+  private SymbolData evaluate(
+      Node node, String expression, ExternalReferences references, boolean negative) {
+    if (node instanceof Term term) {
+      return evaluateTerm(term, expression, references, negative);
     }
+    if (node instanceof Negate negate) {
+      var operand = evaluate(negate.operand(), expression, references, !negative);
+      checkType(operand, SymbolData.Type.ABSOLUTE);
+      return new SymbolData(-operand.value(), -1, SymbolData.Type.ABSOLUTE);
+    }
+    var binary = (Binary) node;
+    char operator = binary.operator();
+    // Only sums and differences can be adjusted by adding external addresses at load time
+    var sumReferences = operator == '+' || operator == '-' ? references : null;
+    var left = evaluate(binary.left(), expression, sumReferences, negative);
+    var right = evaluate(binary.right(), expression, sumReferences, negative ^ operator == '-');
     switch (operator) {
       case '+' -> {
         // Both need to be absolute
@@ -51,24 +149,36 @@ public class ExpressionParser {
       case '/' -> {
         checkType(left, SymbolData.Type.ABSOLUTE);
         checkType(right, SymbolData.Type.ABSOLUTE);
+        if (right.value() == 0) {
+          throw new AssemblerException("Division by zero in expression: " + expression);
+        }
         return new SymbolData(left.value() / right.value(), -1, SymbolData.Type.ABSOLUTE);
       }
       default -> throw new AssemblerException("This shouldn't be reachable");
     }
   }
 
-  private int findOperator(String expression) {
-    Pattern pattern = Pattern.compile("[+\\-*/]");
-    var matcher = pattern.matcher(expression);
-    if (matcher.find()) {
-      int result = matcher.start();
-      if (matcher.find()) {
-        throw new AssemblerException("Expressions may only have 2 terms.");
+  private SymbolData evaluateTerm(
+      Term term, String expression, ExternalReferences references, boolean negative) {
+    if (term.isNumber()) {
+      return term.number() == 0
+          ? ZERO
+          : new SymbolData(term.number(), -1, SymbolData.Type.ABSOLUTE);
+    }
+    var symbol = symbolTable.get(term.name());
+    if (symbol == null) {
+      var message = "Invalid symbol: " + term.name();
+      throw new AssemblerException(
+          expression == null ? message : "Invalid expression: " + expression + ", " + message);
+    }
+    if (symbol.type() == SymbolData.Type.EXTERNAL) {
+      if (references == null) {
+        throw new AssemblerException("External symbol cannot be used here: " + term.name());
       }
-      return result;
-    } else {
-      return -1;
+      references.reference(term.name(), negative);
+      return ZERO;
     }
+    return symbol;
   }
 
   private void checkSameBlock(SymbolData left, SymbolData right) {
@@ -83,16 +193,130 @@ public class ExpressionParser {
     }
   }
 
-  private SymbolData parseSymbol(String data) {
-    if (symbolTable.containsKey(data)) {
-      return symbolTable.get(data);
+  private static Node compile(String expression) {
+    var compiler = new Compiler(expression);
+    var node = compiler.expression(1);
+    compiler.skipSpaces();
+    if (!compiler.atEnd()) {
+      throw compiler.error("unexpected '" + compiler.peek() + "'");
+    }
+    return node;
+  }
+
+  /** Tokenizes and parses an expression by precedence climbing. */
+  private static final class Compiler {
+    private final String text;
+    private int position = 0;
+
+    Compiler(String text) {
+      this.text = text;
+    }
+
+    /** Parses operators that bind at least as tightly as the given precedence. */
+    Node expression(int minPrecedence) {
+      var left = unary();
+      while (true) {
+        skipSpaces();
+        if (atEnd()) {
+          return left;
+        }
+        char operator = peek();
+        int precedence = precedence(operator);
+        if (precedence < minPrecedence) {
+          return left;
+        }
+        position++;
+        // Operators are left associative, so the right side only takes tighter operators
+        left = new Binary(operator, left, expression(precedence + 1));
+      }
+    }
+
+    private Node unary() {
+      skipSpaces();
+      if (atEnd()) {
+        throw error("missing term");
+      }
+      switch (peek()) {
+        case '-' -> {
+          position++;
+          return new Negate(unary());
+        }
+        case '+' -> {
+          position++;
+          return unary();
+        }
+        case '(' -> {
+          position++;
+          var node = expression(1);
+          skipSpaces();
+          if (atEnd() || peek() != ')') {
+            throw error("missing ')'");
+          }
+          position++;
+          return node;
+        }
+        default -> {
+          return term();
+        }
+      }
+    }
+
+    private Node term() {
+      int start = position;
+      while (!atEnd() && !isDelimiter(peek())) {
+        position++;
+      }
+      if (start == position) {
+        throw error("unexpected '" + peek() + "'");
+      }
+      var name = text.substring(start, position);
+      if (!isDigits(name)) {
+        return new Term(name, false, 0);
+      }
+      try {
+        return new Term(name, true, Integer.parseInt(name));
+      } catch (NumberFormatException e) {
+        throw error("number out of range: " + name);
+      }
+    }
+
+    private static int precedence(char operator) {
+      return switch (operator) {
+        case '+', '-' -> 1;
+        case '*', '/' -> 2;
+        default -> 0;
+      };
     }
-    // Otherwise it has to be a literal. Try parsing as a decimal number. If that fails, bail.
-    try {
-      int value = Integer.parseInt(data);
-      return new SymbolData(value, -1, SymbolData.Type.ABSOLUTE);
-    } catch (Exception e) {
-      throw new AssemblerException("Invalid symbol: " + data);
+
+    private static boolean isDelimiter(char c) {
+      return c == '+' || c == '-' || c == '*' || c == '/' || c == '(' || c == ')' || c <= ' ';
+    }
+
+    private static boolean isDigits(String name) {
+      for (int i = 0; i < name.length(); i++) {
+        if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void skipSpaces() {
+      while (!atEnd() && peek() <= ' ') {
+        position++;
+      }
+    }
+
+    boolean atEnd() {
+      return position >= text.length();
+    }
+
+    char peek() {
+      return text.charAt(position);
+    }
+
+    AssemblerException error(String message) {
+      return new AssemblerException("Invalid expression: " + text + ", " + message);
     }
   }
 }
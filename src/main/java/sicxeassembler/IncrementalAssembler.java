@@ -0,0 +1,590 @@
+package sicxeassembler;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.errors.ErrorUtils;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Assembles a program that is edited a few lines at a time, as in an editor, redoing as little work
+ * as it can after each edit. Pass one takes a {@link PassOne.Checkpoint} every {@link
+ * #CHECKPOINT_INTERVAL} lines, and the encoding of every line is kept along with the base register
+ * value it was encoded with.
+ *
+ * <p>An edit that only touches instructions and storage directives, keeps the same total size and
+ * gives every label on the edited lines the same value cannot move anything else, so only the new
+ * lines are laid out and encoded. Any other edit resumes pass one from the last checkpoint before
+ * it and encodes again every line from there on, plus the earlier lines that use a symbol or
+ * literal whose value changed. If a program block moves, every line is encoded again.
+ */
+public class IncrementalAssembler {
+  /** Source lines between pass one checkpoints. */
+  public static final int CHECKPOINT_INTERVAL = 64;
+
+  /**
+   * Work done by the last load or edit
+   *
+   * @param passOneLines source lines run through pass one
+   * @param passTwoLines pass one outputs encoded
+   * @param fastPath whether the edit was applied without resuming pass one
+   */
+  public record UpdateStats(int passOneLines, int passTwoLines, boolean fastPath) {}
+
+  /**
+   * Encoding of one pass one output
+   *
+   * @param base base register value the line was encoded with
+   * @param hasOutput whether the line was passed to the output generators
+   * @param address address of the line
+   * @param instruction object code of an instruction or WORD
+   * @param data object code of a constant, or null
+   * @param modificationSize size of the modification record for the line, or 0 if there is none
+   * @param modificationAddress address of the modification record
+   */
+  private record Encoding(
+      int base,
+      boolean hasOutput,
+      int address,
+      long instruction,
+      ConstantBytes data,
+      int modificationSize,
+      int modificationAddress) {}
+
+  private final OpTable opTable;
+  private final String fileName;
+  private final List<String> source = new ArrayList<>();
+  private final List<SourceLine> lines = new ArrayList<>();
+
+  /** Encodings, in step with the output of pass one. */
+  private final List<Encoding> encodings = new ArrayList<>();
+
+  private PassOne passOne;
+  private PassTwo passTwo;
+  private List<String> diagnostics = List.of();
+  private UpdateStats stats = new UpdateStats(0, 0, false);
+
+  /** Number of lines that failed to parse, which are null in {@link #lines}. */
+  private int unparsed = 0;
+
+  /** Set when the state left by the last update cannot be built on. */
+  private boolean stale = true;
+
+  /**
+   * Creates an assembler for one source file.
+   *
+   * @param opTable the operation table
+   * @param fileName name used in diagnostics
+   */
+  public IncrementalAssembler(OpTable opTable, String fileName) {
+    this.opTable = opTable;
+    this.fileName = fileName;
+  }
+
+  /**
+   * Assembles a whole program, replacing anything loaded before.
+   *
+   * @param text the lines of the program
+   * @return whether the program assembled
+   */
+  public boolean load(List<String> text) {
+    source.clear();
+    source.addAll(text);
+    lines.clear();
+    unparsed = 0;
+    for (int i = 0; i < text.size(); i++) {
+      lines.add(null);
+    }
+    stale = true;
+    return parse(0, text.size()) && update(0);
+  }
+
+  /**
+   * Replaces some lines of the program and assembles it again.
+   *
+   * @param from index of the first line to replace
+   * @param to index after the last line to replace
+   * @param replacement the new lines
+   * @return whether the program assembled
+   */
+  public boolean edit(int from, int to, List<String> replacement) {
+    if (from < 0 || from > to || to > source.size()) {
+      throw new IndexOutOfBoundsException("Lines " + from + " to " + to + " are not in the file");
+    }
+    var replacedSource = source.subList(from, to);
+    replacedSource.clear();
+    replacedSource.addAll(replacement);
+    var replacedLines = lines.subList(from, to);
+    var oldLines = new ArrayList<>(replacedLines);
+    for (var line : oldLines) {
+      if (line == null) {
+        unparsed--;
+      }
+    }
+    replacedLines.clear();
+    for (int i = 0; i < replacement.size(); i++) {
+      replacedLines.add(null);
+    }
+    if (!parse(from, from + replacement.size())) {
+      return false;
+    }
+    if (!stale && tryFastPath(from, to, oldLines, lines.subList(from, from + replacement.size()))) {
+      return succeeded();
+    }
+    return update(from);
+  }
+
+  /**
+   * Whether the last load or edit assembled.
+   *
+   * @return true if there were no errors
+   */
+  public boolean succeeded() {
+    return diagnostics.isEmpty();
+  }
+
+  /**
+   * Gets the errors from the last load or edit, formatted like {@link Assembler}'s.
+   *
+   * @return the errors
+   */
+  public List<String> getDiagnostics() {
+    return diagnostics;
+  }
+
+  /**
+   * Gets how much work the last load or edit took.
+   *
+   * @return the counters
+   */
+  public UpdateStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Passes the assembled program to output generators, as {@link PassTwo#process()} would.
+   *
+   * @param generators the generators
+   * @throws IllegalStateException if the last load or edit failed
+   */
+  public void writeOutput(OutputGenerator... generators) {
+    if (!succeeded()) {
+      throw new IllegalStateException("The program did not assemble");
+    }
+    var writer = new PassTwo(opTable, passOne);
+    for (var generator : generators) {
+      writer.addOutputGenerator(generator);
+    }
+    writer.initializeOutputs();
+    var sink = writer.new Sink();
+    var inputs = passOne.getOutput();
+    for (int i = 0; i < inputs.size(); i++) {
+      var encoding = encodings.get(i);
+      if (encoding.modificationSize() > 0) {
+        sink.modification(encoding.modificationAddress(), encoding.modificationSize(), null);
+      }
+      if (encoding.hasOutput()) {
+        sink.output(i, encoding.address(), encoding.instruction(), encoding.data());
+      }
+    }
+    writer.finalizeOutputs();
+  }
+
+  /**
+   * Parses the given lines, which have been replaced. If any line of the program does not parse,
+   * the errors for all of them are left in the diagnostics.
+   *
+   * @return whether every line of the program parsed
+   */
+  private boolean parse(int from, int to) {
+    diagnostics = List.of();
+    for (int i = from; i < to; i++) {
+      try {
+        var line = SourceLine.parseLine(source.get(i));
+        opTable.resolve(line);
+        lines.set(i, line);
+      } catch (ParseException e) {
+        unparsed++;
+      }
+    }
+    if (unparsed == 0) {
+      return true;
+    }
+    List<String> errors = new ArrayList<>();
+    for (int i = 0; i < lines.size(); i++) {
+      if (lines.get(i) == null) {
+        try {
+          SourceLine.parseLine(source.get(i));
+        } catch (ParseException e) {
+          errors.add(ErrorUtils.format(fileName, i + 1, source.get(i), e));
+        }
+      }
+    }
+    diagnostics = errors;
+    stale = true;
+    return false;
+  }
+
+  /**
+   * Applies an edit that moves nothing else in the program.
+   *
+   * @param from index of the first replaced line
+   * @param to index after the last replaced line, before the edit
+   * @param oldLines the replaced lines
+   * @param newLines the lines that replaced them
+   * @return false if the edit could move something, in which case nothing was changed
+   */
+  private boolean tryFastPath(
+      int from, int to, List<SourceLine> oldLines, List<SourceLine> newLines) {
+    if (!isLocal(oldLines) || !isLocal(newLines)) {
+      return false;
+    }
+    // Find the outputs of the replaced lines, starting from the checkpoint before them
+    var checkpoint = checkpointBefore(from);
+    if (checkpoint == null) {
+      return false;
+    }
+    var inputs = passOne.getOutput();
+    int lineIndex = checkpoint.lineIndex();
+    int fromOutput = checkpoint.outputSize();
+    for (; lineIndex < from; fromOutput++) {
+      if (fromOutput == inputs.size()) {
+        return false;
+      }
+      if (!isLiteralPool(inputs.line(fromOutput))) {
+        lineIndex++;
+      }
+    }
+    int toOutput = fromOutput;
+    while (toOutput < inputs.size() && lineIndex < to) {
+      if (!isLiteralPool(inputs.line(toOutput))) {
+        lineIndex++;
+      }
+      toOutput++;
+    }
+    // Lines next to a literal pool or the end of the program are laid out after the pool
+    if (lineIndex < to
+        || fromOutput == inputs.size()
+        || isLiteralPool(inputs.line(fromOutput))
+        || !sameSpan(inputs, fromOutput, toOutput)) {
+      return false;
+    }
+    int block = inputs.block(fromOutput);
+    int start = inputs.addressInBlock(fromOutput);
+
+    // Lay out the new lines on their own, then move them to where the old ones were
+    List<PassOneData> layout = List.of();
+    if (!newLines.isEmpty()) {
+      var scratch = new PassOne(opTable, newLines);
+      try {
+        scratch.process();
+      } catch (AssemblerException e) {
+        return false;
+      }
+      layout = scratch.getOutput();
+    }
+    List<PassOneData> replacement = new ArrayList<>();
+    int size = 0;
+    for (var data : layout) {
+      replacement.add(
+          new PassOneData(
+              data.line(),
+              data.size(),
+              block,
+              start + data.addressInBlock(),
+              data.isExecutableInstruction()));
+      size += data.size();
+    }
+    int oldSize = 0;
+    for (int i = fromOutput; i < toOutput; i++) {
+      oldSize += inputs.get(i).size();
+    }
+    if (size != oldSize
+        || !labels(replacement).equals(labels(inputs.subList(fromOutput, toOutput)))) {
+      return false;
+    }
+
+    int base = encodings.get(fromOutput).base();
+    passOne.splice(from, to, newLines.size(), fromOutput, toOutput, replacement);
+    var replaced = encodings.subList(fromOutput, toOutput);
+    replaced.clear();
+    for (int i = 0; i < replacement.size(); i++) {
+      replaced.add(null);
+    }
+    try {
+      encode(fromOutput, fromOutput + replacement.size(), base);
+    } catch (AssemblerException e) {
+      diagnostics = List.of(ErrorUtils.format(fileName, e));
+      stale = true;
+      stats = new UpdateStats(0, replacement.size(), true);
+      return true;
+    }
+    stats = new UpdateStats(newLines.size(), replacement.size(), true);
+    return true;
+  }
+
+  /**
+   * Assembles the program again after replacing lines, resuming pass one where it can.
+   *
+   * @param from index of the first replaced line
+   */
+  private boolean update(int from) {
+    var checkpoint = stale ? null : checkpointBefore(from);
+    int passOneLines;
+    int encodeFrom;
+    Map<String, SymbolData> oldSymbols = new HashMap<>();
+    Map<String, Integer> oldLiterals = new HashMap<>();
+    List<Integer> oldBlockAddresses = null;
+    try {
+      if (checkpoint == null) {
+        passOne = new PassOne(opTable, lines);
+        passOne.setCheckpointInterval(CHECKPOINT_INTERVAL);
+        passOne.process();
+        passOneLines = lines.size();
+        encodeFrom = 0;
+        encodings.clear();
+      } else {
+        // Remember what the lines after the checkpoint defined, to find what they changed
+        var symbols = passOne.getSymbolTable();
+        for (int id = checkpoint.symbolCount(); id < symbols.size(); id++) {
+          oldSymbols.put(
+              symbols.name(id),
+              new SymbolData(symbols.value(id), symbols.block(id), symbols.type(id)));
+        }
+        int index = 0;
+        for (var entry : passOne.getLiteralTable().entrySet()) {
+          if (index++ >= checkpoint.assignedLiterals()) {
+            oldLiterals.put(entry.getKey(), literalAddress(entry.getValue()));
+          }
+        }
+        oldBlockAddresses = passOne.getBlockAddresses();
+        encodeFrom = checkpoint.outputSize();
+        passOneLines = lines.size() - checkpoint.lineIndex();
+        passOne.resume(checkpoint, lines.subList(checkpoint.lineIndex(), lines.size()).iterator());
+        encodings.subList(encodeFrom, encodings.size()).clear();
+      }
+      passTwo = new PassTwo(opTable, passOne);
+      int encoded = 0;
+      int base = PassTwo.NO_BASE;
+      if (encodeFrom > 0) {
+        if (!passOne.getBlockAddresses().equals(oldBlockAddresses)) {
+          encodings.clear();
+          encodeFrom = 0;
+          base = PassTwo.NO_BASE;
+        } else {
+          var changed = changedNames(checkpoint, oldSymbols, oldLiterals);
+          if (!changed.isEmpty()) {
+            encoded += reencodeUsers(encodeFrom, changed);
+          }
+          base = baseAfter(encodeFrom - 1);
+        }
+      }
+      var inputs = passOne.getOutput();
+      for (int i = encodeFrom; i < inputs.size(); i++) {
+        encodings.add(null);
+      }
+      encode(encodeFrom, inputs.size(), base);
+      encoded += inputs.size() - encodeFrom;
+      stats = new UpdateStats(passOneLines, encoded, false);
+      stale = false;
+      return true;
+    } catch (AssemblerException e) {
+      diagnostics = List.of(ErrorUtils.format(fileName, e));
+      stale = true;
+      return false;
+    }
+  }
+
+  /** Finds the names of symbols and literals whose address changed after a checkpoint. */
+  private Set<String> changedNames(
+      PassOne.Checkpoint checkpoint,
+      Map<String, SymbolData> oldSymbols,
+      Map<String, Integer> oldLiterals) {
+    Set<String> changed = new HashSet<>();
+    var symbols = passOne.getSymbolTable();
+    for (int id = checkpoint.symbolCount(); id < symbols.size(); id++) {
+      var symbol = new SymbolData(symbols.value(id), symbols.block(id), symbols.type(id));
+      if (!symbol.equals(oldSymbols.remove(symbols.name(id)))) {
+        changed.add(symbols.name(id));
+      }
+    }
+    changed.addAll(oldSymbols.keySet());
+    int index = 0;
+    for (var entry : passOne.getLiteralTable().entrySet()) {
+      if (index++ >= checkpoint.assignedLiterals()
+          && !Integer.valueOf(literalAddress(entry.getValue()))
+              .equals(oldLiterals.remove(entry.getKey()))) {
+        changed.add(entry.getKey());
+      }
+    }
+    changed.addAll(oldLiterals.keySet());
+    return changed;
+  }
+
+  /**
+   * Encodes again the lines before the resumed part of pass one that use a changed symbol or
+   * literal, along with WORD expressions and lines under a BASE directive whose value changed.
+   *
+   * @return the number of lines encoded
+   */
+  private int reencodeUsers(int end, Set<String> changed) {
+    var inputs = passOne.getOutput();
+    int encoded = 0;
+    int base = PassTwo.NO_BASE;
+    for (int i = 0; i < end; i++) {
+      var line = inputs.line(i);
+      var directive = passTwo.directiveOf(i);
+      if (base != encodings.get(i).base()
+          || directive == Directive.WORD
+          || changed.contains(line.getArgOne())
+          || changed.contains(line.getArgTwo())) {
+        encode(i, i + 1, base);
+        encoded++;
+      }
+      if (directive == Directive.BASE) {
+        base = passTwo.baseValue(i);
+      } else if (directive == Directive.NOBASE) {
+        base = PassTwo.NO_BASE;
+      }
+    }
+    return encoded;
+  }
+
+  /** Gets the base register value after a line, from the encoding of the line. */
+  private int baseAfter(int index) {
+    var directive = passTwo.directiveOf(index);
+    if (directive == Directive.BASE) {
+      return passTwo.baseValue(index);
+    } else if (directive == Directive.NOBASE) {
+      return PassTwo.NO_BASE;
+    }
+    return encodings.get(index).base();
+  }
+
+  /** Encodes a run of pass one outputs, replacing their encodings. */
+  private void encode(int from, int to, int base) {
+    var recorder = new Recorder(passTwo);
+    var encoder = passTwo.new Encoder(base, recorder);
+    for (int i = from; i < to; i++) {
+      recorder.start(encoder.baseAddress());
+      encoder.encode(i);
+      encodings.set(i, recorder.finish());
+    }
+  }
+
+  private PassOne.Checkpoint checkpointBefore(int line) {
+    PassOne.Checkpoint found = null;
+    for (var checkpoint : passOne.getCheckpoints()) {
+      if (checkpoint.lineIndex() > line) {
+        break;
+      }
+      found = checkpoint;
+    }
+    return found;
+  }
+
+  private int literalAddress(Literal literal) {
+    return literal.getAddress() == -1 ? -1 : literal.getBlock() << 24 | literal.getAddress();
+  }
+
+  /**
+   * Checks whether the lines only hold comments, instructions without literals and storage
+   * directives, which can change in place without moving any other line.
+   */
+  private boolean isLocal(List<SourceLine> lines) {
+    for (var line : lines) {
+      if (line.isCommentOrBlank()) {
+        continue;
+      }
+      int id = opTable.resolve(line);
+      if (opTable.isOperation(id)) {
+        if (line.getArgOnePrefix().equals("=")) {
+          return false;
+        }
+        continue;
+      }
+      var directive = opTable.getDirective(id);
+      if (directive != Directive.WORD
+          && directive != Directive.BYTE
+          && directive != Directive.RESW
+          && directive != Directive.RESB) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isLiteralPool(SourceLine line) {
+    return line.getOpCodePrefix().equals("=");
+  }
+
+  /** Checks that the outputs all lie in one block, with no literal pool among them. */
+  private static boolean sameSpan(PassOneOutput inputs, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (isLiteralPool(inputs.line(i)) || inputs.block(i) != inputs.block(from)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Map<String, Integer> labels(List<PassOneData> outputs) {
+    Map<String, Integer> labels = new HashMap<>();
+    for (var output : outputs) {
+      if (!output.line().getLabel().isEmpty()) {
+        labels.put(output.line().getLabel(), output.addressInBlock());
+      }
+    }
+    return labels;
+  }
+
+  /** Keeps what the encoder outputs for one line. */
+  private static class Recorder extends PassTwo.Sink {
+    private int base;
+    private boolean hasOutput;
+    private int address;
+    private long instruction;
+    private ConstantBytes data;
+    private int modificationSize;
+    private int modificationAddress;
+
+    Recorder(PassTwo passTwo) {
+      passTwo.super();
+    }
+
+    void start(int base) {
+      this.base = base;
+      hasOutput = false;
+      instruction = ObjectCode.NONE;
+      data = null;
+      modificationSize = 0;
+    }
+
+    Encoding finish() {
+      return new Encoding(
+          base, hasOutput, address, instruction, data, modificationSize, modificationAddress);
+    }
+
+    @Override
+    void modification(int address, int size, String symbol) {
+      if (symbol != null) {
+        throw new AssemblerException("External references cannot be reassembled incrementally.");
+      }
+      modificationAddress = address;
+      modificationSize = size;
+    }
+
+    @Override
+    void output(int index, int address, long instruction, ConstantBytes data) {
+      hasOutput = true;
+      this.address = address;
+      this.instruction = instruction;
+      this.data = data;
+    }
+  }
+}
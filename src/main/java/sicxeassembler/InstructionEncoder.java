@@ -0,0 +1,162 @@
+package sicxeassembler;
+
+import java.util.function.LongSupplier;
+import sicxeassembler.errors.AssemblerException;
+
+/**
+ * Encodes instructions once their operands have been looked up. Both {@link PassTwo} and {@link
+ * SinglePassAssembler} encode through here, and differ only in how they find operand values.
+ *
+ * <p>A value that cannot be worked out yet can be given as {@link #PENDING}, in which case the
+ * encoding is {@code PENDING} too. {@link PassTwo} knows every value and never passes it.
+ */
+final class InstructionEncoder {
+  /** Bits of the nixbpe flags in a format 3 or 4 instruction. */
+  static final int N = 0x20, I = 0x10, X = 0x08, B = 0x04, P = 0x02, E = 0x01;
+
+  /** Stands for object code, or a value it needs, that cannot be worked out yet. */
+  static final long PENDING = Long.MIN_VALUE;
+
+  /** Distance from the base register when no BASE directive is in effect. */
+  static final long NO_BASE = Long.MAX_VALUE;
+
+  private InstructionEncoder() {}
+
+  static long formatOne(Operation op) {
+    return ObjectCode.packBytes(op.opcode());
+  }
+
+  /**
+   * Encodes a format 2 instruction.
+   *
+   * @param one the first register or number, or {@link #PENDING}
+   * @param two the second register or number, or {@link #PENDING}
+   */
+  static long formatTwo(Operation op, long one, long two) {
+    if (one == PENDING || two == PENDING) {
+      return PENDING;
+    }
+    return ObjectCode.packBytes(op.opcode(), ((int) one & 0xf) << 4 | ((int) two & 0xf));
+  }
+
+  /**
+   * Encodes a format 3 instruction whose operand is used as it is, such as RSUB or LDA #3.
+   *
+   * @param flags the n, i and x flags, from {@link #addressingFlags(SourceLine)}
+   * @param value the operand, or {@link #PENDING}
+   * @throws AssemblerException if the operand does not fit in the displacement
+   */
+  static long formatThree(Operation op, int flags, String arg, long value) {
+    if (value == PENDING) {
+      return PENDING;
+    }
+    if (value < 0 || value > 4095) {
+      throw new AssemblerException(
+          "Direct operand " + "'" + arg + "' exceeds 4096! Try using extended format.");
+    }
+    return packFormatThree(op, flags, (int) value);
+  }
+
+  /**
+   * Encodes a format 3 instruction that addresses its operand, relative to the program counter if
+   * it is close enough, or else to the base register.
+   *
+   * @param flags the n, i and x flags, from {@link #addressingFlags(SourceLine)}
+   * @param pcRelative distance from the next instruction to the target, or {@link #PENDING}
+   * @param baseRelative gets the distance from the base register to the target, {@link #PENDING},
+   *     or {@link #NO_BASE}. It is only called if the target is out of range of the program
+   *     counter.
+   * @throws AssemblerException if the target is out of range of both
+   */
+  static long formatThree(
+      Operation op, int flags, String arg, long pcRelative, LongSupplier baseRelative) {
+    if (pcRelative == PENDING) {
+      return PENDING;
+    }
+    if (pcRelative >= -2048 && pcRelative <= 2047) {
+      return packFormatThree(op, flags | P, (int) pcRelative & 0xfff);
+    }
+    long disp = baseRelative.getAsLong();
+    if (disp == PENDING) {
+      return PENDING;
+    }
+    if (disp < 0 || disp > 4095) {
+      throw new AssemblerException(
+          "Address of '" + arg + "' is out of range! Try using extended format.");
+    }
+    return packFormatThree(op, flags | B, (int) disp);
+  }
+
+  /**
+   * Encodes a format 4 instruction.
+   *
+   * @param flags the n, i and x flags, from {@link #addressingFlags(SourceLine)}
+   * @param operand the address or value, or {@link #PENDING}
+   */
+  static long formatFour(Operation op, int flags, long operand) {
+    if (operand == PENDING) {
+      return PENDING;
+    }
+    flags |= E;
+    int address = (int) operand & 0xfffff;
+    return ObjectCode.packBytes(
+        op.opcode() | flags >> 4,
+        (flags & 0xf) << 4 | address >> 16,
+        (address >> 8) & 0xff,
+        address & 0xff);
+  }
+
+  /**
+   * Works out the n, i and x bits of a format 3 or 4 instruction.
+   *
+   * @return the flags, laid out as nixbpe
+   */
+  static int addressingFlags(SourceLine instruction) {
+    int flags =
+        switch (instruction.getArgOnePrefix()) {
+          case "@" -> N;
+          case "#" -> I;
+          default -> N | I;
+        };
+    if (instruction.getArgTwo().equals("X")) {
+      if (flags != (N | I)) {
+        throw new AssemblerException(
+            "Indexed addressing cannot be used with immediate or indirect addressing.");
+      }
+      flags |= X;
+    }
+    return flags;
+  }
+
+  /**
+   * Determines whether an operand is an address that has to be adjusted if the program is loaded
+   * somewhere other than its start address. Symbols not defined yet are taken to be labels.
+   */
+  static boolean isRelocatable(SymbolTable symbolTable, String argFlag, String arg) {
+    if (argFlag.equals("=")) {
+      return true;
+    }
+    if (arg.isEmpty()) {
+      return false;
+    }
+    int id = symbolTable.find(arg);
+    if (id == SymbolTable.NOT_FOUND) {
+      return !isNumber(arg);
+    }
+    return symbolTable.type(id) == SymbolData.Type.RELATIVE;
+  }
+
+  static boolean isNumber(String arg) {
+    try {
+      Integer.parseInt(arg);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static long packFormatThree(Operation op, int flags, int disp) {
+    return ObjectCode.packBytes(
+        op.opcode() | flags >> 4, (flags & 0xf) << 4 | disp >> 8, disp & 0xff);
+  }
+}
@@ -0,0 +1,301 @@
+package sicxeassembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.errors.ErrorUtils;
+
+/**
+ * Links object programs into one memory image. Each program may hold several control sections,
+ * which are placed one after another from the load address, in the order given.
+ *
+ * <p>Linking runs in three steps, each spread over a fork-join pool one task per program or
+ * section:
+ *
+ * <ol>
+ *   <li>Programs are memory mapped and their records located in place by {@link ObjectModule}.
+ *   <li>The external symbol table is built from the section names and define records. If a symbol
+ *       is defined twice, the definition from the earlier section wins, whichever thread gets there
+ *       first.
+ *   <li>Each section's text records are copied into memory and its modification records applied. A
+ *       section's records only touch its own memory, so the sections need no locking.
+ * </ol>
+ *
+ * Duplicate and undefined external symbols are reported as diagnostics, in section order, rather
+ * than stopping the link.
+ */
+public class LinkingLoader {
+  /** Size of SIC/XE memory. */
+  public static final int MEMORY_SIZE = 1 << 20;
+
+  private final ForkJoinPool pool;
+
+  /**
+   * The outcome of a link.
+   *
+   * @param memory the memory image, {@link #MEMORY_SIZE} bytes
+   * @param start address of the first section
+   * @param length total length of the sections
+   * @param entryPoint address to start execution at
+   * @param symbols absolute address of each external symbol and section name
+   * @param diagnostics errors, formatted like the assembler's
+   */
+  public record Result(
+      byte[] memory,
+      int start,
+      int length,
+      int entryPoint,
+      Map<String, Integer> symbols,
+      List<String> diagnostics) {
+    public boolean succeeded() {
+      return diagnostics.isEmpty();
+    }
+  }
+
+  /** The sections of a program, or why it could not be read. */
+  private record Parsed(List<ObjectModule> sections, String error) {}
+
+  /** A symbol in the external symbol table. */
+  private record Definition(int section, int address) {}
+
+  /** A section's symbols that were already defined by another section. */
+  private record Duplicate(int section, String symbol) {}
+
+  public LinkingLoader(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Links object program files.
+   *
+   * @param programs the files
+   * @param loadAddress where the first section goes
+   * @return the result
+   * @throws IOException if a program could not be read
+   */
+  public Result link(List<Path> programs, int loadAddress) throws IOException {
+    List<ByteBuffer> buffers = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    for (var program : programs) {
+      try (FileChannel channel = FileChannel.open(program, StandardOpenOption.READ)) {
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException("Object program is too large: " + program);
+        }
+        buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+      names.add(program.getFileName().toString());
+    }
+    return link(names, buffers, loadAddress);
+  }
+
+  /**
+   * Links object programs held in buffers.
+   *
+   * @param names name of each program, used in diagnostics
+   * @param programs the programs' bytes, which must not change until the link is done
+   * @param loadAddress where the first section goes
+   * @return the result
+   */
+  public Result link(List<String> names, List<ByteBuffer> programs, int loadAddress) {
+    List<String> diagnostics = new ArrayList<>();
+
+    // Locate the records of every program
+    List<Parsed> parsed =
+        runAll(
+            programs.size(),
+            i -> {
+              try {
+                return new Parsed(ObjectModule.parse(names.get(i), programs.get(i)), null);
+              } catch (AssemblerException e) {
+                return new Parsed(List.of(), ErrorUtils.format(names.get(i), e));
+              }
+            });
+    List<ObjectModule> sections = new ArrayList<>();
+    for (var result : parsed) {
+      if (result.error() != null) {
+        diagnostics.add(result.error());
+      }
+      sections.addAll(result.sections());
+    }
+    if (!diagnostics.isEmpty()) {
+      return new Result(new byte[MEMORY_SIZE], loadAddress, 0, loadAddress, Map.of(), diagnostics);
+    }
+
+    // Lay the sections out one after another
+    int[] addresses = new int[sections.size()];
+    int address = loadAddress;
+    for (int i = 0; i < sections.size(); i++) {
+      addresses[i] = address;
+      address += sections.get(i).getLength();
+    }
+    if (address > MEMORY_SIZE) {
+      diagnostics.add(
+          names.get(0)
+              + ":error: Program needs "
+              + (address - loadAddress)
+              + " bytes from "
+              + Integer.toHexString(loadAddress).toUpperCase()
+              + ", more than fits in memory");
+      return new Result(new byte[MEMORY_SIZE], loadAddress, 0, loadAddress, Map.of(), diagnostics);
+    }
+
+    // Build the external symbol table
+    Map<String, Definition> table = new ConcurrentHashMap<>();
+    var duplicates = new ConcurrentLinkedQueue<Duplicate>();
+    runAll(
+        sections.size(),
+        i -> {
+          var section = sections.get(i);
+          define(table, duplicates, section.getName(), new Definition(i, addresses[i]));
+          var definitions = section.getDefinitions();
+          for (int j = 0; j < definitions.size(); j++) {
+            define(
+                table,
+                duplicates,
+                definitions.get(j),
+                new Definition(i, addresses[i] + section.getDefinitionAddress(j)));
+          }
+          return null;
+        });
+    Map<String, Integer> symbols = new HashMap<>();
+    table.forEach((name, definition) -> symbols.put(name, definition.address()));
+    duplicates.stream()
+        .sorted((a, b) -> Integer.compare(a.section(), b.section()))
+        .forEach(
+            duplicate -> {
+              var section = sections.get(duplicate.section());
+              diagnostics.add(
+                  section.getFileName()
+                      + ":error: Duplicate external symbol "
+                      + duplicate.symbol()
+                      + " in "
+                      + section.getName()
+                      + ", already defined in "
+                      + sections.get(table.get(duplicate.symbol()).section()).getName());
+            });
+
+    // Load and relocate each section
+    byte[] memory = new byte[MEMORY_SIZE];
+    List<Set<String>> undefined =
+        runAll(
+            sections.size(),
+            i -> {
+              var section = sections.get(i);
+              section.load(memory, addresses[i]);
+              return relocate(section, addresses[i], memory, symbols);
+            });
+    for (int i = 0; i < sections.size(); i++) {
+      for (var symbol : undefined.get(i)) {
+        diagnostics.add(
+            sections.get(i).getFileName()
+                + ":error: Undefined external symbol "
+                + symbol
+                + " in "
+                + sections.get(i).getName());
+      }
+    }
+
+    int entryPoint = loadAddress;
+    for (int i = 0; i < sections.size(); i++) {
+      if (sections.get(i).hasEntryPoint()) {
+        entryPoint = addresses[i] + sections.get(i).getEntryPoint();
+        break;
+      }
+    }
+    return new Result(
+        memory, loadAddress, address - loadAddress, entryPoint, Map.copyOf(symbols), diagnostics);
+  }
+
+  private static void define(
+      Map<String, Definition> table,
+      ConcurrentLinkedQueue<Duplicate> duplicates,
+      String name,
+      Definition definition) {
+    table.merge(
+        name,
+        definition,
+        (existing, added) -> {
+          var kept = existing.section() <= added.section() ? existing : added;
+          duplicates.add(
+              new Duplicate(kept == existing ? added.section() : existing.section(), name));
+          return kept;
+        });
+  }
+
+  /**
+   * Applies a section's modification records.
+   *
+   * @return the symbols named by the section's refer or modification records that are not defined
+   */
+  private static Set<String> relocate(
+      ObjectModule section, int address, byte[] memory, Map<String, Integer> symbols) {
+    Set<String> undefined = new LinkedHashSet<>();
+    for (var reference : section.getReferences()) {
+      if (!symbols.containsKey(reference)) {
+        undefined.add(reference);
+      }
+    }
+    for (int i = 0; i < section.modificationCount(); i++) {
+      String symbol = section.modificationSymbol(i);
+      int value;
+      if (symbol == null) {
+        value = address;
+      } else {
+        Integer defined = symbols.get(symbol);
+        if (defined == null) {
+          undefined.add(symbol);
+          continue;
+        }
+        value = section.isSubtracted(i) ? -defined : defined;
+      }
+      modify(memory, address + section.modificationAddress(i), section.modificationSize(i), value);
+    }
+    return undefined;
+  }
+
+  /**
+   * Adds a value to a field of memory. A field of an odd number of half bytes starts in the low
+   * half of its first byte, as the address field of a format 4 instruction does.
+   */
+  static void modify(byte[] memory, int at, int halfBytes, int value) {
+    int bytes = (halfBytes + 1) / 2;
+    long field = 0;
+    for (int i = 0; i < bytes; i++) {
+      field = field << 8 | (memory[at + i] & 0xff);
+    }
+    long mask = (1L << (4 * halfBytes)) - 1;
+    field = (field & ~mask) | ((field + value) & mask);
+    for (int i = bytes - 1; i >= 0; i--) {
+      memory[at + i] = (byte) field;
+      field >>>= 8;
+    }
+  }
+
+  /** Runs a task for each index on the pool, and returns the results in index order. */
+  private <T> List<T> runAll(int count, IntFunction<T> task) {
+    List<ForkJoinTask<T>> tasks = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int index = i;
+      tasks.add(pool.submit(ForkJoinTask.adapt(() -> task.apply(index))));
+    }
+    List<T> results = new ArrayList<>(count);
+    for (var submitted : tasks) {
+      results.add(submitted.join());
+    }
+    return results;
+  }
+}
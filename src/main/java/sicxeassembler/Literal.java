@@ -1,19 +1,19 @@
 package sicxeassembler;
 
 public class Literal {
-  private int[] data;
+  private ConstantBytes data;
   private int address = -1;
   private int block;
 
-  public Literal(int[] data) {
+  public Literal(ConstantBytes data) {
     this.data = data;
   }
 
-  public int[] getData() {
+  public ConstantBytes getData() {
     return data;
   }
 
-  public void setData(int[] data) {
+  public void setData(ConstantBytes data) {
     this.data = data;
   }
 
@@ -34,6 +34,6 @@ public class Literal {
   }
 
   public int getSize() {
-    return data.length;
+    return data.length();
   }
 }
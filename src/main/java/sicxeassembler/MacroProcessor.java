@@ -0,0 +1,359 @@
+package sicxeassembler;
+
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import sicxeassembler.errors.AssemblerException;
+
+/**
+ * Expands macros in a stream of {@link SourceLine}s, in front of {@link PassOne}. A definition runs
+ * from a {@code MACRO} line to the matching {@code MEND}. It is stored in a table keyed by the
+ * macro's name, with each use of a parameter in the body resolved to the parameter's slot, so
+ * expanding a line only copies text. Definitions are dropped from the output.
+ *
+ * <p>Parameters are positional, as in {@code &INDEV,&BUFADR}, or keyword parameters with a default,
+ * as in {@code &INDEV=F1}. An invocation passes positional arguments first, then keyword ones as
+ * {@code INDEV=05} or {@code &INDEV=05}. Arguments left out are empty, or the keyword default.
+ *
+ * <p>Malformed definitions and invocations throw an {@link AssemblerException} placed on the source
+ * line. An invocation is replaced by a comment holding its text, followed by the expanded body,
+ * which is parsed one line at a time as it is read. Only the definitions and the invocations being
+ * expanded are held, so memory does not grow with the length of the expansion. The invocation's
+ * label moves to the first expanded line. Bodies may invoke other macros and define new ones.
+ *
+ * <p>The lines put in place of an invocation carry its line number, so errors in them point at the
+ * invocation in the source.
+ */
+public class MacroProcessor implements Iterator<SourceLine> {
+  /** Most invocations that may be expanding at once, to stop runaway recursion. */
+  static final int MAX_DEPTH = 64;
+
+  private final OpTable opTable;
+  private final Iterator<SourceLine> lines;
+
+  /** Macro definitions, by name. */
+  private final Map<String, Macro> definitions = new HashMap<>();
+
+  /** Invocations being expanded, innermost first. */
+  private final Deque<Expansion> expansions = new ArrayDeque<>();
+
+  /** Lines waiting to be returned, in order. */
+  private final Deque<SourceLine> pending = new ArrayDeque<>();
+
+  private final StringBuilder text = new StringBuilder();
+
+  /** Number of lines read from the source, for lines that do not carry their own. */
+  private int lineCount = 0;
+
+  /** Source line being expanded, or the last line read, for errors. */
+  private SourceLine sourceLine;
+
+  public MacroProcessor(OpTable opTable, Iterator<SourceLine> lines) {
+    this.opTable = opTable;
+    this.lines = lines;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (pending.isEmpty()) {
+      SourceLine line = read();
+      if (line == null) {
+        return false;
+      }
+      process(line);
+    }
+    return true;
+  }
+
+  @Override
+  public SourceLine next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return pending.removeFirst();
+  }
+
+  /**
+   * Reads the next line of the innermost expansion, or of the source once no macro is expanding.
+   *
+   * @return the line, or null at the end of the source
+   */
+  private SourceLine read() {
+    while (!expansions.isEmpty()) {
+      Expansion expansion = expansions.peekFirst();
+      if (expansion.next < expansion.macro.body.length) {
+        return expansion.expand(expansion.next++);
+      }
+      expansions.removeFirst();
+    }
+    if (!lines.hasNext()) {
+      return null;
+    }
+    sourceLine = lines.next();
+    lineCount++;
+    if (sourceLine.getLineNumber() == 0) {
+      sourceLine.setLineNumber(lineCount);
+    }
+    return sourceLine;
+  }
+
+  private void process(SourceLine line) {
+    if (line.isCommentOrBlank()) {
+      pending.addLast(line);
+      return;
+    }
+    int id = opTable.resolve(line);
+    if (id == OpTable.UNKNOWN && !definitions.isEmpty()) {
+      Macro macro = definitions.get(line.getOpCode());
+      if (macro != null && line.getOpCodePrefix().isEmpty()) {
+        invoke(macro, line);
+        return;
+      }
+    }
+    if (opTable.getDirective(id) == Directive.MACRO) {
+      define(line);
+    } else if (opTable.getDirective(id) == Directive.MEND) {
+      throw error("MEND without MACRO");
+    } else {
+      pending.addLast(line);
+    }
+  }
+
+  /** Reads a definition, from its MACRO line to the matching MEND. */
+  private void define(SourceLine header) {
+    String name = header.getLabel();
+    if (name.isEmpty()) {
+      throw error("Missing name for MACRO");
+    }
+    if (opTable.lookup(name) != OpTable.UNKNOWN) {
+      throw error("Macro name " + name + " is already an instruction or directive");
+    }
+    Map<String, Integer> slots = new HashMap<>();
+    List<String> defaults = new ArrayList<>();
+    List<Boolean> keywords = new ArrayList<>();
+    for (String parameter : header.getArguments()) {
+      int equals = parameter.indexOf('=');
+      String parameterName = equals < 0 ? parameter : parameter.substring(0, equals);
+      if (parameterName.length() < 2 || parameterName.charAt(0) != '&') {
+        throw error("Invalid macro parameter: " + parameter);
+      }
+      if (slots.putIfAbsent(parameterName.substring(1), defaults.size()) != null) {
+        throw error("Duplicate macro parameter: " + parameterName);
+      }
+      defaults.add(equals < 0 ? "" : parameter.substring(equals + 1));
+      keywords.add(equals >= 0);
+    }
+
+    List<Template> body = new ArrayList<>();
+    int depth = 1;
+    while (true) {
+      SourceLine line = read();
+      if (line == null) {
+        throw error("Missing MEND for macro " + name);
+      }
+      if (line.isCommentOrBlank()) {
+        continue;
+      }
+      Directive directive = opTable.getDirective(opTable.resolve(line));
+      if (directive == Directive.MACRO) {
+        depth++;
+      } else if (directive == Directive.MEND && --depth == 0) {
+        break;
+      }
+      body.add(Template.compile(line.getOriginalSource(), slots));
+    }
+    boolean[] isKeyword = new boolean[keywords.size()];
+    for (int i = 0; i < isKeyword.length; i++) {
+      isKeyword[i] = keywords.get(i);
+    }
+    definitions.put(
+        name,
+        new Macro(
+            name,
+            slots,
+            defaults.toArray(new String[0]),
+            isKeyword,
+            body.toArray(new Template[0])));
+  }
+
+  private void invoke(Macro macro, SourceLine invocation) {
+    if (expansions.size() >= MAX_DEPTH) {
+      throw error("Macro expansion nested more than " + MAX_DEPTH + " deep: " + macro.name);
+    }
+    String[] values = macro.defaults.clone();
+    int position = 0;
+    for (String argument : invocation.getArguments()) {
+      String keyword = keyword(argument);
+      if (keyword != null) {
+        int equals = argument.indexOf('=');
+        Integer slot = macro.slots.get(keyword);
+        if (slot == null) {
+          throw error("Unknown keyword argument " + keyword + " for macro " + macro.name);
+        }
+        values[slot] = argument.substring(equals + 1);
+        continue;
+      }
+      // Positional arguments fill the parameters without defaults, in order
+      while (position < values.length && macro.isKeyword[position]) {
+        position++;
+      }
+      if (position == values.length) {
+        throw error("Too many arguments for macro " + macro.name);
+      }
+      values[position++] = argument;
+    }
+
+    // The invocation is kept in the listing as a comment
+    text.setLength(0);
+    text.append(". ");
+    appendCode(invocation, text);
+    pending.addLast(parse(text.toString()));
+    var expansion = new Expansion(macro, values);
+    String label = invocation.getLabel();
+    if (!label.isEmpty()) {
+      if (macro.body.length > 0 && macro.body[0].hasLabel()) {
+        pending.addLast(parse(label + "\tEQU\t*"));
+      } else {
+        expansion.label = label;
+      }
+    }
+    expansions.addFirst(expansion);
+  }
+
+  /**
+   * Gets the keyword of an argument such as {@code INDEV=05}.
+   *
+   * @return the keyword, or null if the argument is positional, as {@code =X'05'} or {@code C'A=B'}
+   */
+  private static String keyword(String argument) {
+    int start = argument.startsWith("&") ? 1 : 0;
+    int end = start;
+    while (end < argument.length() && Template.isNameChar(argument.charAt(end))) {
+      end++;
+    }
+    if (end == start || end == argument.length() || argument.charAt(end) != '=') {
+      return null;
+    }
+    return argument.substring(start, end);
+  }
+
+  /** Appends the label, operation and arguments of a line, with single spaces between them. */
+  private static void appendCode(SourceLine line, StringBuilder out) {
+    if (!line.getLabel().isEmpty()) {
+      out.append(line.getLabel()).append(' ');
+    }
+    out.append(line.getOpCodePrefix()).append(line.getOpCode());
+    String arguments = line.getArgumentField();
+    if (!arguments.isEmpty()) {
+      out.append(' ').append(arguments);
+    }
+    if (!line.getComment().isEmpty()) {
+      out.append(" .").append(line.getComment());
+    }
+  }
+
+  private SourceLine parse(String source) {
+    try {
+      SourceLine line = SourceLine.parseLine(source);
+      line.setLineNumber(sourceLine.getLineNumber());
+      opTable.resolve(line);
+      return line;
+    } catch (ParseException e) {
+      throw error(e.getMessage() + ": " + source);
+    }
+  }
+
+  /** Creates an error on the source line being read or expanded. */
+  private AssemblerException error(String message) {
+    return new AssemblerException(
+        new AssemblerException(message),
+        sourceLine == null ? "" : sourceLine.getOriginalSource(),
+        sourceLine == null ? 0 : sourceLine.getLineNumber());
+  }
+
+  /** A macro definition. */
+  private record Macro(
+      String name,
+      Map<String, Integer> slots,
+      String[] defaults,
+      boolean[] isKeyword,
+      Template[] body) {}
+
+  /**
+   * A line of a macro body, split into text and parameter slots. Part {@code i} of the text comes
+   * before slot {@code i}, and the last part after every slot.
+   */
+  private record Template(String[] parts, int[] slots) {
+    static Template compile(String source, Map<String, Integer> parameters) {
+      List<String> parts = new ArrayList<>();
+      List<Integer> slots = new ArrayList<>();
+      int start = 0;
+      for (int i = source.indexOf('&'); i >= 0; i = source.indexOf('&', i + 1)) {
+        int end = i + 1;
+        while (end < source.length() && isNameChar(source.charAt(end))) {
+          end++;
+        }
+        Integer slot = parameters.get(source.substring(i + 1, end));
+        if (slot != null) {
+          parts.add(source.substring(start, i));
+          slots.add(slot);
+          start = end;
+        }
+      }
+      parts.add(source.substring(start));
+      return new Template(
+          parts.toArray(new String[0]), slots.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    boolean hasLabel() {
+      if (parts[0].isEmpty()) {
+        return slots.length > 0;
+      }
+      return parts[0].charAt(0) != ' ' && parts[0].charAt(0) != '\t';
+    }
+
+    void expand(String[] values, StringBuilder out) {
+      for (int i = 0; i < slots.length; i++) {
+        out.append(parts[i]).append(values[slots[i]]);
+      }
+      out.append(parts[slots.length]);
+    }
+
+    static boolean isNameChar(char c) {
+      return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+  }
+
+  /** An invocation being expanded. */
+  private final class Expansion {
+    final Macro macro;
+    final String[] values;
+
+    /** Index of the next body line. */
+    int next = 0;
+
+    /** Label to put on the first line, or null. */
+    String label;
+
+    Expansion(Macro macro, String[] values) {
+      this.macro = macro;
+      this.values = values;
+    }
+
+    SourceLine expand(int index) {
+      text.setLength(0);
+      if (label != null) {
+        text.append(label);
+        label = null;
+      }
+      macro.body[index].expand(values, text);
+      return parse(text.toString());
+    }
+  }
+}
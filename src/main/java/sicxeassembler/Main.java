@@ -2,59 +2,88 @@ package sicxeassembler;
 
 import static java.lang.System.exit;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.text.ParseException;
-import java.util.LinkedList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Scanner;
-import sicxeassembler.errors.AssemblerException;
-import sicxeassembler.errors.ErrorUtils;
-import sicxeassembler.output.AssemblyListingGenerator;
+import java.util.function.Consumer;
 
 public class Main {
-  public static void main(String[] args) throws FileNotFoundException, ParseException {
-
-    if (args.length < 1) {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Options options;
+    try {
+      options = Options.parse(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.println(Options.USAGE);
+      exit(1);
+      return;
+    }
+    if (options.getDaemonSocket() != null) {
+      AssemblerDaemon daemon;
+      try {
+        daemon =
+            new AssemblerDaemon(
+                OpTable.loadFromResourceCsv("instructions.csv"), options.getDaemonSocket());
+      } catch (IOException e) {
+        System.err.println(e.getMessage());
+        exit(1);
+        return;
+      }
+      try (daemon) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeQuietly(daemon)));
+        daemon.serve();
+      }
+      return;
+    }
+    if (options.getInputs().isEmpty()) {
       System.out.println("No file name provided!");
       exit(0);
     }
-    File inputFile = new File(args[0]);
-    Scanner scanner = new Scanner(inputFile);
     OpTable optable = OpTable.loadFromResourceCsv("instructions.csv");
-    List<SourceLine> lines = new LinkedList<>();
-    int lineNum = 1;
-    while (scanner.hasNextLine()) {
-      var line = scanner.nextLine();
-      try {
-        lines.add(SourceLine.parseLine(line));
-      } catch (ParseException e) {
-        ErrorUtils.error(inputFile.getName(), lineNum, line, e);
-      }
-      lineNum++;
+    AssemblyCache cache =
+        options.getCacheDirectory() == null
+            ? null
+            : AssemblyCache.open(
+                options.getCacheDirectory(), options.getCacheSize(), "instructions.csv");
+
+    Options.StatsFormat statsFormat = options.getStatsFormat();
+    Assembler assembler =
+        new Assembler(optable, cache, statsFormat != Options.StatsFormat.NONE, options.getMode());
+    Consumer<Assembler.Result> reporter = result -> report(result, statsFormat);
+
+    boolean succeeded;
+    if (options.isBatch() || BatchAssembler.isMultiple(options.getInputs().get(0))) {
+      List<Path> sources = BatchAssembler.expand(options.getInputs());
+      BatchAssembler batch = new BatchAssembler(assembler, options.getJobs());
+      succeeded = batch.run(sources, options.getOutputDirectory(), reporter);
+    } else {
+      Assembler.Result result =
+          assembler.assemble(Path.of(options.getInputs().get(0)), options.getOutputDirectory());
+      reporter.accept(result);
+      succeeded = result.succeeded();
     }
-    PassOne passOne = new PassOne(optable, lines);
-    try {
-      passOne.process();
-    } catch (AssemblerException e) {
-      ErrorUtils.error(inputFile.getName(), e);
-      System.exit(1);
+    if (!succeeded) {
+      exit(1);
     }
-    PassTwo passTwo =
-        new PassTwo(
-            optable,
-            passOne.getStartAddress(),
-            passOne.getSymbolTable(),
-            passOne.getLiteralTable(),
-            passOne.getBlockAddresses(),
-            passOne.getOutput());
-    passTwo.addOutputGenerator(
-        new AssemblyListingGenerator(new File(inputFile.getName().split("\\.")[0] + "_sol.txt")));
+  }
+
+  private static void closeQuietly(Closeable closeable) {
     try {
-      passTwo.process();
-    } catch (AssemblerException e) {
-      ErrorUtils.error(inputFile.getName(), e);
-      System.exit(0);
+      closeable.close();
+    } catch (IOException e) {
+      // Shutting down anyway
+    }
+  }
+
+  private static void report(Assembler.Result result, Options.StatsFormat statsFormat) {
+    result.diagnostics().forEach(System.err::println);
+    if (result.stats() != null) {
+      switch (statsFormat) {
+        case TEXT -> System.out.print(result.stats().format());
+        case JSON -> System.out.println(result.stats().toJson());
+        case NONE -> {}
+      }
     }
   }
 }
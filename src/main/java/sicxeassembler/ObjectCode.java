@@ -0,0 +1,54 @@
+package sicxeassembler;
+
+/**
+ * Packs the object code of a single instruction or word into a {@code long}, so it can be passed
+ * around without allocating an array. The low 32 bits hold up to four bytes of code, with the first
+ * byte most significant, and bits 32 to 39 hold the number of bytes.
+ */
+public final class ObjectCode {
+  /** Packed value for a line with no object code. */
+  public static final long NONE = 0L;
+
+  private ObjectCode() {}
+
+  /**
+   * Packs object code
+   *
+   * @param bytes the code, first byte most significant. Only the low {@code length} bytes are kept.
+   * @param length the number of bytes, from 0 to 4
+   * @return the packed code
+   */
+  public static long pack(int bytes, int length) {
+    long mask = (1L << (8 * length)) - 1;
+    return ((long) length << 32) | (bytes & mask);
+  }
+
+  /**
+   * Packs object code from individual bytes. Only the low 8 bits of each byte are kept.
+   *
+   * @param bytes the bytes, at most 4
+   * @return the packed code
+   */
+  public static long packBytes(int... bytes) {
+    int value = 0;
+    for (int b : bytes) {
+      value = (value << 8) | (b & 0xff);
+    }
+    return pack(value, bytes.length);
+  }
+
+  public static int length(long code) {
+    return (int) (code >>> 32) & 0xff;
+  }
+
+  /**
+   * Gets one byte of packed code
+   *
+   * @param code the packed code
+   * @param index index of the byte, 0 being the first
+   * @return the byte, as an unsigned value from 0 to 255
+   */
+  public static int byteAt(long code, int index) {
+    return (int) (code >>> (8 * (length(code) - 1 - index))) & 0xff;
+  }
+}
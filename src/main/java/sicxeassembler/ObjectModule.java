@@ -0,0 +1,395 @@
+package sicxeassembler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import sicxeassembler.errors.AssemblerException;
+
+/**
+ * One control section of an object program, as written by {@link
+ * sicxeassembler.output.ObjectProgramGenerator}, read in place from the program's bytes. The
+ * header, define, refer and end records are decoded, since the loader needs their names and
+ * addresses. Text and modification records are only checked and located by their offsets, and
+ * {@link LinkingLoader} decodes them straight from the buffer into memory.
+ *
+ * <p>Records end at {@code \n} or {@code \r\n}, and trailing spaces and blank lines are ignored, so
+ * symbol names cut short by an editor still read correctly.
+ */
+public class ObjectModule {
+  private static final int NO_ENTRY_POINT = -1;
+
+  private final String fileName;
+  private final ByteBuffer data;
+  private final String name;
+  private final int start;
+  private final int length;
+  private final String[] definitions;
+  private final int[] definitionAddresses;
+  private final String[] references;
+  private final int[] textRecords;
+  private final int[] modificationRecords;
+  private final int entryPoint;
+
+  private ObjectModule(Parser parser) {
+    fileName = parser.fileName;
+    data = parser.data;
+    name = parser.name;
+    start = parser.start;
+    length = parser.length;
+    definitions = parser.definitions.toArray(new String[0]);
+    definitionAddresses = Arrays.copyOf(parser.definitionAddresses, definitions.length);
+    references = parser.references.toArray(new String[0]);
+    textRecords = Arrays.copyOf(parser.textRecords, parser.textCount);
+    modificationRecords = Arrays.copyOf(parser.modificationRecords, parser.modificationCount);
+    entryPoint = parser.entryPoint;
+  }
+
+  /**
+   * Reads every control section of an object program. The buffer is kept, not copied, so it must
+   * not change while the modules are in use.
+   *
+   * @param fileName name of the program, used in errors
+   * @param data the program's bytes, from position 0 to the limit
+   * @return the control sections, in order
+   * @throws AssemblerException placed on the first malformed record
+   */
+  public static List<ObjectModule> parse(String fileName, ByteBuffer data) {
+    return new Parser(fileName, data).parse();
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Gets the symbols named by define records.
+   *
+   * @return the symbols, in order
+   */
+  public List<String> getDefinitions() {
+    return List.of(definitions);
+  }
+
+  /**
+   * Gets the address of a defined symbol, relative to the start of the section's memory.
+   *
+   * @param index index in {@link #getDefinitions()}
+   * @return the address
+   */
+  public int getDefinitionAddress(int index) {
+    return definitionAddresses[index] - start;
+  }
+
+  /**
+   * Gets the symbols named by refer records.
+   *
+   * @return the symbols, in order
+   */
+  public List<String> getReferences() {
+    return List.of(references);
+  }
+
+  /**
+   * Determines whether the end record gives an address to start execution at.
+   *
+   * @return whether there is an entry point
+   */
+  public boolean hasEntryPoint() {
+    return entryPoint != NO_ENTRY_POINT;
+  }
+
+  /**
+   * Gets the entry point, relative to the start of the section's memory.
+   *
+   * @return the address
+   */
+  public int getEntryPoint() {
+    return entryPoint - start;
+  }
+
+  /**
+   * Copies the code of the text records into memory.
+   *
+   * @param memory the memory
+   * @param address where the section's first byte goes
+   */
+  void load(byte[] memory, int address) {
+    for (int record : textRecords) {
+      int to = address + hex(record + 1, 6) - start;
+      int count = hex(record + 7, 2);
+      for (int i = 0, at = record + 9; i < count; i++, at += 2) {
+        memory[to + i] = (byte) hex(at, 2);
+      }
+    }
+  }
+
+  int modificationCount() {
+    return modificationRecords.length;
+  }
+
+  /** Gets the address a modification record changes, relative to the section's memory. */
+  int modificationAddress(int index) {
+    return hex(modificationRecords[index] + 1, 6) - start;
+  }
+
+  /** Gets the number of half bytes a modification record changes. */
+  int modificationSize(int index) {
+    return hex(modificationRecords[index] + 7, 2);
+  }
+
+  /**
+   * Gets the symbol a modification record adds or subtracts.
+   *
+   * @return the symbol, or null to add the section's own address
+   */
+  String modificationSymbol(int index) {
+    int record = modificationRecords[index];
+    int end = lineEnd(record + 9);
+    return end == record + 9 ? null : text(record + 10, end);
+  }
+
+  /** Determines whether a modification record subtracts its value. */
+  boolean isSubtracted(int index) {
+    int at = modificationRecords[index] + 9;
+    return at < data.limit() && data.get(at) == '-';
+  }
+
+  /** Reads hex digits already checked by the parser. */
+  private int hex(int at, int digits) {
+    int value = 0;
+    for (int i = 0; i < digits; i++) {
+      value = value << 4 | Character.digit(data.get(at + i), 16);
+    }
+    return value;
+  }
+
+  /** Finds where a record ends, not counting trailing spaces. */
+  private int lineEnd(int at) {
+    int end = at;
+    while (end < data.limit() && data.get(end) != '\n' && data.get(end) != '\r') {
+      end++;
+    }
+    while (end > at && data.get(end - 1) == ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  private String text(int from, int to) {
+    var chars = new char[to - from];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) (data.get(from + i) & 0xff);
+    }
+    return new String(chars);
+  }
+
+  /** Reads the records of a program one section at a time. */
+  private static class Parser {
+    final String fileName;
+    final ByteBuffer data;
+
+    String name;
+    int start;
+    int length;
+    final List<String> definitions = new ArrayList<>();
+    int[] definitionAddresses = new int[8];
+    final List<String> references = new ArrayList<>();
+    int[] textRecords = new int[16];
+    int textCount = 0;
+    int[] modificationRecords = new int[16];
+    int modificationCount = 0;
+    int entryPoint = NO_ENTRY_POINT;
+
+    /** Bounds of the record being read, without the line break and trailing spaces. */
+    private int recordStart;
+
+    private int recordEnd;
+    private int lineNumber = 0;
+
+    Parser(String fileName, ByteBuffer data) {
+      this.fileName = fileName;
+      this.data = data;
+    }
+
+    List<ObjectModule> parse() {
+      List<ObjectModule> modules = new ArrayList<>();
+      boolean inSection = false;
+      int next = 0;
+      while (next < data.limit()) {
+        next = nextRecord(next);
+        if (recordEnd == recordStart) {
+          continue;
+        }
+        try {
+          byte type = data.get(recordStart);
+          if (!inSection) {
+            if (type != 'H') {
+              throw new AssemblerException("Expected a header record");
+            }
+            readHeader();
+            inSection = true;
+            continue;
+          }
+          switch (type) {
+            case 'D' -> readDefinitions();
+            case 'R' -> readReferences();
+            case 'T' -> readText();
+            case 'M' -> readModification();
+            case 'E' -> {
+              readEnd();
+              modules.add(new ObjectModule(this));
+              reset();
+              inSection = false;
+            }
+            default -> throw new AssemblerException("Unknown record type: " + (char) type);
+          }
+        } catch (AssemblerException e) {
+          throw new AssemblerException(e, record(), lineNumber);
+        }
+      }
+      if (inSection) {
+        throw new AssemblerException(
+            new AssemblerException("Missing end record for " + name), "", lineNumber);
+      }
+      return modules;
+    }
+
+    /** Finds the record starting at the given offset, and returns the offset of the next one. */
+    private int nextRecord(int at) {
+      lineNumber++;
+      recordStart = at;
+      int end = at;
+      while (end < data.limit() && data.get(end) != '\n') {
+        end++;
+      }
+      int next = end + 1;
+      while (end > at && (data.get(end - 1) == '\r' || data.get(end - 1) == ' ')) {
+        end--;
+      }
+      recordEnd = end;
+      return next;
+    }
+
+    private void readHeader() {
+      expectLength(19, 19);
+      name = text(recordStart + 1, 6).strip();
+      start = hex(recordStart + 7, 6);
+      length = hex(recordStart + 13, 6);
+    }
+
+    private void readDefinitions() {
+      int count = (recordEnd - recordStart - 1) / 12;
+      expectLength(1 + 12 * count, 1 + 12 * count);
+      for (int i = 0; i < count; i++) {
+        int entry = recordStart + 1 + 12 * i;
+        if (definitions.size() == definitionAddresses.length) {
+          definitionAddresses = Arrays.copyOf(definitionAddresses, definitions.size() * 2);
+        }
+        definitionAddresses[definitions.size()] = hex(entry + 6, 6);
+        definitions.add(text(entry, 6).strip());
+      }
+    }
+
+    private void readReferences() {
+      // The last name may have lost its padding
+      for (int entry = recordStart + 1; entry < recordEnd; entry += 6) {
+        references.add(text(entry, Math.min(6, recordEnd - entry)).strip());
+      }
+    }
+
+    private void readText() {
+      expectLength(9, 9 + 2 * 0xff);
+      int count = hex(recordStart + 7, 2);
+      expectLength(9 + 2 * count, 9 + 2 * count);
+      expectInSection(hex(recordStart + 1, 6), count);
+      hex(recordStart + 9, 2 * count);
+      if (textCount == textRecords.length) {
+        textRecords = Arrays.copyOf(textRecords, textCount * 2);
+      }
+      textRecords[textCount++] = recordStart;
+    }
+
+    private void readModification() {
+      expectLength(9, 9 + 1 + 6);
+      expectInSection(hex(recordStart + 1, 6), (hex(recordStart + 7, 2) + 1) / 2);
+      if (recordEnd - recordStart > 9) {
+        byte sign = data.get(recordStart + 9);
+        if ((sign != '+' && sign != '-') || recordEnd - recordStart == 10) {
+          throw new AssemblerException("Expected + or - and a symbol");
+        }
+      }
+      if (modificationCount == modificationRecords.length) {
+        modificationRecords = Arrays.copyOf(modificationRecords, modificationCount * 2);
+      }
+      modificationRecords[modificationCount++] = recordStart;
+    }
+
+    private void readEnd() {
+      if (recordEnd - recordStart > 1) {
+        expectLength(7, 7);
+        entryPoint = hex(recordStart + 1, 6);
+      }
+    }
+
+    private void reset() {
+      definitions.clear();
+      references.clear();
+      textCount = 0;
+      modificationCount = 0;
+      entryPoint = NO_ENTRY_POINT;
+    }
+
+    private void expectLength(int min, int max) {
+      int length = recordEnd - recordStart;
+      if (length < min || length > max) {
+        throw new AssemblerException(
+            "Malformed " + (char) data.get(recordStart) + " record of length " + length);
+      }
+    }
+
+    /** Checks that a record only touches the section's own memory. */
+    private void expectInSection(int address, int bytes) {
+      if (address < start || address + bytes > start + length) {
+        throw new AssemblerException("Record is outside of section " + name);
+      }
+    }
+
+    /** Reads and checks hex digits. Values up to 8 digits fit in an int. */
+    private int hex(int at, int digits) {
+      int value = 0;
+      for (int i = 0; i < digits; i++) {
+        int digit = Character.digit(data.get(at + i), 16);
+        if (digit < 0) {
+          throw new AssemblerException("Invalid hex digit: " + (char) data.get(at + i));
+        }
+        value = value << 4 | digit;
+      }
+      return value;
+    }
+
+    private String text(int from, int count) {
+      var chars = new char[count];
+      for (int i = 0; i < count; i++) {
+        chars[i] = (char) (data.get(from + i) & 0xff);
+      }
+      return new String(chars);
+    }
+
+    private String record() {
+      return text(recordStart, recordEnd - recordStart);
+    }
+  }
+}
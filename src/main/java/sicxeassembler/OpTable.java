@@ -1,22 +1,213 @@
 package sicxeassembler;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+/**
+ * Table of operations and directives. Every mnemonic is assigned a small integer ID: operations
+ * take IDs {@code 0} to {@code operationCount() - 1} and directives follow them in {@link
+ * Directive} order. {@link #resolve(SourceLine)} looks a line's mnemonic up once and caches the ID
+ * on the line, so the passes can dispatch on the ID without hashing the mnemonic again.
+ *
+ * <p>The table cannot be changed once it is built, so a single instance can be shared between
+ * threads.
+ */
 public class OpTable {
+  /** ID of a mnemonic that is neither an operation nor a directive. */
+  public static final int UNKNOWN = -1;
 
-  private Map<String, Operation> table;
+  /** Number of seeds to try for each table size before growing the table. */
+  private static final int SEED_ATTEMPTS = 64;
+
+  /**
+   * Largest slot table to try. Mnemonics that collide in every table this size never get their own
+   * slots, as their string hashes are equal.
+   */
+  private static final int MAX_SLOTS = 1 << 16;
+
+  private static final Directive[] DIRECTIVES = Directive.values();
+
+  private final Map<String, Operation> table;
+
+  /** Operations indexed by ID. */
+  private final Operation[] operations;
+
+  /** Mnemonics indexed by ID, including directives. */
+  private final String[] mnemonics;
+
+  /** Perfect hash table from mnemonic hash to ID. Empty slots hold {@link #UNKNOWN}. */
+  private final int[] slots;
+
+  private final int seed;
 
   public OpTable(Collection<Operation> instructions) {
     this(instructions.stream().collect(Collectors.toMap(Operation::mnemonic, op -> op)));
   }
 
+  /**
+   * Builds a table of operations.
+   *
+   * @param instructions the operations, by mnemonic
+   * @throws IllegalArgumentException if an operation is named like a directive, or the mnemonics
+   *     cannot be given their own slots in the lookup table
+   */
   public OpTable(Map<String, Operation> instructions) {
-    table = new HashMap<>(instructions);
+    for (Directive directive : DIRECTIVES) {
+      if (instructions.containsKey(directive.name())) {
+        throw new IllegalArgumentException(
+            "Operation " + directive.name() + " has the same name as a directive");
+      }
+    }
+    table = Map.copyOf(instructions);
+    operations =
+        table.values().stream()
+            .sorted((a, b) -> a.mnemonic().compareTo(b.mnemonic()))
+            .toArray(Operation[]::new);
+    mnemonics = new String[operations.length + DIRECTIVES.length];
+    for (int i = 0; i < operations.length; i++) {
+      mnemonics[i] = operations[i].mnemonic();
+    }
+    for (Directive directive : DIRECTIVES) {
+      mnemonics[operations.length + directive.ordinal()] = directive.name();
+    }
+
+    // Find a seed that gives every mnemonic its own slot, growing the table if needed
+    int size = Integer.highestOneBit(Math.max(mnemonics.length, 1)) << 3;
+    int[] found = null;
+    int foundSeed = 0;
+    while (found == null) {
+      if (size > MAX_SLOTS) {
+        throw new IllegalArgumentException(
+            "Could not give each of the "
+                + mnemonics.length
+                + " mnemonics its own slot in a lookup table of "
+                + MAX_SLOTS);
+      }
+      for (int attempt = 0; attempt < SEED_ATTEMPTS && found == null; attempt++) {
+        foundSeed = 0x9E3779B9 * (attempt + 1);
+        found = buildSlots(size, foundSeed);
+      }
+      size <<= 1;
+    }
+    slots = found;
+    seed = foundSeed;
+  }
+
+  /**
+   * Builds the slot table for the given size and seed.
+   *
+   * @return the slots, or null if two mnemonics collide
+   */
+  private int[] buildSlots(int size, int seed) {
+    int[] result = new int[size];
+    Arrays.fill(result, UNKNOWN);
+    for (int id = 0; id < mnemonics.length; id++) {
+      String mnemonic = mnemonics[id];
+      int slot = hash(mnemonic, 0, mnemonic.length(), seed) & (size - 1);
+      if (result[slot] != UNKNOWN) {
+        return null;
+      }
+      result[slot] = id;
+    }
+    return result;
+  }
+
+  private static int hash(CharSequence text, int start, int end, int seed) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + text.charAt(i);
+    }
+    h *= seed;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Looks up the ID of the mnemonic in the given region of text.
+   *
+   * @param text text containing the mnemonic
+   * @param start index of the first character of the mnemonic
+   * @param end index after the last character of the mnemonic
+   * @return the ID, or {@link #UNKNOWN}
+   */
+  public int lookup(CharSequence text, int start, int end) {
+    int id = slots[hash(text, start, end, seed) & (slots.length - 1)];
+    if (id == UNKNOWN) {
+      return UNKNOWN;
+    }
+    String mnemonic = mnemonics[id];
+    if (mnemonic.length() != end - start) {
+      return UNKNOWN;
+    }
+    for (int i = 0; i < mnemonic.length(); i++) {
+      if (mnemonic.charAt(i) != text.charAt(start + i)) {
+        return UNKNOWN;
+      }
+    }
+    return id;
+  }
+
+  public int lookup(String mnemonic) {
+    return lookup(mnemonic, 0, mnemonic.length());
+  }
+
+  /**
+   * Gets the mnemonic ID of a line, looking it up and caching it on the line the first time. The
+   * cached ID is only meaningful to the table that resolved it.
+   *
+   * @param line the line
+   * @return the ID, or {@link #UNKNOWN}
+   */
+  public int resolve(SourceLine line) {
+    int id = line.getMnemonicId();
+    if (id == SourceLine.UNRESOLVED) {
+      int start = line.getFieldStart(SourceLine.Field.OPCODE);
+      if (start >= 0) {
+        id = lookup(line.getOriginalSource(), start, line.getFieldEnd(SourceLine.Field.OPCODE));
+      } else {
+        id = lookup(line.getOpCode());
+      }
+      line.setMnemonicId(id);
+    }
+    return id;
+  }
+
+  /**
+   * Number of operations in the table. IDs below this are operations.
+   *
+   * @return the number of operations
+   */
+  public int operationCount() {
+    return operations.length;
+  }
+
+  public boolean isOperation(int id) {
+    return id >= 0 && id < operations.length;
+  }
+
+  /**
+   * Get the {@link Operation} for the given ID
+   *
+   * @param id the mnemonic ID
+   * @return the operation, or null if the ID is not an operation
+   */
+  public Operation getOperation(int id) {
+    return isOperation(id) ? operations[id] : null;
+  }
+
+  /**
+   * Get the {@link Directive} for the given ID
+   *
+   * @param id the mnemonic ID
+   * @return the directive, or null if the ID is not a directive
+   */
+  public Directive getDirective(int id) {
+    int index = id - operations.length;
+    return index >= 0 && index < DIRECTIVES.length ? DIRECTIVES[index] : null;
   }
 
   /**
@@ -47,7 +238,7 @@ public class OpTable {
   /**
    * Get the backing map of the OpTable.
    *
-   * @return the map.
+   * @return the map. The map is unmodifiable.
    */
   public Map<String, Operation> getMap() {
     return table;
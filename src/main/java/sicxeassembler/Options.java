@@ -0,0 +1,153 @@
+package sicxeassembler;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Command line options for {@link Main}. */
+public class Options {
+  /** How to print {@link AssemblyStats}. */
+  public enum StatsFormat {
+    NONE,
+    TEXT,
+    JSON
+  }
+
+  public static final String USAGE =
+      """
+      Usage: sic-xe-assembler [options] INPUT_FILE
+             sic-xe-assembler [options] --batch INPUT...
+             sic-xe-assembler --daemon SOCKET
+      Options:
+        --batch              assemble every INPUT (file, directory or glob) on a worker pool
+        --jobs N             number of worker threads for --batch (default: number of CPUs)
+        --output-dir DIR     directory to write output files to (default: current directory)
+        --cache-dir DIR      reuse the outputs of unchanged sources, cached in DIR
+        --cache-size MB      most megabytes the cache may take (default: 256)
+        --pipeline           parse and write outputs on their own threads, overlapping the passes
+        --single-pass        assemble in one pass, patching forward references; writes only the
+                             object program, with no listing, and skips the cache
+        --stats[=json]       print the time, lines and allocation of each stage, as text or JSON
+        --daemon SOCKET      serve sic-xe-client requests on a Unix domain socket""";
+
+  private boolean batch = false;
+  private int jobs = Runtime.getRuntime().availableProcessors();
+  private Path outputDirectory = Path.of("");
+  private Path cacheDirectory = null;
+  private long cacheSize = AssemblyCache.DEFAULT_MAX_BYTES;
+  private Path daemonSocket = null;
+  private StatsFormat statsFormat = StatsFormat.NONE;
+  private Assembler.Mode mode = Assembler.Mode.TWO_PASS;
+  private final List<String> inputs = new ArrayList<>();
+
+  /**
+   * Parses the command line.
+   *
+   * @param args the arguments passed to main
+   * @return the options
+   * @throws IllegalArgumentException if the arguments are invalid
+   */
+  public static Options parse(String[] args) {
+    Options options = new Options();
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+        case "--batch" -> options.batch = true;
+        case "--jobs" -> {
+          options.jobs = parsePositive(arg, value(args, ++i, arg));
+        }
+        case "--output-dir" -> options.outputDirectory = Path.of(value(args, ++i, arg));
+        case "--cache-dir" -> options.cacheDirectory = Path.of(value(args, ++i, arg));
+        case "--stats", "--stats=text" -> options.statsFormat = StatsFormat.TEXT;
+        case "--stats=json" -> options.statsFormat = StatsFormat.JSON;
+        case "--pipeline" -> options.mode = Assembler.Mode.PIPELINED;
+        case "--single-pass" -> options.mode = Assembler.Mode.SINGLE_PASS;
+        case "--daemon" -> options.daemonSocket = Path.of(value(args, ++i, arg));
+        case "--cache-size" -> {
+          options.cacheSize = (long) parsePositive(arg, value(args, ++i, arg)) << 20;
+        }
+        default -> {
+          if (arg.startsWith("--")) {
+            throw new IllegalArgumentException("Unknown option: " + arg);
+          }
+          options.inputs.add(arg);
+        }
+      }
+    }
+    // More than one input only makes sense as a batch
+    if (options.inputs.size() > 1) {
+      options.batch = true;
+    }
+    return options;
+  }
+
+  private static String value(String[] args, int index, String option) {
+    if (index >= args.length) {
+      throw new IllegalArgumentException("Missing value for " + option);
+    }
+    return args[index];
+  }
+
+  private static int parsePositive(String option, String value) {
+    try {
+      int result = Integer.parseInt(value);
+      if (result > 0) {
+        return result;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException(option + " expects a positive number, got: " + value);
+  }
+
+  public boolean isBatch() {
+    return batch;
+  }
+
+  public int getJobs() {
+    return jobs;
+  }
+
+  public Path getOutputDirectory() {
+    return outputDirectory;
+  }
+
+  /**
+   * Gets the directory of the assembly cache.
+   *
+   * @return the directory, or null if caching is off
+   */
+  public Path getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  /**
+   * Gets the size limit of the assembly cache.
+   *
+   * @return the limit in bytes
+   */
+  public long getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * Gets the socket to serve requests on.
+   *
+   * @return the socket path, or null if not running as a daemon
+   */
+  public Path getDaemonSocket() {
+    return daemonSocket;
+  }
+
+  public StatsFormat getStatsFormat() {
+    return statsFormat;
+  }
+
+  public Assembler.Mode getMode() {
+    return mode;
+  }
+
+  public List<String> getInputs() {
+    return inputs;
+  }
+}
@@ -0,0 +1,152 @@
+package sicxeassembler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Pass two that encodes instructions on several threads. Once pass one is done, encoding a line
+ * only reads the symbol, literal and block tables, plus the base register. The program is cut into
+ * chunks at BASE and NOBASE directives, and after at most {@link #DEFAULT_CHUNK_SIZE} lines, so
+ * every chunk starts with a known base register value.
+ *
+ * <p>Chunks are encoded on a fork-join pool and handed to the output generators in source order,
+ * each as soon as it and every chunk before it are done. If a line fails to encode, the lines
+ * before it are still output and the error is thrown, just like {@link PassTwo}.
+ */
+public class ParallelPassTwo extends PassTwo {
+  /** Most lines in one chunk. Programs no longer than this are encoded on the calling thread. */
+  public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+  private final ForkJoinPool pool;
+  private final int chunkSize;
+
+  public ParallelPassTwo(OpTable opTable, PassOne passOne, ForkJoinPool pool) {
+    this(opTable, passOne, pool, DEFAULT_CHUNK_SIZE);
+  }
+
+  ParallelPassTwo(OpTable opTable, PassOne passOne, ForkJoinPool pool, int chunkSize) {
+    this(opTable, passOne, passOne.getEntryPoint(), pool, chunkSize);
+  }
+
+  /** Creates a second pass with the given END operand, for a control section. */
+  ParallelPassTwo(OpTable opTable, PassOne passOne, String entryPoint, ForkJoinPool pool) {
+    this(opTable, passOne, entryPoint, pool, DEFAULT_CHUNK_SIZE);
+  }
+
+  private ParallelPassTwo(
+      OpTable opTable, PassOne passOne, String entryPoint, ForkJoinPool pool, int chunkSize) {
+    super(opTable, passOne, entryPoint);
+    this.pool = pool;
+    this.chunkSize = chunkSize;
+  }
+
+  @Override
+  public void process() {
+    var inputs = getInputs();
+    if (inputs.size() <= chunkSize) {
+      super.process();
+      return;
+    }
+    initializeOutputs();
+    List<ForkJoinTask<Chunk>> tasks = submitChunks(inputs);
+    try {
+      for (var task : tasks) {
+        task.join().replay(getOutputs());
+      }
+    } finally {
+      tasks.forEach(task -> task.cancel(false));
+    }
+    finalizeOutputs();
+  }
+
+  /** Splits the program into chunks and starts encoding them. */
+  private List<ForkJoinTask<Chunk>> submitChunks(PassOneOutput inputs) {
+    List<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+    int base = NO_BASE;
+    int start = 0;
+    for (int i = 0; i < inputs.size(); i++) {
+      var directive = directiveOf(i);
+      boolean changesBase = directive == Directive.BASE || directive == Directive.NOBASE;
+      if (!changesBase && i - start < chunkSize) {
+        continue;
+      }
+      if (i > start) {
+        tasks.add(submit(start, i, base));
+        start = i;
+      }
+      if (changesBase) {
+        try {
+          base = directive == Directive.BASE ? baseValue(i) : NO_BASE;
+        } catch (AssemblerException e) {
+          // The chunk holding this line runs into the same error, in order with everything else
+          break;
+        }
+      }
+    }
+    tasks.add(submit(start, inputs.size(), base));
+    return tasks;
+  }
+
+  private ForkJoinTask<Chunk> submit(int from, int to, int base) {
+    var chunk = new Chunk(from, to, base);
+    return pool.submit(ForkJoinTask.adapt(chunk::encode));
+  }
+
+  /** Encodes a run of lines and records the results until they can be output. */
+  private class Chunk extends Sink {
+    private final int from;
+    private final int to;
+    private final int base;
+    private final RecordingOutputGenerator recording;
+    private RuntimeException error;
+
+    Chunk(int from, int to, int base) {
+      this.from = from;
+      this.to = to;
+      this.base = base;
+      recording = new RecordingOutputGenerator(to - from + 16);
+    }
+
+    Chunk encode() {
+      var encoder = new Encoder(base, this);
+      try {
+        for (int i = from; i < to; i++) {
+          encoder.encode(i);
+        }
+      } catch (RuntimeException e) {
+        error = e;
+      }
+      return this;
+    }
+
+    @Override
+    void modification(int address, int size, String symbol) {
+      recording.addModificationRecord(address, size, symbol);
+    }
+
+    @Override
+    void output(int index, int address, long instruction, ConstantBytes constant) {
+      var inputs = getInputs();
+      recording.accept(
+          inputs.line(index),
+          inputs.sizeOf(index),
+          inputs.block(index),
+          address,
+          inputs.isExecutableInstruction(index),
+          instruction,
+          constant);
+    }
+
+    /** Passes the results on in order, then throws the error that stopped encoding, if any. */
+    void replay(List<OutputGenerator> generators) {
+      generators.forEach(recording::replay);
+      if (error != null) {
+        throw error;
+      }
+    }
+  }
+}
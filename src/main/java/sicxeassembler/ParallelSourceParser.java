@@ -0,0 +1,230 @@
+package sicxeassembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a whole source file on several threads. {@link SourceLine#parseLine(String)} does not
+ * depend on the lines around it, so the file is memory mapped, cut into chunks at line breaks, and
+ * each chunk is decoded and parsed on a fork-join pool.
+ *
+ * <p>The result is the same as pass one pulling lines from a {@link SourceReader}: lines end at
+ * {@code \n}, {@code \r} or {@code \r\n}, the text is UTF-8, lines that fail to parse are skipped,
+ * and the errors reach the {@link SourceReader.ErrorHandler} in line order with their line numbers
+ * in the whole file. Pass one stops at the first END outside a macro definition, so the lines and
+ * errors after it are dropped. Unlike a SourceReader, every line is held in memory at once.
+ */
+public class ParallelSourceParser {
+  /** Target size of a chunk. Files no bigger than this are parsed on the calling thread. */
+  public static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+  private final OpTable opTable;
+  private final ForkJoinPool pool;
+  private final int chunkBytes;
+
+  public ParallelSourceParser(OpTable opTable, ForkJoinPool pool) {
+    this(opTable, pool, DEFAULT_CHUNK_BYTES);
+  }
+
+  ParallelSourceParser(OpTable opTable, ForkJoinPool pool, int chunkBytes) {
+    this.opTable = opTable;
+    this.pool = pool;
+    this.chunkBytes = chunkBytes;
+  }
+
+  /**
+   * Parses a source file.
+   *
+   * @param path the source file
+   * @param errorHandler handler for lines that fail to parse
+   * @return the lines that parsed, in order
+   * @throws IOException if the file could not be read, or is 2 GB or more
+   */
+  public List<SourceLine> parse(Path path, SourceReader.ErrorHandler errorHandler)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Source file is too large: " + path);
+      }
+      return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), errorHandler);
+    }
+  }
+
+  /**
+   * Parses source text.
+   *
+   * @param text the text, in UTF-8, from position 0 to the limit
+   * @param errorHandler handler for lines that fail to parse
+   * @return the lines that parsed, in order
+   */
+  List<SourceLine> parse(ByteBuffer text, SourceReader.ErrorHandler errorHandler) {
+    List<Chunk> chunks = new ArrayList<>();
+    int end = text.limit();
+    for (int start = 0; start < end; ) {
+      int chunkEnd = start + chunkBytes >= end ? end : nextLineStart(text, start + chunkBytes, end);
+      chunks.add(new Chunk(text, start, chunkEnd));
+      start = chunkEnd;
+    }
+
+    List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(chunks.size());
+    if (chunks.size() == 1) {
+      chunks.get(0).parse();
+    } else {
+      for (var chunk : chunks) {
+        tasks.add(pool.submit(ForkJoinTask.adapt(chunk::parse)));
+      }
+    }
+    try {
+      int total = 0;
+      for (var task : tasks) {
+        task.join();
+      }
+      for (var chunk : chunks) {
+        total += chunk.count;
+      }
+      List<SourceLine> lines = new ArrayList<>(total);
+      int firstLine = 0;
+      int definitions = 0;
+      for (var chunk : chunks) {
+        int error = 0;
+        boolean ended = false;
+        for (int i = 0; i < chunk.count && !ended; i++) {
+          // Errors come before the next line that parsed, or up to END at the latest
+          while (error < chunk.errors.size() && chunk.errors.get(error).line() < chunk.numbers[i]) {
+            report(chunk.errors.get(error++), firstLine, errorHandler);
+          }
+          SourceLine line = chunk.lines[i];
+          line.setLineNumber(firstLine + chunk.numbers[i] + 1);
+          lines.add(line);
+          Directive directive = opTable.getDirective(line.getMnemonicId());
+          if (directive == Directive.MACRO) {
+            definitions++;
+          } else if (directive == Directive.MEND && definitions > 0) {
+            definitions--;
+          } else if (directive == Directive.END && definitions == 0) {
+            ended = true;
+          }
+        }
+        if (ended) {
+          break;
+        }
+        while (error < chunk.errors.size()) {
+          report(chunk.errors.get(error++), firstLine, errorHandler);
+        }
+        firstLine += chunk.lineCount;
+      }
+      return lines;
+    } finally {
+      tasks.forEach(task -> task.cancel(false));
+    }
+  }
+
+  private static void report(Error error, int firstLine, SourceReader.ErrorHandler errorHandler) {
+    errorHandler.error(firstLine + error.line() + 1, error.source(), error.exception());
+  }
+
+  /** Finds the start of the line after the one holding the given position. */
+  private static int nextLineStart(ByteBuffer text, int position, int end) {
+    for (int i = position; i < end; i++) {
+      byte b = text.get(i);
+      if (b == '\n') {
+        return i + 1;
+      }
+      if (b == '\r') {
+        return i + 1 < end && text.get(i + 1) == '\n' ? i + 2 : i + 1;
+      }
+    }
+    return end;
+  }
+
+  /** A line that failed to parse, numbered from 0 within its chunk. */
+  private record Error(int line, String source, ParseException exception) {}
+
+  /** A run of whole lines and what they parsed to. */
+  private class Chunk {
+    private final ByteBuffer text;
+    private final int start;
+    private final int end;
+    private final CharsetDecoder decoder = SourceReader.newDecoder();
+
+    private SourceLine[] lines = new SourceLine[0];
+
+    /** Number of each parsed line within the chunk, from 0. */
+    private int[] numbers = new int[0];
+
+    private int count = 0;
+    private int lineCount = 0;
+    private final List<Error> errors = new ArrayList<>();
+
+    Chunk(ByteBuffer text, int start, int end) {
+      this.text = text;
+      this.start = start;
+      this.end = end;
+    }
+
+    Chunk parse() {
+      byte[] bytes = new byte[end - start];
+      text.get(start, bytes);
+      // Lines average well over 8 bytes, so this rarely has to grow
+      lines = new SourceLine[bytes.length / 8 + 1];
+      numbers = new int[lines.length];
+      int lineStart = 0;
+      for (int i = 0; i < bytes.length; i++) {
+        if (bytes[i] == '\n' || bytes[i] == '\r') {
+          addLine(decode(bytes, lineStart, i));
+          if (bytes[i] == '\r' && i + 1 < bytes.length && bytes[i + 1] == '\n') {
+            i++;
+          }
+          lineStart = i + 1;
+        }
+      }
+      if (lineStart < bytes.length) {
+        addLine(decode(bytes, lineStart, bytes.length));
+      }
+      return this;
+    }
+
+    /** Decodes a line like a {@link SourceReader}, taking a shortcut for plain ASCII. */
+    private String decode(byte[] bytes, int from, int to) {
+      for (int i = from; i < to; i++) {
+        if (bytes[i] < 0) {
+          CharBuffer out = CharBuffer.allocate(to - from);
+          decoder.reset();
+          decoder.decode(ByteBuffer.wrap(bytes, from, to - from), out, true);
+          decoder.flush(out);
+          return out.flip().toString();
+        }
+      }
+      return new String(bytes, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    private void addLine(String source) {
+      try {
+        SourceReader.checkDecoded(source);
+        SourceLine line = SourceLine.parseLine(source);
+        opTable.resolve(line);
+        if (count == lines.length) {
+          lines = Arrays.copyOf(lines, count * 2);
+          numbers = Arrays.copyOf(numbers, count * 2);
+        }
+        numbers[count] = lineCount;
+        lines[count++] = line;
+      } catch (ParseException e) {
+        errors.add(new Error(lineCount, SourceReader.displayed(source), e));
+      }
+      lineCount++;
+    }
+  }
+}
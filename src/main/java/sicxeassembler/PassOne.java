@@ -4,10 +4,44 @@ import java.util.*;
 import sicxeassembler.errors.AssemblerException;
 
 public class PassOne {
-  private final List<SourceLine> lines;
-  private final List<PassOneData> output = new LinkedList<>();
+  /**
+   * State of pass one just before a line, from which {@link #resume(Checkpoint, Iterator)} can
+   * continue.
+   *
+   * @param lineIndex index of the line about to be processed
+   * @param outputSize number of {@link PassOneData} produced before the line
+   * @param symbolCount number of symbols defined before the line
+   * @param literalCount number of literals used before the line
+   * @param assignedLiterals number of those literals placed in a literal pool. Literals are placed
+   *     in the order they were first used, so these are always the first ones.
+   * @param blockCounters location counter of each program block, indexed by block ID
+   * @param activeBlock ID of the active block
+   * @param definitionCount number of symbols named by EXTDEF before the line
+   * @param referenceCount number of symbols named by EXTREF before the line
+   */
+  record Checkpoint(
+      int lineIndex,
+      int outputSize,
+      int symbolCount,
+      int literalCount,
+      int assignedLiterals,
+      int[] blockCounters,
+      int activeBlock,
+      int definitionCount,
+      int referenceCount) {}
+
+  /** Receives the layout of each line as soon as it is worked out. */
+  @FunctionalInterface
+  interface Listener {
+    void line(
+        SourceLine line, int size, int block, int addressInBlock, boolean isExecutableInstruction);
+  }
+
+  private Iterator<SourceLine> lines;
+  private final PassOneOutput output = new PassOneOutput();
   private final ProgramBlockTable programBlocks = new ProgramBlockTable();
-  private final Map<String, SymbolData> symbolTable = new LinkedHashMap<>();
+  private final SymbolTable symbolTable = new SymbolTable();
+  private final ExpressionParser expressionParser = new ExpressionParser(symbolTable);
   private final Map<String, Literal> literalTable = new LinkedHashMap<>();
   private final OpTable opTable;
 
@@ -15,25 +49,54 @@ public class PassOne {
   private ProgramBlock activeBlock;
 
   private int startAddress = -1;
+
+  /** Operand of the END directive, naming the first instruction to execute. */
+  private String entryPoint = "";
+
+  /** Symbols named by EXTDEF, which other control sections may refer to. */
+  private final List<String> externalDefinitions = new ArrayList<>();
+
+  /** Symbols named by EXTREF, defined in other control sections. */
+  private final List<String> externalReferences = new ArrayList<>();
+
   private int currentLineIndex = -1;
   private SourceLine currentLine;
 
+  /** Lines between checkpoints, or 0 to take none. */
+  private int checkpointInterval = 0;
+
+  private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+  /** Where lines go instead of the output, or null to keep them. */
+  private Listener listener = null;
+
   private final int WORD_SIZE = 3;
   private final int BYTE_SIZE = 1;
 
   public PassOne(OpTable opTable, List<SourceLine> lines) {
+    this(opTable, lines.iterator());
+  }
+
+  /**
+   * Creates a first pass that consumes its input as it goes. Each line is requested from the
+   * iterator only once, so the source can be streamed (see {@link SourceReader}).
+   *
+   * @param opTable the operation table
+   * @param lines the source lines
+   */
+  public PassOne(OpTable opTable, Iterator<SourceLine> lines) {
     this.opTable = opTable;
     this.lines = lines;
     activeBlock = programBlocks.getBlock("");
-    symbolTable.put("A", new SymbolData(0, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("X", new SymbolData(1, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("L", new SymbolData(2, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("PC", new SymbolData(8, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("SW", new SymbolData(9, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("B", new SymbolData(3, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("S", new SymbolData(4, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("T", new SymbolData(5, 0, SymbolData.Type.ABSOLUTE));
-    symbolTable.put("F", new SymbolData(6, 0, SymbolData.Type.ABSOLUTE));
+    symbolTable.put("A", 0, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("X", 1, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("L", 2, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("PC", 8, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("SW", 9, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("B", 3, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("S", 4, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("T", 5, 0, SymbolData.Type.ABSOLUTE);
+    symbolTable.put("F", 6, 0, SymbolData.Type.ABSOLUTE);
   }
 
   public String getActiveBlockName() {
@@ -67,88 +130,294 @@ public class PassOne {
   public void process() {
     getNextLine();
     initializeStartAddress();
+    processRemaining();
+  }
+
+  /**
+   * Continues pass one from a checkpoint taken by an earlier run, reading the rest of the program
+   * from the given lines. Everything produced after the checkpoint is discarded first: output,
+   * symbols, literals, program blocks and later checkpoints.
+   *
+   * @param checkpoint the checkpoint, which must be one of {@link #getCheckpoints()}
+   * @param rest the lines from the checkpoint's line onward
+   */
+  void resume(Checkpoint checkpoint, Iterator<SourceLine> rest) {
+    checkpoints.subList(checkpoints.indexOf(checkpoint), checkpoints.size()).clear();
+    output.subList(checkpoint.outputSize(), output.size()).clear();
+    symbolTable.truncate(checkpoint.symbolCount());
+    int index = 0;
+    for (var iterator = literalTable.values().iterator(); iterator.hasNext(); index++) {
+      var literal = iterator.next();
+      if (index >= checkpoint.literalCount()) {
+        iterator.remove();
+      } else if (index >= checkpoint.assignedLiterals()) {
+        literal.setAddress(-1);
+      }
+    }
+    programBlocks.restoreCounters(checkpoint.blockCounters());
+    activeBlock = programBlocks.getBlock(checkpoint.activeBlock());
+    externalDefinitions.subList(checkpoint.definitionCount(), externalDefinitions.size()).clear();
+    externalReferences.subList(checkpoint.referenceCount(), externalReferences.size()).clear();
+    entryPoint = "";
+    lines = rest;
+    currentLineIndex = checkpoint.lineIndex() - 1;
+    getNextLine();
+    processRemaining();
+  }
+
+  /**
+   * Takes a checkpoint every interval lines while processing, for {@link #resume(Checkpoint,
+   * Iterator)}.
+   *
+   * @param interval lines between checkpoints, or 0 to take none
+   */
+  void setCheckpointInterval(int interval) {
+    checkpointInterval = interval;
+  }
+
+  /**
+   * Sends each line to a listener instead of keeping it in {@link #getOutput()}. A line's label is
+   * in the symbol table by the time the listener sees the line.
+   *
+   * @param listener the listener, or null to keep the output
+   */
+  void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Numbers lines from the given line on, for a control section that does not start the file.
+   * Called before {@link #process()}.
+   *
+   * @param lineIndex index of the first line in the whole file
+   */
+  void setFirstLineIndex(int lineIndex) {
+    currentLineIndex = lineIndex - 1;
+  }
+
+  /**
+   * Gets the number of the line being processed in the source file, as used in errors. Lines
+   * expanded from a macro have the number of the invocation.
+   *
+   * @return the 1-based line number
+   */
+  int getLineNumber() {
+    if (currentLine != null && currentLine.getLineNumber() > 0) {
+      return currentLine.getLineNumber();
+    }
+    return currentLineIndex + 1;
+  }
+
+  /**
+   * Gets the number of lines read so far, including the one being processed and lines expanded from
+   * macros.
+   *
+   * @return the line count
+   */
+  int getLineCount() {
+    return currentLineIndex + 1;
+  }
+
+  /**
+   * Replaces the output of some source lines with output laid out elsewhere, for an edit that
+   * changes neither the symbol table nor the address of any other line. Checkpoints inside the
+   * replaced lines are dropped and later ones are moved to follow the new lines.
+   *
+   * @param fromLine index of the first replaced source line
+   * @param toLine index after the last replaced source line
+   * @param lineCount number of source lines replacing them
+   * @param fromOutput index of the first output of the replaced lines
+   * @param toOutput index after the last output of the replaced lines
+   * @param replacement output of the new lines
+   */
+  void splice(
+      int fromLine,
+      int toLine,
+      int lineCount,
+      int fromOutput,
+      int toOutput,
+      List<PassOneData> replacement) {
+    var replaced = output.subList(fromOutput, toOutput);
+    replaced.clear();
+    replaced.addAll(replacement);
+    int lineShift = lineCount - (toLine - fromLine);
+    int outputShift = replacement.size() - (toOutput - fromOutput);
+    for (var iterator = checkpoints.listIterator(); iterator.hasNext(); ) {
+      var checkpoint = iterator.next();
+      if (checkpoint.lineIndex() <= fromLine) {
+        continue;
+      }
+      if (checkpoint.lineIndex() < toLine) {
+        iterator.remove();
+      } else {
+        iterator.set(
+            new Checkpoint(
+                checkpoint.lineIndex() + lineShift,
+                checkpoint.outputSize() + outputShift,
+                checkpoint.symbolCount(),
+                checkpoint.literalCount(),
+                checkpoint.assignedLiterals(),
+                checkpoint.blockCounters(),
+                checkpoint.activeBlock(),
+                checkpoint.definitionCount(),
+                checkpoint.referenceCount()));
+      }
+    }
+  }
+
+  /**
+   * Gets the checkpoints taken so far, in line order.
+   *
+   * @return the checkpoints
+   */
+  List<Checkpoint> getCheckpoints() {
+    return checkpoints;
+  }
+
+  private Checkpoint checkpoint() {
+    int assigned = 0;
+    for (var literal : literalTable.values()) {
+      if (literal.getAddress() == -1) {
+        break;
+      }
+      assigned++;
+    }
+    return new Checkpoint(
+        currentLineIndex,
+        output.size(),
+        symbolTable.size(),
+        literalTable.size(),
+        assigned,
+        programBlocks.getCounters(),
+        activeBlock.getId(),
+        externalDefinitions.size(),
+        externalReferences.size());
+  }
+
+  private void processRemaining() {
     while (!finished()) {
+      if (checkpointInterval > 0
+          && (checkpoints.isEmpty() || currentLineIndex % checkpointInterval == 0)) {
+        checkpoints.add(checkpoint());
+      }
       try {
         if (currentLine.isCommentOrBlank()) {
-          appendOutputData(
-              new PassOneData(
-                  currentLine, 0, getActiveBlock().getId(), getActiveBlock().get(), false));
-        } else if (opTable.contains(currentLine.getOpCode())) {
-          handleInstruction(currentLine);
+          appendOutputData(currentLine, 0, getActiveBlock().getId(), getActiveBlock().get(), false);
         } else {
-          handleDirective(currentLine);
+          int id = opTable.resolve(currentLine);
+          if (opTable.isOperation(id)) {
+            handleInstruction(currentLine, opTable.getOperation(id));
+          } else {
+            handleDirective(currentLine, opTable.getDirective(id));
+          }
         }
       } catch (AssemblerException e) {
-        throw new AssemblerException(e, currentLine.getOriginalSource(), currentLineIndex + 1);
+        if (e.getLineNumber() >= 0) {
+          // A listener already placed it on an earlier line
+          throw e;
+        }
+        throw new AssemblerException(e, currentLine.getOriginalSource(), getLineNumber());
       }
       getNextLine();
     }
+    if (currentLine != null) {
+      entryPoint = currentLine.getArgOne();
+    }
     outputPendingLiterals();
+    for (var name : externalDefinitions) {
+      int id = symbolTable.find(name);
+      if (id == SymbolTable.NOT_FOUND || symbolTable.type(id) == SymbolData.Type.EXTERNAL) {
+        throw new AssemblerException("Undefined external definition: " + name);
+      }
+    }
   }
 
   private boolean finished() {
-    return currentLine == null || currentLine.getOpCode().equals("END");
+    return currentLine == null || isDirective(currentLine, Directive.END);
   }
 
   private void initializeStartAddress() {
-    if (currentLine.getOpCode().equals("START")) {
+    if (isDirective(currentLine, Directive.START)) {
       setStartAddress(Integer.parseInt(currentLine.getArgOne(), 16));
-      appendOutputData(new PassOneData(currentLine, 0, 0, 0, false));
+      appendOutputData(currentLine, 0, 0, 0, false);
+      getNextLine();
+    } else if (isDirective(currentLine, Directive.CSECT)) {
+      // Control sections after the first are relocated on their own, from 0
+      setStartAddress(0);
+      appendOutputData(currentLine, 0, 0, 0, false);
       getNextLine();
     } else {
       setStartAddress(0);
     }
   }
 
-  private void handleDirective(SourceLine line) {
-    switch (line.getOpCode()) {
-      case "WORD":
+  private boolean isDirective(SourceLine line, Directive directive) {
+    return opTable.getDirective(opTable.resolve(line)) == directive;
+  }
+
+  private void handleDirective(SourceLine line, Directive directive) {
+    if (directive == null) {
+      throw new AssemblerException("Unknown directive or instruction: " + line.getOpCode());
+    }
+    switch (directive) {
+      case WORD:
         handleWORD(line);
         break;
-      case "BYTE":
+      case BYTE:
         handleBYTE(line);
         break;
-      case "RESW":
+      case RESW:
         handleRESW(line);
         break;
-      case "RESB":
+      case RESB:
         handleRESB(line);
         break;
-      case "USE":
+      case USE:
         handleUSE(line);
         break;
-      case "EQU":
+      case EQU:
         handleEQU(line);
         break;
-      case "LTORG":
+      case LTORG:
         handleLTORG(line);
-      case "BASE":
         break;
+      case BASE:
+      case NOBASE:
+        handleBASE(line);
+        break;
+      case EXTDEF:
+        externalDefinitions.addAll(line.getArguments());
+        appendOutputData(line, 0, getActiveBlockId(), getActiveBlock().get(), false);
+        break;
+      case EXTREF:
+        handleEXTREF(line);
+        break;
+      case CSECT:
+        throw new AssemblerException(
+            "Control section " + line.getLabel() + " must be assembled on its own");
       default:
         throw new AssemblerException("Unknown directive or instruction: " + line.getOpCode());
     }
   }
 
-  private void handleInstruction(SourceLine instruction) {
+  private void handleInstruction(SourceLine instruction, Operation op) {
     if (instruction.getArgOnePrefix().equals("=")) {
       handleLiteral(instruction);
     }
-    boolean extFlag = getInstructionExtFlag(instruction);
+    boolean extFlag = getInstructionExtFlag(instruction, op);
     int size =
-        switch (opTable.get(instruction.getOpCode()).format()) {
+        switch (op.format()) {
           case ONE -> 1;
           case TWO -> 2;
           case THREE_FOUR -> extFlag ? 4 : 3;
         };
     int location = getAndAdd(size);
     tryAddSymbol(
-        instruction.getLabel(),
-        new SymbolData(location, getActiveBlock().getId(), SymbolData.Type.RELATIVE));
-    appendOutputData(new PassOneData(instruction, size, getActiveBlockId(), location, true));
+        instruction.getLabel(), location, getActiveBlock().getId(), SymbolData.Type.RELATIVE);
+    appendOutputData(instruction, size, getActiveBlockId(), location, true);
   }
 
-  private boolean getInstructionExtFlag(SourceLine instruction) {
-    var op = opTable.get(instruction.getOpCode());
+  private boolean getInstructionExtFlag(SourceLine instruction, Operation op) {
     boolean extFlag = false;
     if (!instruction.getOpCodePrefix().isEmpty()) {
       if (instruction.getOpCodePrefix().equals("+")) {
@@ -170,7 +439,7 @@ public class PassOne {
   private void handleLiteral(SourceLine literalInstruction) {
     literalTable.computeIfAbsent(
         literalInstruction.getArgOne(),
-        (literal) -> new Literal(ConstantParser.parseByteConstant(literal)));
+        (literal) -> new Literal(ConstantParser.parseConstant(literal)));
   }
 
   private void handleRESW(SourceLine directive) {
@@ -184,9 +453,8 @@ public class PassOne {
     int size = count * WORD_SIZE;
     int location = getAndAdd(size);
     tryAddSymbol(
-        directive.getLabel(),
-        new SymbolData(location, getActiveBlock().getId(), SymbolData.Type.RELATIVE));
-    appendOutputData(new PassOneData(directive, size, getActiveBlock().getId(), location, false));
+        directive.getLabel(), location, getActiveBlock().getId(), SymbolData.Type.RELATIVE);
+    appendOutputData(directive, size, getActiveBlock().getId(), location, false);
   }
 
   private void handleRESB(SourceLine directive) {
@@ -199,32 +467,28 @@ public class PassOne {
     }
     int location = getAndAdd(size);
     tryAddSymbol(
-        directive.getLabel(),
-        new SymbolData(location, getActiveBlock().getId(), SymbolData.Type.RELATIVE));
-    appendOutputData(new PassOneData(directive, size, getActiveBlockId(), location, false));
+        directive.getLabel(), location, getActiveBlock().getId(), SymbolData.Type.RELATIVE);
+    appendOutputData(directive, size, getActiveBlockId(), location, false);
   }
 
   private void handleWORD(SourceLine directive) {
     int location = getAndAdd(WORD_SIZE);
     tryAddSymbol(
-        directive.getLabel(),
-        new SymbolData(location, getActiveBlock().getId(), SymbolData.Type.RELATIVE));
-    appendOutputData(new PassOneData(directive, WORD_SIZE, getActiveBlockId(), location, false));
+        directive.getLabel(), location, getActiveBlock().getId(), SymbolData.Type.RELATIVE);
+    appendOutputData(directive, WORD_SIZE, getActiveBlockId(), location, false);
   }
 
   private void handleBYTE(SourceLine directive) {
-    var size = ConstantParser.parseByteConstant(directive.getArgOne()).length * BYTE_SIZE;
+    var size = ConstantParser.parseConstant(directive.getArgOne()).length() * BYTE_SIZE;
     int location = getAndAdd(size);
     tryAddSymbol(
-        directive.getLabel(),
-        new SymbolData(location, getActiveBlock().getId(), SymbolData.Type.RELATIVE));
-    appendOutputData(new PassOneData(directive, size, getActiveBlockId(), location, false));
+        directive.getLabel(), location, getActiveBlock().getId(), SymbolData.Type.RELATIVE);
+    appendOutputData(directive, size, getActiveBlockId(), location, false);
   }
 
   private void handleUSE(SourceLine directive) {
     setActiveBlockName(directive.getArgOne());
-    appendOutputData(
-        new PassOneData(directive, 0, getActiveBlockId(), getActiveBlock().get(), false));
+    appendOutputData(directive, 0, getActiveBlockId(), getActiveBlock().get(), false);
   }
 
   private void handleEQU(SourceLine directive) {
@@ -237,16 +501,22 @@ public class PassOne {
           new SymbolData(
               getActiveBlock().get(), getActiveBlock().getId(), SymbolData.Type.RELATIVE);
     } else {
-      ExpressionParser parser = new ExpressionParser(symbolTable);
-      data = parser.parse(directive.getArgOne());
+      data = expressionParser.parse(directive.getArgOne());
     }
-    tryAddSymbol(directive.getLabel(), data);
-    appendOutputData(new PassOneData(directive, 0, data.programBlockId(), data.value(), false));
+    tryAddSymbol(directive.getLabel(), data.value(), data.programBlockId(), data.type());
+    appendOutputData(directive, 0, data.programBlockId(), data.value(), false);
+  }
+
+  private void handleEXTREF(SourceLine directive) {
+    for (var name : directive.getArguments()) {
+      tryAddSymbol(name, 0, -1, SymbolData.Type.EXTERNAL);
+      externalReferences.add(name);
+    }
+    appendOutputData(directive, 0, getActiveBlockId(), getActiveBlock().get(), false);
   }
 
   private void handleLTORG(SourceLine directive) {
-    appendOutputData(
-        new PassOneData(directive, 0, getActiveBlock().getId(), getActiveBlock().get(), false));
+    appendOutputData(directive, 0, getActiveBlock().getId(), getActiveBlock().get(), false);
     outputPendingLiterals();
   }
 
@@ -260,12 +530,11 @@ public class PassOne {
             literal.setAddress(location);
             // Output so pass 2 can generate the data
             appendOutputData(
-                new PassOneData(
-                    new SourceLine().setLabel("*").setOpCodePrefix("=").setOpCode(name),
-                    literal.getSize(),
-                    literal.getBlock(),
-                    literal.getAddress(),
-                    false));
+                new SourceLine().setLabel("*").setOpCodePrefix("=").setOpCode(name),
+                literal.getSize(),
+                literal.getBlock(),
+                literal.getAddress(),
+                false);
           }
         });
   }
@@ -281,8 +550,18 @@ public class PassOne {
   }
 
   /** Adds the data to the output. */
-  private void appendOutputData(PassOneData data) {
-    output.add(data);
+  private void handleBASE(SourceLine directive) {
+    // Pass two needs the line to know which base register value to assume
+    appendOutputData(directive, 0, getActiveBlockId(), getActiveBlock().get(), false);
+  }
+
+  private void appendOutputData(
+      SourceLine line, int size, int block, int addressInBlock, boolean isExecutableInstruction) {
+    if (listener != null) {
+      listener.line(line, size, block, addressInBlock, isExecutableInstruction);
+    } else {
+      output.append(line, size, block, addressInBlock, isExecutableInstruction);
+    }
   }
 
   /**
@@ -290,14 +569,16 @@ public class PassOne {
    * exists in the symbol table, an error is thrown.
    *
    * @param label The label to add
-   * @param symbolData The symbol data
+   * @param value The value of the symbol
+   * @param block The program block the symbol is in
+   * @param type Whether the symbol is absolute or relative
    */
-  private void tryAddSymbol(String label, SymbolData symbolData) {
+  private void tryAddSymbol(String label, int value, int block, SymbolData.Type type) {
     if (!label.isEmpty()) {
       if (symbolTable.containsKey(label)) {
         throw new AssemblerException("Multiple definitions of symbol: " + label);
       }
-      symbolTable.put(label, symbolData);
+      symbolTable.put(label, value, block, type);
     }
   }
 
@@ -308,11 +589,7 @@ public class PassOne {
    */
   private SourceLine getNextLine() {
     currentLineIndex++;
-    if (lines.size() <= currentLineIndex) {
-      currentLine = null;
-    } else {
-      currentLine = lines.get(currentLineIndex);
-    }
+    currentLine = lines.hasNext() ? lines.next() : null;
     return currentLine;
   }
 
@@ -320,7 +597,25 @@ public class PassOne {
     return programBlocks.makeAbsolutePositions();
   }
 
-  public Map<String, SymbolData> getSymbolTable() {
+  /**
+   * Gets the total length of the program, across all blocks.
+   *
+   * @return the length in bytes
+   */
+  public int getProgramLength() {
+    return programBlocks.getTotalLength();
+  }
+
+  /**
+   * Gets the operand of the END directive.
+   *
+   * @return the operand, or "" if there was none
+   */
+  public String getEntryPoint() {
+    return entryPoint;
+  }
+
+  public SymbolTable getSymbolTable() {
     return symbolTable;
   }
 
@@ -328,7 +623,25 @@ public class PassOne {
     return literalTable;
   }
 
-  public List<PassOneData> getOutput() {
+  /**
+   * Gets the symbols named by EXTDEF.
+   *
+   * @return the names, in the order they were given
+   */
+  public List<String> getExternalDefinitions() {
+    return externalDefinitions;
+  }
+
+  /**
+   * Gets the symbols named by EXTREF.
+   *
+   * @return the names, in the order they were given
+   */
+  public List<String> getExternalReferences() {
+    return externalReferences;
+  }
+
+  public PassOneOutput getOutput() {
     return output;
   }
 }
@@ -0,0 +1,203 @@
+package sicxeassembler;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The output of {@link PassOne}, stored as columns: one array each of source lines, sizes, block
+ * IDs, addresses and flags, indexed by output position. A line costs 20 bytes of primitives plus a
+ * reference, rather than a {@link PassOneData} object and the list slot pointing to it, and {@link
+ * PassTwo} walks the arrays in order.
+ *
+ * <p>It is also a {@code List<PassOneData>} for code that wants records. {@link #get(int)} makes a
+ * new record on each call, and changes through the list are stored back into the columns.
+ */
+public class PassOneOutput extends AbstractList<PassOneData> implements RandomAccess {
+  /** Flag of a line that is an executable instruction. */
+  private static final int EXECUTABLE = 1;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private SourceLine[] lines = new SourceLine[INITIAL_CAPACITY];
+  private int[] sizes = new int[INITIAL_CAPACITY];
+  private int[] blocks = new int[INITIAL_CAPACITY];
+  private int[] addresses = new int[INITIAL_CAPACITY];
+  private int[] flags = new int[INITIAL_CAPACITY];
+  private int count = 0;
+
+  /**
+   * Copies records into columns.
+   *
+   * @param data the records
+   * @return the output, or the argument itself if it already is one
+   */
+  public static PassOneOutput of(List<PassOneData> data) {
+    if (data instanceof PassOneOutput output) {
+      return output;
+    }
+    var output = new PassOneOutput();
+    output.addAll(data);
+    return output;
+  }
+
+  /**
+   * Adds a line without making a record for it.
+   *
+   * @param line the source line
+   * @param size the size in bytes of the resulting object code
+   * @param block the block ID
+   * @param addressInBlock the address relative to the start of the block
+   * @param isExecutableInstruction whether the line is an instruction
+   */
+  public void append(
+      SourceLine line, int size, int block, int addressInBlock, boolean isExecutableInstruction) {
+    makeRoom(count, 1);
+    store(count++, line, size, block, addressInBlock, isExecutableInstruction);
+    modCount++;
+  }
+
+  public SourceLine line(int index) {
+    return lines[check(index)];
+  }
+
+  public int sizeOf(int index) {
+    return sizes[check(index)];
+  }
+
+  public int block(int index) {
+    return blocks[check(index)];
+  }
+
+  public int addressInBlock(int index) {
+    return addresses[check(index)];
+  }
+
+  public boolean isExecutableInstruction(int index) {
+    return (flags[check(index)] & EXECUTABLE) != 0;
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public PassOneData get(int index) {
+    check(index);
+    return new PassOneData(
+        lines[index],
+        sizes[index],
+        blocks[index],
+        addresses[index],
+        (flags[index] & EXECUTABLE) != 0);
+  }
+
+  @Override
+  public PassOneData set(int index, PassOneData data) {
+    var previous = get(index);
+    store(index, data);
+    return previous;
+  }
+
+  @Override
+  public void add(int index, PassOneData data) {
+    if (index < 0 || index > count) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    makeRoom(index, 1);
+    store(index, data);
+    count++;
+    modCount++;
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends PassOneData> data) {
+    if (index < 0 || index > count) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    makeRoom(index, data.size());
+    int i = index;
+    for (var element : data) {
+      store(i++, element);
+    }
+    count += data.size();
+    modCount++;
+    return !data.isEmpty();
+  }
+
+  @Override
+  public PassOneData remove(int index) {
+    var removed = get(index);
+    removeRange(index, index + 1);
+    return removed;
+  }
+
+  @Override
+  protected void removeRange(int from, int to) {
+    int moved = count - to;
+    System.arraycopy(lines, to, lines, from, moved);
+    System.arraycopy(sizes, to, sizes, from, moved);
+    System.arraycopy(blocks, to, blocks, from, moved);
+    System.arraycopy(addresses, to, addresses, from, moved);
+    System.arraycopy(flags, to, flags, from, moved);
+    int newCount = count - (to - from);
+    // Let go of the removed lines
+    Arrays.fill(lines, newCount, count, null);
+    count = newCount;
+    modCount++;
+  }
+
+  /** Grows the columns if needed, and opens a gap of the given length at the given index. */
+  private void makeRoom(int index, int length) {
+    if (count + length > lines.length) {
+      int capacity = Math.max(lines.length * 2, count + length);
+      lines = Arrays.copyOf(lines, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      blocks = Arrays.copyOf(blocks, capacity);
+      addresses = Arrays.copyOf(addresses, capacity);
+      flags = Arrays.copyOf(flags, capacity);
+    }
+    if (index < count) {
+      int moved = count - index;
+      System.arraycopy(lines, index, lines, index + length, moved);
+      System.arraycopy(sizes, index, sizes, index + length, moved);
+      System.arraycopy(blocks, index, blocks, index + length, moved);
+      System.arraycopy(addresses, index, addresses, index + length, moved);
+      System.arraycopy(flags, index, flags, index + length, moved);
+    }
+  }
+
+  private void store(int index, PassOneData data) {
+    store(
+        index,
+        data.line(),
+        data.size(),
+        data.block(),
+        data.addressInBlock(),
+        data.isExecutableInstruction());
+  }
+
+  private void store(
+      int index,
+      SourceLine line,
+      int size,
+      int block,
+      int addressInBlock,
+      boolean isExecutableInstruction) {
+    lines[index] = line;
+    sizes[index] = size;
+    blocks[index] = block;
+    addresses[index] = addressInBlock;
+    flags[index] = isExecutableInstruction ? EXECUTABLE : 0;
+  }
+
+  private int check(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    return index;
+  }
+}
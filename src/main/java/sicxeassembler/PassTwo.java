@@ -7,27 +7,63 @@ import sicxeassembler.output.OutputGenerator;
 public class PassTwo {
   private final OpTable opTable;
   private final int startLocation;
-  private final Map<String, SymbolData> symbolTable;
+  private final int programLength;
+  private final String entryPoint;
+  private final SymbolTable symbolTable;
   private final Map<String, Literal> literalTable;
   private final List<Integer> blockAddresses;
-  private final List<PassOneData> inputs;
+  private final PassOneOutput inputs;
   private final List<OutputGenerator> outputs = new ArrayList<>();
+  private final ExpressionParser expressionParser;
 
-  int baseAddress;
+  /** Symbols named by EXTDEF and EXTREF, written as define and refer records. */
+  private List<String> externalDefinitions = List.of();
+
+  private List<String> externalReferences = List.of();
+
+  /** Base register value when no BASE directive is in effect. */
+  static final int NO_BASE = -1;
+
+  public PassTwo(OpTable opTable, PassOne passOne) {
+    this(opTable, passOne, passOne.getEntryPoint());
+  }
+
+  /**
+   * Creates a second pass with the given END operand. The first control section of a program starts
+   * where the END directive says, though END comes in the last section.
+   */
+  PassTwo(OpTable opTable, PassOne passOne, String entryPoint) {
+    this(
+        opTable,
+        passOne.getStartAddress(),
+        passOne.getProgramLength(),
+        entryPoint,
+        passOne.getSymbolTable(),
+        passOne.getLiteralTable(),
+        passOne.getBlockAddresses(),
+        passOne.getOutput());
+    externalDefinitions = passOne.getExternalDefinitions();
+    externalReferences = passOne.getExternalReferences();
+  }
 
   public PassTwo(
       OpTable opTable,
       int startLocation,
-      Map<String, SymbolData> symbolTable,
+      int programLength,
+      String entryPoint,
+      SymbolTable symbolTable,
       Map<String, Literal> literalTable,
       List<Integer> blockAddresses,
       List<PassOneData> inputs) {
     this.opTable = opTable;
     this.startLocation = startLocation;
+    this.programLength = programLength;
+    this.entryPoint = entryPoint;
     this.symbolTable = symbolTable;
     this.literalTable = literalTable;
     this.blockAddresses = blockAddresses;
-    this.inputs = inputs;
+    this.inputs = PassOneOutput.of(inputs);
+    this.expressionParser = new ExpressionParser(symbolTable);
   }
 
   public void addOutputGenerator(OutputGenerator generator) {
@@ -35,153 +71,63 @@ public class PassTwo {
   }
 
   public void process() {
-    outputs.forEach(
-        generator ->
-            generator.initialize(
-                inputs.get(0).line().getLabel(),
-                startLocation,
-                blockAddresses.get(blockAddresses.size() - 1)));
-    for (var input : inputs) {
-      if (input.line().isCommentOrBlank()) {
-        outputCommentOnly(input);
-      } else if (input.line().getOpCodePrefix().equals("=")) {
-        outputLiteral(input);
-      } else if (opTable.contains(input.line().getOpCode())) {
-        outputInstruction(input);
-      } else {
-        handleDirective(input);
-      }
+    initializeOutputs();
+    var encoder = new Encoder(NO_BASE, new Sink());
+    for (int i = 0; i < inputs.size(); i++) {
+      encoder.encode(i);
     }
-    outputs.forEach(OutputGenerator::finalizeOutput);
+    finalizeOutputs();
   }
 
-  private void outputInstruction(PassOneData line) {
-    var operation = opTable.get(line.line().getOpCode());
-    int[] objectCode =
-        switch (operation.format()) {
-          case ONE -> assembleFormatOne(operation);
-          case TWO -> assembleFormatTwo(
-              operation, line.line().getArgOne(), line.line().getArgTwo());
-          case THREE_FOUR -> assembleFormatThreeFour(operation, line);
-        };
-    appendOutput(new PassTwoData(line, convertAddress(line), objectCode));
+  /**
+   * Gets the directive on a line.
+   *
+   * @return the directive, or null if the line is not a directive
+   */
+  Directive directiveOf(int index) {
+    var line = inputs.line(index);
+    if (line.isCommentOrBlank() || line.getOpCodePrefix().equals("=")) {
+      return null;
+    }
+    return opTable.getDirective(opTable.resolve(line));
   }
 
-  private int[] assembleFormatOne(Operation op) {
-    return new int[] {op.opcode()};
+  /** Works out the base register value set by a BASE directive. */
+  int baseValue(int index) {
+    if (inputs.line(index).getArgOne().equals("*")) {
+      return addressOf(index);
+    }
+    return generateOperand(inputs.line(index).getArgOne());
   }
 
-  private int[] assembleFormatTwo(Operation op, String argOne, String argTwo) {
-
-    int operands = (generateOperand(argOne) << 4) | generateOperand(argTwo);
-    return new int[] {
-      op.opcode(),
-    };
+  PassOneOutput getInputs() {
+    return inputs;
   }
 
-  private int[] assembleFormatThree(Operation op, PassOneData instruction) {
-    var argFlag = instruction.line().getArgOnePrefix();
-    var operand =
-        generateOperand(instruction.line().getArgOnePrefix(), instruction.line().getArgOne());
-    var address = convertAddress(instruction);
-    var flags = 0;
-    boolean n = false;
-    boolean i = false;
-    boolean x = false;
-    boolean b = false;
-    boolean p = false;
-    boolean e = false;
-    e = false;
-    if (argFlag.equals("@")) {
-      n = true;
-      i = false;
-    } else if (argFlag.equals("#")) {
-      n = false;
-      i = true;
-    } else {
-      n = true;
-      i = true;
-    }
-    if (instruction.line().getArgTwo().equals("X")) {
-      if (!n || !i) {
-        throw new AssemblerException(
-            "Indexed addressing cannot be used with immediate or indirect addressing.");
-      }
-      x = true;
-    }
-    if (argFlag.equals("#")) {
-      if (operand > 4095) {
-        throw new AssemblerException(
-            "Direct operand "
-                + "'"
-                + instruction.line().getArgOne()
-                + "' exceeds 4096! Try using extended format.");
-      }
-    }
-    var disp = address + 3 - operand;
-    // try pc relative
-    if (disp > -2048 && disp < 2047) {
-      p = true;
-      b = false;
-    } else if (disp > 0 && disp < 4095) {
-
-    }
-
-    var byteOne = op.opcode() | ((n ? 1 : 0) << 1) | (i ? 1 : 0);
-    var byteTwo = 0;
-    byteTwo |= (x ? 1 : 0) << 8;
-    byteTwo |= (b ? 1 : 0) << 7;
-    byteTwo |= (p ? 1 : 0) << 6;
-    byteTwo |= (e ? 1 : 0) << 5;
-    byteTwo |= ((operand & 0xf00) >> 8);
-    var byteThree = (operand & 0xff);
-    return new int[] {byteOne, byteTwo, byteThree};
+  List<OutputGenerator> getOutputs() {
+    return outputs;
   }
 
-  private int[] assembleFormatFour(Operation op, PassOneData instruction) {
-    var argFlag = instruction.line().getArgOnePrefix();
-    var operand =
-        generateOperand(instruction.line().getArgOnePrefix(), instruction.line().getArgOne());
-    var address = convertAddress(instruction);
-    boolean n = false;
-    boolean i = false;
-    boolean x = false;
-    boolean b = false;
-    boolean p = false;
-    boolean e = true;
-    if (argFlag.equals("@")) {
-      n = true;
-    } else if (argFlag.equals("#")) {
-      i = true;
-    } else {
-      n = true;
-      i = true;
+  void initializeOutputs() {
+    outputs.forEach(
+        generator -> generator.initialize(inputs.line(0).getLabel(), startLocation, programLength));
+    for (var name : externalDefinitions) {
+      int address = generateOperand(name);
+      outputs.forEach(generator -> generator.addExternalDefinition(name, address));
     }
-    if (instruction.line().getArgTwo().equals("X")) {
-      if (!n || !i) {
-        throw new AssemblerException(
-            "Indexed addressing cannot be used with immediate or indirect addressing.");
-      }
-      x = true;
+    for (var name : externalReferences) {
+      outputs.forEach(generator -> generator.addExternalReference(name));
     }
-    var byteOne = op.opcode() | ((n ? 1 : 0) << 1) | (i ? 1 : 0);
-    var byteTwo = 0;
-    byteTwo |= (x ? 1 : 0) << 8;
-    byteTwo |= (b ? 1 : 0) << 7;
-    byteTwo |= (p ? 1 : 0) << 6;
-    byteTwo |= (e ? 1 : 0) << 5;
-    byteTwo |= ((operand & 0xf0000) >> 16);
-    var byteThree = (operand & 0xff00) >> 8;
-    var byteFour = (operand & 0xff);
-    return new int[] {byteOne, byteTwo, byteThree};
   }
 
-  private int[] assembleFormatThreeFour(Operation op, PassOneData instruction) {
-    if (instruction.line().getOpCodePrefix().equals("+")) {
-      return assembleFormatFour(op, instruction);
-    } else {
-      return assembleFormatThree(op, instruction);
-    }
+  void finalizeOutputs() {
+    var name = inputs.line(0).getLabel();
+    int entryAddress =
+        entryPoint.isEmpty() || entryPoint.equals(name)
+            ? startLocation
+            : generateOperand(entryPoint);
+    outputs.forEach(generator -> generator.setEntryPoint(entryAddress));
+    outputs.forEach(OutputGenerator::finalizeOutput);
   }
 
   private int getLiteralAddress(String literal) {
@@ -196,12 +142,18 @@ public class PassTwo {
     return generateOperand(arg);
   }
 
+  /** Determines whether an operand is a symbol named by EXTREF. */
+  private boolean isExternal(String arg) {
+    int id = symbolTable.find(arg);
+    return id != SymbolTable.NOT_FOUND && symbolTable.type(id) == SymbolData.Type.EXTERNAL;
+  }
+
   private int generateOperand(String arg) {
     if (arg.isEmpty()) return 0;
 
-    if (symbolTable.containsKey(arg)) {
-      var symbol = symbolTable.get(arg);
-      return convertAddress(symbol.programBlockId(), symbol.value());
+    int id = symbolTable.find(arg);
+    if (id != SymbolTable.NOT_FOUND) {
+      return convertAddress(symbolTable.block(id), symbolTable.value(id));
     } else {
       try {
         return Integer.parseInt(arg);
@@ -211,71 +163,203 @@ public class PassTwo {
     }
   }
 
-  private void handleDirective(PassOneData line) {
-    switch (line.line().getOpCode()) {
-      case "BASE":
-        handleBASE(line);
-        break;
-      case "WORD":
-        handleWORD(line);
-        break;
-      case "BYTE":
-        handleBYTE(line);
-        break;
-      case "RESW":
-      case "RESB":
-        appendOutput(new PassTwoData(line, convertAddress(line), null));
-      case "START":
-        break;
+  private int convertAddress(int blockId, int location) {
+    if (blockId < 1) {
+      return location;
     }
+    return blockAddresses.get(blockId) + location;
   }
 
-  private void handleWORD(PassOneData line) {
-    var value = Integer.parseInt(line.line().getArgOne());
-    var bytes = new int[3];
-    bytes[0] = (value & 0xff0000) >> 4;
-    bytes[1] = (value & 0xff00) >> 2;
-    bytes[2] = (value & 0xff);
-    appendOutput(new PassTwoData(line, convertAddress(line), bytes));
+  /** Gets the absolute address of a line. */
+  private int addressOf(int index) {
+    return convertAddress(inputs.block(index), inputs.addressInBlock(index));
   }
 
-  private void handleBYTE(PassOneData line) {
-    appendOutput(
-        new PassTwoData(
-            line, convertAddress(line), ConstantParser.parseByteConstant(line.line().getArgOne())));
-  }
+  /**
+   * Receives encoded lines in source order. By default they go straight to the output generators.
+   */
+  class Sink {
+    /**
+     * Receives a modification record.
+     *
+     * @param symbol the external symbol to add or subtract, such as "+RDREC", or null to add the
+     *     program's own start address
+     */
+    void modification(int address, int size, String symbol) {
+      for (int i = 0; i < outputs.size(); i++) {
+        if (symbol == null) {
+          outputs.get(i).addModificationRecord(address, size);
+        } else {
+          outputs.get(i).addModificationRecord(address, size, symbol);
+        }
+      }
+    }
 
-  private void handleBASE(PassOneData line) {
-    if (line.line().getArgOne().equals("*")) {
-      baseAddress = convertAddress(line);
-    } else {
-      baseAddress = generateOperand(line.line().getArgOne());
+    void output(int index, int address, long instruction, ConstantBytes data) {
+      var line = inputs.line(index);
+      int size = inputs.sizeOf(index);
+      int block = inputs.block(index);
+      boolean isExecutableInstruction = inputs.isExecutableInstruction(index);
+      for (int i = 0; i < outputs.size(); i++) {
+        outputs
+            .get(i)
+            .accept(line, size, block, address, isExecutableInstruction, instruction, data);
+      }
     }
   }
 
-  private void outputLiteral(PassOneData line) {
-    var literal = literalTable.get(line.line().getOpCode());
-    appendOutput(
-        new PassTwoData(
-            line, convertAddress(literal.getBlock(), literal.getAddress()), literal.getData()));
-  }
+  /**
+   * Encodes lines one after another, keeping track of the base register. Encoders only read the
+   * tables built by pass one, so several can run at once on different parts of the program.
+   */
+  class Encoder {
+    private final Sink sink;
+    private int baseAddress;
 
-  private void outputCommentOnly(PassOneData line) {
-    appendOutput(new PassTwoData(line, convertAddress(line.block(), line.addressInBlock()), null));
-  }
+    Encoder(int baseAddress, Sink sink) {
+      this.baseAddress = baseAddress;
+      this.sink = sink;
+    }
 
-  private int convertAddress(int blockId, int location) {
-    if (blockId < 1) {
-      return location;
+    /** Gets the base register value in effect for the next line. */
+    int baseAddress() {
+      return baseAddress;
     }
-    return blockAddresses.get(blockId) + location;
-  }
 
-  private int convertAddress(PassOneData line) {
-    return convertAddress(line.block(), line.addressInBlock());
-  }
+    void encode(int index) {
+      var line = inputs.line(index);
+      if (line.isCommentOrBlank()) {
+        outputCommentOnly(index);
+      } else if (line.getOpCodePrefix().equals("=")) {
+        outputLiteral(index);
+      } else {
+        int id = opTable.resolve(line);
+        if (opTable.isOperation(id)) {
+          outputInstruction(index, opTable.getOperation(id));
+        } else {
+          handleDirective(index, opTable.getDirective(id));
+        }
+      }
+    }
+
+    private void outputInstruction(int index, Operation operation) {
+      var line = inputs.line(index);
+      long objectCode =
+          switch (operation.format()) {
+            case ONE -> InstructionEncoder.formatOne(operation);
+            case TWO -> InstructionEncoder.formatTwo(
+                operation, generateOperand(line.getArgOne()), generateOperand(line.getArgTwo()));
+            case THREE_FOUR -> assembleFormatThreeFour(operation, index);
+          };
+      sink.output(index, addressOf(index), objectCode, null);
+    }
+
+    private long assembleFormatThree(Operation op, int index) {
+      var instruction = inputs.line(index);
+      var argFlag = instruction.getArgOnePrefix();
+      var arg = instruction.getArgOne();
+      var flags = InstructionEncoder.addressingFlags(instruction);
+      if (!argFlag.equals("=") && isExternal(arg)) {
+        throw new AssemblerException(
+            "External symbol '" + arg + "' can only be used with extended format.");
+      }
+      var operand = generateOperand(argFlag, arg);
+      if (!InstructionEncoder.isRelocatable(symbolTable, argFlag, arg)) {
+        return InstructionEncoder.formatThree(op, flags, arg, operand);
+      }
+      return InstructionEncoder.formatThree(
+          op,
+          flags,
+          arg,
+          operand - (addressOf(index) + 3),
+          () -> baseAddress == NO_BASE ? InstructionEncoder.NO_BASE : operand - baseAddress);
+    }
+
+    private long assembleFormatFour(Operation op, int index) {
+      var instruction = inputs.line(index);
+      var argFlag = instruction.getArgOnePrefix();
+      var arg = instruction.getArgOne();
+      var flags = InstructionEncoder.addressingFlags(instruction);
+      var operand = generateOperand(argFlag, arg);
+      if (InstructionEncoder.isRelocatable(symbolTable, argFlag, arg)) {
+        // The 20-bit address field starts after the first byte
+        sink.modification(addressOf(index) + 1, 5, null);
+      } else if (!argFlag.equals("=") && isExternal(arg)) {
+        sink.modification(addressOf(index) + 1, 5, "+" + arg);
+      }
+      return InstructionEncoder.formatFour(op, flags, operand);
+    }
+
+    private long assembleFormatThreeFour(Operation op, int index) {
+      if (inputs.line(index).getOpCodePrefix().equals("+")) {
+        return assembleFormatFour(op, index);
+      } else {
+        return assembleFormatThree(op, index);
+      }
+    }
+
+    private void handleDirective(int index, Directive directive) {
+      if (directive == null) {
+        return;
+      }
+      switch (directive) {
+        case BASE:
+          baseAddress = baseValue(index);
+          break;
+        case NOBASE:
+          baseAddress = NO_BASE;
+          break;
+        case WORD:
+          handleWORD(index);
+          break;
+        case BYTE:
+          handleBYTE(index);
+          break;
+        case RESW:
+        case RESB:
+          sink.output(index, addressOf(index), ObjectCode.NONE, null);
+        case START:
+          break;
+      }
+    }
+
+    private void handleWORD(int index) {
+      var address = addressOf(index);
+      var word =
+          expressionParser.parse(
+              inputs.line(index).getArgOne(),
+              (symbol, negative) -> sink.modification(address, 6, (negative ? "-" : "+") + symbol));
+      var value = word.value();
+      if (word.type() == SymbolData.Type.RELATIVE) {
+        value = convertAddress(word.programBlockId(), value);
+        sink.modification(address, 6, null);
+      }
+      sink.output(
+          index,
+          address,
+          ObjectCode.packBytes((value >> 16) & 0xff, (value >> 8) & 0xff, value & 0xff),
+          null);
+    }
 
-  private void appendOutput(PassTwoData out) {
-    outputs.forEach((generator) -> generator.accept(out));
+    private void handleBYTE(int index) {
+      sink.output(
+          index,
+          addressOf(index),
+          ObjectCode.NONE,
+          ConstantParser.parseConstant(inputs.line(index).getArgOne()));
+    }
+
+    private void outputLiteral(int index) {
+      var literal = literalTable.get(inputs.line(index).getOpCode());
+      sink.output(
+          index,
+          convertAddress(literal.getBlock(), literal.getAddress()),
+          ObjectCode.NONE,
+          literal.getData());
+    }
+
+    private void outputCommentOnly(int index) {
+      sink.output(index, addressOf(index), ObjectCode.NONE, null);
+    }
   }
 }
@@ -1,19 +1,51 @@
 package sicxeassembler;
 
+/**
+ * Per-line output of the second pass. Instructions and words carry their code packed in {@code
+ * instruction} (see {@link ObjectCode}); BYTE constants and literals carry it in {@code data}.
+ *
+ * @param instruction packed object code, or {@link ObjectCode#NONE}
+ * @param data constant data, or null
+ */
 public record PassTwoData(
     SourceLine line,
     int size,
     int block,
     int address,
     boolean isExecutableInstruction,
-    int[] objectCode) {
-  public PassTwoData(PassOneData passOne, int address, int[] objectCode) {
+    long instruction,
+    ConstantBytes data) {
+  public PassTwoData(PassOneData passOne, int address, long instruction, ConstantBytes data) {
     this(
         passOne.line(),
         passOne.size(),
         passOne.block(),
         address,
         passOne.isExecutableInstruction(),
-        objectCode);
+        instruction,
+        data);
+  }
+
+  /**
+   * Whether the line produced any object code. RESW/RESB, comments and most directives do not.
+   *
+   * @return true if there is object code
+   */
+  public boolean hasObjectCode() {
+    return data != null || instruction != ObjectCode.NONE;
+  }
+
+  public int objectCodeLength() {
+    return data != null ? data.length() : ObjectCode.length(instruction);
+  }
+
+  /**
+   * Gets one byte of the object code
+   *
+   * @param index index of the byte
+   * @return the byte, as an unsigned value from 0 to 255
+   */
+  public int objectCodeByte(int index) {
+    return data != null ? data.get(index) : ObjectCode.byteAt(instruction, index);
   }
 }
@@ -0,0 +1,221 @@
+package sicxeassembler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Streams {@link SourceLine}s like a {@link SourceReader}, but reads and parses them on a thread of
+ * its own so that parsing overlaps whatever consumes the lines. Parsed lines are handed over in
+ * batches through a bounded queue, so the parser runs at most {@code capacity} batches ahead of the
+ * consumer and memory use still does not depend on the length of the file.
+ *
+ * <p>Parsing stops after the END directive, since {@link PassOne} reads no further. Errors reach
+ * the {@link SourceReader.ErrorHandler} on the consuming thread, at the point a SourceReader would
+ * have reported them.
+ */
+public class PipelinedSourceReader implements Iterator<SourceLine>, Closeable {
+  /** Number of batches the parser may run ahead by. */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  /** Lines handed over at a time, so the queue is not touched for every line. */
+  private static final int BATCH_SIZE = 256;
+
+  private final SourceReader reader;
+  private final OpTable opTable;
+  private final SourceReader.ErrorHandler errorHandler;
+  private final BlockingQueue<Batch> queue;
+  private Thread parser;
+
+  /** Stats to charge parsing to once it is done, or null. */
+  private AssemblyStats stats;
+
+  /** Batch being taken apart by the consumer. */
+  private Batch batch = null;
+
+  private int index = 0;
+  private int nextError = 0;
+
+  /** Batch being filled by the parser. Only touched on the parser thread. */
+  private Batch filling;
+
+  public PipelinedSourceReader(
+      Reader reader, OpTable opTable, SourceReader.ErrorHandler errorHandler, int capacity) {
+    this.reader = new SourceReader(reader, opTable, this::deferError);
+    this.opTable = opTable;
+    this.errorHandler = errorHandler;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /**
+   * Opens a reader over the given file.
+   *
+   * @param path the source file
+   * @param opTable table to resolve mnemonics against
+   * @param errorHandler handler for lines that fail to parse
+   * @return the reader
+   * @throws IOException if the file could not be opened
+   */
+  public static PipelinedSourceReader open(
+      Path path, OpTable opTable, SourceReader.ErrorHandler errorHandler) throws IOException {
+    return new PipelinedSourceReader(
+        SourceReader.openReader(path), opTable, errorHandler, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Charges parsing to the parse stage. The parser thread keeps its own counts, which are added
+   * when the consumer reaches the last batch.
+   *
+   * @param stats the stats, or null to stop timing
+   */
+  public void setStats(AssemblyStats stats) {
+    if (parser != null) {
+      throw new IllegalStateException("Parsing has already started");
+    }
+    this.stats = stats;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (parser == null) {
+      parser = new Thread(this::parse, "assembler-parse");
+      parser.setDaemon(true);
+      parser.start();
+    }
+    while (true) {
+      if (batch == null) {
+        batch = take();
+        index = 0;
+        nextError = 0;
+      }
+      // Errors before the next line are reported before it is returned, as a SourceReader would
+      while (nextError < batch.errors.size() && batch.errors.get(nextError).before() == index) {
+        var error = batch.errors.get(nextError++);
+        errorHandler.error(error.lineNumber(), error.source(), error.exception());
+      }
+      if (index < batch.count) {
+        return true;
+      }
+      if (batch.last) {
+        if (batch.failure != null) {
+          throw batch.failure;
+        }
+        return false;
+      }
+      batch = null;
+    }
+  }
+
+  @Override
+  public SourceLine next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return batch.lines[index++];
+  }
+
+  /** Stops the parser thread if it is still running, and closes the source. */
+  @Override
+  public void close() throws IOException {
+    if (parser != null) {
+      parser.interrupt();
+      try {
+        parser.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    reader.close();
+  }
+
+  private Batch take() {
+    Batch taken;
+    try {
+      taken = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the parser", e);
+    }
+    if (taken.last && stats != null) {
+      stats.add(AssemblyStats.Stage.PARSE, taken.nanos, taken.allocated);
+      stats.addLines(AssemblyStats.Stage.PARSE, taken.lineCount);
+    }
+    return taken;
+  }
+
+  /** Runs on the parser thread. */
+  private void parse() {
+    AssemblyStats parseStats = stats != null ? new AssemblyStats("") : null;
+    reader.setStats(parseStats);
+    filling = new Batch();
+    try {
+      while (reader.hasNext()) {
+        SourceLine line = reader.next();
+        filling.lines[filling.count++] = line;
+        if (isEnd(line)) {
+          break;
+        }
+        if (filling.count == BATCH_SIZE) {
+          queue.put(filling);
+          filling = new Batch();
+        }
+      }
+      filling.last = true;
+      if (parseStats != null) {
+        filling.nanos = parseStats.nanos(AssemblyStats.Stage.PARSE);
+        filling.allocated = parseStats.allocated(AssemblyStats.Stage.PARSE);
+        filling.lineCount = parseStats.lines(AssemblyStats.Stage.PARSE);
+      }
+      queue.put(filling);
+    } catch (InterruptedException e) {
+      // Closed before the consumer got to the end
+    } catch (RuntimeException e) {
+      filling.failure = e;
+      filling.last = true;
+      try {
+        queue.put(filling);
+      } catch (InterruptedException interrupted) {
+        // Closed, so nobody is waiting for the failure
+      }
+    }
+  }
+
+  private boolean isEnd(SourceLine line) {
+    return opTable.getDirective(opTable.resolve(line)) == Directive.END;
+  }
+
+  /** Called by the SourceReader on the parser thread. */
+  private void deferError(int lineNumber, String source, ParseException exception) {
+    filling.errors.add(new Error(filling.count, lineNumber, source, exception));
+  }
+
+  /** A line that failed to parse, reported before the line at index {@code before} of its batch. */
+  private record Error(int before, int lineNumber, String source, ParseException exception) {}
+
+  /** Lines handed from the parser to the consumer in one go. */
+  private static class Batch {
+    final SourceLine[] lines = new SourceLine[BATCH_SIZE];
+    int count = 0;
+    final List<Error> errors = new ArrayList<>();
+
+    /** Whether no batches follow this one. */
+    boolean last = false;
+
+    /** What stopped the parser, thrown to the consumer once it has the lines before it. */
+    RuntimeException failure;
+
+    /** Parse stage counters, filled in on the last batch. */
+    long nanos;
+
+    long allocated;
+    long lineCount;
+  }
+}
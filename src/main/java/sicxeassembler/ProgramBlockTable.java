@@ -68,6 +68,19 @@ public class ProgramBlockTable {
         .collect(Collectors.toMap((entry) -> entry.getKey(), (entry) -> entry.getValue().get()));
   }
 
+  /**
+   * Calculates the combined length of all program blocks
+   *
+   * @return the length
+   */
+  int getTotalLength() {
+    int length = 0;
+    for (var block : blocksNew.values()) {
+      length += block.get();
+    }
+    return length;
+  }
+
   /**
    * Calculates the starting location of each program block and returns the results as a Map
    *
@@ -84,4 +97,45 @@ public class ProgramBlockTable {
     }
     return temp;
   }
+
+  /**
+   * Gets the block with the given ID.
+   *
+   * @param id the block ID
+   * @return the block
+   */
+  ProgramBlock getBlock(int id) {
+    for (var block : blocksNew.values()) {
+      if (block.getId() == id) {
+        return block;
+      }
+    }
+    throw new IllegalArgumentException("No program block with ID " + id);
+  }
+
+  /**
+   * Copies the counter of every block, indexed by block ID.
+   *
+   * @return the counters
+   */
+  int[] getCounters() {
+    int[] counters = new int[blocksNew.size()];
+    for (var block : blocksNew.values()) {
+      counters[block.getId()] = block.get();
+    }
+    return counters;
+  }
+
+  /**
+   * Rolls the table back to counters taken by {@link #getCounters()}. Blocks created since then are
+   * removed.
+   *
+   * @param counters the counters, indexed by block ID
+   */
+  void restoreCounters(int[] counters) {
+    blocksNew.values().removeIf(block -> block.getId() >= counters.length);
+    for (var block : blocksNew.values()) {
+      block.set(counters[block.getId()]);
+    }
+  }
 }
@@ -0,0 +1,172 @@
+package sicxeassembler;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Runs other output generators on a thread of their own, so that writing the outputs overlaps pass
+ * two. Calls are recorded in batches and handed over through a bounded queue, which blocks pass two
+ * once the generators fall {@code capacity} batches behind. The generators see the calls in the
+ * order they were made.
+ *
+ * <p>{@link #finalizeOutput()} waits for the generators to finish, and throws whatever a generator
+ * threw. If pass two fails before that, {@link #close()} stops the thread.
+ */
+public class QueuedOutputGenerator implements OutputGenerator, AutoCloseable {
+  /** Number of batches the generators may fall behind by. */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  /** Calls handed over at a time, so the queue is not touched for every line. */
+  private static final int BATCH_SIZE = 256;
+
+  private static final RecordingOutputGenerator END = new RecordingOutputGenerator(0);
+
+  private final List<OutputGenerator> generators;
+  private final BlockingQueue<RecordingOutputGenerator> queue;
+  private final Thread thread;
+  private RecordingOutputGenerator batch = new RecordingOutputGenerator(BATCH_SIZE);
+
+  /** What a generator threw. Once set, the thread drops everything else it is sent. */
+  private volatile RuntimeException failure;
+
+  public QueuedOutputGenerator(List<OutputGenerator> generators, int capacity) {
+    this.generators = List.copyOf(generators);
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    thread = new Thread(this::run, "assembler-output");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void initialize(String name, int start, int length) {
+    send(generator -> generator.initialize(name, start, length));
+  }
+
+  @Override
+  public void accept(PassTwoData output) {
+    accept(
+        output.line(),
+        output.size(),
+        output.block(),
+        output.address(),
+        output.isExecutableInstruction(),
+        output.instruction(),
+        output.data());
+  }
+
+  @Override
+  public void accept(
+      SourceLine line,
+      int size,
+      int block,
+      int address,
+      boolean isExecutableInstruction,
+      long instruction,
+      ConstantBytes data) {
+    batch.accept(line, size, block, address, isExecutableInstruction, instruction, data);
+    if (batch.size() == BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  @Override
+  public void addModificationRecord(int address, int size) {
+    addModificationRecord(address, size, null);
+  }
+
+  @Override
+  public void addModificationRecord(int address, int size, String symbol) {
+    // Kept in the batch, to stay in order with the lines around it
+    batch.addModificationRecord(address, size, symbol);
+    if (batch.size() == BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  @Override
+  public void addExternalDefinition(String name, int address) {
+    send(generator -> generator.addExternalDefinition(name, address));
+  }
+
+  @Override
+  public void addExternalReference(String name) {
+    send(generator -> generator.addExternalReference(name));
+  }
+
+  @Override
+  public void setEntryPoint(int address) {
+    send(generator -> generator.setEntryPoint(address));
+  }
+
+  @Override
+  public void finalizeOutput() {
+    send(OutputGenerator::finalizeOutput);
+    put(END);
+    join();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Stops the thread without finishing the outputs, if {@link #finalizeOutput()} was not called.
+   */
+  @Override
+  public void close() {
+    if (thread.isAlive()) {
+      thread.interrupt();
+      join();
+    }
+  }
+
+  /** Sends a call other than a line, after the lines before it. */
+  private void send(Consumer<OutputGenerator> call) {
+    batch.record(call);
+    flush();
+  }
+
+  private void flush() {
+    put(batch);
+    batch = new RecordingOutputGenerator(BATCH_SIZE);
+  }
+
+  private void put(RecordingOutputGenerator batch) {
+    if (failure != null) {
+      throw failure;
+    }
+    try {
+      queue.put(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the output generators", e);
+    }
+  }
+
+  private void join() {
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Runs on the output thread. */
+  private void run() {
+    try {
+      for (var next = queue.take(); next != END; next = queue.take()) {
+        if (failure == null) {
+          try {
+            generators.forEach(next::replay);
+          } catch (RuntimeException e) {
+            failure = e;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // Closed before the outputs were finished
+    }
+  }
+}
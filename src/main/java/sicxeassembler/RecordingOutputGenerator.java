@@ -0,0 +1,170 @@
+package sicxeassembler;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Records the calls made to an output generator, so that they can be passed on later with {@link
+ * #replay(OutputGenerator)}. Lines and modification records, which make up nearly all calls, are
+ * kept in columns rather than as an object each. Every entry has a kind, one of:
+ *
+ * <ul>
+ *   <li>{@link #LINE}, with every column but the symbol and call set
+ *   <li>{@link #MODIFICATION}, with the size, the address, and the symbol, if any
+ *   <li>{@link #CALL}, any other call, with only the call set
+ * </ul>
+ */
+class RecordingOutputGenerator implements OutputGenerator {
+  /** Kinds of entry. */
+  private static final byte LINE = 0, MODIFICATION = 1, CALL = 2;
+
+  private byte[] kinds;
+  private SourceLine[] lines;
+  private int[] sizes;
+  private int[] blocks;
+  private int[] addresses;
+  private boolean[] executable;
+  private long[] instructions;
+  private ConstantBytes[] data;
+  private String[] symbols;
+  private Object[] calls;
+  private int count = 0;
+
+  /**
+   * Creates an empty recording.
+   *
+   * @param capacity number of entries to make room for, more are made as needed
+   */
+  RecordingOutputGenerator(int capacity) {
+    capacity = Math.max(capacity, 1);
+    kinds = new byte[capacity];
+    lines = new SourceLine[capacity];
+    sizes = new int[capacity];
+    blocks = new int[capacity];
+    addresses = new int[capacity];
+    executable = new boolean[capacity];
+    instructions = new long[capacity];
+    data = new ConstantBytes[capacity];
+    symbols = new String[capacity];
+    calls = new Object[capacity];
+  }
+
+  /** Gets the number of calls recorded. */
+  int size() {
+    return count;
+  }
+
+  @Override
+  public void initialize(String name, int start, int length) {
+    record(generator -> generator.initialize(name, start, length));
+  }
+
+  @Override
+  public void accept(PassTwoData output) {
+    accept(
+        output.line(),
+        output.size(),
+        output.block(),
+        output.address(),
+        output.isExecutableInstruction(),
+        output.instruction(),
+        output.data());
+  }
+
+  @Override
+  public void accept(
+      SourceLine line,
+      int size,
+      int block,
+      int address,
+      boolean isExecutableInstruction,
+      long instruction,
+      ConstantBytes constant) {
+    int i = add(LINE);
+    lines[i] = line;
+    sizes[i] = size;
+    blocks[i] = block;
+    addresses[i] = address;
+    executable[i] = isExecutableInstruction;
+    instructions[i] = instruction;
+    data[i] = constant;
+  }
+
+  @Override
+  public void addModificationRecord(int address, int size) {
+    addModificationRecord(address, size, null);
+  }
+
+  @Override
+  public void addModificationRecord(int address, int size, String symbol) {
+    int i = add(MODIFICATION);
+    sizes[i] = size;
+    addresses[i] = address;
+    symbols[i] = symbol;
+  }
+
+  @Override
+  public void addExternalDefinition(String name, int address) {
+    record(generator -> generator.addExternalDefinition(name, address));
+  }
+
+  @Override
+  public void addExternalReference(String name) {
+    record(generator -> generator.addExternalReference(name));
+  }
+
+  @Override
+  public void setEntryPoint(int address) {
+    record(generator -> generator.setEntryPoint(address));
+  }
+
+  @Override
+  public void finalizeOutput() {
+    record(OutputGenerator::finalizeOutput);
+  }
+
+  /** Records a call other than a line or modification record. */
+  void record(Consumer<OutputGenerator> call) {
+    int i = add(CALL);
+    calls[i] = call;
+  }
+
+  /** Makes the calls recorded, in order. */
+  @SuppressWarnings("unchecked")
+  void replay(OutputGenerator generator) {
+    for (int i = 0; i < count; i++) {
+      switch (kinds[i]) {
+        case LINE -> generator.accept(
+            lines[i], sizes[i], blocks[i], addresses[i], executable[i], instructions[i], data[i]);
+        case MODIFICATION -> {
+          if (symbols[i] != null) {
+            generator.addModificationRecord(addresses[i], sizes[i], symbols[i]);
+          } else {
+            generator.addModificationRecord(addresses[i], sizes[i]);
+          }
+        }
+        default -> ((Consumer<OutputGenerator>) calls[i]).accept(generator);
+      }
+    }
+  }
+
+  /** Makes room for an entry of the given kind, returning its index. */
+  private int add(byte kind) {
+    if (count == lines.length) {
+      int capacity = count * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      blocks = Arrays.copyOf(blocks, capacity);
+      addresses = Arrays.copyOf(addresses, capacity);
+      executable = Arrays.copyOf(executable, capacity);
+      instructions = Arrays.copyOf(instructions, capacity);
+      data = Arrays.copyOf(data, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+      calls = Arrays.copyOf(calls, capacity);
+    }
+    kinds[count] = kind;
+    return count++;
+  }
+}
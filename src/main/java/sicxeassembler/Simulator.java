@@ -0,0 +1,871 @@
+package sicxeassembler;
+
+import java.util.Arrays;
+import sicxeassembler.errors.SimulatorException;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Runs SIC/XE programs. Memory is 1 MB of bytes, and the registers are those {@link PassOne}
+ * predefines: A, X, L, B, S, T and F, plus PC and SW. Registers hold 24-bit values, and F a double
+ * that is stored in memory in the 48-bit SIC/XE float format.
+ *
+ * <p>Instructions are decoded through a 256-entry table indexed by their first byte, built from the
+ * {@link OpTable}: each entry holds the operation's opcode and format, with format 3 and 4 opcodes
+ * filling the four entries for their n and i bits. The operation itself is a switch on the opcode.
+ *
+ * <p>{@link #run(long)} decodes code into {@link DecodedBlock}s the first time it reaches it, and
+ * after that only works out the parts of target addresses that depend on B, X or memory. Blocks are
+ * kept by page, and writing to the part of a page that holds decoded code drops the page's blocks,
+ * so code that changes itself still runs as written. {@link #getCacheStats()} tells how often
+ * blocks were found.
+ *
+ * <p>A program is loaded from a {@link LinkingLoader.Result}, or straight from {@link PassTwo}
+ * through {@link #loader()}. It runs until it returns to the address L held at the start, jumps to
+ * itself, as in {@code HALT J HALT}, calls SVC, or runs out of instructions. The condition code is
+ * kept in the low two bits of SW. Devices are numbered as in TD, RD and WD; a device that was not
+ * set is always ready, reads zero and drops what is written.
+ */
+public class Simulator {
+  /** Size of memory. */
+  public static final int MEMORY_SIZE = LinkingLoader.MEMORY_SIZE;
+
+  /** Address L holds when a program starts. Returning to it stops the program. */
+  public static final int EXIT_ADDRESS = MEMORY_SIZE - 1;
+
+  /** Register numbers, as in format 2 instructions. */
+  public static final int A = 0, X = 1, L = 2, B = 3, S = 4, T = 5, F = 6, PC = 8, SW = 9;
+
+  /** Condition codes, in the low two bits of SW. */
+  public static final int CC_EQUAL = 0, CC_LESS = 1, CC_GREATER = 2;
+
+  private static final int WORD_MASK = 0xFFFFFF;
+  private static final int ADDRESS_MASK = MEMORY_SIZE - 1;
+  private static final int CC_MASK = 3;
+
+  /** Marks a first byte that does not start any instruction. */
+  private static final int INVALID = -1;
+
+  /**
+   * How well the decode cache is doing.
+   *
+   * @param hits blocks found already decoded
+   * @param misses blocks that had to be decoded
+   * @param invalidations pages whose blocks were dropped by a write
+   */
+  public record CacheStats(long hits, long misses, long invalidations) {
+    public double hitRate() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+  }
+
+  /** An I/O device, for TD, RD and WD. */
+  public interface Device {
+    default boolean isReady() {
+      return true;
+    }
+
+    int read();
+
+    void write(int value);
+  }
+
+  /** Opcode and format of each first byte, as opcode | format << 8, or {@link #INVALID}. */
+  private final int[] dispatch = new int[256];
+
+  private final byte[] memory = new byte[MEMORY_SIZE];
+  private final Device[] devices = new Device[256];
+
+  private int a, x, l, b, s, t, pc, sw;
+  private double f;
+  private int timer;
+  private boolean halted;
+  private long instructionCount;
+
+  /** Decoded blocks by page and by offset in the page. A page is null until code in it is run. */
+  private final DecodedBlock[][] pages = new DecodedBlock[MEMORY_SIZE >>> DecodedBlock.PAGE_BITS][];
+
+  /** Bounds of the decoded code in each page, so that writing data next to code keeps it. */
+  private final int[] codeStart = new int[pages.length], codeEnd = new int[pages.length];
+
+  /**
+   * Bounds of all decoded code, so that a store can tell with one test that it leaves every block
+   * alone. Empty while nothing is decoded, as when {@link #step()} runs without the cache.
+   */
+  private int decodedStart = MEMORY_SIZE, decodedEnd = 0;
+
+  private boolean decodeCacheEnabled = true;
+
+  /** Set when a write drops blocks, so the block being run stops. */
+  private boolean invalidated;
+
+  private long cacheHits, cacheMisses, invalidations;
+
+  public Simulator(OpTable opTable) {
+    Arrays.fill(dispatch, INVALID);
+    for (var operation : opTable.getMap().values()) {
+      int opcode = operation.opcode();
+      switch (operation.format()) {
+        case ONE -> dispatch[opcode] = opcode | 1 << 8;
+        case TWO -> dispatch[opcode] = opcode | 2 << 8;
+        case THREE_FOUR -> {
+          for (int ni = 0; ni < 4; ni++) {
+            dispatch[opcode | ni] = opcode | 3 << 8;
+          }
+        }
+      }
+    }
+    reset();
+  }
+
+  /** Clears the registers and the halted flag. L is set to {@link #EXIT_ADDRESS}. */
+  public void reset() {
+    a = x = b = s = t = pc = sw = timer = 0;
+    f = 0;
+    l = EXIT_ADDRESS;
+    halted = false;
+  }
+
+  /**
+   * Loads a linked program and sets PC to its entry point.
+   *
+   * @param program the linked program
+   */
+  public void load(LinkingLoader.Result program) {
+    System.arraycopy(program.memory(), 0, memory, 0, MEMORY_SIZE);
+    clearDecodeCache();
+    reset();
+    pc = program.entryPoint();
+  }
+
+  /**
+   * Gets an output generator that writes the object code of {@link PassTwo} into memory, at the
+   * addresses it was assembled for, and sets PC to the program's entry point.
+   *
+   * @return the generator
+   */
+  public OutputGenerator loader() {
+    return new OutputGenerator() {
+      @Override
+      public void initialize(String name, int start, int length) {
+        reset();
+        pc = start;
+      }
+
+      @Override
+      public void accept(PassTwoData output) {
+        accept(
+            output.line(),
+            output.size(),
+            output.block(),
+            output.address(),
+            output.isExecutableInstruction(),
+            output.instruction(),
+            output.data());
+      }
+
+      @Override
+      public void accept(
+          SourceLine line,
+          int size,
+          int block,
+          int address,
+          boolean isExecutableInstruction,
+          long instruction,
+          ConstantBytes data) {
+        int length = data != null ? data.length() : ObjectCode.length(instruction);
+        for (int i = 0; i < length; i++) {
+          memory[address + i] =
+              (byte) (data != null ? data.get(i) : ObjectCode.byteAt(instruction, i));
+        }
+        written(address, length);
+      }
+
+      @Override
+      public void addModificationRecord(int address, int size) {
+        // Loaded where it was assembled, so there is nothing to relocate
+      }
+
+      @Override
+      public void setEntryPoint(int address) {
+        pc = address;
+      }
+
+      @Override
+      public void finalizeOutput() {}
+    };
+  }
+
+  public void setDevice(int number, Device device) {
+    devices[number] = device;
+  }
+
+  /**
+   * Runs until the program stops or the given number of instructions has been executed.
+   *
+   * @param limit most instructions to execute
+   * @return the number of instructions executed
+   * @throws SimulatorException if an instruction is invalid or touches memory outside of 1 MB
+   */
+  public long run(long limit) {
+    long executed = 0;
+    if (!decodeCacheEnabled) {
+      while (!halted && executed < limit) {
+        step();
+        executed++;
+      }
+      return executed;
+    }
+    while (!halted && executed < limit) {
+      DecodedBlock block = block(pc);
+      if (block == null) {
+        step();
+        executed++;
+      } else {
+        executed += execute(block, limit - executed);
+      }
+    }
+    return executed;
+  }
+
+  /** Finds the decoded block at an address, decoding it if needed. */
+  private DecodedBlock block(int address) {
+    int offset = address & (DecodedBlock.PAGE_SIZE - 1);
+    DecodedBlock[] page = pages[address >>> DecodedBlock.PAGE_BITS];
+    if (page != null && page[offset] != null) {
+      cacheHits++;
+      return page[offset];
+    }
+    cacheMisses++;
+    DecodedBlock block = DecodedBlock.decode(memory, dispatch, address);
+    if (block != null) {
+      int number = address >>> DecodedBlock.PAGE_BITS;
+      if (page == null) {
+        page = pages[number] = new DecodedBlock[DecodedBlock.PAGE_SIZE];
+        codeStart[number] = address;
+        codeEnd[number] = block.end;
+      } else {
+        codeStart[number] = Math.min(codeStart[number], address);
+        codeEnd[number] = Math.max(codeEnd[number], block.end);
+      }
+      decodedStart = Math.min(decodedStart, address);
+      decodedEnd = Math.max(decodedEnd, block.end);
+      page[offset] = block;
+    }
+    return block;
+  }
+
+  /**
+   * Runs a decoded block, stopping early if the limit is reached, PC leaves the block or the block
+   * is dropped. A, X and the condition code are kept in locals while it runs, so the loads, stores,
+   * arithmetic, moves and jumps most code is made of are done here. Other instructions go to the
+   * same methods as {@link #step()}, with the registers written back around them.
+   *
+   * @return the number of instructions executed
+   */
+  private int execute(DecodedBlock block, long limit) {
+    int[] codes = block.codes;
+    int[] operands = block.operands;
+    int[] addresses = block.addresses;
+    // Each record is one instruction, so the index counts those executed
+    int end = limit < block.length ? (int) limit : block.length;
+    int i = 0;
+    int a = this.a, x = this.x, cc = sw & CC_MASK;
+    int next = pc;
+    invalidated = false;
+    try {
+      while (i < end) {
+        int code = codes[i];
+        int opcode = DecodedBlock.opcode(code);
+        int address = addresses[i];
+        next = address + DecodedBlock.size(code);
+        if (DecodedBlock.format(code) == 3) {
+          int target = target(code, operands[i], x);
+          boolean immediate = DecodedBlock.ni(code) == 1;
+          int fusion = DecodedBlock.fusion(code);
+          if (fusion != DecodedBlock.NOT_FUSED && i + 1 < end) {
+            int value = operand(target, immediate);
+            if (fusion == DecodedBlock.COMPARE_JUMP) {
+              if (opcode == 0x2C) {
+                x = (x + 1) & WORD_MASK;
+                cc = conditionCode(signed(x), signed(value));
+              } else {
+                cc = conditionCode(signed(a), signed(value));
+              }
+            } else {
+              a = value;
+            }
+            code = codes[++i];
+            address = addresses[i];
+            next = address + DecodedBlock.size(code);
+            target = target(code, operands[i], x);
+            if (fusion == DecodedBlock.MOVE) {
+              store(target, DecodedBlock.ni(code) == 1, a, address);
+              i++;
+              if (invalidated) {
+                pc = next;
+                return i;
+              }
+              continue;
+            }
+            i++;
+            pc = next;
+            if (cc == condition(DecodedBlock.opcode(code))) {
+              jump(target, address);
+            }
+            return i;
+          }
+          switch (opcode) {
+            case 0x00 -> { // LDA
+              a = operand(target, immediate);
+              i++;
+              continue;
+            }
+            case 0x04 -> { // LDX
+              x = operand(target, immediate);
+              i++;
+              continue;
+            }
+            case 0x18 -> { // ADD
+              a = (a + operand(target, immediate)) & WORD_MASK;
+              i++;
+              continue;
+            }
+            case 0x1C -> { // SUB
+              a = (a - operand(target, immediate)) & WORD_MASK;
+              i++;
+              continue;
+            }
+            case 0x28 -> { // COMP
+              cc = conditionCode(signed(a), signed(operand(target, immediate)));
+              i++;
+              continue;
+            }
+            case 0x2C -> { // TIX
+              x = (x + 1) & WORD_MASK;
+              cc = conditionCode(signed(x), signed(operand(target, immediate)));
+              i++;
+              continue;
+            }
+            case 0x0C, 0x10 -> { // STA, STX
+              store(target, immediate, opcode == 0x0C ? a : x, address);
+              i++;
+              if (invalidated) {
+                pc = next;
+                return i;
+              }
+              continue;
+            }
+            case 0x3C, 0x30, 0x34, 0x38 -> { // J, JEQ, JGT, JLT, each the last of its block
+              pc = next;
+              if (opcode == 0x3C || cc == condition(opcode)) {
+                jump(target, address);
+              }
+              i++;
+              return i;
+            }
+            default -> {}
+          }
+        }
+        if (opcode == 0xAC && (operands[i] & 0xEE) == 0) { // RMO between A and X
+          switch (operands[i]) {
+            case 0x01 -> x = a;
+            case 0x10 -> a = x;
+            default -> {}
+          }
+          i++;
+          continue;
+        }
+        this.a = a;
+        this.x = x;
+        setConditionCode(cc);
+        pc = next;
+        switch (DecodedBlock.format(code)) {
+          case 1 -> executeFormatOne(opcode);
+          case 2 -> executeFormatTwo(opcode, operands[i] >>> 4, operands[i] & 0xF, address);
+          default -> executeFormatThreeFour(
+              opcode, target(code, operands[i], x), DecodedBlock.ni(code) == 1, address);
+        }
+        a = this.a;
+        x = this.x;
+        cc = sw & CC_MASK;
+        i++;
+        if (pc != next || invalidated) {
+          return i;
+        }
+      }
+      pc = next;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new SimulatorException(
+          "Memory access outside of " + MEMORY_SIZE + " bytes", addresses[i]);
+    } finally {
+      this.a = a;
+      this.x = x;
+      setConditionCode(cc);
+      instructionCount += i;
+    }
+    return i;
+  }
+
+  /** Finishes the target address of a decoded format 3 or 4 instruction, given X. */
+  private int target(int code, int operand, int x) {
+    int target = operand;
+    if (DecodedBlock.isBaseRelative(code)) {
+      target += b;
+    }
+    if (DecodedBlock.isIndexed(code)) {
+      target += x;
+    }
+    target &= ADDRESS_MASK;
+    if (DecodedBlock.ni(code) == 2) {
+      target = word(target) & ADDRESS_MASK;
+    }
+    return target;
+  }
+
+  /** Gets the condition code a JEQ, JGT or JLT jumps on. */
+  private static int condition(int opcode) {
+    return switch (opcode) {
+      case 0x30 -> CC_EQUAL;
+      case 0x34 -> CC_GREATER;
+      default -> CC_LESS;
+    };
+  }
+
+  /** Drops the decoded blocks of the pages whose code a write touched. */
+  private void written(int address, int count) {
+    int end = address + count;
+    if (address >= decodedEnd || end <= decodedStart) {
+      return;
+    }
+    int last = (end - 1) >>> DecodedBlock.PAGE_BITS;
+    for (int page = address >>> DecodedBlock.PAGE_BITS; page <= last; page++) {
+      if (pages[page] != null && address < codeEnd[page] && end > codeStart[page]) {
+        pages[page] = null;
+        invalidations++;
+        invalidated = true;
+      }
+    }
+  }
+
+  /** Drops every decoded block. Needed after changing code through {@link #getMemory()}. */
+  public void clearDecodeCache() {
+    Arrays.fill(pages, null);
+    decodedStart = MEMORY_SIZE;
+    decodedEnd = 0;
+  }
+
+  /**
+   * Turns the decode cache on or off. With it off, {@link #run(long)} decodes every instruction as
+   * {@link #step()} does.
+   *
+   * @param enabled whether to use the cache
+   */
+  public void setDecodeCacheEnabled(boolean enabled) {
+    decodeCacheEnabled = enabled;
+  }
+
+  /**
+   * Gets the decode cache's counts since the simulator was created.
+   *
+   * @return the counts
+   */
+  public CacheStats getCacheStats() {
+    return new CacheStats(cacheHits, cacheMisses, invalidations);
+  }
+
+  /** Executes one instruction. */
+  public void step() {
+    int address = pc;
+    try {
+      int first = memory[address] & 0xff;
+      int entry = dispatch[first];
+      if (entry == INVALID) {
+        throw new SimulatorException(
+            "Invalid opcode " + String.format("%02X", first & 0xFC), address);
+      }
+      int opcode = entry & 0xff;
+      switch (entry >>> 8) {
+        case 1 -> {
+          pc = address + 1;
+          executeFormatOne(opcode);
+        }
+        case 2 -> {
+          int registers = memory[address + 1] & 0xff;
+          pc = address + 2;
+          executeFormatTwo(opcode, registers >>> 4, registers & 0xF, address);
+        }
+        default -> {
+          int ni = first & 3;
+          executeFormatThreeFour(opcode, decodeTarget(ni, address), ni == 1, address);
+        }
+      }
+      instructionCount++;
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new SimulatorException("Memory access outside of " + MEMORY_SIZE + " bytes", address);
+    }
+  }
+
+  private void executeFormatOne(int opcode) {
+    switch (opcode) {
+      case 0xC4 -> a = (int) f & WORD_MASK; // FIX
+      case 0xC0 -> f = signed(a); // FLOAT
+      default -> {
+        // NORM has nothing to do for a double. HIO, SIO and TIO drive I/O channels, which are not
+        // simulated.
+      }
+    }
+  }
+
+  private void executeFormatTwo(int opcode, int r1, int r2, int address) {
+    switch (opcode) {
+      case 0xB4 -> setRegister(r1, 0, address); // CLEAR
+      case 0xAC -> setRegister(r2, register(r1, address), address); // RMO
+      case 0xA4 -> { // SHIFTL, circular. The assembler writes the count itself, not n - 1
+        int n = r2 % 24;
+        int value = register(r1, address);
+        setRegister(r1, value << n | value >>> (24 - n), address);
+      }
+      case 0xA8 -> { // SHIFTR, filling with the sign bit
+        int n = Math.min(r2, 23);
+        setRegister(r1, signed(register(r1, address)) >> n, address);
+      }
+      case 0xB0 -> halted = true; // SVC
+      case 0xB8 -> { // TIXR
+        x = (x + 1) & WORD_MASK;
+        compare(signed(x), signed(register(r1, address)));
+      }
+      default -> {
+        int source = signed(register(r1, address));
+        int value = signed(register(r2, address));
+        switch (opcode) {
+          case 0x90 -> setRegister(r2, value + source, address); // ADDR
+          case 0x94 -> setRegister(r2, value - source, address); // SUBR
+          case 0x98 -> setRegister(r2, value * source, address); // MULR
+          case 0x9C -> setRegister(r2, divide(value, source, address), address); // DIVR
+          case 0xA0 -> compare(source, value); // COMPR
+          default -> throw new SimulatorException("Unsupported opcode " + hex(opcode), address);
+        }
+      }
+    }
+  }
+
+  /** Works out the target address of a format 3 or 4 instruction, and moves PC past it. */
+  private int decodeTarget(int ni, int address) {
+    int second = memory[address + 1] & 0xff;
+    int target;
+    if (ni == 0) {
+      // SIC instruction with a 15-bit address
+      target = (second & 0x7F) << 8 | memory[address + 2] & 0xff;
+      pc = address + 3;
+      if ((second & 0x80) != 0) {
+        target += x;
+      }
+    } else {
+      if ((second & 0x10) != 0) {
+        target =
+            (second & 0xF) << 16 | (memory[address + 2] & 0xff) << 8 | memory[address + 3] & 0xff;
+        pc = address + 4;
+      } else {
+        int displacement = (second & 0xF) << 8 | memory[address + 2] & 0xff;
+        pc = address + 3;
+        target =
+            switch (second & 0x60) {
+              case 0x00 -> displacement;
+              case 0x20 -> pc + (displacement << 20 >> 20);
+              case 0x40 -> b + displacement;
+              default -> throw new SimulatorException("Both b and p are set", address);
+            };
+      }
+      if ((second & 0x80) != 0) {
+        target += x;
+      }
+    }
+    target &= ADDRESS_MASK;
+    if (ni == 2) {
+      target = word(target) & ADDRESS_MASK;
+    }
+    return target;
+  }
+
+  private void executeFormatThreeFour(int opcode, int target, boolean immediate, int address) {
+    switch (opcode) {
+      case 0x00 -> a = operand(target, immediate); // LDA
+      case 0x04 -> x = operand(target, immediate); // LDX
+      case 0x08 -> l = operand(target, immediate); // LDL
+      case 0x68 -> b = operand(target, immediate); // LDB
+      case 0x6C -> s = operand(target, immediate); // LDS
+      case 0x74 -> t = operand(target, immediate); // LDT
+      case 0x50 -> a = (a & 0xFFFF00) | (immediate ? target & 0xff : memory[target] & 0xff); // LDCH
+      case 0x70 -> f = immediate ? target : readFloat(target); // LDF
+      case 0x18 -> a = (a + operand(target, immediate)) & WORD_MASK; // ADD
+      case 0x1C -> a = (a - operand(target, immediate)) & WORD_MASK; // SUB
+      case 0x20 -> a = signed(a) * signed(operand(target, immediate)) & WORD_MASK; // MUL
+      case 0x24 -> a = divide(a, operand(target, immediate), address); // DIV
+      case 0x40 -> a &= operand(target, immediate); // AND
+      case 0x44 -> a |= operand(target, immediate); // OR
+      case 0x28 -> compare(signed(a), signed(operand(target, immediate))); // COMP
+      case 0x2C -> { // TIX
+        x = (x + 1) & WORD_MASK;
+        compare(signed(x), signed(operand(target, immediate)));
+      }
+      case 0x58 -> f += floatOperand(target, immediate); // ADDF
+      case 0x5C -> f -= floatOperand(target, immediate); // SUBF
+      case 0x60 -> f *= floatOperand(target, immediate); // MULF
+      case 0x64 -> f /= floatOperand(target, immediate); // DIVF
+      case 0x88 -> compare(f, floatOperand(target, immediate)); // COMPF
+      case 0x0C -> store(target, immediate, a, address); // STA
+      case 0x10 -> store(target, immediate, x, address); // STX
+      case 0x14 -> store(target, immediate, l, address); // STL
+      case 0x78 -> store(target, immediate, b, address); // STB
+      case 0x7C -> store(target, immediate, s, address); // STS
+      case 0x84 -> store(target, immediate, t, address); // STT
+      case 0xE8 -> store(target, immediate, sw, address); // STSW
+      case 0x54 -> { // STCH
+        checkStore(immediate, address);
+        memory[target] = (byte) a;
+        written(target, 1);
+      }
+      case 0x80 -> { // STF
+        checkStore(immediate, address);
+        writeFloat(target, f);
+        written(target, 6);
+      }
+      case 0x3C -> jump(target, address); // J
+      case 0x30 -> { // JEQ
+        if ((sw & CC_MASK) == CC_EQUAL) {
+          jump(target, address);
+        }
+      }
+      case 0x34 -> { // JGT
+        if ((sw & CC_MASK) == CC_GREATER) {
+          jump(target, address);
+        }
+      }
+      case 0x38 -> { // JLT
+        if ((sw & CC_MASK) == CC_LESS) {
+          jump(target, address);
+        }
+      }
+      case 0x48 -> { // JSUB
+        l = pc;
+        jump(target, address);
+      }
+      case 0x4C -> jump(l & ADDRESS_MASK, address); // RSUB
+      case 0xD8 -> { // RD
+        var device = devices[immediate ? target & 0xff : memory[target] & 0xff];
+        a = (a & 0xFFFF00) | (device == null ? 0 : device.read() & 0xff);
+      }
+      case 0xDC -> { // WD
+        var device = devices[immediate ? target & 0xff : memory[target] & 0xff];
+        if (device != null) {
+          device.write(a & 0xff);
+        }
+      }
+      case 0xE0 -> { // TD
+        var device = devices[immediate ? target & 0xff : memory[target] & 0xff];
+        setConditionCode(device == null || device.isReady() ? CC_LESS : CC_EQUAL);
+      }
+      case 0xD0 -> sw = operand(target, immediate); // LPS
+      case 0xD4 -> timer = operand(target, immediate); // STI
+      case 0xEC -> {
+        // SSK: storage protection is not simulated
+      }
+      default -> throw new SimulatorException("Unsupported opcode " + hex(opcode), address);
+    }
+  }
+
+  private int operand(int target, boolean immediate) {
+    return immediate ? target : word(target);
+  }
+
+  private double floatOperand(int target, boolean immediate) {
+    return immediate ? target : readFloat(target);
+  }
+
+  private void store(int target, boolean immediate, int value, int address) {
+    checkStore(immediate, address);
+    memory[target] = (byte) (value >>> 16);
+    memory[target + 1] = (byte) (value >>> 8);
+    memory[target + 2] = (byte) value;
+    written(target, 3);
+  }
+
+  private static void checkStore(boolean immediate, int address) {
+    if (immediate) {
+      throw new SimulatorException("Cannot store to an immediate operand", address);
+    }
+  }
+
+  private void jump(int target, int address) {
+    if (target == EXIT_ADDRESS || target == address) {
+      halted = true;
+    }
+    pc = target;
+  }
+
+  private int divide(int dividend, int divisor, int address) {
+    if (signed(divisor) == 0) {
+      throw new SimulatorException("Division by zero", address);
+    }
+    return signed(dividend) / signed(divisor) & WORD_MASK;
+  }
+
+  private void compare(double left, double right) {
+    setConditionCode(left < right ? CC_LESS : left > right ? CC_GREATER : CC_EQUAL);
+  }
+
+  private void compare(int left, int right) {
+    setConditionCode(conditionCode(left, right));
+  }
+
+  private static int conditionCode(int left, int right) {
+    return left < right ? CC_LESS : left > right ? CC_GREATER : CC_EQUAL;
+  }
+
+  private void setConditionCode(int cc) {
+    sw = (sw & ~CC_MASK) | cc;
+  }
+
+  /** Sign extends a 24-bit value. */
+  private static int signed(int value) {
+    return value << 8 >> 8;
+  }
+
+  private int word(int address) {
+    return (memory[address] & 0xff) << 16
+        | (memory[address + 1] & 0xff) << 8
+        | memory[address + 2] & 0xff;
+  }
+
+  /**
+   * Reads a float: a sign bit, an 11-bit exponent with a bias of 1024 and a 36-bit fraction, for a
+   * value of fraction / 2^36 * 2^(exponent - 1024).
+   */
+  private double readFloat(int address) {
+    long bits = 0;
+    for (int i = 0; i < 6; i++) {
+      bits = bits << 8 | memory[address + i] & 0xff;
+    }
+    long fraction = bits & ((1L << 36) - 1);
+    if (fraction == 0) {
+      return 0;
+    }
+    int exponent = (int) (bits >>> 36) & 0x7FF;
+    double value = Math.scalb((double) fraction, exponent - 1024 - 36);
+    return (bits >>> 47) != 0 ? -value : value;
+  }
+
+  private void writeFloat(int address, double value) {
+    long bits = 0;
+    if (value != 0 && Double.isFinite(value)) {
+      // value = m * 2^e with 0.5 <= m < 1
+      int exponent = Math.getExponent(value) + 1;
+      long fraction = Math.round(Math.scalb(Math.abs(value), 36 - exponent));
+      if (fraction == 1L << 36) {
+        fraction >>>= 1;
+        exponent++;
+      }
+      int biased = Math.max(0, Math.min(0x7FF, exponent + 1024));
+      bits = (value < 0 ? 1L << 47 : 0) | (long) biased << 36 | fraction;
+    }
+    for (int i = 5; i >= 0; i--) {
+      memory[address + i] = (byte) bits;
+      bits >>>= 8;
+    }
+  }
+
+  /**
+   * Gets a register by number.
+   *
+   * @param register the register number, such as {@link #A}
+   * @return its value, or F cut to a 24-bit integer
+   */
+  public int getRegister(int register) {
+    return register(register, pc);
+  }
+
+  private int register(int register, int address) {
+    return switch (register) {
+      case A -> a;
+      case X -> x;
+      case L -> l;
+      case B -> b;
+      case S -> s;
+      case T -> t;
+      case F -> (int) f & WORD_MASK;
+      case PC -> pc;
+      case SW -> sw;
+      default -> throw new SimulatorException("No register " + register, address);
+    };
+  }
+
+  private void setRegister(int register, int value, int address) {
+    switch (register) {
+      case A -> a = value & WORD_MASK;
+      case X -> x = value & WORD_MASK;
+      case L -> l = value & WORD_MASK;
+      case B -> b = value & WORD_MASK;
+      case S -> s = value & WORD_MASK;
+      case T -> t = value & WORD_MASK;
+      case F -> f = signed(value & WORD_MASK);
+      case PC -> jump(value & ADDRESS_MASK, address);
+      case SW -> sw = value & WORD_MASK;
+      default -> throw new SimulatorException("No register " + register, address);
+    }
+  }
+
+  /**
+   * Sets a register by number.
+   *
+   * @param register the register number, such as {@link #A}
+   * @param value the value, of which the low 24 bits are kept, or 20 bits for PC
+   */
+  public void setRegister(int register, int value) {
+    if (register == PC) {
+      pc = value & ADDRESS_MASK;
+      halted = false;
+    } else {
+      setRegister(register, value, pc);
+    }
+  }
+
+  public double getF() {
+    return f;
+  }
+
+  public void setF(double f) {
+    this.f = f;
+  }
+
+  /**
+   * Gets the memory, which may be read and written while the program is stopped. After changing
+   * code that has run, call {@link #clearDecodeCache()}.
+   *
+   * @return the memory
+   */
+  public byte[] getMemory() {
+    return memory;
+  }
+
+  public int getTimer() {
+    return timer;
+  }
+
+  public boolean isHalted() {
+    return halted;
+  }
+
+  /**
+   * Gets the number of instructions executed since the simulator was created.
+   *
+   * @return the count
+   */
+  public long getInstructionCount() {
+    return instructionCount;
+  }
+
+  private static String hex(int opcode) {
+    return String.format("%02X", opcode);
+  }
+}
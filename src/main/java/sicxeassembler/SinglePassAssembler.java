@@ -0,0 +1,583 @@
+package sicxeassembler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.output.OutputGenerator;
+
+/**
+ * Assembles a program in a single pass over the source. {@link PassOne} lays each line out as
+ * usual, and the line is encoded as soon as it has been, without being kept. Operands that name a
+ * symbol or literal not defined yet are encoded once it is: each such site is added to a fixup
+ * chain for the name, and when the label, EQU or literal pool that defines it comes along, every
+ * site on the chain is patched. Sites that need the address of a program block other than the
+ * default are patched at the end, once the block lengths are known.
+ *
+ * <p>Only the encoded bytes are kept, in columns, so memory use is far below that of keeping every
+ * {@link SourceLine} for a second pass. The object program is the same as {@link PassTwo} writes,
+ * but there are no source lines to write a listing from: generators are given a null line.
+ *
+ * <p>A forward reference is assumed to name a label. Programs that refer to an absolute EQU symbol
+ * before defining it are rejected, as the choice of addressing mode and modification records would
+ * already have been made.
+ */
+public class SinglePassAssembler {
+  /** Returned in place of object code or an address that cannot be worked out yet. */
+  private static final long PENDING = InstructionEncoder.PENDING;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final OpTable opTable;
+  private final PassOne passOne;
+  private final SymbolTable symbolTable;
+  private final Map<String, Literal> literalTable;
+  private final ExpressionParser expressionParser;
+  private final List<OutputGenerator> outputs = new ArrayList<>();
+
+  /** Label of the first line, which names the program. */
+  private String name = null;
+
+  /** Base register in effect, or null after NOBASE. */
+  private Base base = null;
+
+  /** Absolute address of each program block, once pass one has finished. */
+  private List<Integer> blockAddresses = null;
+
+  // Encoded lines, in source order
+  private int[] blocks = new int[INITIAL_CAPACITY];
+  private int[] addresses = new int[INITIAL_CAPACITY];
+  private int[] sizes = new int[INITIAL_CAPACITY];
+  private boolean[] executable = new boolean[INITIAL_CAPACITY];
+  private long[] instructions = new long[INITIAL_CAPACITY];
+  private ConstantBytes[] data = new ConstantBytes[INITIAL_CAPACITY];
+  private int count = 0;
+
+  // Modification records: the line, offset from its address and size in half bytes. A size of -1
+  // holds the place of a WORD whose expression is not known yet, and 0 marks one that needs none.
+  private int[] modificationSites = new int[16];
+  private int[] modificationOffsets = new int[16];
+  private int[] modificationSizes = new int[16];
+  private int modificationCount = 0;
+
+  /** Fixup chains, keyed by the symbol or literal the sites are waiting for. */
+  private final Map<String, Fixup> symbolChains = new HashMap<>();
+
+  private final Map<String, Fixup> literalChains = new HashMap<>();
+
+  /** Sites that can only be patched once the program block addresses are known. */
+  private final List<Fixup> deferred = new ArrayList<>();
+
+  /** Name of the symbol or literal that made the last lookup return {@link #PENDING}. */
+  private String missingSymbol;
+
+  private String missingLiteral;
+
+  /** A base register value, known as a block and address or still waiting for its symbol. */
+  private record Base(String symbol, int block, int address) {}
+
+  /** A site whose object code is not known yet. */
+  private static final class Fixup {
+    final int site;
+    final SourceLine line;
+    final int lineNumber;
+    final Base base;
+
+    /** Whether the operand was taken to be relocatable before its symbol was defined. */
+    final boolean assumedRelative;
+
+    /** Next site on the same chain. */
+    Fixup next;
+
+    Fixup(int site, SourceLine line, int lineNumber, Base base, boolean assumedRelative) {
+      this.site = site;
+      this.line = line;
+      this.lineNumber = lineNumber;
+      this.base = base;
+      this.assumedRelative = assumedRelative;
+    }
+  }
+
+  public SinglePassAssembler(OpTable opTable, Iterator<SourceLine> lines) {
+    this.opTable = opTable;
+    this.passOne = new PassOne(opTable, lines);
+    this.symbolTable = passOne.getSymbolTable();
+    this.literalTable = passOne.getLiteralTable();
+    this.expressionParser = new ExpressionParser(symbolTable);
+    passOne.setListener(this::encode);
+  }
+
+  public void addOutputGenerator(OutputGenerator generator) {
+    outputs.add(generator);
+  }
+
+  /**
+   * Assembles the program and passes it to the output generators.
+   *
+   * @throws AssemblerException if the program has an error
+   */
+  public void process() {
+    passOne.process();
+    blockAddresses = passOne.getBlockAddresses();
+    patchRemaining();
+    writeOutputs();
+  }
+
+  /**
+   * Gets the first pass, which holds the symbol and literal tables once the program is assembled.
+   *
+   * @return the first pass
+   */
+  PassOne getPassOne() {
+    return passOne;
+  }
+
+  /** Called by pass one for each line once it is laid out. */
+  private void encode(
+      SourceLine line, int size, int block, int addressInBlock, boolean isExecutableInstruction) {
+    if (name == null) {
+      name = line.getLabel();
+    }
+    if (line.getOpCodePrefix().equals("=")) {
+      var literal = literalTable.get(line.getOpCode());
+      add(block, addressInBlock, size, false, ObjectCode.NONE, literal.getData());
+      patchChain(literalChains.remove(line.getOpCode()), null);
+      return;
+    }
+    if (line.isCommentOrBlank()) {
+      return;
+    }
+    int id = opTable.resolve(line);
+    if (opTable.isOperation(id)) {
+      int site = add(block, addressInBlock, size, true, ObjectCode.NONE, null);
+      encodeInstruction(site, line, opTable.getOperation(id));
+    } else {
+      encodeDirective(line, opTable.getDirective(id), size, block, addressInBlock);
+    }
+    if (!line.getLabel().isEmpty()) {
+      patchChain(symbolChains.remove(line.getLabel()), line.getLabel());
+    }
+  }
+
+  private void encodeDirective(
+      SourceLine line, Directive directive, int size, int block, int addressInBlock) {
+    switch (directive) {
+      case BASE -> {
+        if (line.getArgOne().equals("*")) {
+          base = new Base(null, block, addressInBlock);
+        } else {
+          base = new Base(line.getArgOne(), 0, 0);
+          base = resolveBase(base);
+        }
+      }
+      case NOBASE -> base = null;
+      case RESW, RESB -> add(block, addressInBlock, size, false, ObjectCode.NONE, null);
+      case BYTE -> add(
+          block,
+          addressInBlock,
+          size,
+          false,
+          ObjectCode.NONE,
+          ConstantParser.parseConstant(line.getArgOne()));
+      case WORD -> encodeWord(add(block, addressInBlock, size, false, ObjectCode.NONE, null), line);
+      case EXTDEF, EXTREF -> throw new AssemblerException(
+          "Control sections are not supported in single pass mode.");
+      default -> {}
+    }
+  }
+
+  private void encodeInstruction(int site, SourceLine line, Operation operation) {
+    boolean assumedRelative =
+        operation.format() == Operation.Format.THREE_FOUR
+            && isRelocatable(line.getArgOnePrefix(), line.getArgOne());
+    if (assumedRelative && line.getOpCodePrefix().equals("+")) {
+      // The 20-bit address field starts after the first byte
+      addModification(site, 1, 5);
+    }
+    missingSymbol = null;
+    missingLiteral = null;
+    long code = encodeInstruction(site, line, operation, base);
+    if (code != PENDING) {
+      instructions[site] = code;
+      return;
+    }
+    var fixup = new Fixup(site, line, passOne.getLineNumber(), base, assumedRelative);
+    if (missingLiteral != null) {
+      fixup.next = literalChains.get(missingLiteral);
+      literalChains.put(missingLiteral, fixup);
+    } else if (missingSymbol != null) {
+      fixup.next = symbolChains.get(missingSymbol);
+      symbolChains.put(missingSymbol, fixup);
+    } else {
+      deferred.add(fixup);
+    }
+  }
+
+  /**
+   * Encodes an instruction, if everything it refers to is known.
+   *
+   * @return the object code, or {@link #PENDING}
+   */
+  private long encodeInstruction(int site, SourceLine line, Operation operation, Base base) {
+    return switch (operation.format()) {
+      case ONE -> InstructionEncoder.formatOne(operation);
+      case TWO -> InstructionEncoder.formatTwo(
+          operation, value(line.getArgOne()), value(line.getArgTwo()));
+      case THREE_FOUR -> line.getOpCodePrefix().equals("+")
+          ? encodeFormatFour(line, operation)
+          : encodeFormatThree(site, line, operation, base);
+    };
+  }
+
+  private long encodeFormatThree(int site, SourceLine line, Operation operation, Base base) {
+    var argFlag = line.getArgOnePrefix();
+    var arg = line.getArgOne();
+    int flags = InstructionEncoder.addressingFlags(line);
+    if (!isRelocatable(argFlag, arg)) {
+      return InstructionEncoder.formatThree(operation, flags, arg, value(arg));
+    }
+    long target = target(argFlag, arg);
+    if (target == PENDING) {
+      return PENDING;
+    }
+    return InstructionEncoder.formatThree(
+        operation,
+        flags,
+        arg,
+        difference(target, blocks[site], addresses[site] + 3),
+        () -> baseRelative(target, base));
+  }
+
+  /**
+   * Gets the distance from the base register to a target.
+   *
+   * @return the distance, {@link #PENDING} if the base is not known yet, or {@link
+   *     InstructionEncoder#NO_BASE}
+   */
+  private long baseRelative(long target, Base base) {
+    if (base == null) {
+      return InstructionEncoder.NO_BASE;
+    }
+    base = resolveBase(base);
+    if (base.symbol() != null) {
+      return PENDING;
+    }
+    return difference(target, base.block(), base.address());
+  }
+
+  private long encodeFormatFour(SourceLine line, Operation operation) {
+    var argFlag = line.getArgOnePrefix();
+    var arg = line.getArgOne();
+    int flags = InstructionEncoder.addressingFlags(line);
+    long operand;
+    if (!isRelocatable(argFlag, arg)) {
+      operand = value(arg);
+    } else {
+      long target = target(argFlag, arg);
+      operand = target == PENDING ? PENDING : absolute((int) (target >> 32), (int) target);
+    }
+    return InstructionEncoder.formatFour(operation, flags, operand);
+  }
+
+  private void encodeWord(int site, SourceLine line) {
+    SymbolData word;
+    try {
+      word = expressionParser.parse(line.getArgOne());
+    } catch (AssemblerException e) {
+      // Most likely a symbol defined further on. Whatever it is, trying again at the end tells.
+      addModification(site, 0, -1);
+      deferred.add(new Fixup(site, line, passOne.getLineNumber(), null, false));
+      return;
+    }
+    if (word.type() == SymbolData.Type.RELATIVE) {
+      addModification(site, 0, 6);
+    }
+    long value = wordValue(word);
+    if (value == PENDING) {
+      deferred.add(new Fixup(site, line, passOne.getLineNumber(), null, false));
+    } else {
+      instructions[site] = packWord((int) value);
+    }
+  }
+
+  private long wordValue(SymbolData word) {
+    if (word.type() == SymbolData.Type.RELATIVE) {
+      return absolute(word.programBlockId(), word.value());
+    }
+    return word.value();
+  }
+
+  private static long packWord(int value) {
+    return ObjectCode.packBytes((value >> 16) & 0xff, (value >> 8) & 0xff, value & 0xff);
+  }
+
+  /** Patches the sites waiting for a symbol or literal that has just been defined. */
+  private void patchChain(Fixup fixup, String symbol) {
+    for (; fixup != null; fixup = fixup.next) {
+      if (symbol != null && fixup.assumedRelative) {
+        int id = symbolTable.find(symbol);
+        if (symbolTable.type(id) != SymbolData.Type.RELATIVE) {
+          throw error(
+              fixup,
+              "Forward reference to absolute symbol "
+                  + symbol
+                  + " is not supported in single pass mode");
+        }
+      }
+      if (!patch(fixup)) {
+        deferred.add(fixup);
+      }
+    }
+  }
+
+  /** Patches every site left, now that all symbols and block addresses are known. */
+  private void patchRemaining() {
+    List<Fixup> remaining = new ArrayList<>(deferred);
+    for (var chain : symbolChains.values()) {
+      for (var fixup = chain; fixup != null; fixup = fixup.next) {
+        remaining.add(fixup);
+      }
+    }
+    // Report the first error in the program, as pass two would
+    remaining.sort(Comparator.comparingInt(fixup -> fixup.site));
+    for (var fixup : remaining) {
+      if (!patch(fixup)) {
+        throw error(fixup, "Undefined symbol: " + undefinedSymbol(fixup));
+      }
+    }
+  }
+
+  /**
+   * Encodes a site again.
+   *
+   * @return whether it could be encoded
+   */
+  private boolean patch(Fixup fixup) {
+    try {
+      if (!executable[fixup.site]) {
+        return patchWord(fixup);
+      }
+      missingSymbol = null;
+      missingLiteral = null;
+      var operation = opTable.getOperation(opTable.resolve(fixup.line));
+      long code = encodeInstruction(fixup.site, fixup.line, operation, fixup.base);
+      if (code == PENDING) {
+        return false;
+      }
+      instructions[fixup.site] = code;
+      return true;
+    } catch (AssemblerException e) {
+      if (e.getLineNumber() >= 0) {
+        throw e;
+      }
+      throw error(fixup, e.getMessage());
+    }
+  }
+
+  private boolean patchWord(Fixup fixup) {
+    if (blockAddresses == null) {
+      return false;
+    }
+    var word = expressionParser.parse(fixup.line.getArgOne());
+    for (int i = modificationCount - 1; i >= 0; i--) {
+      if (modificationSites[i] == fixup.site && modificationSizes[i] == -1) {
+        modificationSizes[i] = word.type() == SymbolData.Type.RELATIVE ? 6 : 0;
+        break;
+      }
+    }
+    instructions[fixup.site] = packWord((int) wordValue(word));
+    return true;
+  }
+
+  private String undefinedSymbol(Fixup fixup) {
+    var arg = fixup.line.getArgOne();
+    if (symbolTable.find(arg) == SymbolTable.NOT_FOUND && !InstructionEncoder.isNumber(arg)) {
+      return arg;
+    }
+    var argTwo = fixup.line.getArgTwo();
+    if (!argTwo.isEmpty() && symbolTable.find(argTwo) == SymbolTable.NOT_FOUND) {
+      return argTwo;
+    }
+    return fixup.base != null && fixup.base.symbol() != null ? fixup.base.symbol() : arg;
+  }
+
+  private void writeOutputs() {
+    int start = passOne.getStartAddress();
+    int length = passOne.getProgramLength();
+    for (var output : outputs) {
+      output.initialize(name == null ? "" : name, start, length);
+    }
+    int modification = 0;
+    for (int i = 0; i < count; i++) {
+      int address = (int) absolute(blocks[i], addresses[i]);
+      for (;
+          modification < modificationCount && modificationSites[modification] == i;
+          modification++) {
+        if (modificationSizes[modification] > 0) {
+          for (var output : outputs) {
+            output.addModificationRecord(
+                address + modificationOffsets[modification], modificationSizes[modification]);
+          }
+        }
+      }
+      for (var output : outputs) {
+        output.accept(null, sizes[i], blocks[i], address, executable[i], instructions[i], data[i]);
+      }
+    }
+    String entryPoint = passOne.getEntryPoint();
+    int entryAddress = start;
+    if (!entryPoint.isEmpty() && !entryPoint.equals(name)) {
+      long target = value(entryPoint);
+      if (target == PENDING) {
+        throw new AssemblerException("Undefined symbol: " + entryPoint);
+      }
+      entryAddress = (int) target;
+    }
+    for (var output : outputs) {
+      output.setEntryPoint(entryAddress);
+    }
+    outputs.forEach(OutputGenerator::finalizeOutput);
+  }
+
+  private int add(
+      int block,
+      int addressInBlock,
+      int size,
+      boolean isExecutableInstruction,
+      long instruction,
+      ConstantBytes constant) {
+    if (count == blocks.length) {
+      int capacity = count * 2;
+      blocks = Arrays.copyOf(blocks, capacity);
+      addresses = Arrays.copyOf(addresses, capacity);
+      sizes = Arrays.copyOf(sizes, capacity);
+      executable = Arrays.copyOf(executable, capacity);
+      instructions = Arrays.copyOf(instructions, capacity);
+      data = Arrays.copyOf(data, capacity);
+    }
+    blocks[count] = block;
+    addresses[count] = addressInBlock;
+    sizes[count] = size;
+    executable[count] = isExecutableInstruction;
+    instructions[count] = instruction;
+    data[count] = constant;
+    return count++;
+  }
+
+  private void addModification(int site, int offset, int size) {
+    if (modificationCount == modificationSites.length) {
+      int capacity = modificationCount * 2;
+      modificationSites = Arrays.copyOf(modificationSites, capacity);
+      modificationOffsets = Arrays.copyOf(modificationOffsets, capacity);
+      modificationSizes = Arrays.copyOf(modificationSizes, capacity);
+    }
+    modificationSites[modificationCount] = site;
+    modificationOffsets[modificationCount] = offset;
+    modificationSizes[modificationCount] = size;
+    modificationCount++;
+  }
+
+  /** Looks up the symbol of a BASE directive, if it has been defined since. */
+  private Base resolveBase(Base base) {
+    if (base.symbol() == null) {
+      return base;
+    }
+    int id = symbolTable.find(base.symbol());
+    if (id != SymbolTable.NOT_FOUND) {
+      return new Base(null, symbolTable.block(id), symbolTable.value(id));
+    }
+    if (InstructionEncoder.isNumber(base.symbol())) {
+      return new Base(null, 0, Integer.parseInt(base.symbol()));
+    }
+    return base;
+  }
+
+  private boolean isRelocatable(String argFlag, String arg) {
+    return InstructionEncoder.isRelocatable(symbolTable, argFlag, arg);
+  }
+
+  /**
+   * Gets the block and address of a relocatable operand, packed as block << 32 | address.
+   *
+   * @return the target, or {@link #PENDING} if it is not defined yet
+   */
+  private long target(String argFlag, String arg) {
+    if (argFlag.equals("=")) {
+      var literal = literalTable.get(arg);
+      if (literal.getAddress() == -1) {
+        missingLiteral = arg;
+        return PENDING;
+      }
+      return (long) literal.getBlock() << 32 | (literal.getAddress() & 0xffffffffL);
+    }
+    int id = symbolTable.find(arg);
+    if (id == SymbolTable.NOT_FOUND) {
+      missingSymbol = arg;
+      return PENDING;
+    }
+    return (long) symbolTable.block(id) << 32 | (symbolTable.value(id) & 0xffffffffL);
+  }
+
+  /**
+   * Gets the absolute value of an operand that is not an address.
+   *
+   * @return the value, or {@link #PENDING} if it is not known yet
+   * @throws AssemblerException if it is neither a symbol nor a number
+   */
+  private long value(String arg) {
+    if (arg.isEmpty()) {
+      return 0;
+    }
+    int id = symbolTable.find(arg);
+    if (id != SymbolTable.NOT_FOUND) {
+      return absolute(symbolTable.block(id), symbolTable.value(id));
+    }
+    if (InstructionEncoder.isNumber(arg)) {
+      return Integer.parseInt(arg);
+    }
+    if (blockAddresses != null) {
+      throw new AssemblerException("Undefined symbol: " + arg);
+    }
+    missingSymbol = arg;
+    return PENDING;
+  }
+
+  /**
+   * Gets the distance from an address to a target.
+   *
+   * @param target the target, as returned by {@link #target(String, String)}
+   * @return the difference, or {@link #PENDING} if the addresses are in different blocks that have
+   *     not been placed yet
+   */
+  private long difference(long target, int block, int address) {
+    int targetBlock = (int) (target >> 32);
+    int targetAddress = (int) target;
+    if (targetBlock == block) {
+      return targetAddress - address;
+    }
+    long from = absolute(block, address);
+    long to = absolute(targetBlock, targetAddress);
+    return from == PENDING || to == PENDING ? PENDING : to - from;
+  }
+
+  /**
+   * Converts an address in a block to an absolute address.
+   *
+   * @return the address, or {@link #PENDING} if the block has not been placed yet
+   */
+  private long absolute(int block, int address) {
+    if (block < 1) {
+      return address;
+    }
+    return blockAddresses == null ? PENDING : blockAddresses.get(block) + address;
+  }
+
+  private static AssemblerException error(Fixup fixup, String message) {
+    return new AssemblerException(
+        new AssemblerException(message), fixup.line.getOriginalSource(), fixup.lineNumber);
+  }
+}
@@ -1,10 +1,33 @@
 package sicxeassembler;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
+/**
+ * A single line of assembly source. {@link #parseLine(String)} records where each field lies in the
+ * original text; the field strings are only created when they are first requested.
+ */
 public class SourceLine {
+  /** The fields of a source line, in the order they appear. */
+  public enum Field {
+    LABEL,
+    OPCODE_PREFIX,
+    OPCODE,
+    ARG_ONE_PREFIX,
+    ARG_ONE,
+    ARG_TWO,
+    COMMENT
+  }
+
+  /** Mnemonic ID of a line that has not been looked up in an {@link OpTable} yet. */
+  static final int UNRESOLVED = Integer.MIN_VALUE;
+
+  /** Span of a field that was set directly rather than parsed from the original source. */
+  private static final long NO_SPAN = -1L;
+
   private String originalSource;
   private String label = "";
   private String opCodePrefix = "";
@@ -14,71 +37,251 @@ public class SourceLine {
   private String argTwo = "";
   private String comment = "";
 
+  // Location of each field in originalSource, packed by span(). The matching String field is null
+  // until the getter slices it out.
+  private long labelSpan = NO_SPAN;
+  private long opCodePrefixSpan = NO_SPAN;
+  private long opCodeSpan = NO_SPAN;
+  private long argOnePrefixSpan = NO_SPAN;
+  private long argOneSpan = NO_SPAN;
+  private long argTwoSpan = NO_SPAN;
+  private long commentSpan = NO_SPAN;
+
+  /** ID of the opcode, cached by {@link OpTable#resolve(SourceLine)}. */
+  private int mnemonicId = UNRESOLVED;
+
+  /**
+   * Line of the source file this line comes from, from 1, or 0 if it is not known. Lines expanded
+   * from a macro carry the line of the invocation.
+   */
+  private int lineNumber = 0;
+
   private static final Set<Character> OPCODE_PREFIXES = Set.of('+');
   private static final Set<Character> ARG_PREFIXES = Set.of('=', '#', '@');
 
   public SourceLine() {}
 
+  /**
+   * Parses a line of source in a single scan. Fields are separated by spaces or tabs and everything
+   * after the first '.' is a comment. No strings are created here; the getters create them on
+   * demand from the recorded offsets.
+   *
+   * @param source the line of source
+   * @return the parsed line
+   * @throws ParseException if the arguments are malformed
+   */
   public static SourceLine parseLine(String source) throws ParseException {
     SourceLine line = new SourceLine();
     line.setOriginalSource(source);
-    // First, lets get rid of any blank lines
-    if (source.isBlank()) {
-      return line;
+    int end = source.length();
+
+    int labelStart = 0;
+    int pos = tokenEnd(source, labelStart, end);
+    int labelEnd = pos;
+    int opCodeStart = skipSeparators(source, pos, end);
+    pos = tokenEnd(source, opCodeStart, end);
+    int opCodeEnd = pos;
+    int argsStart = skipSeparators(source, pos, end);
+    pos = tokenEnd(source, argsStart, end);
+    int argsEnd = pos;
+    // Anything after the third field is ignored up to the comment
+    while (pos < end && source.charAt(pos) != '.') {
+      pos++;
     }
+    int codeEnd = pos;
 
-    // split around the first occurrence of ".", trim whitespace
-    var codeAndComment = source.split("\\.", 2);
-    var code = codeAndComment[0];
-    if (codeAndComment.length > 1) {
-      line.setComment(codeAndComment[1].trim());
+    if (codeEnd < end) {
+      int commentStart = codeEnd + 1;
+      int commentEnd = end;
+      while (commentStart < commentEnd && source.charAt(commentStart) <= ' ') {
+        commentStart++;
+      }
+      while (commentEnd > commentStart && source.charAt(commentEnd - 1) <= ' ') {
+        commentEnd--;
+      }
+      line.commentSpan = span(commentStart, commentEnd);
+      line.comment = null;
     }
-    // Handle comment-only lines
-    if (code.isBlank()) {
+    // Blank and comment-only lines have no other fields
+    if (isBlank(source, 0, codeEnd)) {
       return line;
     }
 
-    // code[0]: label
-    // code[1]: mnemonic or directive
-    // code[2]: args
-
-    // Split code around whitespace
-    var fields = code.split("[\t ]+");
+    line.labelSpan = span(labelStart, labelEnd);
+    line.label = null;
 
-    // this check should be redundant since we know the line is not blank
-    if (fields.length > 0) {
-      line.setLabel(fields[0]);
+    if (opCodeStart < opCodeEnd && OPCODE_PREFIXES.contains(source.charAt(opCodeStart))) {
+      line.opCodePrefixSpan = span(opCodeStart, opCodeStart + 1);
+      line.opCodePrefix = null;
+      opCodeStart++;
     }
-    if (fields.length > 1) {
-      line.setOpCode(fields[1]);
-      if (!line.getOpCode().isBlank() && OPCODE_PREFIXES.contains(line.getOpCode().charAt(0))) {
-        line.setOpCodePrefix(Character.toString(line.getOpCode().charAt(0)));
-        line.setOpCode(line.getOpCode().substring(1));
+    line.opCodeSpan = span(opCodeStart, opCodeEnd);
+    line.opCode = null;
+
+    if (argsStart < argsEnd) {
+      int argOneEnd = argsStart;
+      while (argOneEnd < argsEnd && source.charAt(argOneEnd) != ',') {
+        argOneEnd++;
       }
-    }
-    if (fields.length > 2) {
-      var args = fields[2];
-
-      // Now parse the args
-      if (!args.isEmpty()) {
-        var splitArgs = args.split(",");
-        line.setArgOne(splitArgs[0]);
-        if (splitArgs.length > 1) {
-          // Make sure argOne actually has something (in the case of args = ",argTwo")
-          if (line.getArgOne().isEmpty()) {
-            throw new ParseException("Missing argument before ','", source.indexOf(args));
-          }
-          line.setArgTwo(splitArgs[1]);
+      if (argOneEnd < argsEnd) {
+        // Make sure argOne actually has something (in the case of args = ",argTwo")
+        if (argOneEnd == argsStart) {
+          throw new ParseException("Missing argument before ','", argsStart);
         }
-        if (!line.getArgOne().isBlank() && ARG_PREFIXES.contains(line.getArgOne().charAt(0))) {
-          line.setArgOnePrefix(Character.toString(line.getArgOne().charAt(0)));
-          line.setArgOne(line.getArgOne().substring(1));
+        int argTwoStart = argOneEnd + 1;
+        int argTwoEnd = argTwoStart;
+        while (argTwoEnd < argsEnd && source.charAt(argTwoEnd) != ',') {
+          argTwoEnd++;
         }
+        line.argTwoSpan = span(argTwoStart, argTwoEnd);
+        line.argTwo = null;
+      }
+      int argOneStart = argsStart;
+      if (ARG_PREFIXES.contains(source.charAt(argOneStart))) {
+        line.argOnePrefixSpan = span(argOneStart, argOneStart + 1);
+        line.argOnePrefix = null;
+        argOneStart++;
       }
+      line.argOneSpan = span(argOneStart, argOneEnd);
+      line.argOne = null;
     }
     return line;
   }
 
+  private static boolean isSeparator(char c) {
+    return c == ' ' || c == '\t';
+  }
+
+  /** Returns the index of the first separator or comment character at or after pos. */
+  private static int tokenEnd(String source, int pos, int end) {
+    while (pos < end) {
+      char c = source.charAt(pos);
+      if (isSeparator(c) || c == '.') {
+        break;
+      }
+      pos++;
+    }
+    return pos;
+  }
+
+  /** Returns the index of the first non-separator character at or after pos. */
+  private static int skipSeparators(String source, int pos, int end) {
+    while (pos < end && isSeparator(source.charAt(pos))) {
+      pos++;
+    }
+    return pos;
+  }
+
+  private static boolean isBlank(String source, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(source.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long span(int start, int end) {
+    return ((long) start << 32) | end;
+  }
+
+  private static int spanStart(long span) {
+    return span == NO_SPAN ? -1 : (int) (span >>> 32);
+  }
+
+  private static int spanEnd(long span) {
+    return span == NO_SPAN ? -1 : (int) span;
+  }
+
+  /** Creates the string for a parsed field. */
+  private String slice(long span) {
+    int start = spanStart(span);
+    int end = spanEnd(span);
+    if (start == end) {
+      return "";
+    }
+    if (end - start == 1) {
+      // Prefixes are always a single character; share one instance of each
+      switch (originalSource.charAt(start)) {
+        case '+':
+          return "+";
+        case '=':
+          return "=";
+        case '#':
+          return "#";
+        case '@':
+          return "@";
+      }
+    }
+    return originalSource.substring(start, end);
+  }
+
+  private boolean isBlank(String value, long span) {
+    if (value != null) {
+      return value.isBlank();
+    }
+    return isBlank(originalSource, spanStart(span), spanEnd(span));
+  }
+
+  private long getSpan(Field field) {
+    return switch (field) {
+      case LABEL -> labelSpan;
+      case OPCODE_PREFIX -> opCodePrefixSpan;
+      case OPCODE -> opCodeSpan;
+      case ARG_ONE_PREFIX -> argOnePrefixSpan;
+      case ARG_ONE -> argOneSpan;
+      case ARG_TWO -> argTwoSpan;
+      case COMMENT -> commentSpan;
+    };
+  }
+
+  /**
+   * Gets the offset of a field in the original source.
+   *
+   * @param field the field
+   * @return the index of the first character of the field, or -1 if the field is not present in the
+   *     original source
+   */
+  public int getFieldStart(Field field) {
+    return spanStart(getSpan(field));
+  }
+
+  /**
+   * Gets the end offset of a field in the original source.
+   *
+   * @param field the field
+   * @return the index after the last character of the field, or -1 if the field is not present in
+   *     the original source
+   */
+  public int getFieldEnd(Field field) {
+    return spanEnd(getSpan(field));
+  }
+
+  /**
+   * Appends a field to a builder. Parsed fields are copied straight from the original source, so no
+   * string is created for them.
+   *
+   * @param field the field
+   * @param out the builder to append to
+   * @return out
+   */
+  public StringBuilder appendField(Field field, StringBuilder out) {
+    long span = getSpan(field);
+    if (span != NO_SPAN) {
+      return out.append(originalSource, spanStart(span), spanEnd(span));
+    }
+    return out.append(
+        switch (field) {
+          case LABEL -> getLabel();
+          case OPCODE_PREFIX -> getOpCodePrefix();
+          case OPCODE -> getOpCode();
+          case ARG_ONE_PREFIX -> getArgOnePrefix();
+          case ARG_ONE -> getArgOne();
+          case ARG_TWO -> getArgTwo();
+          case COMMENT -> getComment();
+        });
+  }
+
   private void setOriginalSource(String originalSource) {
     this.originalSource = originalSource;
   }
@@ -88,70 +291,163 @@ public class SourceLine {
   }
 
   public String getLabel() {
+    if (label == null) {
+      label = slice(labelSpan);
+    }
     return label;
   }
 
   public SourceLine setLabel(String label) {
     this.label = label;
+    this.labelSpan = NO_SPAN;
     return this;
   }
 
   public String getOpCodePrefix() {
+    if (opCodePrefix == null) {
+      opCodePrefix = slice(opCodePrefixSpan);
+    }
     return opCodePrefix;
   }
 
   public SourceLine setOpCodePrefix(String opCodePrefix) {
     this.opCodePrefix = opCodePrefix;
+    this.opCodePrefixSpan = NO_SPAN;
     return this;
   }
 
   public String getOpCode() {
+    if (opCode == null) {
+      opCode = slice(opCodeSpan);
+    }
     return opCode;
   }
 
   public SourceLine setOpCode(String opCode) {
     this.opCode = opCode;
+    this.opCodeSpan = NO_SPAN;
+    this.mnemonicId = UNRESOLVED;
     return this;
   }
 
+  int getMnemonicId() {
+    return mnemonicId;
+  }
+
+  void setMnemonicId(int mnemonicId) {
+    this.mnemonicId = mnemonicId;
+  }
+
+  int getLineNumber() {
+    return lineNumber;
+  }
+
+  void setLineNumber(int lineNumber) {
+    this.lineNumber = lineNumber;
+  }
+
   public String getArgOnePrefix() {
+    if (argOnePrefix == null) {
+      argOnePrefix = slice(argOnePrefixSpan);
+    }
     return argOnePrefix;
   }
 
   public SourceLine setArgOnePrefix(String argOnePrefix) {
     this.argOnePrefix = argOnePrefix;
+    this.argOnePrefixSpan = NO_SPAN;
     return this;
   }
 
   public String getArgOne() {
+    if (argOne == null) {
+      argOne = slice(argOneSpan);
+    }
     return argOne;
   }
 
   public SourceLine setArgOne(String argOne) {
     this.argOne = argOne;
+    this.argOneSpan = NO_SPAN;
     return this;
   }
 
   public String getArgTwo() {
+    if (argTwo == null) {
+      argTwo = slice(argTwoSpan);
+    }
     return argTwo;
   }
 
   public SourceLine setArgTwo(String argTwo) {
     this.argTwo = argTwo;
+    this.argTwoSpan = NO_SPAN;
     return this;
   }
 
   public String getComment() {
+    if (comment == null) {
+      comment = slice(commentSpan);
+    }
     return comment;
   }
 
   public SourceLine setComment(String comment) {
     this.comment = comment;
+    this.commentSpan = NO_SPAN;
     return this;
   }
 
+  /**
+   * Gets the whole argument field, as written. The argument getters only hold the first two
+   * arguments, while macros and EXTDEF or EXTREF take any number.
+   *
+   * @return the arguments, with their prefix, or "" if there are none
+   */
+  public String getArgumentField() {
+    int start = getFieldStart(Field.ARG_ONE_PREFIX);
+    if (start < 0) {
+      start = getFieldStart(Field.ARG_ONE);
+    }
+    if (start < 0) {
+      return getArgOnePrefix() + getArgOne() + (getArgTwo().isEmpty() ? "" : "," + getArgTwo());
+    }
+    return originalSource.substring(
+        start, tokenEnd(originalSource, start, originalSource.length()));
+  }
+
+  /**
+   * Gets every argument. The field is split at commas outside of quoted constants such as {@code
+   * C'A,B'}.
+   *
+   * @return the arguments, in order
+   */
+  public List<String> getArguments() {
+    String field = getArgumentField();
+    List<String> arguments = new ArrayList<>();
+    if (field.isEmpty()) {
+      return arguments;
+    }
+    boolean quoted = false;
+    int start = 0;
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if (c == '\'') {
+        quoted = !quoted;
+      } else if (c == ',' && !quoted) {
+        arguments.add(field.substring(start, i));
+        start = i + 1;
+      }
+    }
+    arguments.add(field.substring(start));
+    return arguments;
+  }
+
   public boolean isCommentOrBlank() {
-    return label.isBlank() && opCode.isBlank() && argOne.isBlank() && argTwo.isBlank();
+    return isBlank(label, labelSpan)
+        && isBlank(opCode, opCodeSpan)
+        && isBlank(argOne, argOneSpan)
+        && isBlank(argTwo, argTwoSpan);
   }
 
   @Override
@@ -159,41 +455,41 @@ public class SourceLine {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     SourceLine that = (SourceLine) o;
-    return Objects.equals(label, that.label)
-        && Objects.equals(opCode, that.opCode)
-        && Objects.equals(argOne, that.argOne)
-        && Objects.equals(argTwo, that.argTwo)
-        && Objects.equals(comment, that.comment);
+    return Objects.equals(getLabel(), that.getLabel())
+        && Objects.equals(getOpCode(), that.getOpCode())
+        && Objects.equals(getArgOne(), that.getArgOne())
+        && Objects.equals(getArgTwo(), that.getArgTwo())
+        && Objects.equals(getComment(), that.getComment());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(label, opCode, argOne, argTwo, comment);
+    return Objects.hash(getLabel(), getOpCode(), getArgOne(), getArgTwo(), getComment());
   }
 
   @Override
   public String toString() {
     return "SourceLine2{"
         + "label='"
-        + label
+        + getLabel()
         + '\''
         + ", opCodePrefix='"
-        + opCodePrefix
+        + getOpCodePrefix()
         + '\''
         + ", opCode='"
-        + opCode
+        + getOpCode()
         + '\''
         + ", argOnePrefix='"
-        + argOnePrefix
+        + getArgOnePrefix()
         + '\''
         + ", argOne='"
-        + argOne
+        + getArgOne()
         + '\''
         + ", argTwo='"
-        + argTwo
+        + getArgTwo()
         + '\''
         + ", comment='"
-        + comment
+        + getComment()
         + '\''
         + '}';
   }
@@ -0,0 +1,198 @@
+package sicxeassembler;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams {@link SourceLine}s from a source file one line at a time. Only the line currently being
+ * parsed is held by the reader, so memory use does not depend on the length of the file.
+ *
+ * <p>Lines that fail to parse are passed to the {@link ErrorHandler} and skipped. If the reader is
+ * given an {@link OpTable}, each line's mnemonic is resolved as it is parsed.
+ *
+ * <p>Files are read as UTF-8. A line holding bytes that are not UTF-8 is reported like any other
+ * line that fails to parse, and the lines around it are still read.
+ */
+public class SourceReader implements Iterator<SourceLine>, Closeable {
+  /** Size of the character buffer between the file channel and the line splitter. */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Stands in for bytes that are not UTF-8 when decoding with {@link #newDecoder()}. A lone
+   * surrogate never comes out of decoding UTF-8 text, so it cannot be mistaken for one in the file.
+   */
+  private static final char MALFORMED = '\uD800';
+
+  /** Receives lines that could not be parsed. */
+  @FunctionalInterface
+  public interface ErrorHandler {
+    /**
+     * Called once for each line that fails to parse
+     *
+     * @param lineNumber the 1-based line number
+     * @param source the text of the line
+     * @param error the parse error
+     */
+    void error(int lineNumber, String source, ParseException error);
+  }
+
+  private final BufferedReader reader;
+  private final OpTable opTable;
+  private final ErrorHandler errorHandler;
+  private SourceLine next;
+  private int lineNumber = 0;
+
+  /** Stats to charge parsing to, or null. */
+  private AssemblyStats stats;
+
+  public SourceReader(Reader reader, ErrorHandler errorHandler) {
+    this(reader, null, errorHandler);
+  }
+
+  public SourceReader(Reader reader, OpTable opTable, ErrorHandler errorHandler) {
+    this.reader =
+        reader instanceof BufferedReader buffered
+            ? buffered
+            : new BufferedReader(reader, BUFFER_SIZE);
+    this.opTable = opTable;
+    this.errorHandler = errorHandler;
+  }
+
+  /**
+   * Opens a reader over the given file.
+   *
+   * @param path the source file
+   * @param opTable table to resolve mnemonics against, or null
+   * @param errorHandler handler for lines that fail to parse
+   * @return the reader
+   * @throws IOException if the file could not be opened
+   */
+  public static SourceReader open(Path path, OpTable opTable, ErrorHandler errorHandler)
+      throws IOException {
+    return new SourceReader(openReader(path), opTable, errorHandler);
+  }
+
+  /** Opens a buffered UTF-8 reader over the given file, decoding with {@link #newDecoder()}. */
+  static BufferedReader openReader(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    return new BufferedReader(Channels.newReader(channel, newDecoder(), -1), BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a UTF-8 decoder that marks bytes that are not UTF-8 rather than failing, so that {@link
+   * #checkDecoded(String)} can report the line they are on.
+   */
+  static CharsetDecoder newDecoder() {
+    return StandardCharsets.UTF_8
+        .newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+        .replaceWith(String.valueOf(MALFORMED));
+  }
+
+  /**
+   * Checks a line decoded with {@link #newDecoder()}.
+   *
+   * @param source the line
+   * @throws ParseException at the first bytes that were not UTF-8
+   */
+  static void checkDecoded(String source) throws ParseException {
+    int offset = source.indexOf(MALFORMED);
+    if (offset >= 0) {
+      throw new ParseException("Not valid UTF-8", offset);
+    }
+  }
+
+  /** Shows the bytes that were not UTF-8 in a line as replacement characters. */
+  static String displayed(String source) {
+    return source.replace(MALFORMED, '\uFFFD');
+  }
+
+  /**
+   * Gets the number of lines read so far, including lines that failed to parse.
+   *
+   * @return the line number of the last line read
+   */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Times each line's parse and charges it to the parse stage.
+   *
+   * @param stats the stats, or null to stop timing
+   */
+  public void setStats(AssemblyStats stats) {
+    this.stats = stats;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      next = readNext();
+    }
+    return next != null;
+  }
+
+  @Override
+  public SourceLine next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SourceLine line = next;
+    next = null;
+    return line;
+  }
+
+  /**
+   * Reads lines until one parses successfully.
+   *
+   * @return the parsed line, or null at end of input
+   */
+  private SourceLine readNext() {
+    try {
+      String source;
+      while ((source = reader.readLine()) != null) {
+        lineNumber++;
+        long time = stats != null ? System.nanoTime() : 0;
+        long bytes = stats != null ? AssemblyStats.allocatedBytes() : 0;
+        try {
+          checkDecoded(source);
+          SourceLine line = SourceLine.parseLine(source);
+          line.setLineNumber(lineNumber);
+          if (opTable != null) {
+            opTable.resolve(line);
+          }
+          return line;
+        } catch (ParseException e) {
+          errorHandler.error(lineNumber, displayed(source), e);
+        } finally {
+          if (stats != null) {
+            stats.add(
+                AssemblyStats.Stage.PARSE,
+                System.nanoTime() - time,
+                AssemblyStats.allocatedBytes() - bytes);
+            stats.addLines(AssemblyStats.Stage.PARSE, 1);
+          }
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -3,7 +3,9 @@ package sicxeassembler;
 public record SymbolData(int value, int programBlockId, Type type) {
   enum Type {
     ABSOLUTE,
-    RELATIVE
+    RELATIVE,
+    /** Named by EXTREF and defined in another control section. Its value is always 0. */
+    EXTERNAL
   }
 
   @Override
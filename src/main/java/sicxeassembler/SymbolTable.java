@@ -0,0 +1,236 @@
+package sicxeassembler;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+import sicxeassembler.errors.AssemblerException;
+
+/**
+ * Symbol table built by pass one. Each label is given an ID in the order it was added, and the
+ * value, block and type of every symbol are kept in arrays indexed by that ID, so looking a symbol
+ * up does not create any objects. Labels are found through an open addressing hash table of IDs.
+ *
+ * <p>The table is not thread safe, but once pass one is done it is only read, so pass two can share
+ * it between threads.
+ */
+public class SymbolTable {
+  /** ID returned by {@link #find(String)} for a label that is not in the table. */
+  public static final int NOT_FOUND = -1;
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final SymbolData.Type[] TYPES = SymbolData.Type.values();
+
+  private String[] names = new String[INITIAL_CAPACITY];
+  private int[] hashes = new int[INITIAL_CAPACITY];
+  private int[] values = new int[INITIAL_CAPACITY];
+  private int[] blocks = new int[INITIAL_CAPACITY];
+  private byte[] types = new byte[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /** Hash table of ID + 1, with 0 marking an empty slot. Kept at most half full. */
+  private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+  /**
+   * Adds a symbol, or replaces the symbol with the same label.
+   *
+   * @return the ID of the symbol
+   */
+  public int put(String name, int value, int block, SymbolData.Type type) {
+    int hash = name.hashCode();
+    int id = find(name, hash);
+    if (id == NOT_FOUND) {
+      id = add(name, hash);
+    }
+    values[id] = value;
+    blocks[id] = block;
+    types[id] = (byte) type.ordinal();
+    return id;
+  }
+
+  public int put(String name, SymbolData data) {
+    return put(name, data.value(), data.programBlockId(), data.type());
+  }
+
+  /**
+   * Finds the ID of a label.
+   *
+   * @return the ID, or {@link #NOT_FOUND}
+   */
+  public int find(String name) {
+    return find(name, name.hashCode());
+  }
+
+  /**
+   * Finds the ID of the label held in part of a character sequence, without copying it out.
+   *
+   * @param text the text holding the label
+   * @param start index of the first character of the label
+   * @param end index after the last character of the label
+   * @return the ID, or {@link #NOT_FOUND}
+   */
+  public int find(CharSequence text, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + text.charAt(i);
+    }
+    int mask = slots.length - 1;
+    for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && regionMatches(names[id], text, start, end)) {
+        return id;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  public boolean containsKey(String name) {
+    return find(name) != NOT_FOUND;
+  }
+
+  /**
+   * Gets a symbol as a record.
+   *
+   * @return the symbol, or null if there is no symbol with that label
+   */
+  public SymbolData get(String name) {
+    int id = find(name);
+    return id == NOT_FOUND ? null : new SymbolData(values[id], blocks[id], type(id));
+  }
+
+  /**
+   * Gets the value of a symbol.
+   *
+   * @throws AssemblerException if there is no symbol with that label
+   */
+  public int lookup(String name) {
+    int id = find(name);
+    if (id == NOT_FOUND) {
+      throw new AssemblerException("Undefined symbol: " + name);
+    }
+    return values[id];
+  }
+
+  public String name(int id) {
+    return names[id];
+  }
+
+  public int value(int id) {
+    return values[id];
+  }
+
+  public int block(int id) {
+    return blocks[id];
+  }
+
+  public SymbolData.Type type(int id) {
+    return TYPES[types[id]];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes every symbol added after the table had the given size, so the table can be rolled back
+   * to an earlier state. Takes time proportional to the number of symbols removed.
+   *
+   * @param size the number of symbols to keep
+   */
+  public void truncate(int size) {
+    while (this.size > size) {
+      int id = --this.size;
+      remove(id);
+      names[id] = null;
+    }
+  }
+
+  /** Calls the action for each symbol, in the order the symbols were first added. */
+  public void forEach(BiConsumer<String, SymbolData> action) {
+    for (int id = 0; id < size; id++) {
+      action.accept(names[id], new SymbolData(values[id], blocks[id], type(id)));
+    }
+  }
+
+  private int find(String name, int hash) {
+    int mask = slots.length - 1;
+    for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && names[id].equals(name)) {
+        return id;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  private int add(String name, int hash) {
+    if (size == names.length) {
+      int capacity = size * 2;
+      names = Arrays.copyOf(names, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+      values = Arrays.copyOf(values, capacity);
+      blocks = Arrays.copyOf(blocks, capacity);
+      types = Arrays.copyOf(types, capacity);
+    }
+    int id = size++;
+    names[id] = name;
+    hashes[id] = hash;
+    if (size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    } else {
+      insert(id);
+    }
+    return id;
+  }
+
+  private void rehash(int capacity) {
+    slots = new int[capacity];
+    for (int id = 0; id < size; id++) {
+      insert(id);
+    }
+  }
+
+  private void insert(int id) {
+    int mask = slots.length - 1;
+    int slot = mix(hashes[id]) & mask;
+    while (slots[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = id + 1;
+  }
+
+  /** Spreads the bits of String.hashCode, whose low bits are poor for similar labels. */
+  private static int mix(int hash) {
+    hash *= 0x9E3779B9;
+    return hash ^ (hash >>> 16);
+  }
+
+  /** Removes an ID from the hash table, shifting back the entries that probed past it. */
+  private void remove(int id) {
+    int mask = slots.length - 1;
+    int slot = mix(hashes[id]) & mask;
+    while (slots[slot] != id + 1) {
+      slot = (slot + 1) & mask;
+    }
+    int hole = slot;
+    for (slot = (slot + 1) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int home = mix(hashes[slots[slot] - 1]) & mask;
+      // Move the entry into the hole unless its home slot lies between the hole and the entry
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        slots[hole] = slots[slot];
+        hole = slot;
+      }
+    }
+    slots[hole] = 0;
+  }
+
+  private static boolean regionMatches(String name, CharSequence text, int start, int end) {
+    if (name.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) != text.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -13,30 +13,44 @@ public class ErrorUtils {
    */
   public static void error(
       String fileName, int lineNumber, String inputString, ParseException error) {
-    String output =
-        fileName
-            + ":"
-            + lineNumber
-            + ":"
-            + "error: "
-            + error.getMessage()
-            + "\n"
-            + inputString
-            + "\n"
-            + " ".repeat(Math.max(0, error.getErrorOffset()))
-            + "^";
-    System.err.println(output);
+    System.err.println(format(fileName, lineNumber, inputString, error));
   }
 
   public static void error(String fileName, AssemblerException error) {
-    String output =
-        fileName
-            + ":"
-            + error.getLineNumber()
-            + ":error: "
-            + error.getMessage()
-            + "\n"
-            + error.getCauseLine();
-    System.err.println(output);
+    System.err.println(format(fileName, error));
+  }
+
+  /**
+   * Formats an error without printing it
+   *
+   * @param fileName The file the error is from
+   * @param lineNumber The line number the error occurs on
+   * @param inputString The specific text that caused the error
+   * @param error The ParseException that contains the message and location
+   * @return the formatted error
+   */
+  public static String format(
+      String fileName, int lineNumber, String inputString, ParseException error) {
+    return fileName
+        + ":"
+        + lineNumber
+        + ":"
+        + "error: "
+        + error.getMessage()
+        + "\n"
+        + inputString
+        + "\n"
+        + " ".repeat(Math.max(0, error.getErrorOffset()))
+        + "^";
+  }
+
+  public static String format(String fileName, AssemblerException error) {
+    return fileName
+        + ":"
+        + error.getLineNumber()
+        + ":error: "
+        + error.getMessage()
+        + "\n"
+        + error.getCauseLine();
   }
 }
@@ -0,0 +1,19 @@
+package sicxeassembler.errors;
+
+public class SimulatorException extends RuntimeException {
+  private final int address;
+
+  public SimulatorException(String message, int address) {
+    super(message + " at " + String.format("%05X", address));
+    this.address = address;
+  }
+
+  /**
+   * Gets the address of the instruction that failed.
+   *
+   * @return the address
+   */
+  public int getAddress() {
+    return address;
+  }
+}
@@ -1,18 +1,59 @@
 package sicxeassembler.output;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import sicxeassembler.ConstantBytes;
+import sicxeassembler.ObjectCode;
 import sicxeassembler.PassTwoData;
 import sicxeassembler.SourceLine;
+import sicxeassembler.SourceLine.Field;
 
+/**
+ * Writes the assembly listing. Each line is padded and hex encoded into one reused builder, then
+ * copied into a large buffered writer, so no strings are created per line.
+ */
 public class AssemblyListingGenerator implements OutputGenerator {
-  PrintWriter writer;
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final String LINE_SEPARATOR = System.lineSeparator();
+
+  private final Writer writer;
+
+  /** Whether the generator opened the output itself and should close it when finished. */
+  private final boolean ownsOutput;
+
+  private final StringBuilder line = new StringBuilder(128);
+  private char[] chars = new char[128];
+
+  /** Whether a program has been started, so later control sections are listed as CSECT. */
+  private boolean started = false;
 
   public AssemblyListingGenerator(OutputStream outputStream) {
-    writer = new PrintWriter(outputStream);
+    writer =
+        new BufferedWriter(
+            new OutputStreamWriter(outputStream, Charset.defaultCharset()), BUFFER_SIZE);
+    ownsOutput = false;
   }
 
-  public AssemblyListingGenerator(File output) throws FileNotFoundException {
-    writer = new PrintWriter(output);
+  public AssemblyListingGenerator(Path output) throws IOException {
+    writer =
+        new BufferedWriter(
+            Channels.newWriter(
+                FileChannel.open(
+                    output,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE),
+                Charset.defaultCharset()),
+            BUFFER_SIZE);
+    ownsOutput = true;
+  }
+
+  public AssemblyListingGenerator(File output) throws IOException {
+    this(output.toPath());
   }
 
   @Override
@@ -20,13 +61,29 @@ public class AssemblyListingGenerator implements OutputGenerator {
     output(
         0,
         0,
-        new SourceLine().setLabel(name).setOpCode("START").setArgOne(String.valueOf(start)),
+        started
+            ? new SourceLine().setLabel(name).setOpCode("CSECT")
+            : new SourceLine().setLabel(name).setOpCode("START").setArgOne(String.valueOf(start)),
+        ObjectCode.NONE,
         null);
+    started = true;
   }
 
   @Override
   public void accept(PassTwoData output) {
-    output(output.address(), output.block(), output.line(), output.objectCode());
+    output(output.address(), output.block(), output.line(), output.instruction(), output.data());
+  }
+
+  @Override
+  public void accept(
+      SourceLine line,
+      int size,
+      int block,
+      int address,
+      boolean isExecutableInstruction,
+      long instruction,
+      ConstantBytes data) {
+    output(address, block, line, instruction, data);
   }
 
   @Override
@@ -36,81 +93,118 @@ public class AssemblyListingGenerator implements OutputGenerator {
 
   @Override
   public void finalizeOutput() {
-    writer.flush();
-  }
-
-  private void output(int address, int block, SourceLine statement, int[] objectCode) {
-    writer.println(formatColumns(address, block, statement, objectCode));
-  }
-
-  public static String formatColumns(int address, int block, SourceLine source, int[] objectCode) {
-    if (source.isCommentOrBlank()) {
-      return formatCommentOnlyLine(source.getComment());
+    try {
+      if (ownsOutput) {
+        writer.close();
+      } else {
+        writer.flush();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
-    String blockString = block < 0 ? " " : String.valueOf(block);
-    return formatColumns(
-        String.format("%04X", address),
-        blockString,
-        source.getLabel(),
-        source.getOpCodePrefix(),
-        source.getOpCode(),
-        source.getArgOnePrefix(),
-        formatArgs(source.getArgOne(), source.getArgTwo()),
-        OutputUtils.bytesToHexString(objectCode),
-        source.getComment());
   }
 
-  private static String formatCommentOnlyLine(String comment) {
-    return formatColumns("", "", ".", "", comment, "", "", "", "");
+  private void output(
+      int address, int block, SourceLine statement, long instruction, ConstantBytes data) {
+    line.setLength(0);
+    appendColumns(line, address, block, statement, instruction, data).append(LINE_SEPARATOR);
+    int length = line.length();
+    if (chars.length < length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+    }
+    line.getChars(0, length, chars, 0);
+    try {
+      writer.write(chars, 0, length);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
   public static String formatColumns(
-      String address,
-      String block,
-      String label,
-      String opcodePrefix,
-      String opcode,
-      String argOnePrefix,
-      String args,
-      String objectCode,
-      String comment) {
-    if (!comment.isEmpty()) {
-      comment = ". " + comment;
-    }
-    /*
-     * Location: 0000
-     * two spaces
-     * block or " ": 5
-     * Statement string (already formatted)
-     * object code
-     * . comment
-     */
-    return String.format(
-        "%-4s  %-5s%s%-8s%s",
-        address,
-        block,
-        formatSourceStatement(label, opcodePrefix, opcode, argOnePrefix, args),
-        objectCode,
-        comment);
+      int address, int block, SourceLine source, long instruction, ConstantBytes data) {
+    return appendColumns(new StringBuilder(), address, block, source, instruction, data).toString();
   }
 
-  public static String formatArgs(String argOne, String argTwo) {
-    if (!argTwo.isEmpty()) {
-      return argOne + "," + argTwo;
+  /*
+   * Location: 0000
+   * two spaces
+   * block or " ": 5
+   * Statement:
+   *   label: 15
+   *   opcode prefix: 1
+   *   opcode: 7
+   *   arg prefix: 1
+   *   args: 20
+   * object code: 10
+   * . comment
+   *
+   * Columns are padded to at least their width and are never cut short.
+   */
+
+  /**
+   * Appends one line of the listing, without the line separator.
+   *
+   * @return out
+   */
+  public static StringBuilder appendColumns(
+      StringBuilder out,
+      int address,
+      int block,
+      SourceLine source,
+      long instruction,
+      ConstantBytes data) {
+    if (source.isCommentOrBlank()) {
+      return appendCommentOnlyLine(out, source);
+    }
+    int column = out.length();
+    OutputUtils.appendHex(out, address, 4);
+    column = pad(out, column, 4);
+    out.append("  ");
+    column = out.length();
+    if (block < 0) {
+      out.append(' ');
     } else {
-      return argOne;
+      out.append(block);
+    }
+    column = pad(out, column, 5);
+    column = pad(source.appendField(Field.LABEL, out), column, 15);
+    column = pad(source.appendField(Field.OPCODE_PREFIX, out), column, 1);
+    column = pad(source.appendField(Field.OPCODE, out), column, 7);
+    column = pad(source.appendField(Field.ARG_ONE_PREFIX, out), column, 1);
+    source.appendField(Field.ARG_ONE, out);
+    if (!source.getArgTwo().isEmpty()) {
+      source.appendField(Field.ARG_TWO, out.append(','));
+    }
+    column = pad(out, column, 20);
+    pad(OutputUtils.appendHex(out, instruction, data), column, 10);
+    if (!source.getComment().isEmpty()) {
+      source.appendField(Field.COMMENT, out.append(". "));
     }
+    return out;
   }
 
-  public static String formatSourceStatement(
-      String label, String opCodePrefix, String opcode, String argOnePrefix, String args) {
-    /*
-     * Label: 15
-     * opcode prefix: 1
-     * opcode: 7
-     * arg prefix: 1
-     * args: 20
-     */
-    return String.format("%-15s%-1s%-7s%-1s%-20s", label, opCodePrefix, opcode, argOnePrefix, args);
+  private static StringBuilder appendCommentOnlyLine(StringBuilder out, SourceLine source) {
+    int column = pad(out, out.length(), 4);
+    out.append("  ");
+    column = pad(out, out.length(), 5);
+    column = pad(out.append('.'), column, 15);
+    column = pad(out, column, 1);
+    column = pad(source.appendField(Field.COMMENT, out), column, 7);
+    column = pad(out, column, 1);
+    column = pad(out, column, 20);
+    pad(out, column, 10);
+    return out;
+  }
+
+  /**
+   * Pads the column that starts at the given index with spaces.
+   *
+   * @return the index where the next column starts
+   */
+  private static int pad(StringBuilder out, int column, int width) {
+    while (out.length() - column < width) {
+      out.append(' ');
+    }
+    return out.length();
   }
 }
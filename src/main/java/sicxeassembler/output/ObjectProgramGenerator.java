@@ -0,0 +1,310 @@
+package sicxeassembler.output;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import sicxeassembler.ConstantBytes;
+import sicxeassembler.ObjectCode;
+import sicxeassembler.PassTwoData;
+import sicxeassembler.SourceLine;
+
+/**
+ * Writes an object program made of header, define, refer, text, modification and end records:
+ *
+ * <pre>
+ * H{name, 6 chars}{start address}{length}
+ * D{symbol, 6 chars}{address}... up to 6 symbols
+ * R{symbol, 6 chars}... up to 12 symbols
+ * T{start address}{length, 2 hex digits}{object code, up to 30 bytes}
+ * M{address}{length in half bytes, 2 hex digits}{+ or - and an external symbol, if any}
+ * E{address of first instruction}
+ * </pre>
+ *
+ * Addresses and lengths are 6 hex digits unless noted. A text record ends when it is full, when
+ * RESW or RESB leaves a gap, or when the code switches to another program block. Records are
+ * encoded straight into a reusable buffer, which is written to the channel whenever it fills up.
+ *
+ * <p>Each control section is written as its own program, separated by a blank line. Only the first
+ * has an address in its end record.
+ */
+public class ObjectProgramGenerator implements OutputGenerator {
+  /** Most object code bytes a single text record can hold. */
+  public static final int MAX_TEXT_RECORD_BYTES = 30;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** Longest record: "T", address, length, 30 bytes of code and the newline. */
+  private static final int MAX_RECORD_CHARS = 1 + 6 + 2 + 2 * MAX_TEXT_RECORD_BYTES + 1;
+
+  private static final int MAX_DEFINITIONS_PER_RECORD = 6;
+
+  private static final int MAX_REFERENCES_PER_RECORD = 12;
+
+  /** Longest define or refer record: "D", 72 chars of symbols and the newline. */
+  private static final int MAX_SYMBOL_RECORD_CHARS = 1 + 72 + 1;
+
+  private static final byte[] HEX_DIGITS = {
+    '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+  };
+
+  private final WritableByteChannel channel;
+  private final boolean ownsChannel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /** Code for the text record being built. */
+  private final byte[] text = new byte[MAX_TEXT_RECORD_BYTES];
+
+  private int textLength = 0;
+  private int textAddress = 0;
+  private int textBlock = 0;
+
+  /** Modification records, written after the text records. Each is address << 8 | size. */
+  private long[] modifications = new long[16];
+
+  /** External symbol of each modification record with its sign, or null. */
+  private String[] modificationSymbols = new String[16];
+
+  private int modificationCount = 0;
+  private int entryPoint;
+  private boolean hasEntryPoint;
+
+  /** Number of control sections started. */
+  private int sectionCount = 0;
+
+  /** Type of the define or refer record being built, or 0 if there is none. */
+  private byte symbolRecord = 0;
+
+  private int symbolRecordEntries = 0;
+
+  public ObjectProgramGenerator(WritableByteChannel channel) {
+    this.channel = channel;
+    this.ownsChannel = false;
+  }
+
+  public ObjectProgramGenerator(Path output) throws IOException {
+    this.channel =
+        FileChannel.open(
+            output,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+    this.ownsChannel = true;
+  }
+
+  @Override
+  public void initialize(String name, int start, int length) {
+    if (sectionCount > 0) {
+      finishSection();
+      reserve(1);
+      endRecord();
+    }
+    entryPoint = start;
+    hasEntryPoint = sectionCount++ == 0;
+    reserve(MAX_RECORD_CHARS);
+    buffer.put((byte) 'H');
+    putName(name);
+    putHex(start, 6);
+    putHex(length, 6);
+    endRecord();
+  }
+
+  @Override
+  public void addExternalDefinition(String name, int address) {
+    startSymbolRecord((byte) 'D', MAX_DEFINITIONS_PER_RECORD);
+    putName(name);
+    putHex(address, 6);
+  }
+
+  @Override
+  public void addExternalReference(String name) {
+    startSymbolRecord((byte) 'R', MAX_REFERENCES_PER_RECORD);
+    putName(name);
+  }
+
+  @Override
+  public void accept(PassTwoData output) {
+    accept(
+        output.line(),
+        output.size(),
+        output.block(),
+        output.address(),
+        output.isExecutableInstruction(),
+        output.instruction(),
+        output.data());
+  }
+
+  @Override
+  public void accept(
+      SourceLine line,
+      int size,
+      int block,
+      int address,
+      boolean isExecutableInstruction,
+      long instruction,
+      ConstantBytes data) {
+    int length = data != null ? data.length() : ObjectCode.length(instruction);
+    if (length == 0) {
+      // Reserved space leaves a gap in the code
+      if (size > 0) {
+        flushText();
+      }
+      return;
+    }
+    if (textLength > 0
+        && (block != textBlock
+            || address != textAddress + textLength
+            || (length <= MAX_TEXT_RECORD_BYTES && textLength + length > MAX_TEXT_RECORD_BYTES))) {
+      flushText();
+    }
+    if (textLength == 0) {
+      textAddress = address;
+      textBlock = block;
+    }
+    // Only constants longer than a whole record are split across records
+    for (int i = 0; i < length; i++) {
+      if (textLength == MAX_TEXT_RECORD_BYTES) {
+        flushText();
+        textAddress = address + i;
+      }
+      text[textLength++] = (byte) (data != null ? data.get(i) : ObjectCode.byteAt(instruction, i));
+    }
+  }
+
+  @Override
+  public void addModificationRecord(int address, int size) {
+    addModificationRecord(address, size, null);
+  }
+
+  @Override
+  public void addModificationRecord(int address, int size, String symbol) {
+    if (modificationCount == modifications.length) {
+      modifications = Arrays.copyOf(modifications, modificationCount * 2);
+      modificationSymbols = Arrays.copyOf(modificationSymbols, modificationCount * 2);
+    }
+    modificationSymbols[modificationCount] = symbol;
+    modifications[modificationCount++] = ((long) address << 8) | (size & 0xff);
+  }
+
+  @Override
+  public void setEntryPoint(int address) {
+    entryPoint = address;
+    hasEntryPoint = true;
+  }
+
+  @Override
+  public void finalizeOutput() {
+    finishSection();
+    try {
+      drain();
+      if (ownsChannel) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Writes the rest of the current control section: its last records and the end record. */
+  private void finishSection() {
+    flushText();
+    for (int i = 0; i < modificationCount; i++) {
+      String symbol = modificationSymbols[i];
+      reserve(MAX_RECORD_CHARS + (symbol == null ? 0 : symbol.length()));
+      buffer.put((byte) 'M');
+      putHex((int) (modifications[i] >>> 8), 6);
+      putHex((int) modifications[i] & 0xff, 2);
+      if (symbol != null) {
+        for (int j = 0; j < symbol.length(); j++) {
+          buffer.put((byte) symbol.charAt(j));
+        }
+        modificationSymbols[i] = null;
+      }
+      endRecord();
+    }
+    modificationCount = 0;
+    reserve(MAX_RECORD_CHARS);
+    buffer.put((byte) 'E');
+    if (hasEntryPoint) {
+      putHex(entryPoint, 6);
+    }
+    endRecord();
+  }
+
+  /** Adds an entry to a define or refer record, starting a new record if needed. */
+  private void startSymbolRecord(byte type, int maxEntries) {
+    if (symbolRecord != type || symbolRecordEntries == maxEntries) {
+      endSymbolRecord();
+      reserve(MAX_SYMBOL_RECORD_CHARS);
+      buffer.put(type);
+      symbolRecord = type;
+    }
+    symbolRecordEntries++;
+  }
+
+  private void endSymbolRecord() {
+    if (symbolRecord != 0) {
+      endRecord();
+      symbolRecord = 0;
+      symbolRecordEntries = 0;
+    }
+  }
+
+  /** Writes the pending text record, if there is one. */
+  private void flushText() {
+    endSymbolRecord();
+    if (textLength == 0) {
+      return;
+    }
+    reserve(MAX_RECORD_CHARS);
+    buffer.put((byte) 'T');
+    putHex(textAddress, 6);
+    putHex(textLength, 2);
+    for (int i = 0; i < textLength; i++) {
+      putHex(text[i], 2);
+    }
+    endRecord();
+    textLength = 0;
+  }
+
+  /** Writes a symbol or program name, cut or padded to 6 chars. */
+  private void putName(String name) {
+    for (int i = 0; i < 6; i++) {
+      buffer.put(i < name.length() ? (byte) name.charAt(i) : (byte) ' ');
+    }
+  }
+
+  /** Writes the low digits of value as upper case hex. */
+  private void putHex(int value, int digits) {
+    for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+      buffer.put(HEX_DIGITS[(value >>> shift) & 0xf]);
+    }
+  }
+
+  private void endRecord() {
+    buffer.put((byte) '\n');
+  }
+
+  /** Makes sure the buffer has room for the given number of bytes. */
+  private void reserve(int bytes) {
+    if (buffer.remaining() < bytes) {
+      try {
+        drain();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
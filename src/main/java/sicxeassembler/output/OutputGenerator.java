@@ -1,12 +1,19 @@
 package sicxeassembler.output;
 
+import sicxeassembler.ConstantBytes;
+import sicxeassembler.ObjectCode;
 import sicxeassembler.PassTwoData;
+import sicxeassembler.SourceLine;
 
 /**
  * Outputs assembled code. {@link #initialize(String, int, int)} will be called to prepare the
  * generator for output. Then, {@link #accept(PassTwoData)} will be called repeatedly as many times
  * as needed. Finally, {@link #finalizeOutput()} will be called to allow for cleanup or other
  * post-output tasks.
+ *
+ * <p>A program made of control sections repeats the calls from {@link #initialize(String, int,
+ * int)} to {@link #setEntryPoint(int)} once per section, in order. {@link #finalizeOutput()} is
+ * still called once, after the last section.
  */
 public interface OutputGenerator {
   /**
@@ -25,6 +32,30 @@ public interface OutputGenerator {
    */
   void accept(PassTwoData output);
 
+  /**
+   * Accept more output, passed as individual values so the caller does not need to allocate a
+   * {@link PassTwoData} for every line. The default implementation wraps the values in a
+   * PassTwoData; generators on the hot path should override it.
+   *
+   * @param line the source line
+   * @param size the size in bytes of the object code
+   * @param block the block ID
+   * @param address the absolute address of the line
+   * @param isExecutableInstruction whether the line is an instruction
+   * @param instruction packed object code (see {@link ObjectCode}), or {@link ObjectCode#NONE}
+   * @param data constant data, or null
+   */
+  default void accept(
+      SourceLine line,
+      int size,
+      int block,
+      int address,
+      boolean isExecutableInstruction,
+      long instruction,
+      ConstantBytes data) {
+    accept(new PassTwoData(line, size, block, address, isExecutableInstruction, instruction, data));
+  }
+
   /**
    * Indicate to the generator that a modification record needs to be generated
    *
@@ -33,6 +64,43 @@ public interface OutputGenerator {
    */
   void addModificationRecord(int address, int size);
 
+  /**
+   * Indicate to the generator that a modification record adding or subtracting the address of an
+   * external symbol needs to be generated. The default implementation drops the symbol.
+   *
+   * @param address address to be modified
+   * @param size size in half bytes
+   * @param symbol the symbol with its sign, such as "+RDREC"
+   */
+  default void addModificationRecord(int address, int size, String symbol) {
+    addModificationRecord(address, size);
+  }
+
+  /**
+   * Add a symbol named by EXTDEF to the current control section. Called after {@link
+   * #initialize(String, int, int)} and before any code is accepted.
+   *
+   * @param name the symbol
+   * @param address its address in the control section
+   */
+  default void addExternalDefinition(String name, int address) {}
+
+  /**
+   * Add a symbol named by EXTREF to the current control section. Called after {@link
+   * #initialize(String, int, int)} and before any code is accepted.
+   *
+   * @param name the symbol
+   */
+  default void addExternalReference(String name) {}
+
+  /**
+   * Set the address execution starts at, given by the END directive. Called once after all code has
+   * been accepted, before {@link #finalizeOutput()}.
+   *
+   * @param address the address of the first instruction to execute
+   */
+  default void setEntryPoint(int address) {}
+
   /** Finish and clean up. Called once after all code has been accepted. */
   void finalizeOutput();
 }
@@ -1,13 +1,61 @@
 package sicxeassembler.output;
 
+import sicxeassembler.ConstantBytes;
+import sicxeassembler.ObjectCode;
+
 public class OutputUtils {
-  public static String bytesToHexString(int[] bytes) {
-    if (bytes == null) return "";
-    StringBuilder builder = new StringBuilder();
-    for (var b : bytes) {
-      b &= 0xff;
-      builder.append(Integer.toHexString(b).toUpperCase());
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  /**
+   * Formats object code as hex. Each byte is written as two digits.
+   *
+   * @param instruction packed object code
+   * @param data constant data, which takes precedence over instruction if not null
+   * @return the hex string, or "" if there is no object code
+   */
+  public static String bytesToHexString(long instruction, ConstantBytes data) {
+    return appendHex(new StringBuilder(), instruction, data).toString();
+  }
+
+  /**
+   * Appends object code as hex, two digits per byte.
+   *
+   * @param out the builder to append to
+   * @param instruction packed object code
+   * @param data constant data, which takes precedence over instruction if not null
+   * @return out
+   */
+  public static StringBuilder appendHex(StringBuilder out, long instruction, ConstantBytes data) {
+    if (data != null) {
+      for (int i = 0; i < data.length(); i++) {
+        appendByte(out, data.get(i));
+      }
+    } else {
+      for (int i = 0; i < ObjectCode.length(instruction); i++) {
+        appendByte(out, ObjectCode.byteAt(instruction, i));
+      }
     }
-    return builder.toString();
+    return out;
+  }
+
+  /**
+   * Appends a value as upper case hex, padded with zeros to at least the given number of digits.
+   * Negative values are written as unsigned, like {@code %X}.
+   *
+   * @param out the builder to append to
+   * @param value the value
+   * @param minDigits the least number of digits to write
+   * @return out
+   */
+  public static StringBuilder appendHex(StringBuilder out, int value, int minDigits) {
+    int digits = Math.max(minDigits, (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 3) / 4);
+    for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+      out.append(shift < Integer.SIZE ? HEX_DIGITS[(value >>> shift) & 0xf] : '0');
+    }
+    return out;
+  }
+
+  private static void appendByte(StringBuilder out, int value) {
+    out.append(HEX_DIGITS[(value >> 4) & 0xf]).append(HEX_DIGITS[value & 0xf]);
   }
 }
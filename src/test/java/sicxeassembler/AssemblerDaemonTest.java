@@ -0,0 +1,111 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AssemblerDaemonTest {
+  @TempDir Path directory;
+
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+  private AssemblerDaemon daemon;
+  private Thread server;
+
+  @BeforeEach
+  void start() throws IOException {
+    daemon = new AssemblerDaemon(opTable, directory.resolve("daemon.sock"));
+    server =
+        new Thread(
+            () -> {
+              try {
+                daemon.serve();
+              } catch (IOException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    server.start();
+  }
+
+  @AfterEach
+  void stop() throws IOException, InterruptedException {
+    daemon.close();
+    server.join();
+    assertFalse(Files.exists(directory.resolve("daemon.sock")));
+  }
+
+  @Test
+  void testMatchesLocalAssembly() throws IOException {
+    var source = Path.of("test-programs/programs/functions.txt");
+    assertTrue(new Assembler(opTable).assemble(source, directory).succeeded());
+    try (var client = new AssemblerClient(directory.resolve("daemon.sock"))) {
+      // Twice over the same connection, once from the file and once from its text
+      for (var output :
+          new Assembler.Output[] {
+            client.assemble(source), client.assemble("functions.txt", Files.readAllBytes(source))
+          }) {
+        assertTrue(output.succeeded(), output.diagnostics().toString());
+        assertArrayEquals(
+            Files.readAllBytes(directory.resolve("functions_sol.txt")), output.listing());
+        assertArrayEquals(
+            Files.readAllBytes(directory.resolve("functions_obj.txt")), output.objectProgram());
+      }
+    }
+  }
+
+  @Test
+  void testReportsDiagnostics() throws IOException {
+    try (var client = new AssemblerClient(directory.resolve("daemon.sock"))) {
+      var output =
+          client.assemble("bad.asm", "PROG\tSTART\t0\n\tNOPE\t#3\n\tEND\tPROG\n".getBytes());
+      assertFalse(output.succeeded());
+      assertTrue(output.diagnostics().get(0).startsWith("bad.asm:2:error: Unknown"));
+      assertEquals(0, output.listing().length);
+
+      output = client.assemble(directory.resolve("missing.asm"));
+      assertFalse(output.succeeded());
+      assertTrue(output.diagnostics().get(0).startsWith("missing.asm:error:"));
+    }
+  }
+
+  @Test
+  void testKeepsConnectionAfterFailure() throws IOException {
+    var bad =
+        Files.write(
+            directory.resolve("bad.asm"),
+            "P\tSTART\t0\n. caf\u00e9\n\tEND\tP\n".getBytes(StandardCharsets.ISO_8859_1));
+    try (var client = new AssemblerClient(directory.resolve("daemon.sock"))) {
+      var output = client.assemble(bad);
+      assertTrue(
+          output.diagnostics().get(0).startsWith("bad.asm:2:error: Not valid UTF-8"),
+          output.diagnostics().toString());
+      assertTrue(client.assemble("ok.asm", "P\tSTART\t0\n\tEND\tP\n".getBytes()).succeeded());
+    }
+  }
+
+  @Test
+  void testLeavesRunningDaemonAlone() throws IOException {
+    var error =
+        assertThrows(
+            IOException.class,
+            () -> new AssemblerDaemon(opTable, directory.resolve("daemon.sock")));
+    assertTrue(error.getMessage().contains("already running"), error.getMessage());
+    try (var client = new AssemblerClient(directory.resolve("daemon.sock"))) {
+      assertTrue(client.assemble("ok.asm", "P\tSTART\t0\n\tEND\tP\n".getBytes()).succeeded());
+    }
+  }
+
+  @Test
+  void testReplacesStaleSocket() throws IOException {
+    var stale = Files.writeString(directory.resolve("stale.sock"), "");
+    try (var replacement = new AssemblerDaemon(opTable, stale)) {
+      assertTrue(Files.exists(stale));
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AssemblyCacheTest {
+  @TempDir Path directory;
+
+  private AssemblyCache cache(long maxBytes, String instructionTable) throws IOException {
+    return new AssemblyCache(directory.resolve("cache"), maxBytes, instructionTable.getBytes());
+  }
+
+  private Path write(String name, String contents) throws IOException {
+    return Files.writeString(directory.resolve(name), contents);
+  }
+
+  @Test
+  void testKeyDependsOnSourceAndInstructionTable() throws IOException {
+    var source = write("a.asm", "PROG\tSTART\t0\n");
+    var key = cache(1 << 20, "LDA,3,00").key(source);
+    assertEquals(key, cache(1 << 20, "LDA,3,00").key(write("b.asm", "PROG\tSTART\t0\n")));
+    assertNotEquals(key, cache(1 << 20, "LDA,3,04").key(source));
+    assertNotEquals(key, cache(1 << 20, "LDA,3,00").key(write("c.asm", "PROG\tSTART\t1\n")));
+  }
+
+  @Test
+  void testRestoresStoredOutputs() throws IOException {
+    var cache = cache(1 << 20, "");
+    var listing = directory.resolve("out_sol.txt");
+    var objectProgram = directory.resolve("out_obj.txt");
+    assertFalse(cache.restore("0f", listing, objectProgram));
+    assertFalse(Files.exists(listing));
+
+    cache.store("0f", write("sol.txt", "listing\n"), write("obj.txt", "HPROG\nE000000\n"));
+    assertTrue(cache.restore("0f", listing, objectProgram));
+    assertEquals("listing\n", Files.readString(listing));
+    assertEquals("HPROG\nE000000\n", Files.readString(objectProgram));
+    assertEquals(new AssemblyCache.Stats(1, 1), cache.stats());
+  }
+
+  @Test
+  void testIgnoresDamagedEntries() throws IOException {
+    var cache = cache(1 << 20, "");
+    Files.writeString(directory.resolve("cache/0f.bin"), "not an entry");
+    assertFalse(cache.restore("0f", directory.resolve("sol.txt"), directory.resolve("obj.txt")));
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsed() throws IOException {
+    // Room for two entries of 24 header bytes and 100 bytes of output
+    var cache = cache(250, "");
+    var listing = write("sol.txt", "x".repeat(100));
+    var objectProgram = write("obj.txt", "");
+    cache.store("01", listing, objectProgram);
+    cache.store("02", listing, objectProgram);
+    var old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+    Files.setLastModifiedTime(directory.resolve("cache/01.bin"), old);
+    Files.setLastModifiedTime(directory.resolve("cache/02.bin"), old);
+
+    // Using 01 makes 02 the least recently used
+    assertTrue(cache.restore("01", listing, objectProgram));
+    cache.store("03", listing, objectProgram);
+    assertTrue(Files.exists(directory.resolve("cache/01.bin")));
+    assertFalse(Files.exists(directory.resolve("cache/02.bin")));
+    assertTrue(Files.exists(directory.resolve("cache/03.bin")));
+  }
+
+  @Test
+  void testEvictsEntriesFromEarlierRuns() throws IOException {
+    var listing = write("sol.txt", "x".repeat(100));
+    var objectProgram = write("obj.txt", "");
+    var earlier = cache(250, "");
+    earlier.store("01", listing, objectProgram);
+    earlier.store("02", listing, objectProgram);
+    Files.setLastModifiedTime(
+        directory.resolve("cache/02.bin"),
+        FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+    // A new cache finds both entries on its first store, and 02 was used longest ago
+    cache(250, "").store("03", listing, objectProgram);
+    assertTrue(Files.exists(directory.resolve("cache/01.bin")));
+    assertFalse(Files.exists(directory.resolve("cache/02.bin")));
+    assertTrue(Files.exists(directory.resolve("cache/03.bin")));
+  }
+
+  @Test
+  void testAssemblerSkipsPassesOnHit() throws IOException {
+    var cache = AssemblyCache.open(directory.resolve("cache"), 1 << 20, "instructions.csv");
+    var assembler = new Assembler(OpTable.loadFromResourceCsv("instructions.csv"), cache);
+    var source = Path.of("test-programs/programs/literals.txt");
+    var first = Files.createDirectories(directory.resolve("first"));
+    var second = Files.createDirectories(directory.resolve("second"));
+
+    assertTrue(assembler.assemble(source, first).succeeded());
+    assertEquals(new AssemblyCache.Stats(0, 1), cache.stats());
+    assertTrue(assembler.assemble(source, second).succeeded());
+    assertEquals(new AssemblyCache.Stats(1, 1), cache.stats());
+    for (String name : new String[] {"literals_sol.txt", "literals_obj.txt"}) {
+      assertEquals(Files.readString(first.resolve(name)), Files.readString(second.resolve(name)));
+    }
+  }
+}
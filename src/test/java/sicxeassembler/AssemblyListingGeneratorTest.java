@@ -0,0 +1,94 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.text.ParseException;
+import org.junit.jupiter.api.Test;
+import sicxeassembler.output.AssemblyListingGenerator;
+import sicxeassembler.output.OutputUtils;
+
+class AssemblyListingGeneratorTest {
+  /** The listing layout as it was written with String.format. */
+  private static String reference(
+      int address, int block, SourceLine source, long instruction, ConstantBytes data) {
+    if (source.isCommentOrBlank()) {
+      return String.format(
+          "%-4s  %-5s%s%-10s%s",
+          "",
+          "",
+          String.format("%-15s%-1s%-7s%-1s%-20s", ".", "", source.getComment(), "", ""),
+          "",
+          "");
+    }
+    var args = source.getArgOne();
+    if (!source.getArgTwo().isEmpty()) {
+      args += "," + source.getArgTwo();
+    }
+    return String.format(
+        "%-4s  %-5s%s%-10s%s",
+        String.format("%04X", address),
+        block < 0 ? " " : String.valueOf(block),
+        String.format(
+            "%-15s%-1s%-7s%-1s%-20s",
+            source.getLabel(),
+            source.getOpCodePrefix(),
+            source.getOpCode(),
+            source.getArgOnePrefix(),
+            args),
+        OutputUtils.bytesToHexString(instruction, data),
+        source.getComment().isEmpty() ? "" : ". " + source.getComment());
+  }
+
+  @Test
+  void testColumnsMatchReference() throws ParseException {
+    String[] sources = {
+      "FIRST\tSTL\tRETADR\t.SAVE RETURN ADDRESS",
+      "\t+JSUB\tRDREC",
+      "\tLDA\t=C'EOF'",
+      "\tSTCH\tBUFFER,X",
+      "\tRSUB",
+      ". only a comment",
+      "",
+      "AVERYLONGLABELTHATOVERFLOWS\tLONGOPCODE\t@AN_ARGUMENT_LONGER_THAN_TWENTY,X\t. c",
+    };
+    int[] addresses = {0, 0x1036, 0xFFFF, 0x12345, -1};
+    for (String text : sources) {
+      var source = SourceLine.parseLine(text);
+      for (int address : addresses) {
+        for (int block : new int[] {-1, 0, 12345}) {
+          long instruction = ObjectCode.packBytes(0x4B, 0x10, 0x10, 0x36);
+          assertEquals(
+              reference(address, block, source, instruction, null),
+              AssemblyListingGenerator.formatColumns(address, block, source, instruction, null));
+          var data = ConstantBytes.of(new int[] {0, 0xF1, 0x05});
+          assertEquals(
+              reference(address, block, source, ObjectCode.NONE, data),
+              AssemblyListingGenerator.formatColumns(
+                  address, block, source, ObjectCode.NONE, data));
+        }
+      }
+    }
+    var built = new SourceLine().setLabel("PROG").setOpCode("START").setArgOne("0");
+    assertEquals(
+        reference(0, 0, built, ObjectCode.NONE, null),
+        AssemblyListingGenerator.formatColumns(0, 0, built, ObjectCode.NONE, null));
+  }
+
+  @Test
+  void testWritesOneLinePerStatement() throws ParseException {
+    var out = new ByteArrayOutputStream();
+    var generator = new AssemblyListingGenerator(out);
+    generator.initialize("PROG", 0, 3);
+    var source = SourceLine.parseLine("\tLDA\t#3");
+    generator.accept(source, 3, 0, 0, true, ObjectCode.packBytes(1, 0, 3), null);
+    generator.finalizeOutput();
+    assertEquals(
+        reference(
+                0, 0, new SourceLine().setLabel("PROG").setOpCode("START").setArgOne("0"), 0, null)
+            + System.lineSeparator()
+            + reference(0, 0, source, ObjectCode.packBytes(1, 0, 3), null)
+            + System.lineSeparator(),
+        out.toString());
+  }
+}
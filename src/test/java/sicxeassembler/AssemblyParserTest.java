@@ -63,6 +63,25 @@ class AssemblyParserTest {
   @Test
   void testBadParses() throws ParseException {
     assertParseFailure("LABEL ADD ,ARG2");
+    assertParseFailure("LABEL ADD ,");
+  }
+
+  @Test
+  void testFieldOffsets() throws ParseException {
+    var line = SourceLine.parseLine("LOOP\t+LDT\t#300,X\t. comment ");
+    assertEquals(0, line.getFieldStart(SourceLine.Field.LABEL));
+    assertEquals(4, line.getFieldEnd(SourceLine.Field.LABEL));
+    assertEquals(5, line.getFieldStart(SourceLine.Field.OPCODE_PREFIX));
+    assertEquals(6, line.getFieldStart(SourceLine.Field.OPCODE));
+    assertEquals(9, line.getFieldEnd(SourceLine.Field.OPCODE));
+    assertEquals(10, line.getFieldStart(SourceLine.Field.ARG_ONE_PREFIX));
+    assertEquals(11, line.getFieldStart(SourceLine.Field.ARG_ONE));
+    assertEquals(14, line.getFieldEnd(SourceLine.Field.ARG_ONE));
+    assertEquals(15, line.getFieldStart(SourceLine.Field.ARG_TWO));
+    assertEquals(19, line.getFieldStart(SourceLine.Field.COMMENT));
+    assertEquals(26, line.getFieldEnd(SourceLine.Field.COMMENT));
+    assertEquals("comment", line.getComment());
+    assertEquals(-1, SourceLine.parseLine(" RSUB").getFieldStart(SourceLine.Field.ARG_ONE));
   }
 
   private void assertParseFailure(String source) {
@@ -0,0 +1,44 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AssemblyStatsTest {
+  @TempDir Path directory;
+
+  @Test
+  void testCollectsEveryStage() throws IOException {
+    var source = Path.of("test-programs/programs/literals.txt");
+    var assembler = new Assembler(OpTable.loadFromResourceCsv("instructions.csv"), null, true);
+    var result = assembler.assemble(source, directory);
+    assertTrue(result.succeeded());
+
+    var stats = result.stats();
+    assertNotNull(stats);
+    for (var stage : AssemblyStats.Stage.values()) {
+      assertTrue(stats.nanos(stage) > 0, stage.label());
+      assertTrue(stats.lines(stage) > 0, stage.label());
+    }
+    assertEquals(Files.readAllLines(source).size(), stats.lines(AssemblyStats.Stage.PARSE));
+    assertEquals(2, stats.getLiterals());
+    assertFalse(stats.isCached());
+
+    String json = stats.toJson();
+    assertTrue(
+        json.startsWith("{\"file\":\"literals.txt\",\"cached\":false,\"stages\":{\"parse\":"));
+    assertTrue(json.contains("\"literals\":2,"));
+    assertTrue(stats.format().contains("pass two"));
+  }
+
+  @Test
+  void testOffByDefault() {
+    var assembler = new Assembler(OpTable.loadFromResourceCsv("instructions.csv"));
+    var result = assembler.assemble(Path.of("test-programs/programs/literals.txt"), directory);
+    assertNull(result.stats());
+  }
+}
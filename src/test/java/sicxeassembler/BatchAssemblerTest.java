@@ -0,0 +1,111 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchAssemblerTest {
+  @TempDir Path directory;
+
+  @Test
+  void testExpandDirectoryAndGlob() throws IOException {
+    Files.createDirectories(directory.resolve("sub"));
+    Files.writeString(directory.resolve("b.asm"), "");
+    Files.writeString(directory.resolve("a.asm"), "");
+    Files.writeString(directory.resolve("sub/c.asm"), "");
+    Files.writeString(directory.resolve("sub/d.txt"), "");
+
+    assertEquals(
+        List.of(directory.resolve("a.asm"), directory.resolve("b.asm")),
+        BatchAssembler.expand(List.of(directory.toString())));
+    assertEquals(
+        List.of(directory.resolve("sub/c.asm")),
+        BatchAssembler.expand(List.of(directory + "/**/*.asm")));
+  }
+
+  @Test
+  void testResultsAreReportedPerFileInOrder() throws IOException, InterruptedException {
+    Path good = directory.resolve("good.asm");
+    Path bad = directory.resolve("bad.asm");
+    Files.writeString(good, "PROG\tSTART\t0\n\tLDA\t#3\n\tEND\tPROG\n");
+    Files.writeString(bad, "PROG\tSTART\t0\n\tNOPE\t#3\n\tEND\tPROG\n");
+
+    List<Assembler.Result> results = new ArrayList<>();
+    var batch = new BatchAssembler(OpTable.loadFromResourceCsv("instructions.csv"), 2);
+    assertFalse(batch.run(List.of(bad, good, bad), directory, results::add));
+
+    assertEquals(List.of(bad, good, bad), results.stream().map(Assembler.Result::source).toList());
+    assertFalse(results.get(0).succeeded());
+    assertEquals(1, results.get(0).diagnostics().size());
+    assertTrue(results.get(0).diagnostics().get(0).startsWith("bad.asm:2:error: Unknown"));
+    assertTrue(results.get(1).succeeded());
+    assertTrue(results.get(1).diagnostics().isEmpty());
+    assertTrue(Files.exists(directory.resolve("good_sol.txt")));
+  }
+
+  @Test
+  void testFailedFilesLeaveNoOutputs() throws IOException {
+    // Pass one succeeds, so the outputs are opened before pass two fails
+    Path bad =
+        Files.writeString(directory.resolve("bad.asm"), "P\tSTART\t0\n\tLDA\tNOWHERE\n\tEND\tP\n");
+    var opTable = OpTable.loadFromResourceCsv("instructions.csv");
+    Path descriptors = Path.of("/proc/self/fd");
+    long open = Files.isDirectory(descriptors) ? count(descriptors) : 0;
+    for (var mode : Assembler.Mode.values()) {
+      var assembler = new Assembler(opTable, null, false, mode);
+      for (int i = 0; i < 50; i++) {
+        var result = assembler.assemble(bad, directory);
+        assertFalse(result.succeeded(), mode.toString());
+        assertTrue(
+            result.diagnostics().get(0).contains("Undefined symbol: NOWHERE"), mode.toString());
+      }
+      assertFalse(Files.exists(directory.resolve("bad_sol.txt")), mode.toString());
+      assertFalse(Files.exists(directory.resolve("bad_obj.txt")), mode.toString());
+    }
+    if (Files.isDirectory(descriptors)) {
+      assertTrue(count(descriptors) < open + 20, "file descriptors were leaked");
+    }
+  }
+
+  private static long count(Path directory) throws IOException {
+    try (var files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  void testClashingOutputNames() throws IOException, InterruptedException {
+    Files.createDirectories(directory.resolve("a"));
+    Files.createDirectories(directory.resolve("b"));
+    String program = "PROG\tSTART\t0\n\tLDA\t#3\n\tEND\tPROG\n";
+    Path first = Files.writeString(directory.resolve("a/prog.txt"), program);
+    Path second = Files.writeString(directory.resolve("b/prog.txt"), program);
+    Path third = Files.writeString(directory.resolve("a/prog.asm"), program);
+    Path other = Files.writeString(directory.resolve("a/other.txt"), program);
+    Path out = Files.createDirectories(directory.resolve("out"));
+
+    List<Assembler.Result> results = new ArrayList<>();
+    var batch = new BatchAssembler(OpTable.loadFromResourceCsv("instructions.csv"), 2);
+    assertFalse(batch.run(List.of(first, other, second, third), out, results::add));
+
+    assertEquals(4, results.size());
+    assertEquals(
+        List.of(
+            "prog.txt:error: Outputs prog_sol.txt and prog_obj.txt would also be written by "
+                + second.toAbsolutePath()
+                + ", "
+                + third.toAbsolutePath()),
+        results.get(0).diagnostics());
+    assertTrue(results.get(1).succeeded());
+    assertFalse(results.get(2).succeeded());
+    assertFalse(results.get(3).succeeded());
+    assertTrue(Files.exists(out.resolve("other_obj.txt")));
+    assertFalse(Files.exists(out.resolve("prog_obj.txt")));
+  }
+}
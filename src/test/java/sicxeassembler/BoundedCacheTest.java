@@ -0,0 +1,69 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+  @Test
+  void testHitsAndMisses() {
+    var cache = new BoundedCache<String, Integer>(4);
+    AtomicInteger loads = new AtomicInteger();
+    assertEquals(
+        3,
+        cache.get(
+            "abc",
+            key -> {
+              loads.incrementAndGet();
+              return key.length();
+            }));
+    assertEquals(3, cache.get("abc", key -> loads.incrementAndGet()));
+    assertEquals(1, loads.get());
+    assertEquals(new BoundedCache.Stats(1, 1, 0, 1), cache.stats());
+  }
+
+  @Test
+  void testEvictsToCapacity() {
+    var cache = new BoundedCache<Integer, Integer>(2);
+    cache.get(1, key -> key);
+    cache.get(2, key -> key);
+    // 1 has been hit, so it survives the next insertion and 2 is evicted instead
+    cache.get(1, key -> key);
+    cache.get(3, key -> key);
+    var stats = cache.stats();
+    assertEquals(2, stats.size());
+    assertEquals(1, stats.evictions());
+    assertEquals(1, cache.get(1, key -> -1));
+    assertEquals(-1, cache.get(2, key -> -1));
+  }
+
+  @Test
+  void testManyMoreKeysThanCapacity() {
+    var cache = new BoundedCache<Integer, Integer>(4096);
+    for (int i = 0; i < 200_000; i++) {
+      cache.get(i, key -> key);
+      // Keep one entry hot, so it is always given a second chance
+      cache.get(0, key -> -1);
+    }
+    assertEquals(new BoundedCache.Stats(200_000, 200_000, 200_000 - 4096, 4096), cache.stats());
+    assertEquals(0, cache.get(0, key -> -1));
+    assertEquals(199_999, cache.get(199_999, key -> -1));
+    assertEquals(-1, cache.get(1, key -> -1));
+  }
+
+  @Test
+  void testShrinkingAndDisabling() {
+    var cache = new BoundedCache<Integer, Integer>(8);
+    for (int i = 0; i < 8; i++) {
+      cache.get(i, key -> key);
+    }
+    cache.setCapacity(3);
+    assertEquals(3, cache.stats().size());
+    cache.setCapacity(0);
+    assertEquals(0, cache.stats().size());
+    cache.get(100, key -> key);
+    assertEquals(0, cache.stats().size());
+    assertThrows(IllegalArgumentException.class, () -> cache.setCapacity(-1));
+  }
+}
@@ -62,6 +62,17 @@ public class ConstantParserTest {
     assertThrows(AssemblerException.class, () -> ConstantParser.parseByteConstant("J'whatever'"));
   }
 
+  @Test
+  void testCachedConstantsAreShared() {
+    var first = ConstantParser.parseConstant("X'CAFE'");
+    long hits = ConstantParser.cacheStats().hits();
+    assertSame(first, ConstantParser.parseConstant("X'CAFE'"));
+    assertEquals(hits + 1, ConstantParser.cacheStats().hits());
+    // Callers get a copy they are free to modify
+    ConstantParser.parseByteConstant("X'CAFE'")[0] = 0;
+    assertEquals(0xca, ConstantParser.parseConstant("X'CAFE'").get(0));
+  }
+
   int[] charsToInts(char... chars) {
     int[] bytes = new int[chars.length];
     for (int i = 0; i < chars.length; i++) {
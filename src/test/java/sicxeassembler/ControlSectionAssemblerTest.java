@@ -0,0 +1,113 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.output.ObjectProgramGenerator;
+
+class ControlSectionAssemblerTest {
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+
+  @TempDir Path directory;
+
+  @Test
+  void testMatchesSolution() throws IOException {
+    var assembler = new Assembler(opTable);
+    var result =
+        assembler.assemble(Path.of("test-programs/programs/control_section.txt"), directory);
+    assertTrue(result.succeeded(), result.diagnostics().toString());
+    assertEquals(
+        records(Path.of("test-programs/solutions/control_section_obj.txt")),
+        records(directory.resolve("control_section_obj.txt")));
+  }
+
+  @Test
+  void testSectionsHaveTheirOwnSymbols() throws IOException {
+    String program =
+        assemble(
+            "MAIN\tSTART\t0\n"
+                + "\tEXTDEF\tDATA\n"
+                + "\tEXTREF\tSUB\n"
+                + "\t+JSUB\tSUB\n"
+                + "DATA\tWORD\t5\n"
+                + "SUB\tCSECT\n"
+                + "\tEXTREF\tDATA\n"
+                + "\tEXTDEF\tHERE\n"
+                + "DATA2\tWORD\tDATA+3\n"
+                + "HERE\tRSUB\n"
+                + "\tEND\tMAIN\n");
+    assertEquals(
+        "HMAIN  000000000007\n"
+            + "DDATA  000004\n"
+            + "RSUB   \n"
+            + "T000000074B100000000005\n"
+            + "M00000105+SUB\n"
+            + "E000000\n"
+            + "\n"
+            + "HSUB   000000000006\n"
+            + "DHERE  000003\n"
+            + "RDATA  \n"
+            + "T000000060000034F0000\n"
+            + "M00000006+DATA\n"
+            + "E\n",
+        program);
+  }
+
+  @Test
+  void testErrors() {
+    var shortFormat =
+        assertThrows(
+            AssemblerException.class,
+            () -> assemble("P\tSTART\t0\n\tEXTREF\tSUB\n\tJSUB\tSUB\n\tEND\tP\n"));
+    assertTrue(shortFormat.getMessage().contains("extended format"), shortFormat.getMessage());
+
+    var undefined =
+        assertThrows(
+            AssemblerException.class,
+            () -> assemble("P\tSTART\t0\n\tEXTDEF\tNONE\n\tRSUB\n\tEND\tP\n"));
+    assertTrue(undefined.getMessage().contains("NONE"), undefined.getMessage());
+
+    // Sections after the first are numbered from where they start in the source
+    var duplicate =
+        assertThrows(
+            AssemblerException.class,
+            () ->
+                assemble(
+                    "P\tSTART\t0\n"
+                        + "\tRSUB\n"
+                        + "S\tCSECT\n"
+                        + "ONE\tRESW\t1\n"
+                        + "ONE\tRESW\t1\n"
+                        + "\tEND\tP\n"));
+    assertEquals(5, duplicate.getLineNumber());
+  }
+
+  private String assemble(String text) throws IOException {
+    Path output = directory.resolve("program_obj.txt");
+    var assembler =
+        new ControlSectionAssembler(
+            opTable,
+            new SourceReader(new StringReader(text), opTable, null),
+            ForkJoinPool.commonPool());
+    assembler.processPassOne();
+    assembler.addOutputGenerator(new ObjectProgramGenerator(output));
+    assembler.processPassTwo();
+    return Files.readString(output);
+  }
+
+  /** Reads an object program, without blank lines or trailing spaces. */
+  private static List<String> records(Path path) throws IOException {
+    return Files.readAllLines(path).stream()
+        .map(String::stripTrailing)
+        .filter(line -> !line.isEmpty())
+        .toList();
+  }
+}
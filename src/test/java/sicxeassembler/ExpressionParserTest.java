@@ -3,14 +3,14 @@ package sicxeassembler;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import sicxeassembler.errors.AssemblerException;
 
 public class ExpressionParserTest {
-  Map<String, SymbolData> symbolTable = new HashMap<>();
+  SymbolTable symbolTable = new SymbolTable();
   ExpressionParser parser = new ExpressionParser(symbolTable);
 
   @BeforeEach
@@ -64,4 +64,57 @@ public class ExpressionParserTest {
     assertThrows(AssemblerException.class, () -> parser.parse("ONE/DATA"));
     assertThrows(AssemblerException.class, () -> parser.parse("DATA/BUF"));
   }
+
+  @Test
+  void testPrecedenceAndParentheses() {
+    assertEquals(7, parser.parse("ONE+TWO*3").value());
+    assertEquals(9, parser.parse("(ONE+TWO)*3").value());
+    assertEquals(-1, parser.parse("ONE-TWO").value());
+    assertEquals(0, parser.parse("TWO-ONE-ONE").value());
+    assertEquals(4, parser.parse("16/TWO/TWO").value());
+    assertEquals(-3, parser.parse("-(ONE+TWO)").value());
+    assertEquals(5, parser.parse(" ( BUF - DATA ) * TWO + ONE ").value());
+  }
+
+  @Test
+  void testSingleSymbolKeepsItsType() {
+    var result = parser.parse("DATA");
+    assertEquals(new SymbolData(10, 1, SymbolData.Type.RELATIVE), result);
+    assertEquals(SymbolData.Type.ABSOLUTE, parser.parse("(DATA)-BUF").type());
+  }
+
+  @Test
+  void testMalformedExpressions() {
+    assertThrows(AssemblerException.class, () -> parser.parse(""));
+    assertThrows(AssemblerException.class, () -> parser.parse("ONE+"));
+    assertThrows(AssemblerException.class, () -> parser.parse("(ONE+TWO"));
+    assertThrows(AssemblerException.class, () -> parser.parse("ONE+TWO)"));
+    assertThrows(AssemblerException.class, () -> parser.parse("ONE/(TWO-TWO)"));
+    assertThrows(AssemblerException.class, () -> parser.parse("-DATA"));
+    assertThrows(AssemblerException.class, () -> parser.parse("99999999999"));
+  }
+
+  @Test
+  void testCompiledExpressionsAreReusedWithNewSymbols() {
+    symbolTable.put("ZERO", 0, -1, SymbolData.Type.ABSOLUTE);
+    assertEquals(3, parser.parse("ONE+TWO+ZERO").value());
+    var before = ExpressionParser.cacheStats().hits();
+    symbolTable.put("ZERO", 10, -1, SymbolData.Type.ABSOLUTE);
+    assertEquals(13, parser.parse("ONE+TWO+ZERO").value());
+    assertEquals(before + 1, ExpressionParser.cacheStats().hits());
+  }
+
+  @Test
+  void testExternalReferences() {
+    symbolTable.put("EXT", 0, -1, SymbolData.Type.EXTERNAL);
+    symbolTable.put("END", 0, -1, SymbolData.Type.EXTERNAL);
+    List<String> references = new ArrayList<>();
+    var result =
+        parser.parse(
+            "END-EXT+TWO", (symbol, negative) -> references.add((negative ? "-" : "+") + symbol));
+    assertEquals(2, result.value());
+    assertEquals(List.of("+END", "-EXT"), references);
+    assertThrows(AssemblerException.class, () -> parser.parse("EXT+ONE"));
+    assertThrows(AssemblerException.class, () -> parser.parse("EXT*TWO", (symbol, negative) -> {}));
+  }
 }
@@ -0,0 +1,172 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import sicxeassembler.output.AssemblyListingGenerator;
+import sicxeassembler.output.ObjectProgramGenerator;
+
+class IncrementalAssemblerTest {
+  private static final int REPETITIONS = 40;
+  private static final int LINES_PER_REPETITION = 11;
+
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+
+  /**
+   * Builds a program long enough for several checkpoints, with a forward reference to the last line
+   * and a base register that changes in every repetition.
+   */
+  private static List<String> program() {
+    List<String> source = new ArrayList<>();
+    source.add("PROG\tSTART\t0");
+    source.add("FIRST\t+LDA\tLAST");
+    for (int r = 0; r < REPETITIONS; r++) {
+      source.add("A" + r + "\t+LDB\t#BUF" + r);
+      source.add("\tBASE\tBUF" + r);
+      source.add(String.format("\tLDA\t=X'%04X'", r));
+      source.add("\tSTCH\tBUF" + r + ",X");
+      source.add("\tCLEAR\tX");
+      source.add("\tLTORG");
+      source.add(". padding follows");
+      source.add("PAD" + r + "\tRESB\t3000");
+      source.add("BUF" + r + "\tRESB\t10");
+      source.add("\tNOBASE");
+      source.add("W" + r + "\tWORD\tA" + r);
+    }
+    source.add("LAST\tRSUB");
+    source.add("\tEND\tFIRST");
+    return source;
+  }
+
+  /** Index of a line of the given repetition. */
+  private static int line(int repetition, int offset) {
+    return 2 + repetition * LINES_PER_REPETITION + offset;
+  }
+
+  private String assembleFully(List<String> source) throws ParseException {
+    List<SourceLine> lines = new ArrayList<>();
+    for (String text : source) {
+      lines.add(SourceLine.parseLine(text));
+    }
+    var passOne = new PassOne(opTable, lines);
+    passOne.process();
+    var passTwo = new PassTwo(opTable, passOne);
+    var listing = new ByteArrayOutputStream();
+    var objectProgram = new ByteArrayOutputStream();
+    passTwo.addOutputGenerator(new AssemblyListingGenerator(listing));
+    passTwo.addOutputGenerator(new ObjectProgramGenerator(Channels.newChannel(objectProgram)));
+    passTwo.process();
+    return listing + objectProgram.toString();
+  }
+
+  private static String output(IncrementalAssembler assembler) {
+    var listing = new ByteArrayOutputStream();
+    var objectProgram = new ByteArrayOutputStream();
+    assembler.writeOutput(
+        new AssemblyListingGenerator(listing),
+        new ObjectProgramGenerator(Channels.newChannel(objectProgram)));
+    return listing + objectProgram.toString();
+  }
+
+  /**
+   * Applies the same edit to the assembler and to a copy of the source.
+   *
+   * @return whether the assembler accepted the edit
+   */
+  private static boolean tryEdit(
+      IncrementalAssembler assembler, List<String> source, int from, int to, String... lines) {
+    source.subList(from, to).clear();
+    source.addAll(from, List.of(lines));
+    return assembler.edit(from, to, List.of(lines));
+  }
+
+  private static void edit(
+      IncrementalAssembler assembler, List<String> source, int from, int to, String... lines) {
+    assertTrue(tryEdit(assembler, source, from, to, lines), assembler.getDiagnostics().toString());
+  }
+
+  @Test
+  void testLoadMatchesFullAssembly() throws ParseException {
+    var source = program();
+    var assembler = new IncrementalAssembler(opTable, "prog.asm");
+    assertTrue(assembler.load(source), assembler.getDiagnostics().toString());
+    assertEquals(assembleFully(source), output(assembler));
+    assertEquals(source.size(), assembler.getStats().passOneLines());
+  }
+
+  @Test
+  void testEditThatMovesNothingTakesTheFastPath() throws ParseException {
+    var source = program();
+    var assembler = new IncrementalAssembler(opTable, "prog.asm");
+    assembler.load(source);
+
+    edit(assembler, source, line(20, 4), line(20, 5), "\tCLEAR\tA");
+    assertTrue(assembler.getStats().fastPath());
+    assertEquals(1, assembler.getStats().passTwoLines());
+    assertEquals(assembleFully(source), output(assembler));
+
+    // Same size in total, with the label keeping its address
+    edit(
+        assembler,
+        source,
+        line(30, 7),
+        line(30, 8),
+        "PAD30\tRESB\t2997",
+        ". three bytes moved",
+        "\tLDX\t#3");
+    assertTrue(assembler.getStats().fastPath());
+    assertEquals(assembleFully(source), output(assembler));
+
+    // Later edits still find the right lines after the line count changed
+    edit(assembler, source, line(35, 3) + 2, line(35, 3) + 3, "\tSTCH\tBUF35");
+    assertTrue(assembler.getStats().fastPath());
+    assertEquals(assembleFully(source), output(assembler));
+  }
+
+  @Test
+  void testEditThatMovesLinesResumesPassOne() throws ParseException {
+    var source = program();
+    var assembler = new IncrementalAssembler(opTable, "prog.asm");
+    assembler.load(source);
+
+    // Moves every later line, including LAST, which the first line refers to
+    edit(assembler, source, line(30, 7), line(30, 7), "\tRESW\t2");
+    assertFalse(assembler.getStats().fastPath());
+    assertTrue(assembler.getStats().passOneLines() < source.size() / 2);
+    assertEquals(assembleFully(source), output(assembler));
+
+    // Moves the base register of an earlier repetition
+    edit(assembler, source, line(25, 1), line(25, 2), "\tBASE\tPAD25");
+    assertFalse(assembler.getStats().fastPath());
+    assertEquals(assembleFully(source), output(assembler));
+
+    // Changes the length of the default block, which holds everything
+    edit(assembler, source, line(2, 2), line(2, 3), "\tLDA\t=X'FFFFFF'");
+    assertEquals(assembleFully(source), output(assembler));
+  }
+
+  @Test
+  void testRecoversFromErrors() throws ParseException {
+    var source = program();
+    var assembler = new IncrementalAssembler(opTable, "prog.asm");
+    assembler.load(source);
+
+    assertFalse(tryEdit(assembler, source, line(10, 3), line(10, 4), "\tSTCH\tNOPE"));
+    assertTrue(assembler.getDiagnostics().get(0).contains("Undefined symbol: NOPE"));
+    assertThrows(IllegalStateException.class, () -> output(assembler));
+
+    assertFalse(tryEdit(assembler, source, line(12, 4), line(12, 5), "\tCLEAR\t,X"));
+    assertTrue(assembler.getDiagnostics().get(0).contains("Missing argument"));
+
+    // The undefined symbol is reported again once the line parses
+    assertFalse(tryEdit(assembler, source, line(12, 4), line(12, 5), "\tCLEAR\tS"));
+    assertTrue(assembler.getDiagnostics().get(0).contains("Undefined symbol: NOPE"));
+    edit(assembler, source, line(10, 3), line(10, 4), "\tSTCH\tBUF10,X");
+    assertEquals(assembleFully(source), output(assembler));
+  }
+}
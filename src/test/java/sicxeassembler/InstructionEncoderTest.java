@@ -0,0 +1,55 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static sicxeassembler.InstructionEncoder.*;
+
+import org.junit.jupiter.api.Test;
+import sicxeassembler.errors.AssemblerException;
+
+class InstructionEncoderTest {
+  private static final Operation LDA = new Operation("LDA", 0x00, Operation.Format.THREE_FOUR);
+  private static final Operation COMPR = new Operation("COMPR", 0xA0, Operation.Format.TWO);
+
+  @Test
+  void testPrefersProgramCounter() {
+    long code =
+        formatThree(
+            LDA,
+            N | I,
+            "ALPHA",
+            -3,
+            () -> {
+              throw new AssertionError("base register should not be needed");
+            });
+    assertEquals(ObjectCode.packBytes(0x03, 0x2f, 0xfd), code);
+  }
+
+  @Test
+  void testFallsBackToBase() {
+    assertEquals(
+        ObjectCode.packBytes(0x03, 0xc0, 0x10), formatThree(LDA, N | I | X, "A", 2048, () -> 0x10));
+    var e =
+        assertThrows(
+            AssemblerException.class, () -> formatThree(LDA, N | I, "A", 2048, () -> NO_BASE));
+    assertEquals("Address of 'A' is out of range! Try using extended format.", e.getMessage());
+    assertThrows(AssemblerException.class, () -> formatThree(LDA, N | I, "A", 2048, () -> -1));
+  }
+
+  @Test
+  void testPendingValues() {
+    assertEquals(PENDING, formatTwo(COMPR, 0, PENDING));
+    assertEquals(PENDING, formatThree(LDA, I, "A", PENDING));
+    assertEquals(PENDING, formatThree(LDA, N | I, "A", PENDING, () -> 0));
+    assertEquals(PENDING, formatThree(LDA, N | I, "A", 4000, () -> PENDING));
+    assertEquals(PENDING, formatFour(LDA, N | I, PENDING));
+  }
+
+  @Test
+  void testDirectAndExtended() {
+    assertEquals(ObjectCode.packBytes(0x01, 0x00, 0x03), formatThree(LDA, I, "3", 3));
+    var e = assertThrows(AssemblerException.class, () -> formatThree(LDA, I, "4096", 4096));
+    assertEquals("Direct operand '4096' exceeds 4096! Try using extended format.", e.getMessage());
+    assertEquals(ObjectCode.packBytes(0x01, 0x10, 0x10, 0x00), formatFour(LDA, I, 4096));
+    assertEquals(ObjectCode.packBytes(0xA0, 0x15), formatTwo(COMPR, 1, 5));
+  }
+}
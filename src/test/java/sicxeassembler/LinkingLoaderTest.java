@@ -0,0 +1,127 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LinkingLoaderTest {
+  private final LinkingLoader loader = new LinkingLoader(ForkJoinPool.commonPool());
+
+  @TempDir Path directory;
+
+  @Test
+  void testLinksControlSections() throws IOException {
+    var result = loader.link(List.of(assembleControlSections()), 0x4000);
+    assertTrue(result.succeeded(), result.diagnostics().toString());
+    assertEquals(0x4000, result.entryPoint());
+    assertEquals(0x1033 + 0x2B + 0x1C, result.length());
+    int rdrec = 0x4000 + 0x1033;
+    int wrrec = rdrec + 0x2B;
+    assertEquals(rdrec, result.symbols().get("RDREC"));
+    assertEquals(wrrec, result.symbols().get("WRREC"));
+    assertEquals(0x4033, result.symbols().get("BUFFER"));
+
+    byte[] memory = result.memory();
+    // +JSUB RDREC in COPY, +STCH BUFFER,X in RDREC and WORD BUFEND-BUFFER in RDREC
+    assertEquals(rdrec, address(memory, 0x4003));
+    assertEquals(0x4033, address(memory, rdrec + 0x17));
+    assertEquals(0x1000, word(memory, rdrec + 0x28));
+    // The text of each section lands where the section was placed
+    assertEquals(0xB4, memory[rdrec] & 0xff);
+    assertEquals(0xB4, memory[wrrec] & 0xff);
+  }
+
+  @Test
+  void testLinksSeparatePrograms() throws IOException {
+    Path whole = assembleControlSections();
+    List<Path> parts = new ArrayList<>();
+    String[] sections = Files.readString(whole).split("\n\n");
+    for (int i = 0; i < sections.length; i++) {
+      parts.add(Files.writeString(directory.resolve("part" + i + "_obj.txt"), sections[i]));
+    }
+    assertEquals(3, parts.size());
+    var separate = loader.link(parts, 0x100);
+    var together = loader.link(List.of(whole), 0x100);
+    assertTrue(separate.succeeded(), separate.diagnostics().toString());
+    assertArrayEquals(together.memory(), separate.memory());
+    assertEquals(together.symbols(), separate.symbols());
+  }
+
+  @Test
+  void testReportsDuplicateAndUndefinedSymbols() {
+    var result =
+        link(
+            "HA     000000000003\nDX     000000\nRY\nT00000003000000\nM00000006+Y\nE000000\n",
+            "HB     000000000003\nDX     000001\nT00000003000005\nM00000006+A\nE\n");
+    assertEquals(
+        List.of(
+            "b_obj.txt:error: Duplicate external symbol X in B, already defined in A",
+            "a_obj.txt:error: Undefined external symbol Y in A"),
+        result.diagnostics());
+    assertEquals(0x100, result.symbols().get("X"));
+    // B adds the address of A to its word
+    assertEquals(0x105, word(result.memory(), 0x103));
+    assertEquals(0x100, result.entryPoint());
+  }
+
+  @Test
+  void testReportsMalformedRecords() {
+    var result = link("HA     000000000003\n\nT0000000300\nE\n", "HB     000000000003\nE\n");
+    assertEquals(1, result.diagnostics().size());
+    assertTrue(result.diagnostics().get(0).startsWith("a_obj.txt:3:error: Malformed T record"));
+
+    var outside = link("HA     000000000003\nT00000203000000\nE\n");
+    assertTrue(outside.diagnostics().get(0).contains("outside of section A"));
+  }
+
+  @Test
+  void testModify() {
+    byte[] memory = {0x4B, 0x10, 0x00, 0x03, 0x00, 0x10, 0x00};
+    LinkingLoader.modify(memory, 1, 5, 0x1000);
+    LinkingLoader.modify(memory, 4, 6, -0x20);
+    assertArrayEquals(
+        new byte[] {0x4B, 0x10, 0x10, 0x03, 0x00, 0x0F, (byte) 0xE0}, Arrays.copyOf(memory, 7));
+    // The carry stays inside the field
+    memory = new byte[] {0x4B, 0x1F, (byte) 0xFF, (byte) 0xFF};
+    LinkingLoader.modify(memory, 1, 5, 1);
+    assertArrayEquals(new byte[] {0x4B, 0x10, 0x00, 0x00}, memory);
+  }
+
+  private Path assembleControlSections() {
+    var assembler = new Assembler(OpTable.loadFromResourceCsv("instructions.csv"));
+    var result =
+        assembler.assemble(Path.of("test-programs/programs/control_section.txt"), directory);
+    assertTrue(result.succeeded(), result.diagnostics().toString());
+    return directory.resolve("control_section_obj.txt");
+  }
+
+  /** Links programs named a_obj.txt, b_obj.txt and so on, loaded from address 100. */
+  private LinkingLoader.Result link(String... programs) {
+    List<String> names = new ArrayList<>();
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for (int i = 0; i < programs.length; i++) {
+      names.add((char) ('a' + i) + "_obj.txt");
+      buffers.add(ByteBuffer.wrap(programs[i].getBytes(StandardCharsets.US_ASCII)));
+    }
+    return loader.link(names, buffers, 0x100);
+  }
+
+  /** Reads the 20-bit address of a format 4 instruction. */
+  private static int address(byte[] memory, int at) {
+    return (memory[at + 1] & 0x0F) << 16 | (memory[at + 2] & 0xff) << 8 | memory[at + 3] & 0xff;
+  }
+
+  private static int word(byte[] memory, int at) {
+    return (memory[at] & 0xff) << 16 | (memory[at + 1] & 0xff) << 8 | memory[at + 2] & 0xff;
+  }
+}
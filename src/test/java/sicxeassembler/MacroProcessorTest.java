@@ -0,0 +1,216 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sicxeassembler.errors.AssemblerException;
+
+class MacroProcessorTest {
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+
+  @TempDir Path directory;
+
+  @Test
+  void testExpandsParameters() {
+    var lines =
+        expand(
+            "PROG\tSTART\t0\n"
+                + "COPY\tMACRO\t&FROM,&TO,&DEV=F1\t.COPY A WORD\n"
+                + ".\tCOMMENTS ARE DROPPED\n"
+                + "\tLDA\t&FROM\n"
+                + "\tSTA\t&TO\n"
+                + "\tTD\t=X'&DEV'\n"
+                + "\tMEND\n"
+                + "FIRST\tCOPY\tA,B\t.POSITIONAL\n"
+                + "\tCOPY\tX1,DEV=05,Y1\n"
+                + "\tEND\tPROG\n");
+    assertEquals(
+        List.of(
+            "PROG START 0",
+            ". FIRST COPY A,B .POSITIONAL",
+            "FIRST LDA A",
+            " STA B",
+            " TD =X'F1'",
+            ". COPY X1,DEV=05,Y1",
+            " LDA X1",
+            " STA Y1",
+            " TD =X'05'",
+            " END PROG"),
+        lines);
+  }
+
+  @Test
+  void testNestedInvocations() {
+    var lines =
+        expand(
+            "INNER\tMACRO\t&A\n"
+                + "\tLDA\t&A\n"
+                + "\tMEND\n"
+                + "OUTER\tMACRO\t&A,&B\n"
+                + "&B\tINNER\t&A\n"
+                + "\tSTA\t&B\n"
+                + "\tMEND\n"
+                + "HERE\tOUTER\tX,Y\n");
+    assertEquals(
+        List.of(". HERE OUTER X,Y", "HERE EQU *", ". Y INNER X", "Y LDA X", " STA Y"), lines);
+  }
+
+  @Test
+  void testErrors() {
+    var missingEnd =
+        assertThrows(AssemblerException.class, () -> expand("\tLDA\t#1\nM\tMACRO\n\tLDA\t#2\n"));
+    assertEquals("Missing MEND for macro M", missingEnd.getMessage());
+    assertEquals(3, missingEnd.getLineNumber());
+
+    var tooMany =
+        assertThrows(
+            AssemblerException.class, () -> expand("M\tMACRO\t&A\n\tLDA\t&A\n\tMEND\n\tM\t1,2\n"));
+    assertEquals(4, tooMany.getLineNumber());
+
+    var recursive =
+        assertThrows(AssemblerException.class, () -> expand("M\tMACRO\n\tM\n\tMEND\n\tM\n"));
+    assertEquals(4, recursive.getLineNumber());
+  }
+
+  @Test
+  void testErrorsAfterMacrosHaveSourceLineNumbers() throws IOException {
+    String macros =
+        "PROG\tSTART\t0\n"
+            + "\tLDA\t,X\n"
+            + "SAVE\tMACRO\t&REG,&TO\n"
+            + "\tST&REG\t&TO\n"
+            + "\tMEND\n"
+            + "LOAD\tMACRO\t&V\n"
+            + "\tLDA\t#&V\n"
+            + "\tMEND\n"
+            + "FIRST\tLOAD\t5\n";
+    Path duplicate =
+        Files.writeString(
+            directory.resolve("duplicate.asm"),
+            macros + "\tSAVE\tA,X1\nX1\tRESW\t1\nX1\tRESW\t1\n\tEND\tFIRST\n");
+    Path inBody =
+        Files.writeString(
+            directory.resolve("body.asm"), macros + "\tSAVE\tQ,X1\nX1\tRESW\t1\n\tEND\tFIRST\n");
+    Path undefined =
+        Files.writeString(
+            directory.resolve("undefined.asm"), macros + "\tSAVE\tA,NOWHERE\n\tEND\tFIRST\n");
+
+    for (var mode : Assembler.Mode.values()) {
+      var assembler = new Assembler(opTable, null, false, mode);
+      // The line that fails to parse is reported and skipped, and does not shift the others
+      assertStarts(
+          List.of("duplicate.asm:2:error:", "duplicate.asm:12:error: Multiple definitions"),
+          assembler.assemble(duplicate, directory).diagnostics());
+      // Errors in an expansion are placed on the invocation
+      assertStarts(
+          List.of("body.asm:2:error:", "body.asm:10:error: Unknown"),
+          assembler.assemble(inBody, directory).diagnostics());
+    }
+    var singlePass = new Assembler(opTable, null, false, Assembler.Mode.SINGLE_PASS);
+    assertStarts(
+        List.of("undefined.asm:2:error:", "undefined.asm:10:error: Undefined symbol: NOWHERE"),
+        singlePass.assemble(undefined, directory).diagnostics());
+  }
+
+  private static void assertStarts(List<String> starts, List<String> diagnostics) {
+    assertEquals(starts.size(), diagnostics.size(), diagnostics.toString());
+    for (int i = 0; i < starts.size(); i++) {
+      assertTrue(diagnostics.get(i).startsWith(starts.get(i)), diagnostics.toString());
+    }
+  }
+
+  @Test
+  void testAssemblesAsExpanded() throws IOException {
+    var assembler = new Assembler(opTable);
+    var withMacros =
+        assembler.assemble(
+            "macros.asm",
+            new StringReader(
+                "PROG\tSTART\t0\n"
+                    + "SAVE\tMACRO\t&REG,&TO\n"
+                    + "\tST&REG\t&TO\n"
+                    + "\tMEND\n"
+                    + "FIRST\tLDA\t#5\n"
+                    + "\tSAVE\tA,ONE\n"
+                    + "\tSAVE\tX,TWO\n"
+                    + "\tRSUB\n"
+                    + "ONE\tRESW\t1\n"
+                    + "TWO\tRESW\t1\n"
+                    + "\tEND\tFIRST\n"));
+    var expanded =
+        assembler.assemble(
+            "expanded.asm",
+            new StringReader(
+                "PROG\tSTART\t0\n"
+                    + "FIRST\tLDA\t#5\n"
+                    + "\tSTA\tONE\n"
+                    + "\tSTX\tTWO\n"
+                    + "\tRSUB\n"
+                    + "ONE\tRESW\t1\n"
+                    + "TWO\tRESW\t1\n"
+                    + "\tEND\tFIRST\n"));
+    assertTrue(withMacros.succeeded(), withMacros.diagnostics().toString());
+    assertTrue(expanded.succeeded());
+    assertArrayEquals(expanded.objectProgram(), withMacros.objectProgram());
+  }
+
+  @Test
+  void testMacrosFile() throws IOException {
+    var source = Path.of("test-programs/programs/macros.txt");
+    List<String> lines = new ArrayList<>();
+    try (var reader = SourceReader.open(source, opTable, null)) {
+      new MacroProcessor(opTable, reader).forEachRemaining(line -> lines.add(line.getOpCode()));
+    }
+    assertFalse(lines.contains("MACRO"));
+    assertFalse(lines.contains("RDBUFF"));
+    // One expansion of RDBUFF and two of WRBUFF
+    assertEquals(1, lines.stream().filter("RD"::equals).count());
+    assertEquals(2, lines.stream().filter("WD"::equals).count());
+
+    // The expanded lines are the instructions of the reference listing. The listing itself can't be
+    // matched: =X'F1' is out of range without an LTORG, and pass two can't evaluate *-3.
+    List<String> expected = new ArrayList<>();
+    for (String row : Files.readAllLines(Path.of("test-programs/solutions/macros_sol.txt"))) {
+      String[] fields = row.split("\t", -1);
+      if ((fields[0].isEmpty() && !fields[2].equals("END")) || fields[1].equals("*")) {
+        // An invocation, or a literal placed by the assembler
+        continue;
+      }
+      expected.add(fields[1] + " " + fields[2] + (fields[3].isEmpty() ? "" : " " + fields[3]));
+    }
+    List<String> expanded =
+        expand(Files.readString(source)).stream().filter(line -> !line.startsWith(".")).toList();
+    assertEquals(expected, expanded);
+  }
+
+  /** Expands source text, returning each line's fields joined by spaces. */
+  private List<String> expand(String text) {
+    List<String> lines = new ArrayList<>();
+    var processor =
+        new MacroProcessor(opTable, new SourceReader(new StringReader(text), opTable, null));
+    processor.forEachRemaining(
+        line -> {
+          if (line.isCommentOrBlank()) {
+            lines.add(". " + line.getComment());
+            return;
+          }
+          var fields = new StringBuilder(line.getLabel());
+          fields.append(' ').append(line.getOpCodePrefix()).append(line.getOpCode());
+          if (!line.getArgOne().isEmpty()) {
+            fields.append(' ').append(line.getArgOnePrefix()).append(line.getArgOne());
+          }
+          if (!line.getArgTwo().isEmpty()) {
+            fields.append(',').append(line.getArgTwo());
+          }
+          lines.add(fields.toString());
+        });
+    return lines;
+  }
+}
@@ -0,0 +1,32 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class ObjectCodeTest {
+  @Test
+  void testPackBytes() {
+    long code = ObjectCode.packBytes(0x17, 0x120, 0x2d);
+    assertEquals(3, ObjectCode.length(code));
+    assertEquals(0x17, ObjectCode.byteAt(code, 0));
+    // Only the low byte of each value is kept
+    assertEquals(0x20, ObjectCode.byteAt(code, 1));
+    assertEquals(0x2d, ObjectCode.byteAt(code, 2));
+  }
+
+  @Test
+  void testPackFourBytes() {
+    long code = ObjectCode.pack(0xfedcba98, 4);
+    assertEquals(4, ObjectCode.length(code));
+    assertEquals(0xfe, ObjectCode.byteAt(code, 0));
+    assertEquals(0x98, ObjectCode.byteAt(code, 3));
+    assertEquals(0xba98, (int) ObjectCode.pack(0xfedcba98, 2));
+  }
+
+  @Test
+  void testNone() {
+    assertEquals(0, ObjectCode.length(ObjectCode.NONE));
+    assertNotEquals(ObjectCode.NONE, ObjectCode.packBytes(0));
+  }
+}
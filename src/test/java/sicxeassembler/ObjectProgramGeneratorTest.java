@@ -0,0 +1,55 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sicxeassembler.output.ObjectProgramGenerator;
+
+class ObjectProgramGeneratorTest {
+  @TempDir Path directory;
+
+  @Test
+  void testTextRecordsBreakAtGapsAndWhenFull() throws ParseException {
+    var out = new ByteArrayOutputStream();
+    var generator = new ObjectProgramGenerator(Channels.newChannel(out));
+    var line = SourceLine.parseLine(" LDA #3");
+    generator.initialize("PROG", 0, 0x30);
+    for (int address = 0; address < 33; address += 3) {
+      generator.accept(line, 3, 0, address, true, ObjectCode.packBytes(1, 0, 3), null);
+    }
+    generator.accept(line, 3, 0, 33, false, ObjectCode.NONE, null);
+    generator.accept(line, 3, 0, 36, false, ObjectCode.NONE, ConstantBytes.of(new int[] {0xF1}));
+    generator.addModificationRecord(1, 5);
+    generator.finalizeOutput();
+
+    assertEquals(
+        "HPROG  000000000030\n"
+            + "T0000001E"
+            + "010003".repeat(10)
+            + "\n"
+            + "T00001E03010003\n"
+            + "T00002401F1\n"
+            + "M00000105\n"
+            + "E000000\n",
+        out.toString());
+  }
+
+  @Test
+  void testMatchesSolutions() throws IOException {
+    var assembler = new Assembler(OpTable.loadFromResourceCsv("instructions.csv"));
+    for (String name : new String[] {"literals", "functions"}) {
+      var result = assembler.assemble(Path.of("test-programs/programs", name + ".txt"), directory);
+      assertTrue(result.succeeded(), result.diagnostics().toString());
+      assertEquals(
+          Files.readString(Path.of("test-programs/solutions", name + "_obj.txt")).replace("\r", ""),
+          Files.readString(directory.resolve(name + "_obj.txt")));
+    }
+  }
+}
@@ -3,6 +3,7 @@ package sicxeassembler;
 import static org.junit.jupiter.api.Assertions.*;
 import static sicxeassembler.Operation.op;
 
+import java.text.ParseException;
 import java.util.List;
 import org.junit.jupiter.api.Test;
 
@@ -29,4 +30,61 @@ class OpTableTest {
     assertTrue(result.isPresent());
     assertEquals(op("OP2", 2, Operation.Format.TWO), result.get());
   }
+
+  @Test
+  void testLookupIds() {
+    var table = makeTestTable();
+    int id = table.lookup("OP3");
+    assertTrue(table.isOperation(id));
+    assertEquals(op("OP3", 3, Operation.Format.THREE_FOUR), table.getOperation(id));
+    assertNull(table.getDirective(id));
+
+    int directiveId = table.lookup("LTORG");
+    assertFalse(table.isOperation(directiveId));
+    assertEquals(Directive.LTORG, table.getDirective(directiveId));
+
+    assertEquals(OpTable.UNKNOWN, table.lookup("NOPE"));
+    assertEquals(OpTable.UNKNOWN, table.lookup("OP"));
+    assertEquals(OpTable.UNKNOWN, table.lookup(""));
+    assertEquals(id, table.lookup("xOP3x", 1, 4));
+  }
+
+  @Test
+  void testEveryResourceMnemonicResolves() {
+    var table = OpTable.loadFromResourceCsv("instructions.csv");
+    for (var mnemonic : table.getMap().keySet()) {
+      assertEquals(table.get(mnemonic), table.getOperation(table.lookup(mnemonic)));
+    }
+    for (var directive : Directive.values()) {
+      assertEquals(directive, table.getDirective(table.lookup(directive.name())));
+    }
+  }
+
+  @Test
+  void testRejectsTablesThatCannotBeBuilt() {
+    var directive =
+        assertThrows(
+            IllegalArgumentException.class,
+            () -> new OpTable(List.of(op("END", 1, Operation.Format.ONE))));
+    assertEquals("Operation END has the same name as a directive", directive.getMessage());
+
+    // "Aa" and "BB" have the same string hash, so no seed or size separates them
+    var collision =
+        assertThrows(
+            IllegalArgumentException.class,
+            () ->
+                new OpTable(
+                    List.of(op("Aa", 1, Operation.Format.ONE), op("BB", 2, Operation.Format.ONE))));
+    assertTrue(collision.getMessage().startsWith("Could not give each"), collision.getMessage());
+  }
+
+  @Test
+  void testResolveCachesOnLine() throws ParseException {
+    var table = makeTestTable();
+    var line = SourceLine.parseLine("LABEL +OP3 ARG");
+    int id = table.resolve(line);
+    assertEquals(table.lookup("OP3"), id);
+    line.setOpCode("OP1");
+    assertEquals(table.lookup("OP1"), table.resolve(line));
+  }
 }
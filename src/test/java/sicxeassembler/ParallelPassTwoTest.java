@@ -0,0 +1,120 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.output.OutputGenerator;
+
+class ParallelPassTwoTest {
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+
+  /** Records everything pass two outputs, in order. */
+  private static class Recorder implements OutputGenerator {
+    final List<Object> events = new ArrayList<>();
+
+    @Override
+    public void initialize(String name, int start, int length) {
+      events.add("H " + name + " " + start + " " + length);
+    }
+
+    @Override
+    public void accept(PassTwoData output) {
+      events.add(output);
+    }
+
+    @Override
+    public void addModificationRecord(int address, int size) {
+      events.add("M " + address + " " + size);
+    }
+
+    @Override
+    public void setEntryPoint(int address) {
+      events.add("E " + address);
+    }
+
+    @Override
+    public void finalizeOutput() {
+      events.add("done");
+    }
+  }
+
+  @AfterEach
+  void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Builds a program where every repetition switches the base register, so encoding a chunk with
+   * the wrong base gives different object code.
+   */
+  private static List<SourceLine> program(int repetitions, int badRepetition)
+      throws ParseException {
+    List<String> source = new ArrayList<>();
+    source.add("PROG\tSTART\t0");
+    for (int r = 0; r < repetitions; r++) {
+      source.add("A" + r + "\t+LDB\t#BUF" + r);
+      source.add("\tBASE\tBUF" + r);
+      source.add(String.format("\tLDA\t=X'%04X'", r));
+      source.add("\tSTCH\tBUF" + r + ",X");
+      source.add("\t+JSUB\tA" + r);
+      source.add("\tCLEAR\tX");
+      source.add("\tLTORG");
+      source.add(". padding follows");
+      if (r == badRepetition) {
+        source.add("\tLDA\tNOPE");
+      }
+      source.add("PAD" + r + "\tRESB\t3000");
+      source.add("BUF" + r + "\tRESB\t10");
+      source.add("\tNOBASE");
+      source.add("W" + r + "\tWORD\t" + r);
+    }
+    source.add("\tEND\tA0");
+    List<SourceLine> lines = new ArrayList<>();
+    for (String text : source) {
+      lines.add(SourceLine.parseLine(text));
+    }
+    return lines;
+  }
+
+  private List<Object> run(PassTwo passTwo) {
+    var recorder = new Recorder();
+    passTwo.addOutputGenerator(recorder);
+    try {
+      passTwo.process();
+    } catch (AssemblerException e) {
+      recorder.events.add(e.getMessage());
+    }
+    return recorder.events;
+  }
+
+  private PassOne passOne(List<SourceLine> program) {
+    var passOne = new PassOne(opTable, program);
+    passOne.process();
+    return passOne;
+  }
+
+  @Test
+  void testMatchesSequentialPassTwo() throws ParseException {
+    var passOne = passOne(program(200, -1));
+    var expected = run(new PassTwo(opTable, passOne));
+    for (int chunkSize : new int[] {1, 7, 100, 100000}) {
+      assertEquals(expected, run(new ParallelPassTwo(opTable, passOne, pool, chunkSize)));
+    }
+    assertTrue(expected.contains("done"));
+  }
+
+  @Test
+  void testStopsAtTheSameError() throws ParseException {
+    var passOne = passOne(program(200, 150));
+    var expected = run(new PassTwo(opTable, passOne));
+    assertEquals("Undefined symbol: NOPE", expected.get(expected.size() - 1));
+    assertEquals(expected, run(new ParallelPassTwo(opTable, passOne, pool, 7)));
+  }
+}
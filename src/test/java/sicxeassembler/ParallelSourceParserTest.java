@@ -0,0 +1,136 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ParallelSourceParserTest {
+  private static final String SOURCE =
+      "PROG\tSTART\t0\n"
+          + "\tLDA\t#3\r\n"
+          + "\tLDA\t,X\n"
+          + ". comment\r"
+          + "\r\n"
+          + "LOOP\t+JSUB\tFUNC\n"
+          + "\tCLEAR\t,X\r\n"
+          + "\tSTA\tRESULT\n"
+          + "RESULT\tRESW\t1\n"
+          + "\tEND\tPROG";
+
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+
+  @TempDir Path directory;
+
+  @Test
+  void testMatchesSourceReader() {
+    List<Integer> expectedErrors = new ArrayList<>();
+    List<SourceLine> expected = new ArrayList<>();
+    new SourceReader(
+            new StringReader(SOURCE),
+            opTable,
+            (lineNumber, source, error) -> expectedErrors.add(lineNumber))
+        .forEachRemaining(expected::add);
+    assertEquals(List.of(3, 7), expectedErrors);
+
+    // Chunks of every size from a byte per chunk to the whole text at once
+    byte[] bytes = SOURCE.getBytes(StandardCharsets.UTF_8);
+    for (int chunkBytes = 1; chunkBytes <= bytes.length + 1; chunkBytes++) {
+      List<Integer> errors = new ArrayList<>();
+      var lines =
+          new ParallelSourceParser(opTable, ForkJoinPool.commonPool(), chunkBytes)
+              .parse(ByteBuffer.wrap(bytes), (lineNumber, source, error) -> errors.add(lineNumber));
+      assertEquals(expected, lines, "chunks of " + chunkBytes);
+      assertEquals(expectedErrors, errors, "chunks of " + chunkBytes);
+      assertEquals(expected.get(3).getMnemonicId(), lines.get(3).getMnemonicId());
+      assertNotEquals(SourceLine.UNRESOLVED, lines.get(3).getMnemonicId());
+    }
+  }
+
+  @Test
+  void testStopsAtEnd() {
+    String text =
+        "PROG\tSTART\t0\n"
+            + "M\tMACRO\n"
+            + "\tEND\tPROG\n"
+            + "\tMEND\n"
+            + "\tLDA\t,X\n"
+            + "\tEND\tPROG\n"
+            + "\tLDA\t,X\n"
+            + "AFTER\tRSUB\n";
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    for (int chunkBytes = 1; chunkBytes <= bytes.length + 1; chunkBytes++) {
+      List<Integer> errors = new ArrayList<>();
+      var lines =
+          new ParallelSourceParser(opTable, ForkJoinPool.commonPool(), chunkBytes)
+              .parse(ByteBuffer.wrap(bytes), (lineNumber, source, error) -> errors.add(lineNumber));
+      // The END in the macro definition does not count
+      assertEquals(5, lines.size(), "chunks of " + chunkBytes);
+      assertEquals(List.of(5), errors, "chunks of " + chunkBytes);
+    }
+  }
+
+  @Test
+  void testParsesFile() throws IOException {
+    var source = Path.of("test-programs/programs/functions.txt");
+    var lines =
+        new ParallelSourceParser(opTable, ForkJoinPool.commonPool(), 64)
+            .parse(source, (lineNumber, line, error) -> fail(error));
+    assertEquals(Files.readAllLines(source).size(), lines.size());
+
+    Path empty = Files.createFile(directory.resolve("empty.asm"));
+    assertTrue(
+        new ParallelSourceParser(opTable, ForkJoinPool.commonPool())
+            .parse(empty, (lineNumber, line, error) -> fail(error))
+            .isEmpty());
+  }
+
+  @Test
+  void testReportsBytesThatAreNotUtf8() throws IOException {
+    var out = new ByteArrayOutputStream();
+    out.writeBytes("PROG\tSTART\t0\n. caf".getBytes(StandardCharsets.US_ASCII));
+    out.write(0xE9);
+    out.writeBytes("\n. caf\u00e9 is fine\n\tEND\tPROG\n".getBytes(StandardCharsets.UTF_8));
+    Path source = Files.write(directory.resolve("latin1.asm"), out.toByteArray());
+
+    List<String> expectedErrors = new ArrayList<>();
+    List<SourceLine> expected = new ArrayList<>();
+    try (var reader =
+        SourceReader.open(
+            source,
+            opTable,
+            (lineNumber, line, error) ->
+                expectedErrors.add(lineNumber + " " + error.getMessage() + " " + line))) {
+      reader.forEachRemaining(expected::add);
+    }
+    assertEquals(List.of("2 Not valid UTF-8 . caf\uFFFD"), expectedErrors);
+    assertEquals(3, expected.size());
+
+    for (int chunkBytes = 1; chunkBytes <= out.size() + 1; chunkBytes++) {
+      List<String> errors = new ArrayList<>();
+      var lines =
+          new ParallelSourceParser(opTable, ForkJoinPool.commonPool(), chunkBytes)
+              .parse(
+                  ByteBuffer.wrap(out.toByteArray()),
+                  (lineNumber, line, error) ->
+                      errors.add(lineNumber + " " + error.getMessage() + " " + line));
+      assertEquals(expected, lines, "chunks of " + chunkBytes);
+      assertEquals(expectedErrors, errors, "chunks of " + chunkBytes);
+    }
+
+    var result = new Assembler(opTable).assemble(source, directory);
+    assertTrue(
+        result.diagnostics().get(0).startsWith("latin1.asm:2:error: Not valid UTF-8"),
+        result.diagnostics().toString());
+  }
+}
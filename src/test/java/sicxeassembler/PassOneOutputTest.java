@@ -0,0 +1,58 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PassOneOutputTest {
+  private static PassOneData data(int i) {
+    return new PassOneData(new SourceLine().setOpCode("OP" + i), i % 4, i % 3, i * 3, i % 2 == 0);
+  }
+
+  @Test
+  void testColumnsMatchRecords() {
+    var output = new PassOneOutput();
+    List<PassOneData> expected = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      var data = data(i);
+      output.append(
+          data.line(),
+          data.size(),
+          data.block(),
+          data.addressInBlock(),
+          data.isExecutableInstruction());
+      expected.add(data);
+    }
+    assertEquals(expected, output);
+    assertEquals(3, output.sizeOf(7));
+    assertEquals(1, output.block(7));
+    assertEquals(21, output.addressInBlock(7));
+    assertFalse(output.isExecutableInstruction(7));
+    assertSame(expected.get(7).line(), output.line(7));
+    assertThrows(IndexOutOfBoundsException.class, () -> output.line(200));
+    assertSame(output, PassOneOutput.of(output));
+    assertEquals(expected, PassOneOutput.of(expected));
+  }
+
+  @Test
+  void testSpliceThroughSubList() {
+    List<PassOneData> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      expected.add(data(i));
+    }
+    var output = PassOneOutput.of(new ArrayList<>(expected));
+    List<PassOneData> replacement = List.of(data(1000), data(1001), data(1002));
+    for (List<PassOneData> list : List.of(expected, output)) {
+      var replaced = list.subList(10, 90);
+      replaced.clear();
+      replaced.addAll(replacement);
+      list.set(0, data(2000));
+      list.add(5, data(3000));
+      list.remove(list.size() - 1);
+    }
+    assertEquals(expected, output);
+    assertEquals(23, output.size());
+  }
+}
@@ -0,0 +1,95 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PipelinedSourceReaderTest {
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+
+  @TempDir Path directory;
+
+  @Test
+  void testMatchesSourceReader() throws IOException {
+    // Enough lines for several batches, with bad lines in and between them
+    var text = new StringBuilder("PROG\tSTART\t0\n");
+    for (int i = 0; i < 1000; i++) {
+      text.append(i % 97 == 0 ? "\tLDA\t,X\n" : "\tLDA\t#" + i + "\n");
+    }
+    List<Integer> expectedErrors = new ArrayList<>();
+    List<SourceLine> expected = new ArrayList<>();
+    new SourceReader(
+            new StringReader(text.toString()),
+            opTable,
+            (lineNumber, source, error) -> expectedErrors.add(lineNumber))
+        .forEachRemaining(expected::add);
+
+    List<Integer> errors = new ArrayList<>();
+    List<SourceLine> lines = new ArrayList<>();
+    try (var reader =
+        new PipelinedSourceReader(
+            new StringReader(text.toString()),
+            opTable,
+            (lineNumber, source, error) -> errors.add(lineNumber),
+            1)) {
+      reader.forEachRemaining(lines::add);
+      assertFalse(reader.hasNext());
+    }
+    assertEquals(expected, lines);
+    assertEquals(expectedErrors, errors);
+    assertEquals(11, errors.size());
+  }
+
+  @Test
+  void testStopsAtEnd() throws IOException {
+    List<Integer> errors = new ArrayList<>();
+    List<SourceLine> lines = new ArrayList<>();
+    try (var reader =
+        new PipelinedSourceReader(
+            new StringReader("PROG\tSTART\t0\n\tEND\tPROG\n\tLDA\t,X\n\tLDA\t#3\n"),
+            opTable,
+            (lineNumber, source, error) -> errors.add(lineNumber),
+            PipelinedSourceReader.DEFAULT_CAPACITY)) {
+      reader.forEachRemaining(lines::add);
+    }
+    assertEquals(2, lines.size());
+    assertEquals("END", lines.get(1).getOpCode());
+    assertTrue(errors.isEmpty());
+  }
+
+  @Test
+  void testPipelinedAssemblyMatches() throws IOException {
+    var plain = new Assembler(opTable);
+    var pipelined = new Assembler(opTable, null, true, Assembler.Mode.PIPELINED);
+    Path plainOutput = Files.createDirectory(directory.resolve("plain"));
+    Path pipelinedOutput = Files.createDirectory(directory.resolve("pipelined"));
+    for (String name : List.of("basic", "literals", "prog_blocks", "functions")) {
+      var source = Path.of("test-programs/programs/" + name + ".txt");
+      assertTrue(plain.assemble(source, plainOutput).succeeded());
+      var result = pipelined.assemble(source, pipelinedOutput);
+      assertTrue(result.succeeded(), result.diagnostics().toString());
+      for (String output : List.of(name + "_sol.txt", name + "_obj.txt")) {
+        assertEquals(
+            Files.readString(plainOutput.resolve(output)),
+            Files.readString(pipelinedOutput.resolve(output)),
+            output);
+      }
+      assertEquals(
+          Files.readAllLines(source).size(), result.stats().lines(AssemblyStats.Stage.PARSE));
+    }
+
+    Path bad = directory.resolve("bad.asm");
+    Files.writeString(bad, "PROG\tSTART\t0\n\tLDA\t,X\n\tLDA\tNOWHERE\n\tEND\tPROG\n");
+    var result = pipelined.assemble(bad, pipelinedOutput);
+    assertFalse(result.succeeded());
+    assertEquals(2, result.diagnostics().size());
+    assertTrue(result.diagnostics().get(0).startsWith("bad.asm:2:error:"));
+  }
+}
@@ -0,0 +1,71 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import sicxeassembler.output.ObjectProgramGenerator;
+import sicxeassembler.output.OutputGenerator;
+
+class RecordingOutputGeneratorTest {
+  @Test
+  void testReplaysCallsInOrder() throws ParseException {
+    var recording = new RecordingOutputGenerator(1);
+    write(recording);
+    assertEquals(20, recording.size());
+
+    var replayed = new ByteArrayOutputStream();
+    recording.replay(new ObjectProgramGenerator(Channels.newChannel(replayed)));
+    var direct = new ByteArrayOutputStream();
+    write(new ObjectProgramGenerator(Channels.newChannel(direct)));
+    assertEquals(direct.toString(), replayed.toString());
+    assertTrue(replayed.toString().contains("M00000106+RDREC\n"), replayed.toString());
+  }
+
+  @Test
+  void testKeepsLinesWithoutSourceLine() {
+    var recording = new RecordingOutputGenerator(4);
+    recording.accept(null, 3, 0, 6, true, ObjectCode.packBytes(1, 0, 3), null);
+    recording.addModificationRecord(7, 5);
+    List<String> calls = new ArrayList<>();
+    recording.replay(
+        new OutputGenerator() {
+          @Override
+          public void initialize(String name, int start, int length) {}
+
+          @Override
+          public void accept(PassTwoData output) {
+            calls.add("line " + output.address());
+          }
+
+          @Override
+          public void addModificationRecord(int address, int size) {
+            calls.add("modification " + address);
+          }
+
+          @Override
+          public void finalizeOutput() {}
+        });
+    assertEquals(List.of("line 6", "modification 7"), calls);
+  }
+
+  private static void write(OutputGenerator generator) throws ParseException {
+    var line = SourceLine.parseLine(" LDA #3");
+    generator.initialize("PROG", 0, 0x30);
+    generator.addExternalDefinition("PROG", 0);
+    generator.addExternalReference("RDREC");
+    for (int address = 0; address < 33; address += 3) {
+      generator.accept(line, 3, 0, address, true, ObjectCode.packBytes(1, 0, 3), null);
+    }
+    generator.accept(line, 3, 0, 33, false, ObjectCode.NONE, null);
+    generator.accept(line, 3, 0, 36, false, ObjectCode.NONE, ConstantBytes.of(new int[] {0xF1}));
+    generator.addModificationRecord(1, 5);
+    generator.addModificationRecord(1, 6, "+RDREC");
+    generator.setEntryPoint(0);
+    generator.finalizeOutput();
+  }
+}
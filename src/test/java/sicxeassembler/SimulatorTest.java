@@ -0,0 +1,255 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sicxeassembler.errors.SimulatorException;
+
+class SimulatorTest {
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+  private final Simulator simulator = new Simulator(opTable);
+
+  @TempDir Path directory;
+
+  @Test
+  void testRunsLoop() {
+    var passOne =
+        load(
+            "PROG\tSTART\t0\n"
+                + "FIRST\tCLEAR\tA\n"
+                + "\tCLEAR\tX\n"
+                + "\tLDT\t#100\n"
+                + "LOOP\tTIXR\tT\n"
+                + "\tADDR\tX,A\n"
+                + "\tJLT\tLOOP\n"
+                + "\tSTA\tRESULT\n"
+                + "\tRSUB\n"
+                + "RESULT\tRESW\t1\n"
+                + "\tEND\tFIRST\n");
+    assertEquals(3 + 3 * 100 + 2, simulator.run(1_000_000));
+    assertTrue(simulator.isHalted());
+    assertEquals(5050, simulator.getRegister(Simulator.A));
+    assertEquals(5050, word(passOne.getSymbolTable().get("RESULT").value()));
+  }
+
+  @Test
+  void testAddressingModesAndArithmetic() {
+    var passOne =
+        load(
+            "PROG\tSTART\t100\n"
+                + "FIRST\tLDA\t#3\n"
+                + "\tFLOAT\n"
+                + "\tMULF\tHALF\n"
+                + "\tADDF\tHALF\n"
+                + "\tSTF\tSAVED\n"
+                + "\tLDF\tSAVED\n"
+                + "\tFIX\n"
+                + "\tSTA\tTWO\n"
+                + "\tLDA\t#1\n"
+                + "\tSHIFTL\tA,4\n"
+                + "\tSTA\tSIXTEEN\n"
+                + "\tLDA\tNEG\n"
+                + "\tSHIFTR\tA,2\n"
+                + "\tSTA\tMINUS2\n"
+                + "\tLDA\t#100\n"
+                + "\tDIV\t#7\n"
+                + "\tRMO\tA,X\n"
+                + "\tLDA\t#0\n"
+                + "\tRMO\tX,A\n"
+                + "\t+STA\tFOURTN\n"
+                + "\tLDX\t#3\n"
+                + "\tLDA\tTABLE,X\n"
+                + "\tSTA\tTWENTY\n"
+                + "\tLDA\t@PTR\n"
+                + "\tCOMP\t#10\n"
+                + "\tJEQ\tHALT\n"
+                + "\tSTA\tTWENTY\n"
+                + "HALT\tJ\tHALT\n"
+                + "HALF\tBYTE\tX'400800000000'\n"
+                + "SAVED\tRESB\t6\n"
+                + "NEG\tWORD\t-8\n"
+                + "TWO\tRESW\t1\n"
+                + "SIXTEEN\tRESW\t1\n"
+                + "MINUS2\tRESW\t1\n"
+                + "FOURTN\tRESW\t1\n"
+                + "TWENTY\tRESW\t1\n"
+                + "TABLE\tWORD\t10\n"
+                + "\tWORD\t20\n"
+                + "PTR\tWORD\tTABLE\n"
+                + "\tEND\tFIRST\n");
+    simulator.run(1000);
+    assertTrue(simulator.isHalted());
+    var symbols = passOne.getSymbolTable();
+    assertEquals(2.0, simulator.getF());
+    assertEquals(2, word(symbols.get("TWO").value()));
+    assertEquals(16, word(symbols.get("SIXTEEN").value()));
+    assertEquals(0xFFFFFE, word(symbols.get("MINUS2").value()));
+    assertEquals(14, word(symbols.get("FOURTN").value()));
+    assertEquals(20, word(symbols.get("TWENTY").value()));
+    assertEquals(Simulator.CC_EQUAL, simulator.getRegister(Simulator.SW) & 3);
+  }
+
+  @Test
+  void testRunsLinkedControlSections() throws IOException {
+    var assembler = new Assembler(opTable);
+    var assembled =
+        assembler.assemble(Path.of("test-programs/programs/control_section.txt"), directory);
+    assertTrue(assembled.succeeded(), assembled.diagnostics().toString());
+    var linked =
+        new LinkingLoader(ForkJoinPool.commonPool())
+            .link(List.of(directory.resolve("control_section_obj.txt")), 0x1000);
+    assertTrue(linked.succeeded(), linked.diagnostics().toString());
+    simulator.load(linked);
+
+    byte[] input = "HELLO\0".getBytes();
+    var output = new ByteArrayOutputStream();
+    simulator.setDevice(
+        0xF1,
+        new Simulator.Device() {
+          int next = 0;
+
+          @Override
+          public int read() {
+            return next < input.length ? input[next++] : 0;
+          }
+
+          @Override
+          public void write(int value) {}
+        });
+    simulator.setDevice(
+        0x05,
+        new Simulator.Device() {
+          @Override
+          public int read() {
+            return 0;
+          }
+
+          @Override
+          public void write(int value) {
+            output.write(value);
+          }
+        });
+    simulator.run(1_000_000);
+    assertTrue(simulator.isHalted());
+    assertEquals("HELLOEOF", output.toString());
+  }
+
+  @Test
+  void testDecodeCache() {
+    String loop =
+        "PROG\tSTART\t0\n"
+            + "FIRST\tCLEAR\tX\n"
+            + "LOOP\tLDA\tTABLE,X\n"
+            + "\tSTA\tCOPY,X\n"
+            + "\tTIX\t#30\n"
+            + "\tTIX\t#30\n"
+            + "\tTIX\t#30\n"
+            + "\tJLT\tLOOP\n"
+            + "HALT\tJ\tHALT\n"
+            + "TABLE\tWORD\t1\n"
+            + "\tWORD\t2\n"
+            + "\tWORD\t3\n"
+            + "\tRESW\t7\n"
+            + "COPY\tRESW\t10\n"
+            + "\tEND\tFIRST\n";
+    var passOne = load(loop);
+    assertEquals(1 + 10 * 6 + 1, simulator.run(1000));
+    assertTrue(simulator.isHalted());
+    int copy = passOne.getSymbolTable().get("COPY").value();
+    assertEquals(3, word(copy + 6));
+    var stats = simulator.getCacheStats();
+    // Blocks at FIRST, LOOP and HALT are decoded once, and LOOP is found again 8 times
+    assertEquals(new Simulator.CacheStats(8, 3, 0), stats);
+    assertEquals(8 / 11.0, stats.hitRate());
+
+    // Stopping between the two halves of a pair gives the same state as decoding every instruction
+    load(loop);
+    var decoding = new Simulator(opTable);
+    decoding.setDecodeCacheEnabled(false);
+    System.arraycopy(simulator.getMemory(), 0, decoding.getMemory(), 0, Simulator.MEMORY_SIZE);
+    decoding.setRegister(Simulator.PC, simulator.getRegister(Simulator.PC));
+    while (!simulator.isHalted()) {
+      assertEquals(decoding.run(3), simulator.run(3));
+      assertEquals(decoding.getRegister(Simulator.PC), simulator.getRegister(Simulator.PC));
+      assertEquals(decoding.getRegister(Simulator.X), simulator.getRegister(Simulator.X));
+      assertEquals(decoding.getRegister(Simulator.SW), simulator.getRegister(Simulator.SW));
+    }
+    assertTrue(decoding.isHalted());
+  }
+
+  @Test
+  void testSelfModifyingCode() {
+    // The second time round, LDA #1 has been overwritten with LDA #2
+    load(
+        "PROG\tSTART\t0\n"
+            + "FIRST\tCLEAR\tX\n"
+            + "\tCLEAR\tS\n"
+            + "LOOP\tLDA\t#1\n"
+            + "\tADDR\tA,S\n"
+            + "\tLDA\tNEWOP\n"
+            + "\tSTA\tLOOP\n"
+            + "\tTIX\t#2\n"
+            + "\tJLT\tLOOP\n"
+            + "HALT\tJ\tHALT\n"
+            + "NEWOP\tBYTE\tX'010002'\n"
+            + "\tEND\tFIRST\n");
+    simulator.run(100);
+    assertEquals(3, simulator.getRegister(Simulator.S));
+    assertEquals(2, simulator.getCacheStats().invalidations());
+
+    // A store to the next instruction of the block being run
+    load(
+        "PROG\tSTART\t0\n"
+            + "FIRST\tLDA\tNEWOP\n"
+            + "\tSTA\tNEXT\n"
+            + "NEXT\tLDA\t#1\n"
+            + "HALT\tJ\tHALT\n"
+            + "NEWOP\tBYTE\tX'010005'\n"
+            + "\tEND\tFIRST\n");
+    simulator.run(100);
+    assertEquals(5, simulator.getRegister(Simulator.A));
+
+    // Changes made outside of the program need the cache cleared
+    simulator.getMemory()[8] = 9;
+    simulator.clearDecodeCache();
+    simulator.setRegister(Simulator.PC, 6);
+    simulator.run(100);
+    assertEquals(9, simulator.getRegister(Simulator.A));
+  }
+
+  @Test
+  void testErrors() {
+    simulator.getMemory()[0x200] = (byte) 0xFF;
+    simulator.setRegister(Simulator.PC, 0x200);
+    var invalid = assertThrows(SimulatorException.class, simulator::step);
+    assertEquals(0x200, invalid.getAddress());
+
+    load("P\tSTART\t0\nFIRST\tLDA\t#1\n\tDIV\t#0\n\tEND\tFIRST\n");
+    var division = assertThrows(SimulatorException.class, () -> simulator.run(10));
+    assertEquals(3, division.getAddress());
+  }
+
+  /** Assembles a program into the simulator's memory. */
+  private PassOne load(String text) {
+    var passOne = new PassOne(opTable, new SourceReader(new StringReader(text), opTable, null));
+    passOne.process();
+    var passTwo = new PassTwo(opTable, passOne);
+    passTwo.addOutputGenerator(simulator.loader());
+    passTwo.process();
+    return passOne;
+  }
+
+  private int word(int address) {
+    byte[] memory = simulator.getMemory();
+    return (memory[address] & 0xff) << 16
+        | (memory[address + 1] & 0xff) << 8
+        | memory[address + 2] & 0xff;
+  }
+}
@@ -0,0 +1,91 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import sicxeassembler.errors.AssemblerException;
+import sicxeassembler.output.ObjectProgramGenerator;
+
+class SinglePassAssemblerTest {
+  private final OpTable opTable = OpTable.loadFromResourceCsv("instructions.csv");
+
+  @TempDir Path directory;
+
+  @Test
+  void testMatchesTwoPasses() throws IOException {
+    var twoPass = new Assembler(opTable);
+    var singlePass = new Assembler(opTable, null, true, Assembler.Mode.SINGLE_PASS);
+    Path twoPassOutput = Files.createDirectory(directory.resolve("two"));
+    Path singlePassOutput = Files.createDirectory(directory.resolve("single"));
+    for (String name : List.of("basic", "literals", "prog_blocks", "functions")) {
+      var source = Path.of("test-programs/programs/" + name + ".txt");
+      assertTrue(twoPass.assemble(source, twoPassOutput).succeeded());
+      var result = singlePass.assemble(source, singlePassOutput);
+      assertTrue(result.succeeded(), result.diagnostics().toString());
+      assertEquals(
+          Files.readString(twoPassOutput.resolve(name + "_obj.txt")),
+          Files.readString(singlePassOutput.resolve(name + "_obj.txt")),
+          name);
+      assertFalse(Files.exists(singlePassOutput.resolve(name + "_sol.txt")));
+    }
+  }
+
+  @Test
+  void testForwardReferences() throws IOException {
+    // Forward references within the block, to a later block, to a literal and to a base register
+    String text =
+        "PROG\tSTART\t0\n"
+            + "\tLDA\tNEAR\n"
+            + "\t+JSUB\tLATER\n"
+            + "\tBASE\tFAR\n"
+            + "\tLDT\t=X'05'\n"
+            + "\tLDA\tFAR\n"
+            + "\tUSE\tDATA\n"
+            + "LATER\tWORD\tFAR\n"
+            + "\tUSE\n"
+            + "NEAR\tRESB\t4000\n"
+            + "FAR\tWORD\t3\n"
+            + "\tEND\tPROG\n";
+    assertEquals(assembleTwoPass(text), assembleSinglePass(text));
+  }
+
+  @Test
+  void testErrors() {
+    var undefined =
+        assertThrows(
+            AssemblerException.class,
+            () -> assembleSinglePass("PROG\tSTART\t0\n\tLDA\tNOWHERE\n\tRSUB\n\tEND\tPROG\n"));
+    assertEquals(2, undefined.getLineNumber());
+
+    var absolute =
+        assertThrows(
+            AssemblerException.class,
+            () -> assembleSinglePass("PROG\tSTART\t0\n\tLDA\tSIZE\nSIZE\tEQU\t3\n\tEND\tPROG\n"));
+    assertEquals(2, absolute.getLineNumber());
+  }
+
+  private String assembleTwoPass(String text) throws IOException {
+    Path output = directory.resolve("two_obj.txt");
+    var passOne = new PassOne(opTable, new SourceReader(new StringReader(text), opTable, null));
+    passOne.process();
+    var passTwo = new PassTwo(opTable, passOne);
+    passTwo.addOutputGenerator(new ObjectProgramGenerator(output));
+    passTwo.process();
+    return Files.readString(output);
+  }
+
+  private String assembleSinglePass(String text) throws IOException {
+    Path output = directory.resolve("single_obj.txt");
+    var assembler =
+        new SinglePassAssembler(opTable, new SourceReader(new StringReader(text), opTable, null));
+    assembler.addOutputGenerator(new ObjectProgramGenerator(output));
+    assembler.process();
+    return Files.readString(output);
+  }
+}
@@ -0,0 +1,40 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class SourceReaderTest {
+  @Test
+  void testReadsAllLines() {
+    var reader =
+        new SourceReader(
+            new StringReader("PROG START 0\n LDA #3\r\n. comment\n END PROG"),
+            (lineNumber, source, error) -> fail(error));
+    List<SourceLine> lines = new ArrayList<>();
+    reader.forEachRemaining(lines::add);
+    assertEquals(4, lines.size());
+    assertEquals("PROG", lines.get(0).getLabel());
+    assertEquals("LDA", lines.get(1).getOpCode());
+    assertTrue(lines.get(2).isCommentOrBlank());
+    assertEquals("END", lines.get(3).getOpCode());
+    assertFalse(reader.hasNext());
+  }
+
+  @Test
+  void testBadLinesAreReportedAndSkipped() {
+    List<Integer> errorLines = new ArrayList<>();
+    var reader =
+        new SourceReader(
+            new StringReader(" LDA ONE\nLABEL ADD ,ARG2\n STA TWO"),
+            (lineNumber, source, error) -> errorLines.add(lineNumber));
+    assertEquals("ONE", reader.next().getArgOne());
+    assertEquals("TWO", reader.next().getArgOne());
+    assertFalse(reader.hasNext());
+    assertEquals(List.of(2), errorLines);
+    assertEquals(3, reader.getLineNumber());
+  }
+}
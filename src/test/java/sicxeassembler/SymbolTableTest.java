@@ -0,0 +1,79 @@
+package sicxeassembler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import sicxeassembler.errors.AssemblerException;
+
+class SymbolTableTest {
+  @Test
+  void testPutAndFind() {
+    var table = new SymbolTable();
+    int id = table.put("LOOP", 0x1036, 2, SymbolData.Type.RELATIVE);
+    assertEquals(id, table.find("LOOP"));
+    assertEquals(0x1036, table.value(id));
+    assertEquals(2, table.block(id));
+    assertEquals(SymbolData.Type.RELATIVE, table.type(id));
+    assertEquals(new SymbolData(0x1036, 2, SymbolData.Type.RELATIVE), table.get("LOOP"));
+    assertEquals(0x1036, table.lookup("LOOP"));
+
+    assertEquals(SymbolTable.NOT_FOUND, table.find("LOOP2"));
+    assertNull(table.get("LOOP2"));
+    assertFalse(table.containsKey("LOOP2"));
+    assertThrows(AssemblerException.class, () -> table.lookup("LOOP2"));
+  }
+
+  @Test
+  void testPutReplacesExistingSymbol() {
+    var table = new SymbolTable();
+    int id = table.put("MAX", 1, -1, SymbolData.Type.ABSOLUTE);
+    assertEquals(id, table.put("MAX", 2, -1, SymbolData.Type.ABSOLUTE));
+    assertEquals(1, table.size());
+    assertEquals(2, table.lookup("MAX"));
+  }
+
+  @Test
+  void testFindInsideText() {
+    var table = new SymbolTable();
+    int id = table.put("BUFFER", 0x36, 0, SymbolData.Type.RELATIVE);
+    String line = "\tSTCH\tBUFFER,X";
+    assertEquals(id, table.find(line, 6, 12));
+    assertEquals(SymbolTable.NOT_FOUND, table.find(line, 6, 11));
+  }
+
+  @Test
+  void testManySymbolsKeepInsertionOrder() {
+    var table = new SymbolTable();
+    for (int i = 0; i < 100_000; i++) {
+      table.put("L" + i, i, i % 3, SymbolData.Type.RELATIVE);
+    }
+    assertEquals(100_000, table.size());
+    for (int i = 0; i < 100_000; i++) {
+      int id = table.find("L" + i);
+      assertEquals(i, id);
+      assertEquals(i, table.value(id));
+      assertEquals(i % 3, table.block(id));
+    }
+    List<String> names = new ArrayList<>();
+    table.forEach((name, data) -> names.add(name));
+    assertEquals("L0", names.get(0));
+    assertEquals("L99999", names.get(99_999));
+  }
+
+  @Test
+  void testTruncateRollsBackLaterSymbols() {
+    var table = new SymbolTable();
+    for (int i = 0; i < 1000; i++) {
+      table.put("L" + i, i, 0, SymbolData.Type.RELATIVE);
+    }
+    table.truncate(400);
+    assertEquals(400, table.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i < 400 ? i : SymbolTable.NOT_FOUND, table.find("L" + i));
+    }
+    assertEquals(400, table.put("L999", 7, 0, SymbolData.Type.RELATIVE));
+    assertEquals(7, table.lookup("L999"));
+  }
+}